@@ -0,0 +1,28 @@
+#!/bin/sh
+#
+# Builds the library and the benchmarks into benchmarks/out and runs BenchmarkSuite, or the benchmark named as the first
+# argument, e.g. "benchmarks/run.sh AllocationBenchmark". See README.md.
+#
+# Compiles against the Android SDK in $ANDROID_SDK when set, and against the stand-ins in benchmarks/stubs otherwise.
+# Either way Android is only on the compile classpath: the benchmarks run on the plain JVM.
+#
+# Compiles for Java 7 like the Android build, or for $JAVA_RELEASE when set, for JDKs that can no longer target 7.
+
+set -e
+cd "$(dirname "$0")/.."
+
+OUT=benchmarks/out
+RELEASE=${JAVA_RELEASE:-1.7}
+rm -rf $OUT
+mkdir -p $OUT/classes
+
+if [ -n "$ANDROID_SDK" ]; then
+    ANDROID=$ANDROID_SDK/platforms/android-10/android.jar:$ANDROID_SDK/add-ons/addon-google_apis-google-10/libs/usb.jar
+else
+    mkdir -p $OUT/stubs
+    javac -nowarn -source $RELEASE -target $RELEASE -d $OUT/stubs $(find benchmarks/stubs -name '*.java')
+    ANDROID=$OUT/stubs
+fi
+
+javac -nowarn -source $RELEASE -target $RELEASE -d $OUT/classes -cp $ANDROID $(find src benchmarks/src -name '*.java')
+exec java -cp $OUT/classes com.labs.adk.${1:-BenchmarkSuite}
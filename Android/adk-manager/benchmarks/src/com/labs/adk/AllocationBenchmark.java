@@ -0,0 +1,133 @@
+package com.labs.adk;
+
+import com.labs.adk.sim.AccessorySimulator;
+import com.labs.adk.transport.PipeTransport;
+
+/**
+ * Proves that sending a command allocates nothing once warmed up: encoding into a pooled frame, queueing it and recycling
+ * it once written. <br/>
+ * Measures the sending thread only, which is where allocations turn into GC pauses that make the leds stutter. Exits with
+ * status 1 if any of the send paths allocates
+ *
+ * @author Amir Lazarovich
+ */
+public class AllocationBenchmark {
+    ///////////////////////////////////////////////
+    // Constants
+    ///////////////////////////////////////////////
+    private static final long OPS = 2000000;
+    private static final double MAX_ALLOCATED_PER_OP = 0.01;
+    private static final int POOLED_PER_SIZE = AdkChannel.DEFAULT_SEND_QUEUE_CAPACITY + FrameWriter.MAX_BATCH_FRAMES;
+
+    private static final byte COMMAND = 1;
+    private static final byte ACTION = 2;
+    private static final byte[] DATA = {1};
+
+    ///////////////////////////////////////////////
+    // Public
+    ///////////////////////////////////////////////
+    public static void main(String[] args) throws Exception {
+        Bench.header();
+        System.exit(run() ? 0 : 1);
+    }
+
+    ///////////////////////////////////////////////
+    // Package
+    ///////////////////////////////////////////////
+
+    /**
+     * @return false if any of the send paths allocates
+     */
+    static boolean run() throws Exception {
+        boolean ok = check(encode(false));
+        ok &= check(encode(true));
+        ok &= check(queue());
+        ok &= check(sendCommand());
+        System.out.println(ok ? "PASS: no allocations per send" : "FAIL: a send path allocates");
+        return ok;
+    }
+
+    /**
+     * Encode a command and recycle its frame, as the writer does once the frame was written
+     */
+    static Bench.Result encode(final boolean sequenced) throws Exception {
+        final FrameEncoder encoder = new FrameEncoder(POOLED_PER_SIZE);
+        return Bench.run(sequenced ? "encode+recycle (sequenced)" : "encode+recycle", OPS, new Bench.Op() {
+            @Override
+            public void run(long i) {
+                encoder.recycle(encoder.encode(COMMAND, ACTION, DATA, sequenced));
+            }
+        }).print();
+    }
+
+    /**
+     * Encode, queue, take off the queue and recycle, i.e. the whole send path short of the transport
+     */
+    static Bench.Result queue() throws Exception {
+        final FrameEncoder encoder = new FrameEncoder(POOLED_PER_SIZE);
+        final SendQueue queue = new SendQueue(AdkChannel.DEFAULT_SEND_QUEUE_CAPACITY, OverflowPolicy.BLOCK, encoder);
+        return Bench.run("encode+queue+poll+recycle", OPS, new Bench.Op() {
+            @Override
+            public void run(long i) {
+                queue.offer(encoder.encode(COMMAND, ACTION, DATA, false));
+                encoder.recycle(queue.poll(Integer.MAX_VALUE));
+            }
+        }).print();
+    }
+
+    /**
+     * {@link AdkChannel#sendCommand(byte, byte, byte[])} against a simulated device acking every command
+     */
+    static Bench.Result sendCommand() throws Exception {
+        PipeTransport[] pair = PipeTransport.createPair(PipeTransport.DEFAULT_CAPACITY);
+        AccessorySimulator simulator = new AccessorySimulator(pair[1], null);
+        simulator.start();
+        final AdkChannel channel = new AdkChannel(new NullCallback(), Dispatchers.DIRECT);
+        channel.open(pair[0]);
+        try {
+            return Bench.run("AdkChannel.sendCommand", OPS / 10, new Bench.Op() {
+                @Override
+                public void run(long i) {
+                    // a full queue makes the sender wait on a condition, which allocates. That's back pressure, not
+                    // the send path, so keep the queue from filling up
+                    while (channel.getSendQueueDepth() >= AdkChannel.DEFAULT_SEND_QUEUE_CAPACITY - 1) {
+                        Thread.yield();
+                    }
+
+                    channel.sendCommand(COMMAND, ACTION, DATA);
+                }
+            }).print();
+        } finally {
+            channel.close();
+            simulator.stop();
+        }
+    }
+
+    ///////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////
+    private static boolean check(Bench.Result result) {
+        return result.mAllocatedPerOp >= 0 && result.mAllocatedPerOp < MAX_ALLOCATED_PER_OP;
+    }
+
+    ///////////////////////////////////////////////
+    // Inner classes
+    ///////////////////////////////////////////////
+
+    /**
+     * Ignores everything, so dispatching acks costs as little as possible
+     */
+    static final class NullCallback implements Callback {
+        @Override
+        public void onAckReceived(boolean ack) {
+        }
+
+        @Override
+        public void onConnected() {
+        }
+
+        @Override
+        public void onDisconnected() {
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.labs.adk;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Minimal benchmark harness for the benchmarks in this directory (see README.md). <br/>
+ * Every benchmark warms up first, so the JIT is done by the time anything is measured, and reports one {@link Result}:
+ * throughput, latency percentiles and allocated bytes per operation. <br/>
+ * Cheap operations are timed in batches of {@link #BATCH} and each batch counts as a latency sample of its average, since
+ * timing a single 20 ns operation mostly measures the clock. Operations that are slow enough to time on their own
+ * (a round trip, a dispatch) record their own latency through {@link #latency(String, long[], int, long, long)}
+ *
+ * @author Amir Lazarovich
+ */
+final class Bench {
+    ///////////////////////////////////////////////
+    // Constants
+    ///////////////////////////////////////////////
+    static final int BATCH = 1000;
+    private static final int WARMUP_ROUNDS = 3;
+
+    ///////////////////////////////////////////////
+    // Constructors
+    ///////////////////////////////////////////////
+    private Bench() {
+    }
+
+    ///////////////////////////////////////////////
+    // Package
+    ///////////////////////////////////////////////
+
+    /**
+     * Run <code>op</code> <code>ops</code> times on the calling thread, after warming it up
+     *
+     * @param name
+     * @param ops  Rounded up to a whole number of batches
+     * @param op
+     * @return
+     * @throws Exception Whatever <code>op</code> throws
+     */
+    static Result run(String name, long ops, Op op) throws Exception {
+        long batches = (ops + BATCH - 1) / BATCH;
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            for (long i = 0; i < batches * BATCH; i++) {
+                op.run(i);
+            }
+        }
+
+        long[] samples = new long[(int) batches];
+        long allocated = allocatedBytes();
+        long start = System.nanoTime();
+        long i = 0;
+        for (int batch = 0; batch < batches; batch++) {
+            long batchStart = System.nanoTime();
+            for (int j = 0; j < BATCH; j++) {
+                op.run(i++);
+            }
+
+            samples[batch] = (System.nanoTime() - batchStart) / BATCH;
+        }
+
+        long elapsed = System.nanoTime() - start;
+        return new Result(name, i, elapsed, samples, samples.length, allocatedBytes() - allocated);
+    }
+
+    /**
+     * Build a result out of latencies the benchmark measured itself
+     *
+     * @param name
+     * @param samples        Latency of each operation, in nanoseconds
+     * @param count          Number of valid samples
+     * @param elapsedNanos   How long all operations took together
+     * @param allocatedBytes Bytes allocated meanwhile, see {@link #allocatedBytes()}
+     * @return
+     */
+    static Result latency(String name, long[] samples, int count, long elapsedNanos, long allocatedBytes) {
+        return new Result(name, count, elapsedNanos, samples, count, allocatedBytes);
+    }
+
+    /**
+     * @return Bytes allocated so far by the calling thread, or -1 if the JVM can't tell
+     */
+    static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+
+        return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * @return Bytes allocated so far by every live thread, or -1 if the JVM can't tell. Threads that already ended
+     * are left out, so only compare readings taken while the same threads are running
+     */
+    static long allocatedBytesAllThreads() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+
+        long total = 0;
+        for (long bytes : ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            if (bytes > 0) {
+                total += bytes;
+            }
+        }
+
+        return total;
+    }
+
+    static void header() {
+        System.out.println(String.format(Locale.US, "%-36s %14s %10s %10s %10s %10s %12s",
+                "benchmark", "ops/s", "p50 ns", "p90 ns", "p99 ns", "max ns", "alloc B/op"));
+    }
+
+    ///////////////////////////////////////////////
+    // Inner classes
+    ///////////////////////////////////////////////
+
+    /**
+     * A single operation of a benchmark
+     */
+    interface Op {
+        /**
+         * @param i Index of the operation, for benchmarks that vary their input
+         * @throws Exception
+         */
+        void run(long i) throws Exception;
+    }
+
+    /**
+     * What a benchmark measured
+     */
+    static final class Result {
+        final String mName;
+        final long mOps;
+        final double mOpsPerSecond;
+        final long mP50;
+        final long mP90;
+        final long mP99;
+        final long mMax;
+        final double mAllocatedPerOp;
+
+        Result(String name, long ops, long elapsedNanos, long[] samples, int count, long allocatedBytes) {
+            long[] sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+            mName = name;
+            mOps = ops;
+            mOpsPerSecond = ops * 1e9 / elapsedNanos;
+            mP50 = percentile(sorted, 50);
+            mP90 = percentile(sorted, 90);
+            mP99 = percentile(sorted, 99);
+            mMax = (count == 0) ? -1 : sorted[count - 1];
+            mAllocatedPerOp = (allocatedBytes < 0) ? -1 : (double) allocatedBytes / ops;
+        }
+
+        /**
+         * Print the result as a row under {@link Bench#header()}
+         *
+         * @return this, for chaining
+         */
+        Result print() {
+            System.out.println(String.format(Locale.US, "%-36s %14.0f %10d %10d %10d %10d %12.1f",
+                    mName, mOpsPerSecond, mP50, mP90, mP99, mMax, mAllocatedPerOp));
+            return this;
+        }
+
+        private static long percentile(long[] sorted, double percentile) {
+            if (sorted.length == 0) {
+                return -1;
+            }
+
+            int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.labs.adk;
+
+import com.labs.adk.pattern.PatternTest;
+
+/**
+ * Runs every benchmark in this directory, one after the other, so a release can be compared against the baselines in
+ * README.md in a single run, and then the tests: {@link ConcurrencyStressTest}, {@link FragmentationTest} and
+ * {@link PatternTest}. Exits with status 1 if any benchmark's own check or test failed
+ *
+ * @author Amir Lazarovich
+ */
+public class BenchmarkSuite {
+    ///////////////////////////////////////////////
+    // Public
+    ///////////////////////////////////////////////
+    public static void main(String[] args) throws Exception {
+        boolean ok = true;
+
+        section("EncodeBenchmark");
+        ok &= EncodeBenchmark.run();
+        section("DecodeBenchmark");
+        ok &= DecodeBenchmark.run();
+        section("DispatchBenchmark");
+        ok &= DispatchBenchmark.run();
+        section("RoundTripBenchmark");
+        ok &= RoundTripBenchmark.run();
+        section("IoBenchmark");
+        ok &= IoBenchmark.run();
+        section("ScalingBenchmark");
+        ok &= ScalingBenchmark.run();
+        section("WriterBenchmark");
+        ok &= WriterBenchmark.run();
+        section("LogBenchmark");
+        ok &= LogBenchmark.run();
+        section("SequencerBenchmark");
+        ok &= SequencerBenchmark.run();
+        section("TelemetryBenchmark");
+        ok &= TelemetryBenchmark.run();
+        section("TraceReplayBenchmark");
+        ok &= TraceReplayBenchmark.run();
+        section("AllocationBenchmark");
+        ok &= AllocationBenchmark.run();
+
+        System.out.println();
+        System.out.println("#### ConcurrencyStressTest");
+        ok &= ConcurrencyStressTest.run();
+        System.out.println();
+        System.out.println("#### FragmentationTest");
+        ok &= FragmentationTest.run();
+        System.out.println();
+        System.out.println("#### PatternTest");
+        ok &= PatternTest.run();
+
+        System.out.println();
+        System.out.println(ok ? "PASS" : "FAIL");
+        System.exit(ok ? 0 : 1);
+    }
+
+    ///////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////
+    private static void section(String name) {
+        System.out.println();
+        System.out.println("#### " + name);
+        Bench.header();
+    }
+}
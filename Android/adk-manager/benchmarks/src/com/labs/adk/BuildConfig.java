@@ -0,0 +1,11 @@
+package com.labs.adk;
+
+/**
+ * Stand-in for the BuildConfig the Android build generates, so the library compiles and runs on a plain JVM. <br/>
+ * Benchmarks measure release builds, where {@link com.labs.commons.SLog} is off unless turned on at runtime
+ *
+ * @author Amir Lazarovich
+ */
+public final class BuildConfig {
+    public static final boolean DEBUG = false;
+}
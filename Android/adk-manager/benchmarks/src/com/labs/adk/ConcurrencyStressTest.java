@@ -0,0 +1,523 @@
+package com.labs.adk;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hammers the parts of the send path that many threads share, and checks that nothing is lost, duplicated or reordered:
+ * <ul>
+ * <li>{@link SendQueue} - several producers against the writer: every frame comes out once, in each producer's order</li>
+ * <li>{@link PendingCommands} - a writer registering, a reader acking, ack timeouts and disconnects failing commands, all at
+ * once: every future completes exactly once and the window never overflows or leaks a credit</li>
+ * <li>{@link AdkChannel} - senders racing the connection lifecycle as <code>ADKManager</code> drives it: opening, closing,
+ * the link failing and late closes of an older transport through {@link AdkChannel#close(com.labs.adk.transport.Transport)}.
+ * Every command's future completes and a late close never closes the newer connection</li>
+ * <li>{@link AdkChannel} closed from its own reading or writing thread once the link fails, as <code>ADKManager</code> does:
+ * closing never interrupts the thread it runs on</li>
+ * </ul>
+ * <code>ADKManager</code>'s own state machine needs Android to run, the channel is everything it drives underneath. <br/>
+ * Exits with status 1 if a check fails
+ *
+ * @author Amir Lazarovich
+ */
+public class ConcurrencyStressTest {
+    ///////////////////////////////////////////////
+    // Constants
+    ///////////////////////////////////////////////
+    private static final int PRODUCERS = 4;
+    private static final int FRAMES_PER_PRODUCER = 500000;
+    private static final int COMMANDS = 500000;
+    private static final int WINDOW = 8;
+    private static final long LIFECYCLE_MILLIS = 5000;
+    private static final long COMPLETION_TIMEOUT_MILLIS = 10000;
+
+    private static final byte COMMAND = 1;
+    private static final byte ACTION = 2;
+
+    ///////////////////////////////////////////////
+    // Members
+    ///////////////////////////////////////////////
+    private static final AtomicLong sUncaught = new AtomicLong();
+
+    ///////////////////////////////////////////////
+    // Public
+    ///////////////////////////////////////////////
+    public static void main(String[] args) throws Exception {
+        System.exit(run() ? 0 : 1);
+    }
+
+    ///////////////////////////////////////////////
+    // Package
+    ///////////////////////////////////////////////
+
+    /**
+     * @return false if any check failed
+     */
+    static boolean run() throws Exception {
+        Thread.setDefaultUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+            @Override
+            public void uncaughtException(Thread t, Throwable e) {
+                sUncaught.incrementAndGet();
+                System.out.println("    uncaught in " + t.getName() + ": " + e);
+            }
+        });
+
+        boolean ok = report("SendQueue", sendQueue());
+        ok &= report("PendingCommands", pendingCommands());
+        ok &= report("AdkChannel lifecycle", channelLifecycle());
+        ok &= report("AdkChannel closed by its own link", closeFromLink());
+        ok &= report("uncaught exceptions", sUncaught.get() == 0);
+        System.out.println(ok ? "PASS" : "FAIL");
+        return ok;
+    }
+
+    ///////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////
+    private static boolean report(String name, boolean ok) {
+        System.out.println(String.format(Locale.US, "%-36s %s", name, ok ? "ok" : "FAILED"));
+        return ok;
+    }
+
+    /**
+     * Producers offer numbered frames the way {@link AdkChannel} does, waiting for room while the queue is full, while a
+     * single consumer takes them like the writer
+     */
+    private static boolean sendQueue() throws Exception {
+        final FrameEncoder encoder = new FrameEncoder(AdkChannel.DEFAULT_SEND_QUEUE_CAPACITY + FrameWriter.MAX_BATCH_FRAMES);
+        final SendQueue queue = new SendQueue(AdkChannel.DEFAULT_SEND_QUEUE_CAPACITY, OverflowPolicy.BLOCK, encoder);
+        Thread[] producers = new Thread[PRODUCERS];
+        for (int p = 0; p < PRODUCERS; p++) {
+            final byte producer = (byte) p;
+            producers[p] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < FRAMES_PER_PRODUCER; i++) {
+                            Frame frame = encoder.encode(COMMAND, ACTION, data(producer, i), false);
+                            while (!queue.offer(frame)) {
+                                queue.awaitRoom();
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }, "Producer " + p);
+            producers[p].start();
+        }
+
+        int[] next = new int[PRODUCERS];
+        long violations = 0;
+        int batched = 0;
+        for (long taken = 0; taken < (long) PRODUCERS * FRAMES_PER_PRODUCER; taken++) {
+            // mix blocking takes with the polls the writer batches with
+            Frame frame = (batched++ % 4 == 0) ? queue.take() : queue.poll(Integer.MAX_VALUE);
+            if (frame == null) {
+                frame = queue.take();
+            }
+
+            FrameNumber view = new FrameNumber(frame);
+            if (view.mCounter != next[view.mProducer]) {
+                violations++;
+            }
+
+            next[view.mProducer] = view.mCounter + 1;
+            encoder.recycle(frame);
+        }
+
+        for (Thread producer : producers) {
+            producer.join();
+        }
+
+        boolean ok = violations == 0 && queue.size() == 0;
+        for (int p = 0; p < PRODUCERS; p++) {
+            ok &= next[p] == FRAMES_PER_PRODUCER;
+        }
+
+        if (!ok) {
+            System.out.println("    " + violations + " frames out of order, lost or duplicated, " + queue.size() + " left");
+        }
+
+        return ok;
+    }
+
+    /**
+     * A writer registers commands as the window lets it, a reader acks them in order or by sequence number, and another
+     * thread keeps expiring commands and now and then fails them all like a disconnect
+     */
+    private static boolean pendingCommands() throws Exception {
+        final PendingCommands pending = new PendingCommands(new LinkMetrics());
+        pending.setWindow(WINDOW);
+        final AtomicIntegerArray completions = new AtomicIntegerArray(COMMANDS);
+        final AtomicLong done = new AtomicLong();
+        final AtomicLong overflows = new AtomicLong();
+        final BlockingQueue<Integer> written = new ArrayBlockingQueue<Integer>(PendingCommands.CAPACITY);
+        final long[] end = {Long.MAX_VALUE};
+
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < COMMANDS; i++) {
+                        pending.awaitCredit();
+                        written.put(pending.register(new CountingFuture(completions, i, done), System.nanoTime()));
+                        if (pending.size() > WINDOW) {
+                            overflows.incrementAndGet();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, "Writer");
+
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Random random = new Random(1);
+                try {
+                    for (int i = 0; i < COMMANDS; i++) {
+                        int sequence = written.take();
+                        if (random.nextBoolean()) {
+                            pending.complete(sequence, true, System.nanoTime());
+                        } else {
+                            pending.completeOldest(random.nextInt(10) != 0, System.nanoTime());
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, "Reader");
+
+        Thread timeouts = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Random random = new Random(2);
+                while (done.get() < COMMANDS && System.currentTimeMillis() < end[0]) {
+                    pending.expire(System.nanoTime(), TimeUnit.MICROSECONDS.toNanos(50));
+                    if (random.nextInt(1000) == 0) {
+                        pending.clear(new IOException("Disconnected"));
+                    }
+
+                    if (pending.size() > WINDOW) {
+                        overflows.incrementAndGet();
+                    }
+                }
+            }
+        }, "Timeouts");
+
+        long start = System.currentTimeMillis();
+        end[0] = start + COMPLETION_TIMEOUT_MILLIS * 3;
+        writer.start();
+        reader.start();
+        timeouts.start();
+        writer.join();
+        reader.join();
+        timeouts.join();
+
+        // acks matched to the oldest command may leave later ones to the timeouts, which stopped with the rest
+        pending.expire(System.nanoTime(), 0);
+        boolean ok = done.get() == COMMANDS && overflows.get() == 0 && pending.size() == 0 && pending.hasCredit(WINDOW);
+        for (int i = 0; i < COMMANDS; i++) {
+            ok &= completions.get(i) == 1;
+        }
+
+        if (!ok) {
+            System.out.println("    " + done.get() + " of " + COMMANDS + " done, " + overflows.get() + " window overflows, "
+                    + pending.size() + " still pending");
+        }
+
+        return ok;
+    }
+
+    /**
+     * Senders keep submitting commands while the connection comes and goes. Devices sometimes never ack, so commands also
+     * time out, and a replay buffer carries commands over from one connection to the next
+     */
+    private static boolean channelLifecycle() throws Exception {
+        final AdkChannel channel = new AdkChannel(new AllocationBenchmark.NullCallback(), Dispatchers.DIRECT);
+        channel.setSendWindow(WINDOW);
+        channel.setAckTimeout(20);
+        channel.setReplayBuffer(16, ReplayPolicy.DROP_OLDEST);
+        long end = System.currentTimeMillis() + LIFECYCLE_MILLIS;
+        Outstanding[] outstanding = new Outstanding[PRODUCERS];
+        Thread[] senders = startSenders(channel, end, outstanding);
+
+        Random random = new Random(3);
+        LoopbackDevice previous = null;
+        long cycles = 0;
+        long lateCloses = 0;
+        while (System.currentTimeMillis() < end) {
+            LoopbackDevice device = new LoopbackDevice(null, random.nextInt(4) != 0);
+            channel.open(device);
+            Thread.sleep(random.nextInt(3));
+
+            // an owner that lost a race closes its own, older transport late
+            if (previous != null) {
+                channel.close(previous);
+                if (!channel.isOpen()) {
+                    lateCloses++;
+                }
+            }
+
+            switch (random.nextInt(3)) {
+                case 0:
+                    channel.close();
+                    break;
+
+                case 1:
+                    channel.close(device);
+                    break;
+
+                default:
+                    // the link fails, and the owner notices a bit later
+                    device.close();
+                    Thread.sleep(random.nextInt(2));
+                    channel.close(device);
+                    break;
+            }
+
+            previous = device;
+            cycles++;
+        }
+
+        for (Thread sender : senders) {
+            sender.join();
+        }
+
+        channel.close();
+        channel.clearReplayBuffer();
+        Outstanding total = awaitCompletion(outstanding);
+        System.out.println(String.format(Locale.US, "    %d connections, %d commands, %d acked", cycles, total.mSubmitted,
+                total.mAcked));
+        boolean ok = total.mDone == total.mSubmitted && lateCloses == 0 && !channel.isOpen() && total.mAcked > 0;
+        if (!ok) {
+            System.out.println("    " + (total.mSubmitted - total.mDone) + " commands never completed, " + lateCloses
+                    + " late closes closed a newer connection");
+        }
+
+        return ok;
+    }
+
+    /**
+     * The link fails under the senders, and the channel is closed from the reading or writing thread that noticed, the
+     * way <code>ADKManager</code> closes it from {@link AdkChannel.Listener#onLinkFailed(IOException)}. Closing must not
+     * interrupt that thread: <code>close()</code> goes on to wait for the writer, and mustn't give up on it right away
+     */
+    private static boolean closeFromLink() throws Exception {
+        final AdkChannel channel = new AdkChannel(new AllocationBenchmark.NullCallback(), Dispatchers.DIRECT);
+        channel.setSendWindow(WINDOW);
+        final AtomicLong readerCloses = new AtomicLong();
+        final AtomicLong interrupted = new AtomicLong();
+        long end = System.currentTimeMillis() + LIFECYCLE_MILLIS;
+        Outstanding[] outstanding = new Outstanding[PRODUCERS];
+        Thread[] senders = startSenders(channel, end, outstanding);
+
+        Random random = new Random(4);
+        long cycles = 0;
+        long missed = 0;
+        while (System.currentTimeMillis() < end) {
+            final LoopbackDevice device = new LoopbackDevice(null, true);
+            final CountDownLatch closed = new CountDownLatch(1);
+            channel.setListener(new AdkChannel.Listener() {
+                @Override
+                public void onLinkFailed(IOException e) {
+                    channel.close(device);
+                    if (Thread.currentThread().isInterrupted()) {
+                        interrupted.incrementAndGet();
+                    }
+
+                    if (Thread.currentThread().getName().equals("FrameReader")) {
+                        readerCloses.incrementAndGet();
+                    }
+
+                    closed.countDown();
+                }
+            });
+
+            channel.open(device);
+            Thread.sleep(random.nextInt(3));
+            device.close();
+            if (!closed.await(COMPLETION_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                missed++;
+                channel.close();
+            }
+
+            cycles++;
+        }
+
+        for (Thread sender : senders) {
+            sender.join();
+        }
+
+        Outstanding total = awaitCompletion(outstanding);
+        System.out.println(String.format(Locale.US, "    %d connections, %d closed by the reader, %d commands", cycles,
+                readerCloses.get(), total.mSubmitted));
+        boolean ok = total.mDone == total.mSubmitted && interrupted.get() == 0 && missed == 0 && readerCloses.get() > 0
+                && !channel.isOpen();
+        if (!ok) {
+            System.out.println("    " + (total.mSubmitted - total.mDone) + " commands never completed, " + interrupted.get()
+                    + " closes interrupted their own thread, " + missed + " link failures never reported");
+        }
+
+        return ok;
+    }
+
+    /**
+     * Start a sender per producer, submitting commands through <code>channel</code> until <code>end</code>
+     *
+     * @param channel
+     * @param end         In {@link System#currentTimeMillis()} time
+     * @param outstanding Filled with each sender's commands
+     * @return The sender threads
+     */
+    private static Thread[] startSenders(final AdkChannel channel, final long end, Outstanding[] outstanding) {
+        Thread[] senders = new Thread[outstanding.length];
+        for (int s = 0; s < outstanding.length; s++) {
+            final Outstanding commands = outstanding[s] = new Outstanding();
+            senders[s] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (System.currentTimeMillis() < end) {
+                        commands.add(channel.submitCommand(COMMAND, ACTION, null));
+                    }
+                }
+            }, "Sender " + s);
+            senders[s].start();
+        }
+
+        return senders;
+    }
+
+    /**
+     * Wait for the senders' commands to complete, up to {@link #COMPLETION_TIMEOUT_MILLIS}
+     *
+     * @param outstanding
+     * @return The counts of all senders together
+     */
+    private static Outstanding awaitCompletion(Outstanding[] outstanding) throws InterruptedException {
+        Outstanding total = new Outstanding();
+        long deadline = System.currentTimeMillis() + COMPLETION_TIMEOUT_MILLIS;
+        for (Outstanding commands : outstanding) {
+            while (!commands.collect() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+
+            synchronized (commands) {
+                total.mSubmitted += commands.mSubmitted;
+                total.mDone += commands.mDone;
+                total.mAcked += commands.mAcked;
+            }
+        }
+
+        return total;
+    }
+
+    private static byte[] data(byte producer, int counter) {
+        return new byte[]{producer, (byte) (counter >> 16), (byte) (counter >> 8), (byte) counter};
+    }
+
+    ///////////////////////////////////////////////
+    // Inner classes
+    ///////////////////////////////////////////////
+
+    /**
+     * The producer and counter a frame was encoded with, see {@link #data(byte, int)}
+     */
+    private static final class FrameNumber {
+        final int mProducer;
+        final int mCounter;
+
+        FrameNumber(Frame frame) {
+            int data = FrameEncoder.HEADER_SIZE;
+            mProducer = frame.mBuffer.get(data);
+            mCounter = ((frame.mBuffer.get(data + 1) & 0xFF) << 16) | ((frame.mBuffer.get(data + 2) & 0xFF) << 8)
+                    | (frame.mBuffer.get(data + 3) & 0xFF);
+        }
+    }
+
+    /**
+     * Counts how many times {@link PendingCommands} completed or failed each command's future
+     */
+    private static final class CountingFuture extends CommandFuture {
+        private final AtomicIntegerArray mCompletions;
+        private final int mIndex;
+        private final AtomicLong mDone;
+
+        CountingFuture(AtomicIntegerArray completions, int index, AtomicLong done) {
+            mCompletions = completions;
+            mIndex = index;
+            mDone = done;
+        }
+
+        @Override
+        boolean complete(boolean ack, long roundTripNanos) {
+            count();
+            return super.complete(ack, roundTripNanos);
+        }
+
+        @Override
+        boolean fail(Throwable failure) {
+            count();
+            return super.fail(failure);
+        }
+
+        private void count() {
+            mCompletions.incrementAndGet(mIndex);
+            mDone.incrementAndGet();
+        }
+    }
+
+    /**
+     * One sender's commands that haven't completed yet. Completed ones are counted and dropped as the sender goes, so a
+     * few seconds of commands that fail right away while the connection is down don't pile up
+     */
+    private static final class Outstanding {
+        private final ArrayDeque<CommandFuture> mFutures = new ArrayDeque<CommandFuture>();
+        long mSubmitted;
+        long mDone;
+        long mAcked;
+
+        synchronized void add(CommandFuture future) {
+            mFutures.add(future);
+            mSubmitted++;
+            collect();
+        }
+
+        /**
+         * @return true once every command submitted so far completed
+         */
+        synchronized boolean collect() {
+            while (!mFutures.isEmpty() && mFutures.peek().isDone()) {
+                mDone++;
+                if (isAcked(mFutures.poll())) {
+                    mAcked++;
+                }
+            }
+
+            return mFutures.isEmpty();
+        }
+
+        private static boolean isAcked(CommandFuture future) {
+            try {
+                return future.get();
+            } catch (ExecutionException e) {
+                return false;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+    }
+}
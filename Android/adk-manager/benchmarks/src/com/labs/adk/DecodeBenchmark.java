@@ -0,0 +1,161 @@
+package com.labs.adk;
+
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Decode throughput of {@link FrameDecoder}, in frames per second. <br/>
+ * The device's stream is replayed in reads of a fixed size: 16 KB reads, the size {@link FrameReader} reads into, hold
+ * thousands of messages each, while small reads split messages across reads and exercise the decoder's partial path.
+ * Every message is checked on arrival, so a decoder that loses or misreads messages fails instead of getting faster.
+ *
+ * @author Amir Lazarovich
+ */
+public class DecodeBenchmark {
+    ///////////////////////////////////////////////
+    // Constants
+    ///////////////////////////////////////////////
+    private static final int STREAM_SIZE = 128 * 1024;
+    private static final long BYTES_PER_CASE = 512L * 1024 * 1024;
+
+    ///////////////////////////////////////////////
+    // Public
+    ///////////////////////////////////////////////
+    public static void main(String[] args) throws Exception {
+        Bench.header();
+        System.exit(run() ? 0 : 1);
+    }
+
+    ///////////////////////////////////////////////
+    // Package
+    ///////////////////////////////////////////////
+
+    /**
+     * @return false if a message was lost or misread
+     */
+    static boolean run() throws Exception {
+        boolean failed = false;
+        for (boolean mixed : new boolean[]{false, true}) {
+            for (boolean direct : new boolean[]{false, true}) {
+                for (int readSize : new int[]{16384, 64, 1}) {
+                    failed |= !decode(mixed, direct, readSize);
+                }
+            }
+        }
+
+        if (failed) {
+            System.out.println("FAIL: messages were lost or misread");
+        }
+
+        return !failed;
+    }
+
+    ///////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////
+
+    /**
+     * @return Whether every message was decoded correctly
+     */
+    private static boolean decode(boolean mixed, boolean direct, final int readSize) throws Exception {
+        Stream stream = new Stream(mixed);
+        final ByteBuffer in = direct ? ByteBuffer.allocateDirect(STREAM_SIZE) : ByteBuffer.allocate(STREAM_SIZE);
+        in.put(stream.mBytes);
+        final Checker checker = new Checker();
+        final FrameDecoder decoder = new FrameDecoder(checker);
+        final int reads = STREAM_SIZE / readSize;
+
+        Bench.Result result = Bench.run(String.format(Locale.US, "%s %s %d B reads", mixed ? "mixed" : "acks",
+                direct ? "direct" : "heap", readSize), BYTES_PER_CASE / readSize / 4, new Bench.Op() {
+            @Override
+            public void run(long i) {
+                int offset = (int) (i % reads) * readSize;
+                if (offset == 0) {
+                    // warming up stops wherever it is, maybe in the middle of a message, and measuring starts over
+                    decoder.reset();
+                }
+
+                in.limit(offset + readSize);
+                in.position(offset);
+                decoder.decode(in);
+            }
+        }).print();
+
+        double framesPerRead = (double) stream.mMessages * readSize / STREAM_SIZE;
+        System.out.println(String.format(Locale.US, "    %.1fM frames/s, %.0f MB/s", result.mOpsPerSecond * framesPerRead / 1e6,
+                result.mOpsPerSecond * readSize / (1024 * 1024)));
+        return checker.mErrors == 0 && decoder.getDecodeErrors() == 0 && checker.mMessages > 0;
+    }
+
+    ///////////////////////////////////////////////
+    // Inner classes
+    ///////////////////////////////////////////////
+
+    /**
+     * What the device sends: plain acks only, or a random mix of plain acks, sequenced acks and telemetry samples. <br/>
+     * Sequenced acks count up from 0 and telemetry samples carry <code>channel * 257</code>, so the {@link Checker}
+     * can tell a misread message
+     */
+    private static final class Stream {
+        final byte[] mBytes = new byte[STREAM_SIZE];
+        int mMessages;
+
+        Stream(boolean mixed) {
+            Random random = new Random(42);
+            int position = 0;
+            int sequence = 0;
+            while (position < STREAM_SIZE) {
+                int kind = (mixed && position <= STREAM_SIZE - 4) ? random.nextInt(3) : 0;
+                if (kind == 0) {
+                    mBytes[position++] = FrameDecoder.MSG_ACK;
+                } else if (kind == 1) {
+                    mBytes[position++] = FrameDecoder.MSG_SEQUENCED_ACK;
+                    mBytes[position++] = (byte) sequence++;
+                } else {
+                    int channel = random.nextInt(256);
+                    int value = (channel * 257) & 0xFFFF;
+                    mBytes[position++] = FrameDecoder.MSG_TELEMETRY;
+                    mBytes[position++] = (byte) channel;
+                    mBytes[position++] = (byte) (value >> 8);
+                    mBytes[position++] = (byte) value;
+                }
+
+                mMessages++;
+            }
+        }
+    }
+
+    private static final class Checker implements FrameDecoder.Listener {
+        long mMessages;
+        long mErrors;
+        int mLastSequence = -1;
+
+        @Override
+        public void onAck(boolean ack) {
+            mMessages++;
+            if (!ack) {
+                mErrors++;
+            }
+        }
+
+        @Override
+        public void onSequencedAck(int sequence, boolean ack) {
+            mMessages++;
+            // the stream starts over from 0 every time it's replayed
+            if (!ack || (sequence != mLastSequence + 1 && sequence != 0)) {
+                mErrors++;
+            }
+
+            mLastSequence = sequence;
+        }
+
+        @Override
+        public void onTelemetry(int channel, int value) {
+            mMessages++;
+            if (value != ((channel * 257) & 0xFFFF)) {
+                mErrors++;
+            }
+        }
+    }
+}
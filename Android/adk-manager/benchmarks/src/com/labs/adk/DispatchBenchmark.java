@@ -0,0 +1,199 @@
+package com.labs.adk;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * What each kind of dispatcher adds to an ack on its way from the reading thread to the {@link Callback}. <br/>
+ * The benchmark plays the reading thread: it hands acks to an {@link AckDispatcher} the way {@link FrameReader} does,
+ * one at a time and waiting for each to reach the callback (latency), then in bursts of {@link #BURST} (throughput,
+ * where batching comes in). <br/>
+ * <code>Dispatchers.handler</code> needs an Android looper, so {@link LooperThread} stands in for it: a thread running
+ * posted tasks off a locked queue, one at a time, like <code>android.os.Looper</code>. Allocations count every thread.
+ *
+ * @author Amir Lazarovich
+ */
+public class DispatchBenchmark {
+    ///////////////////////////////////////////////
+    // Constants
+    ///////////////////////////////////////////////
+    private static final int ACKS = 100000;
+    private static final int BURST = 1000;
+
+    ///////////////////////////////////////////////
+    // Public
+    ///////////////////////////////////////////////
+    public static void main(String[] args) throws Exception {
+        Bench.header();
+        run();
+    }
+
+    ///////////////////////////////////////////////
+    // Package
+    ///////////////////////////////////////////////
+    static boolean run() throws Exception {
+        ExecutorService single = Executors.newSingleThreadExecutor();
+        ExecutorService pool = Executors.newCachedThreadPool();
+        LooperThread looper = new LooperThread();
+        looper.start();
+        try {
+            for (boolean burst : new boolean[]{false, true}) {
+                dispatch("direct", Dispatchers.DIRECT, burst);
+                dispatch("single thread executor", single, burst);
+                dispatch("cached thread pool", pool, burst);
+                dispatch("looper stand-in", looper, burst);
+            }
+        } finally {
+            single.shutdown();
+            pool.shutdown();
+            looper.quit();
+        }
+
+        return true;
+    }
+
+    ///////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////
+    private static void dispatch(String name, Executor dispatcher, boolean burst) throws Exception {
+        CountingCallback callback = new CountingCallback();
+        AckDispatcher acks = new AckDispatcher(dispatcher, callback);
+        long[] latencies = new long[burst ? ACKS / BURST : ACKS];
+
+        // once to warm up, once to measure
+        for (int round = 0; round < 2; round++) {
+            long allocated = Bench.allocatedBytesAllThreads();
+            long start = System.nanoTime();
+            if (burst) {
+                for (int i = 0; i < latencies.length; i++) {
+                    long before = System.nanoTime();
+                    for (int j = 0; j < BURST; j++) {
+                        acks.add(AckBatch.NO_SEQUENCE, true);
+                        acks.flush();
+                    }
+
+                    callback.await(BURST);
+                    latencies[i] = (System.nanoTime() - before) / BURST;
+                }
+            } else {
+                for (int i = 0; i < latencies.length; i++) {
+                    long before = System.nanoTime();
+                    acks.add(AckBatch.NO_SEQUENCE, true);
+                    acks.flush();
+                    callback.await(1);
+                    latencies[i] = System.nanoTime() - before;
+                }
+            }
+
+            long elapsed = System.nanoTime() - start;
+            allocated = Bench.allocatedBytesAllThreads() - allocated;
+            if (round == 1) {
+                // a burst's latency sample is its average per ack, and throughput counts acks rather than bursts
+                new Bench.Result(name + (burst ? ", bursts" : ""), ACKS, elapsed, latencies, latencies.length,
+                        allocated).print();
+                System.out.println("    " + callback.mDeliveries + " deliveries for " + callback.mAcks + " acks");
+            }
+
+            callback.reset();
+        }
+    }
+
+    ///////////////////////////////////////////////
+    // Inner classes
+    ///////////////////////////////////////////////
+
+    /**
+     * Counts acks, and how many deliveries brought them
+     */
+    private static final class CountingCallback implements BatchCallback {
+        volatile long mAcks;
+        volatile long mDeliveries;
+        private long mAwaited;
+
+        @Override
+        public void onAcksReceived(AckBatch batch) {
+            mDeliveries++;
+            mAcks += batch.size() + batch.getCoalescedAcks() + batch.getCoalescedNacks();
+        }
+
+        @Override
+        public void onAckReceived(boolean ack) {
+            mAcks++;
+        }
+
+        @Override
+        public void onConnected() {
+        }
+
+        @Override
+        public void onDisconnected() {
+        }
+
+        /**
+         * Wait until <code>count</code> more acks were delivered. Yields rather than spinning so a dispatcher
+         * sharing the core gets to run
+         */
+        void await(int count) {
+            mAwaited += count;
+            while (mAcks < mAwaited) {
+                Thread.yield();
+            }
+        }
+
+        void reset() {
+            mAcks = 0;
+            mDeliveries = 0;
+            mAwaited = 0;
+        }
+    }
+
+    /**
+     * Runs posted tasks one at a time, in order, like a looper thread does
+     */
+    private static final class LooperThread extends Thread implements Executor {
+        private final ArrayDeque<Runnable> mQueue = new ArrayDeque<Runnable>();
+        private boolean mQuit;
+
+        LooperThread() {
+            super("Looper");
+            setDaemon(true);
+        }
+
+        @Override
+        public synchronized void execute(Runnable command) {
+            mQueue.add(command);
+            notify();
+        }
+
+        synchronized void quit() {
+            mQuit = true;
+            notify();
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Runnable next;
+                synchronized (this) {
+                    while (!mQuit && mQueue.isEmpty()) {
+                        try {
+                            wait();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+
+                    if (mQuit) {
+                        return;
+                    }
+
+                    next = mQueue.poll();
+                }
+
+                next.run();
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.labs.adk;
+
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+/**
+ * Cost of turning a command into the bytes written to the device, for data of every size a frame takes. <br/>
+ * {@link FrameEncoder} encodes into pooled frames, from the heap or direct memory. The baseline is what
+ * <code>ADKManager.sendCommand</code> used to do: a fresh buffer per command, copied into.
+ *
+ * @author Amir Lazarovich
+ */
+public class EncodeBenchmark {
+    ///////////////////////////////////////////////
+    // Constants
+    ///////////////////////////////////////////////
+    private static final long OPS = 5000000;
+    private static final int POOLED_PER_SIZE = AdkChannel.DEFAULT_SEND_QUEUE_CAPACITY + FrameWriter.MAX_BATCH_FRAMES;
+    private static final int[] DATA_SIZES = {0, 1, 16, FrameEncoder.maxDataSize(true)};
+
+    private static final byte COMMAND = 1;
+    private static final byte ACTION = 2;
+
+    ///////////////////////////////////////////////
+    // Members
+    ///////////////////////////////////////////////
+    private static ByteBuffer sLastEncoded;
+
+    ///////////////////////////////////////////////
+    // Public
+    ///////////////////////////////////////////////
+    public static void main(String[] args) throws Exception {
+        Bench.header();
+        run();
+    }
+
+    ///////////////////////////////////////////////
+    // Package
+    ///////////////////////////////////////////////
+    static boolean run() throws Exception {
+        for (int size : DATA_SIZES) {
+            final byte[] data = new byte[size];
+            Bench.run(String.format(Locale.US, "allocate per command, %d B", size), OPS, new Bench.Op() {
+                @Override
+                public void run(long i) {
+                    ByteBuffer buffer = ByteBuffer.allocate(FrameEncoder.HEADER_SIZE + data.length);
+                    buffer.put(COMMAND);
+                    buffer.put(ACTION);
+                    buffer.put((byte) data.length);
+                    buffer.put(data);
+                    buffer.flip();
+                    sink(buffer);
+                }
+            }).print();
+
+            encode(data, false, false);
+            encode(data, true, false);
+            encode(data, false, true);
+        }
+
+        return true;
+    }
+
+    ///////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////
+    private static void encode(final byte[] data, final boolean sequenced, boolean direct) throws Exception {
+        final FrameEncoder encoder = new FrameEncoder(POOLED_PER_SIZE);
+        encoder.setDirect(direct);
+        String name = String.format(Locale.US, "encode%s%s, %d B", sequenced ? " sequenced" : "", direct ? " direct" : "",
+                data.length);
+        Bench.run(name, OPS, new Bench.Op() {
+            @Override
+            public void run(long i) {
+                Frame frame = encoder.encode(COMMAND, ACTION, data, sequenced);
+                sink(frame.mBuffer);
+                encoder.recycle(frame);
+            }
+        }).print();
+    }
+
+    /**
+     * Keeps the JIT from optimizing away a buffer nobody reads, or its allocation
+     */
+    private static void sink(ByteBuffer buffer) {
+        sLastEncoded = buffer;
+    }
+}
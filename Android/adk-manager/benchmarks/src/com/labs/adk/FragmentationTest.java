@@ -0,0 +1,301 @@
+package com.labs.adk;
+
+import com.labs.adk.sim.AccessorySimulator;
+import com.labs.adk.transport.PipeTransport;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks fragmented transfers against the limits of the device that puts them back together:
+ * <ul>
+ * <li>{@link Transfer} - a transfer that fits in the device's buffer completes, one longer than the channel's max transfer
+ * size is refused before anything is sent, and one the device nacks fails right away instead of retrying</li>
+ * <li>{@link FragmentReassembler} - fragments out of order, duplicated, lost and sent again, a start for more than it holds
+ * and a start that cuts an unfinished transfer short: every payload comes out once and intact, or not at all</li>
+ * </ul>
+ * The sending end's device is the {@link AccessorySimulator} over a {@link PipeTransport}, which acks and nacks like the
+ * sketch. The receiving end is fed fragments as <code>Transfer</code> lays them out. <br/>
+ * Exits with status 1 if a check fails
+ *
+ * @author Amir Lazarovich
+ */
+public class FragmentationTest {
+    ///////////////////////////////////////////////
+    // Constants
+    ///////////////////////////////////////////////
+    private static final long TIMEOUT_MILLIS = 10000;
+    private static final int IN_FLIGHT = 4;
+
+    private static final int PAYLOAD_SIZE = 200;
+    private static final int ID = 5;
+
+    private static final byte COMMAND = 1;
+    private static final byte ACTION = 2;
+
+    ///////////////////////////////////////////////
+    // Public
+    ///////////////////////////////////////////////
+    public static void main(String[] args) throws Exception {
+        System.exit(run() ? 0 : 1);
+    }
+
+    ///////////////////////////////////////////////
+    // Package
+    ///////////////////////////////////////////////
+
+    /**
+     * @return false if any check failed
+     */
+    static boolean run() throws Exception {
+        boolean ok = report("Transfer that fits", transfer(Transfer.DEFAULT_MAX_PAYLOAD_SIZE, true));
+        ok &= report("Transfer past the max transfer size", refused());
+        ok &= report("Transfer nacked by the device", transfer(Transfer.DEFAULT_MAX_PAYLOAD_SIZE + 1, false));
+        ok &= report("FragmentReassembler out of order", outOfOrder());
+        ok &= report("FragmentReassembler duplicates", duplicates());
+        ok &= report("FragmentReassembler lost and retried", lostAndRetried());
+        ok &= report("FragmentReassembler too long", tooLong());
+        ok &= report("FragmentReassembler cut short", cutShort());
+        System.out.println(ok ? "PASS" : "FAIL");
+        return ok;
+    }
+
+    ///////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////
+    private static boolean report(String name, boolean ok) {
+        System.out.println(String.format(Locale.US, "%-36s %s", name, ok ? "ok" : "FAILED"));
+        return ok;
+    }
+
+    /**
+     * Send <code>length</code> bytes to the simulator, with the channel's max transfer size raised out of the way, so only
+     * the device decides
+     *
+     * @param length
+     * @param fits   Whether the device is expected to take the transfer
+     */
+    private static boolean transfer(int length, boolean fits) throws Exception {
+        PipeTransport[] pair = PipeTransport.createPair(PipeTransport.DEFAULT_CAPACITY);
+        AccessorySimulator simulator = new AccessorySimulator(pair[1], null);
+        simulator.start();
+        AdkChannel channel = new AdkChannel(new AllocationBenchmark.NullCallback(), Dispatchers.DIRECT);
+        channel.setSequencedCommands(true);
+        channel.setSendWindow(IN_FLIGHT);
+        channel.setMaxTransferSize(Transfer.MAX_PAYLOAD_SIZE);
+        channel.open(pair[0]);
+        try {
+            Transfer transfer = channel.startTransfer(COMMAND, ACTION, new byte[length], Transfer.DEFAULT_FRAGMENT_SIZE,
+                    IN_FLIGHT, null);
+            boolean done = transfer.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            boolean ok = done && transfer.isSuccessful() == fits;
+            if (!fits) {
+                // turned down at the start, so neither a retry nor a single data fragment
+                ok &= transfer.getRetries() == 0 && transfer.getFragmentsAcked() == 0;
+            }
+
+            if (!ok) {
+                System.out.println("    " + transfer + (done ? "" : " never ended") + ", failure " + transfer.getFailure());
+            }
+
+            return ok;
+        } finally {
+            channel.close();
+            simulator.stop();
+        }
+    }
+
+    /**
+     * The channel refuses a transfer longer than the device holds without sending it
+     */
+    private static boolean refused() {
+        AdkChannel channel = new AdkChannel(new AllocationBenchmark.NullCallback(), Dispatchers.DIRECT);
+        try {
+            channel.startTransfer(COMMAND, ACTION, new byte[channel.getMaxTransferSize() + 1], Transfer.DEFAULT_FRAGMENT_SIZE,
+                    IN_FLIGHT, null);
+        } catch (IllegalArgumentException e) {
+            return channel.getWrites() == 0;
+        }
+
+        return false;
+    }
+
+    /**
+     * Every fragment arrives once, shuffled
+     */
+    private static boolean outOfOrder() {
+        Received received = new Received();
+        FragmentReassembler reassembler = new FragmentReassembler(received);
+        byte[] payload = payload(PAYLOAD_SIZE, 1);
+        start(reassembler, payload.length);
+        List<Integer> order = indexes(payload.length);
+        Collections.shuffle(order, new Random(1));
+        for (int index : order) {
+            fragment(reassembler, payload, index);
+        }
+
+        return received.check(reassembler, payload, 0, 0);
+    }
+
+    /**
+     * Every fragment arrives twice, the way a fragment whose ack was lost is sent again
+     */
+    private static boolean duplicates() {
+        Received received = new Received();
+        FragmentReassembler reassembler = new FragmentReassembler(received);
+        byte[] payload = payload(PAYLOAD_SIZE, 2);
+        start(reassembler, payload.length);
+        for (int index : indexes(payload.length)) {
+            fragment(reassembler, payload, index);
+            fragment(reassembler, payload, index);
+        }
+
+        // the last one completed the payload, sent again it must not complete another
+        fragment(reassembler, payload, 0);
+        return received.check(reassembler, payload, 0, 0);
+    }
+
+    /**
+     * A fragment goes missing, and nothing comes out until it's sent again
+     */
+    private static boolean lostAndRetried() {
+        Received received = new Received();
+        FragmentReassembler reassembler = new FragmentReassembler(received);
+        byte[] payload = payload(PAYLOAD_SIZE, 3);
+        int lost = 7;
+        start(reassembler, payload.length);
+        for (int index : indexes(payload.length)) {
+            if (index != lost) {
+                fragment(reassembler, payload, index);
+            }
+        }
+
+        boolean ok = received.mPayloads.isEmpty();
+        fragment(reassembler, payload, lost);
+        return ok & received.check(reassembler, payload, 0, 0);
+    }
+
+    /**
+     * A start for more than the reassembler holds is turned down, and its fragments are ignored
+     */
+    private static boolean tooLong() {
+        Received received = new Received();
+        FragmentReassembler reassembler = new FragmentReassembler(received);
+        byte[] payload = payload(Transfer.DEFAULT_MAX_PAYLOAD_SIZE + 1, 4);
+        start(reassembler, payload.length);
+        for (int index : indexes(payload.length)) {
+            fragment(reassembler, payload, index);
+        }
+
+        return received.check(reassembler, null, 0, 1);
+    }
+
+    /**
+     * A transfer is started again halfway, the way the sending end gives up and starts over. What arrived of the first one
+     * is dropped and only the second one comes out
+     */
+    private static boolean cutShort() {
+        Received received = new Received();
+        FragmentReassembler reassembler = new FragmentReassembler(received);
+        byte[] first = payload(PAYLOAD_SIZE, 5);
+        start(reassembler, first.length);
+        List<Integer> indexes = indexes(first.length);
+        for (int index : indexes.subList(0, indexes.size() / 2)) {
+            fragment(reassembler, first, index);
+        }
+
+        byte[] second = payload(PAYLOAD_SIZE, 6);
+        start(reassembler, second.length);
+        for (int index : indexes) {
+            fragment(reassembler, second, index);
+        }
+
+        return received.check(reassembler, second, 1, 0);
+    }
+
+    private static byte[] payload(int length, long seed) {
+        byte[] payload = new byte[length];
+        new Random(seed).nextBytes(payload);
+        return payload;
+    }
+
+    private static List<Integer> indexes(int length) {
+        List<Integer> indexes = new ArrayList<Integer>();
+        for (int i = 0; i * Transfer.DEFAULT_FRAGMENT_SIZE < length; i++) {
+            indexes.add(i);
+        }
+
+        return indexes;
+    }
+
+    /**
+     * Feed a start laid out like {@link Transfer}'s
+     */
+    private static void start(FragmentReassembler reassembler, int length) {
+        byte[] data = {ID, COMMAND, ACTION, (byte) (length >> 8), (byte) length, Transfer.DEFAULT_FRAGMENT_SIZE};
+        reassembler.onMessage(Transfer.COMMAND_FRAGMENT, Transfer.ACTION_FRAGMENT_START, data, 0, data.length);
+    }
+
+    /**
+     * Feed a fragment laid out like {@link Transfer}'s, at an offset as it would be in a read buffer
+     */
+    private static void fragment(FragmentReassembler reassembler, byte[] payload, int index) {
+        int offset = index * Transfer.DEFAULT_FRAGMENT_SIZE;
+        int length = Math.min(Transfer.DEFAULT_FRAGMENT_SIZE, payload.length - offset);
+        byte[] data = new byte[3 + Transfer.DATA_HEADER_SIZE + length];
+        data[3] = ID;
+        data[4] = (byte) (index >> 8);
+        data[5] = (byte) index;
+        System.arraycopy(payload, offset, data, 3 + Transfer.DATA_HEADER_SIZE, length);
+        reassembler.onMessage(Transfer.COMMAND_FRAGMENT, Transfer.ACTION_FRAGMENT_DATA, data, 3,
+                Transfer.DATA_HEADER_SIZE + length);
+    }
+
+    ///////////////////////////////////////////////
+    // Inner classes
+    ///////////////////////////////////////////////
+
+    /**
+     * Keeps every payload put back together
+     */
+    private static final class Received implements FragmentReassembler.Listener {
+        final List<byte[]> mPayloads = new ArrayList<byte[]>();
+        boolean mMisaddressed;
+
+        @Override
+        public void onPayloadReceived(byte command, byte action, byte[] payload) {
+            mMisaddressed |= command != COMMAND || action != ACTION;
+            mPayloads.add(payload);
+        }
+
+        /**
+         * @param reassembler
+         * @param expected    The only payload that should have come out, or null for none
+         * @param dropped     Transfers expected to be dropped halfway
+         * @param rejected    Starts expected to be turned down
+         * @return false if anything else came out
+         */
+        boolean check(FragmentReassembler reassembler, byte[] expected, int dropped, int rejected) {
+            boolean ok = !mMisaddressed && reassembler.getDroppedCount() == dropped
+                    && reassembler.getRejectedCount() == rejected;
+            if (expected == null) {
+                ok &= mPayloads.isEmpty() && reassembler.getCompletedCount() == 0;
+            } else {
+                ok &= mPayloads.size() == 1 && Arrays.equals(mPayloads.get(0), expected)
+                        && reassembler.getCompletedCount() == 1;
+            }
+
+            if (!ok) {
+                System.out.println("    " + mPayloads.size() + " payloads, " + reassembler.getCompletedCount() + " completed, "
+                        + reassembler.getDroppedCount() + " dropped, " + reassembler.getRejectedCount() + " rejected");
+            }
+
+            return ok;
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package com.labs.adk;
+
+import com.labs.adk.transport.StreamTransport;
+import com.labs.adk.transport.Transport;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Locale;
+
+/**
+ * System calls and bytes copied per frame written, for each way of writing to a file descriptor: through a stream, the way
+ * <code>UsbAccessoryTransport</code> does, or through a {@link FileChannel} from heap or direct buffers, the way
+ * <code>UsbAccessoryChannelTransport</code> does. Each with and without batching frames into one write. <br/>
+ * An accessory's file descriptor only exists on Android, so frames go to <code>/dev/null</code> instead, through the same
+ * calls. A {@link LoopbackDevice} acks them. <br/>
+ * Copies are the ones the java side makes: gathering frames into one array for a stream, the JDK copying a heap array
+ * into native memory for a stream write, and the JDK copying a heap buffer into a temporary direct one for a channel
+ * write. Direct buffers written through a channel aren't copied at all.
+ *
+ * @author Amir Lazarovich
+ */
+public class IoBenchmark {
+    ///////////////////////////////////////////////
+    // Constants
+    ///////////////////////////////////////////////
+    private static final long OPS = 500000;
+    private static final int MAX_BATCH_BYTES = 512;
+
+    private static final byte COMMAND = 1;
+    private static final byte ACTION = 2;
+    private static final byte[] DATA = new byte[16];
+
+    ///////////////////////////////////////////////
+    // Public
+    ///////////////////////////////////////////////
+    public static void main(String[] args) throws Exception {
+        Bench.header();
+        run();
+    }
+
+    ///////////////////////////////////////////////
+    // Package
+    ///////////////////////////////////////////////
+    static boolean run() throws Exception {
+        for (boolean batching : new boolean[]{false, true}) {
+            write(new FileDevice(FileDevice.STREAM), batching);
+            write(new FileDevice(FileDevice.CHANNEL_HEAP), batching);
+            write(new FileDevice(FileDevice.CHANNEL_DIRECT), batching);
+        }
+
+        return true;
+    }
+
+    ///////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////
+    private static void write(FileDevice device, boolean batching) throws Exception {
+        final AdkChannel channel = new AdkChannel(new AllocationBenchmark.NullCallback(), Dispatchers.DIRECT);
+        channel.setSendWindow(PendingCommands.CAPACITY);
+        channel.setMaxBatchBytes(batching ? MAX_BATCH_BYTES : 0);
+        channel.open(device);
+        try {
+            Bench.run(device.getName() + (batching ? ", batching" : ""), OPS, new Bench.Op() {
+                @Override
+                public void run(long i) {
+                    channel.sendCommand(COMMAND, ACTION, DATA);
+                }
+            }).print();
+
+            device.awaitFrames(OPS * 4);
+            System.out.println(String.format(Locale.US, "    %.3f syscalls, %.1f bytes copied per %d B frame",
+                    (double) device.mSyscalls / device.mAcks.getFrames(),
+                    (double) device.mCopiedBytes / device.mAcks.getFrames(),
+                    FrameEncoder.HEADER_SIZE + DATA.length));
+        } finally {
+            channel.close();
+        }
+    }
+
+    ///////////////////////////////////////////////
+    // Inner classes
+    ///////////////////////////////////////////////
+
+    /**
+     * Writes frames to <code>/dev/null</code> and acks them through a {@link LoopbackDevice}
+     */
+    private static final class FileDevice implements Transport {
+        static final int STREAM = 0;
+        static final int CHANNEL_HEAP = 1;
+        static final int CHANNEL_DIRECT = 2;
+
+        final int mMode;
+        final LoopbackDevice mAcks;
+        final StreamTransport mStream;
+        final FileChannel mChannel;
+        final int[] mPositions;
+        volatile long mSyscalls;
+        volatile long mCopiedBytes;
+
+        FileDevice(int mode) throws IOException {
+            mMode = mode;
+            mAcks = new LoopbackDevice(null, true);
+            mPositions = new int[FrameWriter.MAX_BATCH_FRAMES];
+            if (mode == STREAM) {
+                OutputStream out = new FilterOutputStream(new FileOutputStream("/dev/null")) {
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        mSyscalls++;
+                        mCopiedBytes += len;
+                        out.write(b, off, len);
+                    }
+                };
+
+                mStream = new StreamTransport(new ByteArrayInputStream(new byte[0]), out) {
+                    @Override
+                    public void close() {
+                    }
+                };
+                mChannel = null;
+            } else {
+                mStream = null;
+                mChannel = new FileOutputStream("/dev/null").getChannel();
+            }
+        }
+
+        String getName() {
+            switch (mMode) {
+                case STREAM:
+                    return "stream";
+                case CHANNEL_HEAP:
+                    return "channel, heap";
+                default:
+                    return "channel, direct";
+            }
+        }
+
+        void awaitFrames(long frames) throws InterruptedException {
+            while (mAcks.getFrames() < frames) {
+                Thread.sleep(1);
+            }
+        }
+
+        @Override
+        public int read(ByteBuffer buffer) throws IOException {
+            return mAcks.read(buffer);
+        }
+
+        @Override
+        public void write(ByteBuffer[] buffers, int offset, int length) throws IOException {
+            int bytes = 0;
+            for (int i = 0; i < length; i++) {
+                mPositions[i] = buffers[offset + i].position();
+                bytes += buffers[offset + i].remaining();
+            }
+
+            if (mMode == STREAM) {
+                if (length > 1) {
+                    // the stream transport gathers several frames into one array first
+                    mCopiedBytes += bytes;
+                }
+
+                mStream.write(buffers, offset, length);
+            } else {
+                if (mMode == CHANNEL_HEAP) {
+                    mCopiedBytes += bytes;
+                }
+
+                int last = offset + length - 1;
+                while (buffers[last].hasRemaining()) {
+                    mSyscalls++;
+                    mChannel.write(buffers, offset, length);
+                }
+            }
+
+            // the frames were written, now let the device see them
+            for (int i = 0; i < length; i++) {
+                buffers[offset + i].position(mPositions[i]);
+            }
+
+            mAcks.write(buffers, offset, length);
+        }
+
+        @Override
+        public boolean prefersDirectBuffers() {
+            return mMode == CHANNEL_DIRECT;
+        }
+
+        @Override
+        public void close() throws IOException {
+            mAcks.close();
+            if (mChannel != null) {
+                mChannel.close();
+            }
+        }
+    }
+}
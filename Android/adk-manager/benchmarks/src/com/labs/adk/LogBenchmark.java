@@ -0,0 +1,107 @@
+package com.labs.adk;
+
+import com.labs.commons.SLog;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Locale;
+
+/**
+ * Cost of a single {@link SLog} call on the logging thread, for the per-frame debug message the writer logs:
+ * while the level filters it out, filtered by a tag level, formatted and written right away, and handed to the
+ * background thread in async mode. <br/>
+ * Off Android, SLog writes to the standard streams, which are pointed at nothing while measuring. Android's
+ * <code>Log</code> costs more than that, so the synchronous numbers are a lower bound.
+ *
+ * @author Amir Lazarovich
+ */
+public class LogBenchmark {
+    ///////////////////////////////////////////////
+    // Constants
+    ///////////////////////////////////////////////
+    private static final long OPS = 2000000;
+    private static final int ASYNC_CAPACITY = 4096;
+    private static final String TAG = "Benchmark";
+    private static final String OTHER_TAG = "Other";
+
+    ///////////////////////////////////////////////
+    // Public
+    ///////////////////////////////////////////////
+    public static void main(String[] args) throws Exception {
+        Bench.header();
+        run();
+    }
+
+    ///////////////////////////////////////////////
+    // Package
+    ///////////////////////////////////////////////
+    static boolean run() throws Exception {
+        PrintStream out = System.out;
+        PrintStream err = System.err;
+        PrintStream nowhere = new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        });
+
+        try {
+            SLog.setLevel(SLog.SILENT);
+            log("disabled", false, nowhere, out);
+
+            SLog.setLevel(OTHER_TAG, SLog.DEBUG);
+            log("disabled, other tag enabled", false, nowhere, out);
+            SLog.clearLevel(OTHER_TAG);
+
+            SLog.setLevel(SLog.DEBUG);
+            log("sync", false, nowhere, out);
+            log("async", true, nowhere, out);
+        } finally {
+            SLog.stopAsync();
+            SLog.setLevel(SLog.SILENT);
+            System.setOut(out);
+            System.setErr(err);
+        }
+
+        return true;
+    }
+
+    ///////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////
+    private static void log(String name, boolean async, PrintStream nowhere, PrintStream out) throws Exception {
+        System.setOut(nowhere);
+        System.setErr(nowhere);
+        if (async) {
+            SLog.startAsync(ASYNC_CAPACITY);
+        }
+
+        Bench.Result result;
+        long dropped = 0;
+        try {
+            result = Bench.run(name, OPS, new Bench.Op() {
+                @Override
+                public void run(long i) {
+                    SLog.d(TAG, "Sending %d frames to ADK device", i);
+                }
+            });
+        } finally {
+            if (async) {
+                // the background thread writes what's left before stopping, and that must not end up on the console
+                dropped = SLog.getDroppedCount();
+                SLog.stopAsync();
+            }
+
+            System.setOut(out);
+        }
+
+        result.print();
+        if (async) {
+            // counted since async mode started, so warming up's messages are in too
+            out.println(String.format(Locale.US, "    %d messages dropped, including while warming up", dropped));
+        }
+    }
+}
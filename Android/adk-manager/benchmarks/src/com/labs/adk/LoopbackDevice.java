@@ -0,0 +1,164 @@
+package com.labs.adk;
+
+import com.labs.adk.transport.Transport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * An ADK device reduced to its acks: every frame written is acked right away, with a sequenced ack for a sequenced frame. <br/>
+ * Unlike the {@link com.labs.adk.sim.AccessorySimulator} it has no 16 byte receive buffer and no loop of its own, so the
+ * benchmarks measure the host side only. Counts writes and frames, and hands every frame to an optional {@link Sink}. <br/>
+ * Nothing is allocated per read or write
+ *
+ * @author Amir Lazarovich
+ */
+final class LoopbackDevice implements Transport {
+    ///////////////////////////////////////////////
+    // Constants
+    ///////////////////////////////////////////////
+    private static final int CAPACITY = 65536;
+
+    ///////////////////////////////////////////////
+    // Members
+    ///////////////////////////////////////////////
+    private final Sink mSink;
+    private final boolean mAcking;
+    private final byte[] mAcks;
+    private int mReadPosition;
+    private int mSize;
+    private boolean mClosed;
+
+    private volatile long mWrites;
+    private volatile long mFrames;
+    private volatile long mBytes;
+
+    ///////////////////////////////////////////////
+    // Constructors
+    ///////////////////////////////////////////////
+
+    /**
+     * @param sink   Sees every frame written. May be null
+     * @param acking false to swallow frames without acking them, for writers that don't wait for acks
+     */
+    LoopbackDevice(Sink sink, boolean acking) {
+        mSink = sink;
+        mAcking = acking;
+        mAcks = new byte[CAPACITY];
+    }
+
+    ///////////////////////////////////////////////
+    // Package
+    ///////////////////////////////////////////////
+    long getWrites() {
+        return mWrites;
+    }
+
+    long getFrames() {
+        return mFrames;
+    }
+
+    long getBytes() {
+        return mBytes;
+    }
+
+    ///////////////////////////////////////////////
+    // Overrides & Implementations
+    ///////////////////////////////////////////////
+    @Override
+    public synchronized int read(ByteBuffer buffer) throws IOException {
+        while (!mClosed && mSize == 0) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while reading");
+            }
+        }
+
+        if (mSize == 0) {
+            return -1;
+        }
+
+        int count = Math.min(buffer.remaining(), mSize);
+        int first = Math.min(count, mAcks.length - mReadPosition);
+        buffer.put(mAcks, mReadPosition, first);
+        buffer.put(mAcks, 0, count - first);
+        mReadPosition = (mReadPosition + count) % mAcks.length;
+        mSize -= count;
+        return count;
+    }
+
+    /**
+     * Every buffer holds a single frame, which is how {@link FrameWriter} writes them
+     */
+    @Override
+    public synchronized void write(ByteBuffer[] buffers, int offset, int length) throws IOException {
+        if (mClosed) {
+            throw new IOException("Device closed");
+        }
+
+        for (int i = offset; i < offset + length; i++) {
+            ByteBuffer frame = buffers[i];
+            int start = frame.position();
+            mBytes += frame.remaining();
+            if (mSink != null) {
+                mSink.onFrame(frame, start);
+            }
+
+            if (mAcking) {
+                byte first = frame.get(start);
+                if ((first & FrameEncoder.FLAG_SEQUENCED) != 0) {
+                    ack(FrameDecoder.MSG_SEQUENCED_ACK);
+                    ack(frame.get(start + FrameEncoder.SEQUENCE_OFFSET));
+                } else {
+                    ack(FrameDecoder.MSG_ACK);
+                }
+            }
+
+            frame.position(frame.limit());
+        }
+
+        mWrites++;
+        mFrames += length;
+        notifyAll();
+    }
+
+    @Override
+    public boolean prefersDirectBuffers() {
+        return false;
+    }
+
+    @Override
+    public synchronized void close() {
+        mClosed = true;
+        notifyAll();
+    }
+
+    ///////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////
+    private void ack(byte value) throws IOException {
+        if (mSize == mAcks.length) {
+            throw new IOException("Nobody reads the acks");
+        }
+
+        mAcks[(mReadPosition + mSize) % mAcks.length] = value;
+        mSize++;
+    }
+
+    ///////////////////////////////////////////////
+    // Inner classes
+    ///////////////////////////////////////////////
+
+    /**
+     * Sees every frame the device receives, on the writing thread
+     */
+    interface Sink {
+        /**
+         * @param frame  Must not be modified
+         * @param offset Where the frame starts in <code>frame</code>
+         */
+        void onFrame(ByteBuffer frame, int offset);
+    }
+}
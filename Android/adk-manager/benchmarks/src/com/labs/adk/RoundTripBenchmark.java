@@ -0,0 +1,129 @@
+package com.labs.adk;
+
+import com.labs.adk.sim.AccessorySimulator;
+import com.labs.adk.transport.PipeTransport;
+import com.labs.adk.transport.Transport;
+
+/**
+ * End to end round trips through {@link AdkChannel#submitCommand(byte, byte, byte[])}: encoding, the send
+ * queue, the writer, the device, the reader, decoding and completing the future. <br/>
+ * The device is either a {@link LoopbackDevice}, acking as the frame is written, or the {@link AccessorySimulator} over a
+ * {@link PipeTransport}, which runs the sketch's loop on a thread of its own. <br/>
+ * One at a time, the latency is what the caller waits in {@link CommandFuture#get()}. Pipelined, {@link #IN_FLIGHT}
+ * commands are submitted before waiting for any, and the latency is each command's {@link CommandFuture#getRoundTripNanos()}.
+ * Allocations count every thread.
+ *
+ * @author Amir Lazarovich
+ */
+public class RoundTripBenchmark {
+    ///////////////////////////////////////////////
+    // Constants
+    ///////////////////////////////////////////////
+    private static final int ROUND_TRIPS = 100000;
+    private static final int IN_FLIGHT = AdkChannel.DEFAULT_SEND_QUEUE_CAPACITY;
+
+    private static final byte COMMAND = 1;
+    private static final byte ACTION = 2;
+    private static final byte[] DATA = {1};
+
+    ///////////////////////////////////////////////
+    // Public
+    ///////////////////////////////////////////////
+    public static void main(String[] args) throws Exception {
+        Bench.header();
+        System.exit(run() ? 0 : 1);
+    }
+
+    ///////////////////////////////////////////////
+    // Package
+    ///////////////////////////////////////////////
+
+    /**
+     * @return false if a command wasn't acked
+     */
+    static boolean run() throws Exception {
+        boolean ok = true;
+        for (boolean pipelined : new boolean[]{false, true}) {
+            for (boolean simulated : new boolean[]{false, true}) {
+                for (boolean sequenced : new boolean[]{false, true}) {
+                    ok &= roundTrips(simulated, sequenced, pipelined);
+                }
+            }
+        }
+
+        if (!ok) {
+            System.out.println("FAIL: a command wasn't acked");
+        }
+
+        return ok;
+    }
+
+    ///////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////
+    private static boolean roundTrips(boolean simulated, boolean sequenced, boolean pipelined) throws Exception {
+        Transport transport;
+        AccessorySimulator simulator = null;
+        if (simulated) {
+            PipeTransport[] pair = PipeTransport.createPair(PipeTransport.DEFAULT_CAPACITY);
+            simulator = new AccessorySimulator(pair[1], null);
+            simulator.start();
+            transport = pair[0];
+        } else {
+            transport = new LoopbackDevice(null, true);
+        }
+
+        AdkChannel channel = new AdkChannel(new AllocationBenchmark.NullCallback(), Dispatchers.DIRECT);
+        channel.setSequencedCommands(sequenced);
+        if (pipelined) {
+            channel.setSendWindow(IN_FLIGHT);
+        }
+
+        channel.open(transport);
+        String name = (simulated ? "simulator" : "loopback") + (sequenced ? " sequenced" : "") +
+                (pipelined ? ", " + IN_FLIGHT + " in flight" : "");
+        long[] latencies = new long[ROUND_TRIPS];
+        CommandFuture[] futures = new CommandFuture[IN_FLIGHT];
+        boolean ok = true;
+        try {
+            // once to warm up, once to measure
+            for (int round = 0; round < 2; round++) {
+                long allocated = Bench.allocatedBytesAllThreads();
+                long start = System.nanoTime();
+                if (pipelined) {
+                    for (int i = 0; i < ROUND_TRIPS; i += IN_FLIGHT) {
+                        for (int j = 0; j < IN_FLIGHT; j++) {
+                            futures[j] = channel.submitCommand(COMMAND, ACTION, DATA);
+                        }
+
+                        for (int j = 0; j < IN_FLIGHT; j++) {
+                            ok &= futures[j].get();
+                            if (i + j < ROUND_TRIPS) {
+                                latencies[i + j] = futures[j].getRoundTripNanos();
+                            }
+                        }
+                    }
+                } else {
+                    for (int i = 0; i < ROUND_TRIPS; i++) {
+                        long before = System.nanoTime();
+                        ok &= channel.submitCommand(COMMAND, ACTION, DATA).get();
+                        latencies[i] = System.nanoTime() - before;
+                    }
+                }
+
+                long elapsed = System.nanoTime() - start;
+                allocated = Bench.allocatedBytesAllThreads() - allocated;
+                if (round == 1) {
+                    Bench.latency(name, latencies, latencies.length, elapsed, allocated).print();
+                }
+            }
+        } finally {
+            channel.close();
+            if (simulator != null) {
+                simulator.stop();
+            }
+        }
+
+        return ok;
+    }
+}
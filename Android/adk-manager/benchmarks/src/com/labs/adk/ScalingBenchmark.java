@@ -0,0 +1,158 @@
+package com.labs.adk;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * How an {@link AdkHub} holds up as the number of devices grows, for each way of running their readers and writers:
+ * threads of each channel's own, a pooled {@link IoScheduler}, and virtual threads
+ * (see {@link IoScheduler#newVirtualThreadScheduler()}) where the JVM has them. <br/>
+ * Every device is a {@link LoopbackDevice}, so the numbers are the host's alone. For each fleet size the benchmark
+ * reports how long attaching a device took and how many threads it added, then broadcasts commands to the whole fleet
+ * until every device acked about {@link #COMMANDS} commands in total. Throughput counts acks, and the latency samples are
+ * the time a broadcast took per device. Allocations count every thread.
+ *
+ * @author Amir Lazarovich
+ */
+public class ScalingBenchmark {
+    ///////////////////////////////////////////////
+    // Constants
+    ///////////////////////////////////////////////
+    private static final int[] FLEET_SIZES = {1, 10, 100, 500};
+    private static final int COMMANDS = 200000;
+    private static final long ACK_TIMEOUT_MILLIS = 30000;
+
+    private static final byte COMMAND = 1;
+    private static final byte ACTION = 2;
+    private static final byte[] DATA = {1};
+
+    private static final int OWN_THREADS = 0;
+    private static final int POOLED = 1;
+    private static final int VIRTUAL = 2;
+
+    ///////////////////////////////////////////////
+    // Public
+    ///////////////////////////////////////////////
+    public static void main(String[] args) throws Exception {
+        Bench.header();
+        System.exit(run() ? 0 : 1);
+    }
+
+    ///////////////////////////////////////////////
+    // Package
+    ///////////////////////////////////////////////
+
+    /**
+     * @return false if a fleet didn't ack every command in time
+     */
+    static boolean run() throws Exception {
+        if (!IoScheduler.newVirtualThreadScheduler().usesVirtualThreads()) {
+            System.out.println("    no virtual threads on this JVM, skipping them");
+        }
+
+        // warm up
+        fleet(OWN_THREADS, 10, false);
+        fleet(POOLED, 10, false);
+
+        boolean ok = true;
+        for (int mode = OWN_THREADS; mode <= VIRTUAL; mode++) {
+            for (int devices : FLEET_SIZES) {
+                ok &= fleet(mode, devices, true);
+            }
+        }
+
+        if (!ok) {
+            System.out.println("FAIL: commands weren't acked in time");
+        }
+
+        return ok;
+    }
+
+    ///////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////
+
+    /**
+     * @return false if the fleet didn't ack every command in time
+     */
+    private static boolean fleet(int mode, int devices, boolean print) throws Exception {
+        IoScheduler scheduler = null;
+        String name = "own threads";
+        if (mode == POOLED) {
+            scheduler = new IoScheduler();
+            name = "pooled";
+        } else if (mode == VIRTUAL) {
+            scheduler = IoScheduler.newVirtualThreadScheduler();
+            if (!scheduler.usesVirtualThreads()) {
+                scheduler.shutdown();
+                return true;
+            }
+
+            name = "virtual threads";
+        }
+
+        final AtomicLong acks = new AtomicLong();
+        AdkHub hub = new AdkHub(new AdkHub.Listener() {
+            @Override
+            public void onAttached(AdkDevice device) {
+            }
+
+            @Override
+            public void onDetached(AdkDevice device, IOException cause) {
+            }
+
+            @Override
+            public void onAckReceived(AdkDevice device, boolean ack) {
+                acks.incrementAndGet();
+            }
+        }, Dispatchers.DIRECT, scheduler);
+
+        boolean ok;
+        try {
+            int threads = Thread.activeCount();
+            long attachStart = System.nanoTime();
+            for (int i = 0; i < devices; i++) {
+                hub.attach(new AccessoryIdentity("Reversim Summit 2013", "leds-dashboard", "serial-" + i),
+                        new LoopbackDevice(null, true));
+            }
+
+            long attachNanos = System.nanoTime() - attachStart;
+            // virtual threads don't show up in the count, and aren't meant to
+            int addedThreads = Thread.activeCount() - threads;
+
+            int rounds = Math.max(1, COMMANDS / devices);
+            long[] latencies = new long[rounds];
+            long allocated = Bench.allocatedBytesAllThreads();
+            long start = System.nanoTime();
+            for (int round = 0; round < rounds; round++) {
+                long before = System.nanoTime();
+                hub.broadcast(COMMAND, ACTION, DATA);
+                latencies[round] = (System.nanoTime() - before) / devices;
+            }
+
+            long expected = (long) rounds * devices;
+            long deadline = System.currentTimeMillis() + ACK_TIMEOUT_MILLIS;
+            while (acks.get() < expected && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+
+            long elapsed = System.nanoTime() - start;
+            allocated = Bench.allocatedBytesAllThreads() - allocated;
+            ok = acks.get() == expected;
+            if (print) {
+                new Bench.Result(String.format(Locale.US, "%s x%d", name, devices), expected, elapsed, latencies, rounds,
+                        allocated).print();
+                System.out.println(String.format(Locale.US, "    %.1f us to attach, %.2f threads per device",
+                        attachNanos / 1e3 / devices, (double) addedThreads / devices));
+            }
+        } finally {
+            hub.shutdown();
+            if (scheduler != null) {
+                scheduler.shutdown();
+            }
+        }
+
+        return ok;
+    }
+}
@@ -0,0 +1,208 @@
+package com.labs.adk;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * How closely a {@link Sequencer} keeps a track's schedule, under each {@link CatchUpPolicy}. A track of a step every
+ * millisecond plays into a sender that records when each step arrives:
+ * <ul>
+ * <li>on schedule - the sender returns right away, so the lateness is the sequencer thread waking up late</li>
+ * <li>stalled - every so often the sender blocks for many steps, the way a full send window blocks
+ * {@link AdkChannel#sendCommand}, and the track falls behind</li>
+ * </ul>
+ * The latency columns are how late each step reached the sender, as measured by the sender. <br/>
+ * Exits with status 1 if a step is sent twice or out of order, CATCH_UP leaves out a step, SKIP loses count of one, the
+ * median step on schedule is more than {@link #MAX_MEDIAN_LATENESS_MILLIS} late, or a stalled track takes too many steps
+ * to get back on schedule
+ *
+ * @author Amir Lazarovich
+ */
+public class SequencerBenchmark {
+    ///////////////////////////////////////////////
+    // Constants
+    ///////////////////////////////////////////////
+    private static final int STEPS = 1000;
+    private static final long STEP_MILLIS = 1;
+    private static final int STALL_EVERY = 100;
+    private static final long STALL_MILLIS = 20;
+    private static final long MAX_MEDIAN_LATENESS_MILLIS = 1;
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    private static final byte COMMAND = 1;
+    private static final byte ACTION = 2;
+
+    ///////////////////////////////////////////////
+    // Public
+    ///////////////////////////////////////////////
+    public static void main(String[] args) throws Exception {
+        Bench.header();
+        System.exit(run() ? 0 : 1);
+    }
+
+    ///////////////////////////////////////////////
+    // Package
+    ///////////////////////////////////////////////
+
+    /**
+     * @return false if a track didn't keep its schedule
+     */
+    static boolean run() throws Exception {
+        // a short play first, so the sequencer and the sender are compiled before measuring
+        play(CatchUpPolicy.CATCH_UP, false, STEPS / 10);
+
+        boolean ok = true;
+        for (boolean stalls : new boolean[]{false, true}) {
+            for (CatchUpPolicy policy : CatchUpPolicy.values()) {
+                ok &= check(policy, stalls, play(policy, stalls, STEPS));
+            }
+        }
+
+        System.out.println(ok ? "PASS: every track kept its schedule" : "FAIL");
+        return ok;
+    }
+
+    ///////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////
+
+    /**
+     * Play a track of <code>steps</code> steps, one every {@link #STEP_MILLIS}, until its last step was sent
+     *
+     * @param policy
+     * @param stalls Whether the sender blocks for {@link #STALL_MILLIS} every {@link #STALL_EVERY} steps
+     * @param steps
+     */
+    private static Sender play(CatchUpPolicy policy, boolean stalls, int steps) throws Exception {
+        Track track = new Track(policy.name(), policy);
+        for (int i = 0; i < steps; i++) {
+            track.addStep(i * STEP_MILLIS, COMMAND, ACTION, new byte[]{(byte) (i >> 8), (byte) i});
+        }
+
+        Sender sender = new Sender(steps, stalls);
+        Sequencer sequencer = new Sequencer(sender);
+        sequencer.start();
+        try {
+            long allocated = Bench.allocatedBytesAllThreads();
+            // give the sequencer thread time to get going, so the first step isn't late because of it
+            sender.mStartNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(10);
+            sequencer.play(track, sender.mStartNanos);
+            long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+            // the track stops playing before its last step is sent, so wait for every step to be counted instead
+            TrackStats stats;
+            while ((stats = track.getStats()).getSent() + stats.getSkipped() + stats.getDropped() < steps
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+
+            sender.mAllocated = Bench.allocatedBytesAllThreads() - allocated;
+            sender.mStats = stats;
+            return sender;
+        } finally {
+            sequencer.shutdown();
+        }
+    }
+
+    /**
+     * Print the track's row and check it
+     */
+    private static boolean check(CatchUpPolicy policy, boolean stalls, Sender sender) {
+        String name = policy + (stalls ? ", sender stalls " + STALL_MILLIS + " ms" : ", on schedule");
+        int count = sender.mCount;
+        long elapsed = (count == 0) ? 1 : sender.mTimes[count - 1] - sender.mStartNanos;
+        boolean ordered = true;
+        for (int i = 1; i < count; i++) {
+            ordered &= sender.mIndexes[i] > sender.mIndexes[i - 1];
+        }
+
+        long[] lateness = new long[count];
+        for (int i = 0; i < count; i++) {
+            lateness[i] = sender.mTimes[i] - deadline(sender, sender.mIndexes[i]);
+        }
+
+        int behind = longestBehind(lateness, count);
+        TrackStats stats = sender.mStats;
+        Bench.Result result = Bench.latency(name, lateness, count, elapsed, sender.mAllocated).print();
+        System.out.println(String.format(Locale.US, "    %d sent, %d skipped, at most %d steps in a row behind schedule",
+                stats.getSent(), stats.getSkipped(), behind));
+
+        boolean ok = count > 0 && ordered && stats.getSent() == count && stats.getDropped() == 0
+                && stats.getSent() + stats.getSkipped() == STEPS && sender.mIndexes[count - 1] == STEPS - 1;
+        if (policy == CatchUpPolicy.CATCH_UP) {
+            ok &= stats.getSkipped() == 0;
+        }
+
+        if (!stalls) {
+            ok &= result.mP50 <= TimeUnit.MILLISECONDS.toNanos(MAX_MEDIAN_LATENESS_MILLIS);
+        } else if (policy == CatchUpPolicy.SKIP) {
+            // the first step after a stall is the latest one due, and already back on schedule
+            ok &= stats.getSkipped() > 0 && behind <= 2;
+        } else {
+            // every step due during a stall goes out back to back right after it
+            ok &= behind <= 2 * STALL_MILLIS / STEP_MILLIS + 2;
+        }
+
+        return ok;
+    }
+
+    private static long deadline(Sender sender, int index) {
+        return sender.mStartNanos + TimeUnit.MILLISECONDS.toNanos(index * STEP_MILLIS);
+    }
+
+    /**
+     * @return The longest run of steps sent a whole step or more late
+     */
+    private static int longestBehind(long[] lateness, int count) {
+        long step = TimeUnit.MILLISECONDS.toNanos(STEP_MILLIS);
+        int longest = 0;
+        int run = 0;
+        for (int i = 0; i < count; i++) {
+            run = (lateness[i] >= step) ? run + 1 : 0;
+            longest = Math.max(longest, run);
+        }
+
+        return longest;
+    }
+
+    ///////////////////////////////////////////////
+    // Inner classes
+    ///////////////////////////////////////////////
+
+    /**
+     * Records which step arrived when. Only the sequencer thread calls it
+     */
+    private static final class Sender implements CommandSender {
+        final int[] mIndexes;
+        final long[] mTimes;
+        final boolean mStalls;
+        volatile int mCount;
+        volatile long mStartNanos;
+        long mAllocated;
+        TrackStats mStats;
+
+        Sender(int steps, boolean stalls) {
+            mIndexes = new int[steps];
+            mTimes = new long[steps];
+            mStalls = stalls;
+        }
+
+        @Override
+        public boolean sendCommand(byte command, byte action, byte[] data) {
+            long now = System.nanoTime();
+            int index = ((data[0] & 0xFF) << 8) | (data[1] & 0xFF);
+            int count = mCount;
+            if (count < mTimes.length) {
+                mIndexes[count] = index;
+                mTimes[count] = now;
+                mCount = count + 1;
+            }
+
+            if (mStalls && index % STALL_EVERY == STALL_EVERY / 2) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(STALL_MILLIS));
+            }
+
+            return true;
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package com.labs.adk;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link TelemetryStore} throughput: recording a sample on the reading thread, and each kind of query over a full ring.
+ * Then queries racing a writer that laps a small ring many times over, where every copy is checked to be a run of
+ * consecutive samples, as the seqlock promises. <br/>
+ * Exits with status 1 if recording or a query allocates (all but {@link TelemetryStore#downsample}, which allocates a
+ * count per bucket), or a query mixes up old and new samples
+ *
+ * @author Amir Lazarovich
+ */
+public class TelemetryBenchmark {
+    ///////////////////////////////////////////////
+    // Constants
+    ///////////////////////////////////////////////
+    private static final long OPS = 2000000;
+    private static final long QUERY_OPS = 20000;
+    private static final int CHANNEL = 3;
+    private static final int COPIED = 256;
+    private static final int BUCKETS = 64;
+    private static final int RACING_CAPACITY = 64;
+    private static final long WINDOW_NANOS = TimeUnit.HOURS.toNanos(1);
+    private static final double MAX_ALLOCATED_PER_OP = 1;
+
+    ///////////////////////////////////////////////
+    // Public
+    ///////////////////////////////////////////////
+    public static void main(String[] args) throws Exception {
+        Bench.header();
+        System.exit(run() ? 0 : 1);
+    }
+
+    ///////////////////////////////////////////////
+    // Package
+    ///////////////////////////////////////////////
+    static boolean run() throws Exception {
+        boolean ok = check(record());
+        TelemetryStore store = full(TelemetryStore.DEFAULT_CAPACITY);
+        ok &= check(getLatest(store));
+        ok &= check(getSamples(store));
+        ok &= check(query(store));
+        downsample(store);
+        ok &= racing(false);
+        ok &= racing(true);
+        System.out.println(ok ? "PASS: no allocations, no torn windows" : "FAIL");
+        return ok;
+    }
+
+    ///////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////
+    private static boolean check(Bench.Result result) {
+        return result.mAllocatedPerOp >= 0 && result.mAllocatedPerOp < MAX_ALLOCATED_PER_OP;
+    }
+
+    /**
+     * @return A store whose channel holds a whole ring of samples, a few microseconds apart
+     */
+    private static TelemetryStore full(int capacity) {
+        TelemetryStore store = new TelemetryStore(capacity);
+        long now = System.nanoTime();
+        for (int i = 0; i < capacity; i++) {
+            store.record(CHANNEL, i, now - TimeUnit.MICROSECONDS.toNanos(5 * (capacity - i)));
+        }
+
+        return store;
+    }
+
+    /**
+     * One sample after the other, as the reading thread records a burst of telemetry
+     */
+    private static Bench.Result record() throws Exception {
+        final TelemetryStore store = new TelemetryStore(TelemetryStore.DEFAULT_CAPACITY);
+        final long now = System.nanoTime();
+        return Bench.run("record", OPS, new Bench.Op() {
+            @Override
+            public void run(long i) {
+                store.record(CHANNEL, (int) i, now + i * 1000);
+            }
+        }).print();
+    }
+
+    private static Bench.Result getLatest(final TelemetryStore store) throws Exception {
+        final int[] sink = new int[1];
+        return Bench.run("getLatest", OPS, new Bench.Op() {
+            @Override
+            public void run(long i) {
+                sink[0] += store.getLatest(CHANNEL);
+            }
+        }).print();
+    }
+
+    private static Bench.Result getSamples(final TelemetryStore store) throws Exception {
+        final int[] values = new int[COPIED];
+        final long[] times = new long[COPIED];
+        return Bench.run("getSamples " + COPIED, QUERY_OPS * 10, new Bench.Op() {
+            @Override
+            public void run(long i) {
+                store.getSamples(CHANNEL, values, times);
+            }
+        }).print();
+    }
+
+    private static Bench.Result query(final TelemetryStore store) throws Exception {
+        final TelemetryWindow window = new TelemetryWindow();
+        return Bench.run("query " + store.getCapacity() + ", reused window", QUERY_OPS, new Bench.Op() {
+            @Override
+            public void run(long i) {
+                store.query(CHANNEL, WINDOW_NANOS, window);
+            }
+        }).print();
+    }
+
+    private static Bench.Result downsample(final TelemetryStore store) throws Exception {
+        final float[] means = new float[BUCKETS];
+        final int[] mins = new int[BUCKETS];
+        final int[] maxs = new int[BUCKETS];
+        return Bench.run("downsample " + store.getCapacity() + " to " + BUCKETS, QUERY_OPS, new Bench.Op() {
+            @Override
+            public void run(long i) {
+                store.downsample(CHANNEL, WINDOW_NANOS, means, mins, maxs);
+            }
+        }).print();
+    }
+
+    /**
+     * A writer records as fast as it can into a small ring, while this thread copies or queries the whole ring. The values
+     * count up, so a copy is intact only if each value follows the one before it, and a window only if its values are as
+     * far apart as it has samples
+     *
+     * @param query Whether to query rather than copy
+     */
+    private static boolean racing(final boolean query) throws Exception {
+        final TelemetryStore store = new TelemetryStore(RACING_CAPACITY);
+        final long[] recorded = new long[1];
+        final boolean[] stop = new boolean[1];
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                int value = 0;
+                while (!stopped(stop)) {
+                    // a whole burst to the same microsecond, as a fast burst or a coarse clock leaves it, so the ring
+                    // is lapped by samples no newer than the ones they overwrite
+                    long now = System.nanoTime();
+                    for (int i = 0; i < Bench.BATCH; i++) {
+                        store.record(CHANNEL, value++ & 0xFFFF, now);
+                    }
+                }
+
+                recorded[0] = value;
+            }
+        }, "Telemetry writer");
+
+        final int[] values = new int[RACING_CAPACITY];
+        final long[] times = new long[RACING_CAPACITY];
+        final TelemetryWindow window = new TelemetryWindow();
+        final long[] torn = new long[1];
+        final long[] partial = new long[1];
+        String name = (query ? "query " : "getSamples ") + RACING_CAPACITY + ", racing the writer";
+        writer.start();
+        Bench.Result result;
+        try {
+            result = Bench.run(name, QUERY_OPS * 10, new Bench.Op() {
+                @Override
+                public void run(long i) {
+                    if (query) {
+                        store.query(CHANNEL, WINDOW_NANOS, window);
+                        int count = window.getCount();
+                        int range = window.getMax() - window.getMin() + 1;
+                        if (count < RACING_CAPACITY) {
+                            partial[0]++;
+                        }
+
+                        // a window across the wrap of the 16 bit values spans nearly all of them
+                        if (count > 0 && range != count && range < 0x10000 - RACING_CAPACITY) {
+                            torn[0]++;
+                        }
+
+                        return;
+                    }
+
+                    int copied = store.getSamples(CHANNEL, values, times);
+                    if (copied < RACING_CAPACITY) {
+                        partial[0]++;
+                    }
+
+                    for (int k = 1; k < copied; k++) {
+                        if (values[k] != ((values[k - 1] + 1) & 0xFFFF) || times[k] < times[k - 1]) {
+                            torn[0]++;
+                            break;
+                        }
+                    }
+                }
+            }).print();
+        } finally {
+            synchronized (stop) {
+                stop[0] = true;
+            }
+
+            writer.join();
+        }
+
+        System.out.println(String.format(Locale.US, "    %d samples recorded meanwhile, %d cut short by the writer, %d torn",
+                recorded[0], partial[0], torn[0]));
+        return check(result) && torn[0] == 0;
+    }
+
+    private static boolean stopped(boolean[] stop) {
+        synchronized (stop) {
+            return stop[0];
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package com.labs.adk;
+
+import com.labs.adk.sim.AccessorySimulator;
+import com.labs.adk.trace.TraceReader;
+import com.labs.adk.trace.TraceRecorder;
+import com.labs.adk.trace.TraceReplayer;
+import com.labs.adk.transport.PipeTransport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How faithfully a trace plays back. An {@link AdkChannel} sends bursts of commands to the {@link AccessorySimulator}, which
+ * streams telemetry back, while {@link AdkChannel#setTraceRecorder(TraceRecorder)} records the link. Then a
+ * {@link TraceReplayer} plays the trace back:
+ * <ul>
+ * <li>outbound, into a fresh simulator, at the original timing and back to back: the simulator must get the very same
+ * messages, in the same order</li>
+ * <li>inbound, into a fresh channel at the original timing: the channel must store the very same telemetry</li>
+ * </ul>
+ * The latency columns are how far each message arrived from where it arrived in the recording, once the replay is lined
+ * up with the recording. Back to back has no timing to keep, only throughput. <br/>
+ * Exits with status 1 if a replay lost, added or changed a message, or is more than {@link #MAX_MEDIAN_DRIFT_MILLIS} off
+ * for the median message
+ *
+ * @author Amir Lazarovich
+ */
+public class TraceReplayBenchmark {
+    ///////////////////////////////////////////////
+    // Constants
+    ///////////////////////////////////////////////
+    private static final int BURSTS = 500;
+    private static final int MAX_BURST = 4;
+    private static final int MAX_PAUSE_MILLIS = 3;
+    private static final int MAX_MESSAGES = BURSTS * MAX_BURST + 1;
+    private static final int TRACE_CAPACITY = 1 << 22;
+    private static final int TELEMETRY_CHANNEL = 2;
+    private static final long TIMEOUT_MILLIS = 10000;
+    private static final long MAX_MEDIAN_DRIFT_MILLIS = 2;
+
+    private static final byte COMMAND = 1;
+    private static final byte ACTION = 2;
+
+    ///////////////////////////////////////////////
+    // Public
+    ///////////////////////////////////////////////
+    public static void main(String[] args) throws Exception {
+        Bench.header();
+        System.exit(run() ? 0 : 1);
+    }
+
+    ///////////////////////////////////////////////
+    // Package
+    ///////////////////////////////////////////////
+
+    /**
+     * @return false if a replay wasn't faithful
+     */
+    static boolean run() throws Exception {
+        File file = File.createTempFile("adk", ".trace");
+        file.deleteOnExit();
+        Messages original = new Messages();
+        int[] telemetry = new int[BURSTS];
+        long[] telemetryTimes = new long[BURSTS];
+        int samples = record(file, original, telemetry, telemetryTimes);
+
+        TraceReader reader = new TraceReader(file);
+        boolean ok;
+        try {
+            System.out.println(String.format(Locale.US, "    recorded %d messages and %d telemetry samples", original.mCount,
+                    samples));
+            ok = outbound(reader, 1, original);
+            ok &= outbound(reader, 0, original);
+            ok &= inbound(reader, Arrays.copyOf(telemetry, samples), Arrays.copyOf(telemetryTimes, samples));
+        } finally {
+            reader.close();
+            file.delete();
+        }
+
+        System.out.println(ok ? "PASS: every replay was faithful" : "FAIL: a replay lost or changed a message, or drifted");
+        return ok;
+    }
+
+    ///////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////
+
+    /**
+     * Send bursts of numbered commands with random pauses in between, and a telemetry sample from the device after each burst
+     *
+     * @return Number of telemetry samples the channel stored, copied into <code>values</code> and <code>timesNanos</code>
+     */
+    private static int record(File file, Messages received, int[] values, long[] timesNanos) throws Exception {
+        TraceRecorder recorder = new TraceRecorder(file, TRACE_CAPACITY);
+        PipeTransport[] pair = PipeTransport.createPair(PipeTransport.DEFAULT_CAPACITY);
+        AccessorySimulator device = new AccessorySimulator(pair[1], received);
+        device.start();
+        AdkChannel channel = new AdkChannel(new AllocationBenchmark.NullCallback(), Dispatchers.DIRECT);
+        channel.setTraceRecorder(recorder);
+        channel.setTelemetrySubscribed(true);
+        channel.open(pair[0]);
+        try {
+            Random random = new Random(1);
+            int sent = 0;
+            for (int burst = 0; burst < BURSTS; burst++) {
+                for (int i = random.nextInt(MAX_BURST); i >= 0; i--) {
+                    channel.sendCommand(COMMAND, ACTION, numbered(sent++));
+                }
+
+                device.sendTelemetry(TELEMETRY_CHANNEL, burst);
+                Thread.sleep(random.nextInt(MAX_PAUSE_MILLIS + 1));
+            }
+
+            // the subscription is a message of its own
+            received.await(sent + 1);
+            // the last acks and samples are still on their way back
+            Thread.sleep(100);
+            channel.setTraceRecorder(null);
+            if (recorder.getDroppedCount() > 0) {
+                throw new IllegalStateException(recorder.getDroppedCount() + " records didn't fit in the trace");
+            }
+
+            return channel.getTelemetry().getSamples(TELEMETRY_CHANNEL, values, timesNanos);
+        } finally {
+            recorder.close();
+            channel.close();
+            device.stop();
+        }
+    }
+
+    /**
+     * Replay what the channel wrote into a fresh simulator
+     *
+     * @param speed    See {@link TraceReplayer#setSpeed(double)}
+     * @param original What the simulator got while recording
+     */
+    private static boolean outbound(TraceReader reader, double speed, Messages original) throws Exception {
+        PipeTransport[] pair = PipeTransport.createPair(PipeTransport.DEFAULT_CAPACITY);
+        Messages replayed = new Messages();
+        AccessorySimulator device = new AccessorySimulator(pair[1], replayed);
+        device.start();
+        TraceReplayer replayer = new TraceReplayer(reader, TraceRecorder.OUTBOUND, pair[0]);
+        replayer.setSpeed(speed);
+        try {
+            long allocated = Bench.allocatedBytes();
+            long start = System.nanoTime();
+            replayer.replay();
+            replayed.await(original.mCount);
+            long elapsed = System.nanoTime() - start;
+            allocated = Bench.allocatedBytes() - allocated;
+
+            String name = "outbound, " + ((speed == 0) ? "back to back" : "original timing");
+            return check(name, original.matches(replayed), speed == 0 ? null : drift(original.mTimes, replayed.mTimes,
+                    replayed.mCount), replayed.mCount, elapsed, allocated);
+        } finally {
+            pair[0].close();
+            device.stop();
+        }
+    }
+
+    /**
+     * Replay what the device sent into a fresh channel, at the original timing
+     *
+     * @param values     The telemetry the channel stored while recording
+     * @param timesNanos When each sample arrived while recording
+     */
+    private static boolean inbound(TraceReader reader, int[] values, long[] timesNanos) throws Exception {
+        PipeTransport[] pair = PipeTransport.createPair(PipeTransport.DEFAULT_CAPACITY);
+        AdkChannel channel = new AdkChannel(new AllocationBenchmark.NullCallback(), Dispatchers.DIRECT);
+        channel.open(pair[0]);
+        TraceReplayer replayer = new TraceReplayer(reader, TraceRecorder.INBOUND, pair[1]);
+        try {
+            long allocated = Bench.allocatedBytes();
+            long start = System.nanoTime();
+            replayer.replay();
+            TelemetryStore telemetry = channel.getTelemetry();
+            long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+            while (telemetry.getCount(TELEMETRY_CHANNEL) < values.length && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+
+            long elapsed = System.nanoTime() - start;
+            allocated = Bench.allocatedBytes() - allocated;
+            int[] replayedValues = new int[values.length + 1];
+            long[] replayedTimes = new long[values.length + 1];
+            int count = telemetry.getSamples(TELEMETRY_CHANNEL, replayedValues, replayedTimes);
+            boolean same = count == values.length && Arrays.equals(Arrays.copyOf(replayedValues, count), values);
+            return check("inbound telemetry, original timing", same, drift(timesNanos, replayedTimes, count), count, elapsed,
+                    allocated);
+        } finally {
+            pair[1].close();
+            channel.close();
+        }
+    }
+
+    /**
+     * @return How far each of the first <code>count</code> replayed times is from the original, once the replay is shifted
+     * by its median offset from the recording. Shifting by the first message's offset instead would count a late first
+     * message against every message after it
+     */
+    private static long[] drift(long[] original, long[] replayed, int count) {
+        long[] drift = new long[count];
+        for (int i = 0; i < count; i++) {
+            drift[i] = replayed[i] - original[i];
+        }
+
+        long[] sorted = Arrays.copyOf(drift, count);
+        Arrays.sort(sorted);
+        long offset = (count == 0) ? 0 : sorted[count / 2];
+        for (int i = 0; i < count; i++) {
+            drift[i] = Math.abs(drift[i] - offset);
+        }
+
+        return drift;
+    }
+
+    /**
+     * Print the replay's row and check it
+     *
+     * @param drift Each message's drift, or null if the replay didn't keep the timing
+     */
+    private static boolean check(String name, boolean same, long[] drift, int count, long elapsedNanos, long allocated) {
+        // every message counts as an operation, even without a drift
+        Bench.Result result = new Bench.Result(name, count, elapsedNanos, (drift == null) ? new long[0] : drift,
+                (drift == null) ? 0 : count, allocated).print();
+        boolean ok = same && (drift == null || result.mP50 <= TimeUnit.MILLISECONDS.toNanos(MAX_MEDIAN_DRIFT_MILLIS));
+        if (!same) {
+            System.out.println("    the replay got " + count + " messages, not the recorded ones");
+        }
+
+        return ok;
+    }
+
+    /**
+     * @return 4 bytes of <code>n</code>, so every command's data is different
+     */
+    private static byte[] numbered(int n) {
+        return new byte[]{(byte) (n >> 24), (byte) (n >> 16), (byte) (n >> 8), (byte) n};
+    }
+
+    ///////////////////////////////////////////////
+    // Inner classes
+    ///////////////////////////////////////////////
+
+    /**
+     * Every message a simulator handled, as its command, action, length and data, and when it was handled
+     */
+    private static final class Messages implements AccessorySimulator.Listener {
+        final ByteArrayOutputStream mBytes = new ByteArrayOutputStream();
+        final long[] mTimes = new long[MAX_MESSAGES];
+        volatile int mCount;
+
+        @Override
+        public synchronized void onMessageReceived(int command, int action, int dataLength, byte[] buffer, int dataOffset) {
+            if (mCount < mTimes.length) {
+                mTimes[mCount] = System.nanoTime();
+            }
+
+            mBytes.write(command);
+            mBytes.write(action);
+            mBytes.write(dataLength);
+            mBytes.write(buffer, dataOffset, dataLength);
+            mCount++;
+            notifyAll();
+        }
+
+        /**
+         * Wait until <code>count</code> messages were handled, or the timeout
+         */
+        synchronized void await(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+            long left;
+            while (mCount < count && (left = deadline - System.currentTimeMillis()) > 0) {
+                wait(left);
+            }
+        }
+
+        synchronized boolean matches(Messages other) {
+            return mCount == other.mCount && Arrays.equals(mBytes.toByteArray(), other.mBytes.toByteArray());
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package com.labs.adk;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Throughput of the send pipeline with several threads sending at once: the single ordered writer
+ * ({@link SendQueue} + {@link FrameWriter}, through {@link AdkChannel#sendCommand(byte, byte, byte[])}) against the cached
+ * thread pool <code>ADKManager</code> used to write through, a task and a buffer per command. <br/>
+ * Every sender numbers its commands, and the device checks they arrive in order. Throughput counts from the first send
+ * until the device received the last command. Latency is how long each <code>sendCommand</code> call took.
+ * Allocations count every thread.
+ *
+ * @author Amir Lazarovich
+ */
+public class WriterBenchmark {
+    ///////////////////////////////////////////////
+    // Constants
+    ///////////////////////////////////////////////
+    private static final int COMMANDS_PER_SENDER = 200000;
+    private static final byte COMMAND = 1;
+    private static final byte ACTION = 1;
+
+    ///////////////////////////////////////////////
+    // Public
+    ///////////////////////////////////////////////
+    public static void main(String[] args) throws Exception {
+        Bench.header();
+        System.exit(run() ? 0 : 1);
+    }
+
+    ///////////////////////////////////////////////
+    // Package
+    ///////////////////////////////////////////////
+
+    /**
+     * @return false if {@link AdkChannel} delivered a sender's commands out of order. The cached pool always does
+     */
+    static boolean run() throws Exception {
+        boolean ordered = true;
+        for (int senders : new int[]{1, 4}) {
+            // once to warm up, once to measure
+            cachedPool(senders, false);
+            cachedPool(senders, true);
+            channel(senders, AdkChannel.DEFAULT_SEND_WINDOW, 0, false);
+            ordered &= channel(senders, AdkChannel.DEFAULT_SEND_WINDOW, 0, true);
+            ordered &= channel(senders, PendingCommands.CAPACITY, 512, true);
+        }
+
+        if (!ordered) {
+            System.out.println("FAIL: AdkChannel reordered commands");
+        }
+
+        return ordered;
+    }
+
+    ///////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////
+
+    /**
+     * The way <code>ADKManager.sendCommand</code> used to write: a task per command on a cached thread pool, each
+     * allocating its own buffer and writing it on its own
+     */
+    private static void cachedPool(int senders, boolean print) throws Exception {
+        final OrderCheck order = new OrderCheck(senders);
+        final LoopbackDevice device = new LoopbackDevice(order, false);
+        final ExecutorService pool = Executors.newCachedThreadPool();
+        Sender sender = new Sender() {
+            @Override
+            public void send(final byte[] data) {
+                pool.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        ByteBuffer buffer = ByteBuffer.allocate(3 + data.length);
+                        buffer.put(COMMAND);
+                        buffer.put(ACTION);
+                        buffer.put((byte) data.length);
+                        buffer.put(data);
+                        buffer.flip();
+                        try {
+                            device.write(new ByteBuffer[]{buffer}, 0, 1);
+                        } catch (IOException e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                });
+            }
+        };
+
+        try {
+            run("cached pool x" + senders, senders, sender, order, print);
+        } finally {
+            pool.shutdown();
+            device.close();
+        }
+    }
+
+    /**
+     * Through {@link AdkChannel}, with a device acking every command right away
+     *
+     * @return Whether the device got every sender's commands in order
+     */
+    private static boolean channel(int senders, int window, int maxBatchBytes, boolean print) throws Exception {
+        OrderCheck order = new OrderCheck(senders);
+        LoopbackDevice device = new LoopbackDevice(order, true);
+        final AdkChannel channel = new AdkChannel(new AllocationBenchmark.NullCallback(), Dispatchers.DIRECT);
+        channel.setSendWindow(window);
+        channel.setMaxBatchBytes(maxBatchBytes);
+        channel.open(device);
+        Sender sender = new Sender() {
+            @Override
+            public void send(byte[] data) {
+                channel.sendCommand(COMMAND, ACTION, data);
+            }
+        };
+
+        String name = "window " + window + ((maxBatchBytes > 0) ? " batching" : "") + " x" + senders;
+        try {
+            run(name, senders, sender, order, print);
+            if (print) {
+                System.out.println(String.format(Locale.US, "    %.3f writes per frame", (double) device.getWrites() / device.getFrames()));
+            }
+
+            return order.mReordered.get() == 0;
+        } finally {
+            channel.close();
+        }
+    }
+
+    private static void run(String name, int senders, final Sender sender, OrderCheck order, boolean print)
+            throws Exception {
+        final long[] latencies = new long[senders * COMMANDS_PER_SENDER];
+        final CountDownLatch start = new CountDownLatch(1);
+        // senders stay alive until their allocations were counted: dead threads drop out of the count
+        final CountDownLatch measured = new CountDownLatch(1);
+        Thread[] threads = new Thread[senders];
+        for (int s = 0; s < senders; s++) {
+            final int id = s;
+            threads[s] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    // a fresh array per command holding the sender's id and counter: the cached pool reads it later
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+
+                    for (int i = 0; i < COMMANDS_PER_SENDER; i++) {
+                        byte[] data = {(byte) id, (byte) (i >> 16), (byte) (i >> 8), (byte) i};
+                        long before = System.nanoTime();
+                        sender.send(data);
+                        latencies[id * COMMANDS_PER_SENDER + i] = System.nanoTime() - before;
+                    }
+
+                    try {
+                        measured.await();
+                    } catch (InterruptedException ignore) {
+                        // done anyway
+                    }
+                }
+            });
+            threads[s].start();
+        }
+
+        long allocated = Bench.allocatedBytesAllThreads();
+        long begin = System.nanoTime();
+        start.countDown();
+        order.await(senders * (long) COMMANDS_PER_SENDER);
+        long elapsed = System.nanoTime() - begin;
+        allocated = Bench.allocatedBytesAllThreads() - allocated;
+        measured.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        if (print) {
+            Bench.latency(name, latencies, latencies.length, elapsed, allocated).print();
+            System.out.println("    " + order.mReordered.get() + " commands out of order");
+        }
+    }
+
+    ///////////////////////////////////////////////
+    // Inner classes
+    ///////////////////////////////////////////////
+    private interface Sender {
+        void send(byte[] data);
+    }
+
+    /**
+     * Counts commands that arrived before an earlier one of the same sender
+     */
+    private static final class OrderCheck implements LoopbackDevice.Sink {
+        final int[] mLast;
+        final AtomicLong mReceived = new AtomicLong();
+        final AtomicLong mReordered = new AtomicLong();
+
+        OrderCheck(int senders) {
+            mLast = new int[senders];
+            for (int i = 0; i < senders; i++) {
+                mLast[i] = -1;
+            }
+        }
+
+        @Override
+        public void onFrame(ByteBuffer frame, int offset) {
+            int data = offset + FrameEncoder.HEADER_SIZE;
+            int sender = frame.get(data);
+            int counter = ((frame.get(data + 1) & 0xFF) << 16) | ((frame.get(data + 2) & 0xFF) << 8) | (frame.get(data + 3) & 0xFF);
+            if (counter < mLast[sender]) {
+                mReordered.incrementAndGet();
+            }
+
+            mLast[sender] = Math.max(mLast[sender], counter);
+            mReceived.incrementAndGet();
+        }
+
+        void await(long count) throws InterruptedException {
+            while (mReceived.get() < count) {
+                Thread.sleep(1);
+            }
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package com.labs.adk.pattern;
+
+import java.util.Locale;
+
+/**
+ * Checks that a compiled pattern plays on the device exactly as the host renders it, through
+ * {@link PatternInterpreter#verify(Pattern, int, int)}:
+ * <ul>
+ * <li>every pattern in {@link Patterns}, for a few led counts</li>
+ * <li>loops nested {@link Op#MAX_LOOPS} deep, and refused one deeper</li>
+ * <li>a forever loop, cut off after the max number of frames without ending</li>
+ * <li>the register wrapping around past 255 and below 0</li>
+ * <li>leds the device doesn't have, which are ignored</li>
+ * </ul>
+ * In the pattern package so it can reach {@link Op}. <br/>
+ * Exits with status 1 if a check fails
+ *
+ * @author Amir Lazarovich
+ */
+public class PatternTest {
+    ///////////////////////////////////////////////
+    // Constants
+    ///////////////////////////////////////////////
+    private static final int LED_COUNT = 8;
+    private static final int FRAMES = 2000;
+
+    ///////////////////////////////////////////////
+    // Public
+    ///////////////////////////////////////////////
+    public static void main(String[] args) {
+        System.exit(run() ? 0 : 1);
+    }
+
+    /**
+     * @return false if any check failed
+     */
+    public static boolean run() {
+        boolean ok = report("Patterns", patterns());
+        ok &= report("Loops nested " + Op.MAX_LOOPS + " deep", nestedLoops());
+        ok &= report("Forever capped by max frames", forever());
+        ok &= report("Register wrap around", wrapAround());
+        ok &= report("Leds past the led count", missingLeds());
+        System.out.println(ok ? "PASS" : "FAIL");
+        return ok;
+    }
+
+    ///////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////
+    private static boolean report(String name, boolean ok) {
+        System.out.println(String.format(Locale.US, "%-36s %s", name, ok ? "ok" : "FAILED"));
+        return ok;
+    }
+
+    /**
+     * @return false, after printing why, if the compiled pattern doesn't play like the rendered one
+     */
+    private static boolean verify(String name, Pattern pattern, int ledCount, int frames) {
+        try {
+            PatternInterpreter.verify(pattern, ledCount, frames);
+            return true;
+        } catch (RuntimeException e) {
+            System.out.println("    " + name + " on " + ledCount + " leds: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * @return Number of frames the compiled pattern played, or -1, after printing why, if the interpreter threw
+     */
+    private static int play(String name, PatternInterpreter interpreter, int frames) {
+        try {
+            return interpreter.run(frames, new NullOutput());
+        } catch (RuntimeException e) {
+            System.out.println("    " + name + ": " + e.getMessage());
+            return -1;
+        }
+    }
+
+    private static boolean patterns() {
+        boolean ok = true;
+        // an odd count leaves inOut a middle led of its own, and a single led leaves bounce nowhere to go
+        for (int ledCount : new int[]{1, 7, LED_COUNT}) {
+            ok &= verify("blink", Patterns.blink(250), ledCount, FRAMES);
+            ok &= verify("bounce", Patterns.bounce(ledCount, 100), ledCount, FRAMES);
+            ok &= verify("inOut", Patterns.inOut(ledCount, 100), ledCount, FRAMES);
+            ok &= verify("fade", Patterns.fade(5, 20), ledCount, FRAMES);
+            ok &= verify("fade by 1", Patterns.fade(1, 20), ledCount, FRAMES);
+        }
+
+        return ok;
+    }
+
+    /**
+     * Loops nested as deep as the device goes, each a different count, and a program that ends after them. Verifying for
+     * more frames than it has also checks that the device stops where the host does
+     */
+    private static boolean nestedLoops() {
+        int[] counts = {2, 3, 4, 5};
+        Pattern pattern = new Pattern();
+        int frames = 1;
+        for (int depth = 0; depth < Op.MAX_LOOPS; depth++) {
+            pattern.on(depth).repeat(counts[depth % counts.length]);
+            frames *= counts[depth % counts.length];
+        }
+
+        pattern.add(1).setFromRegister(LED_COUNT - 1).delay(10);
+        for (int depth = 0; depth < Op.MAX_LOOPS; depth++) {
+            pattern.end().off(depth);
+        }
+
+        pattern.delay(10);
+        boolean ok = verify("nested loops", pattern, LED_COUNT, frames + 10);
+        ok &= play("nested loops", new PatternInterpreter(pattern.compile(), LED_COUNT), frames + 10) == frames + 1;
+
+        Pattern tooDeep = new Pattern();
+        try {
+            for (int depth = 0; depth <= Op.MAX_LOOPS; depth++) {
+                tooDeep.repeat(2);
+            }
+
+            ok = false;
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        return ok;
+    }
+
+    /**
+     * A forever loop plays as many frames as asked for, and is still running after them
+     */
+    private static boolean forever() {
+        boolean ok = true;
+        for (int frames : new int[]{1, 2, 3, FRAMES}) {
+            Pattern pattern = Patterns.blink(100);
+            ok &= verify("forever", pattern, LED_COUNT, frames);
+            ok &= pattern.render(LED_COUNT, frames, new NullOutput()) == frames;
+            PatternInterpreter interpreter = new PatternInterpreter(pattern.compile(), LED_COUNT);
+            ok &= play("forever", interpreter, frames) == frames && !interpreter.isHalted();
+        }
+
+        return ok;
+    }
+
+    /**
+     * The register counts up past 255 and down past 0 in steps that don't divide 256, so it wraps somewhere else each time
+     */
+    private static boolean wrapAround() {
+        Pattern pattern = new Pattern()
+                .load(250)
+                .repeat(200)
+                    .add(7).setAllFromRegister().delay(1)
+                .end()
+                .repeat(200)
+                    .add(-128).setFromRegister(0).delay(1)
+                    .add(-3).setFromRegister(1).delay(1)
+                .end();
+        boolean ok = verify("wrap around", pattern, LED_COUNT, 1000);
+
+        // the interpreter's levels against the register computed by hand
+        PatternInterpreter interpreter = new PatternInterpreter(pattern.compile(), LED_COUNT);
+        int register = 250;
+        for (int i = 0; i < 200; i++) {
+            register = (register + 7) & 0xFF;
+            interpreter.step();
+            ok &= interpreter.getLevel(LED_COUNT - 1) == register;
+        }
+
+        for (int i = 0; i < 200; i++) {
+            register = (register - 128) & 0xFF;
+            interpreter.step();
+            ok &= interpreter.getLevel(0) == register;
+            register = (register - 3) & 0xFF;
+            interpreter.step();
+            ok &= interpreter.getLevel(1) == register;
+        }
+
+        return ok;
+    }
+
+    /**
+     * Steps for leds past the led count, up to the last one a program can address, are ignored on the host and the device
+     */
+    private static boolean missingLeds() {
+        Pattern pattern = new Pattern()
+                .load(100)
+                .forever()
+                    .on(0).on(LED_COUNT).on(0xFF).delay(5)
+                    .setFromRegister(LED_COUNT - 1).setFromRegister(LED_COUNT + 1).add(1).delay(5)
+                    .allOff().delay(5)
+                .end();
+        boolean ok = true;
+        for (int ledCount : new int[]{0, 1, LED_COUNT}) {
+            ok &= verify("missing leds", pattern, ledCount, 100);
+        }
+
+        return ok;
+    }
+
+    ///////////////////////////////////////////////
+    // Inner classes
+    ///////////////////////////////////////////////
+    private static final class NullOutput implements PatternOutput {
+        @Override
+        public void onFrame(int[] levels, int durationMillis) {
+        }
+    }
+}
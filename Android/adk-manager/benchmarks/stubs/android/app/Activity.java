@@ -0,0 +1,22 @@
+package android.app;
+
+import android.content.Context;
+import android.os.Bundle;
+
+/**
+ * Compile time stand-in for the Android class of the same name, so the benchmarks build without the SDK (see
+ * benchmarks/README.md). Covers only what adk-manager uses. Never on the classpath at runtime
+ */
+public class Activity extends Context {
+    protected void onCreate(Bundle savedInstanceState) {
+        throw new RuntimeException("Stub!");
+    }
+
+    protected void onResume() {
+        throw new RuntimeException("Stub!");
+    }
+
+    protected void onPause() {
+        throw new RuntimeException("Stub!");
+    }
+}
@@ -0,0 +1,14 @@
+package android.app;
+
+import android.content.Context;
+import android.content.Intent;
+
+/**
+ * Compile time stand-in for the Android class of the same name, so the benchmarks build without the SDK (see
+ * benchmarks/README.md). Covers only what adk-manager uses. Never on the classpath at runtime
+ */
+public final class PendingIntent {
+    public static PendingIntent getBroadcast(Context context, int requestCode, Intent intent, int flags) {
+        throw new RuntimeException("Stub!");
+    }
+}
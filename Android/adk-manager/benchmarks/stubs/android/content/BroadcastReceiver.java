@@ -0,0 +1,9 @@
+package android.content;
+
+/**
+ * Compile time stand-in for the Android class of the same name, so the benchmarks build without the SDK (see
+ * benchmarks/README.md). Covers only what adk-manager uses. Never on the classpath at runtime
+ */
+public abstract class BroadcastReceiver {
+    public abstract void onReceive(Context context, Intent intent);
+}
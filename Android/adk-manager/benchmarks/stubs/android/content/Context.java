@@ -0,0 +1,15 @@
+package android.content;
+
+/**
+ * Compile time stand-in for the Android class of the same name, so the benchmarks build without the SDK (see
+ * benchmarks/README.md). Covers only what adk-manager uses. Never on the classpath at runtime
+ */
+public abstract class Context {
+    public Intent registerReceiver(BroadcastReceiver receiver, IntentFilter filter) {
+        throw new RuntimeException("Stub!");
+    }
+
+    public void unregisterReceiver(BroadcastReceiver receiver) {
+        throw new RuntimeException("Stub!");
+    }
+}
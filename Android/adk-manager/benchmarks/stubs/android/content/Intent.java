@@ -0,0 +1,19 @@
+package android.content;
+
+/**
+ * Compile time stand-in for the Android class of the same name, so the benchmarks build without the SDK (see
+ * benchmarks/README.md). Covers only what adk-manager uses. Never on the classpath at runtime
+ */
+public class Intent {
+    public Intent(String action) {
+        throw new RuntimeException("Stub!");
+    }
+
+    public String getAction() {
+        throw new RuntimeException("Stub!");
+    }
+
+    public boolean getBooleanExtra(String name, boolean defaultValue) {
+        throw new RuntimeException("Stub!");
+    }
+}
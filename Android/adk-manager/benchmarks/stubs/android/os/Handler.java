@@ -0,0 +1,15 @@
+package android.os;
+
+/**
+ * Compile time stand-in for the Android class of the same name, so the benchmarks build without the SDK (see
+ * benchmarks/README.md). Covers only what adk-manager uses. Never on the classpath at runtime
+ */
+public class Handler {
+    public Handler() {
+        throw new RuntimeException("Stub!");
+    }
+
+    public final boolean post(Runnable r) {
+        throw new RuntimeException("Stub!");
+    }
+}
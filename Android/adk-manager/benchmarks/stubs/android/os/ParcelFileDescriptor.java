@@ -0,0 +1,20 @@
+package android.os;
+
+import java.io.Closeable;
+import java.io.FileDescriptor;
+import java.io.IOException;
+
+/**
+ * Compile time stand-in for the Android class of the same name, so the benchmarks build without the SDK (see
+ * benchmarks/README.md). Covers only what adk-manager uses. Never on the classpath at runtime
+ */
+public class ParcelFileDescriptor implements Closeable {
+    public FileDescriptor getFileDescriptor() {
+        throw new RuntimeException("Stub!");
+    }
+
+    @Override
+    public void close() throws IOException {
+        throw new RuntimeException("Stub!");
+    }
+}
@@ -0,0 +1,27 @@
+package android.util;
+
+/**
+ * Compile time stand-in for the Android class of the same name, so the benchmarks build without the SDK (see
+ * benchmarks/README.md). Covers only what adk-manager uses. Never on the classpath at runtime
+ */
+public final class Log {
+    public static int d(String tag, String msg) {
+        throw new RuntimeException("Stub!");
+    }
+
+    public static int i(String tag, String msg) {
+        throw new RuntimeException("Stub!");
+    }
+
+    public static int w(String tag, String msg) {
+        throw new RuntimeException("Stub!");
+    }
+
+    public static int e(String tag, String msg) {
+        throw new RuntimeException("Stub!");
+    }
+
+    public static int e(String tag, String msg, Throwable tr) {
+        throw new RuntimeException("Stub!");
+    }
+}
@@ -0,0 +1,19 @@
+package com.android.future.usb;
+
+/**
+ * Compile time stand-in for the Android class of the same name, so the benchmarks build without the SDK (see
+ * benchmarks/README.md). Covers only what adk-manager uses. Never on the classpath at runtime
+ */
+public class UsbAccessory {
+    public String getManufacturer() {
+        throw new RuntimeException("Stub!");
+    }
+
+    public String getModel() {
+        throw new RuntimeException("Stub!");
+    }
+
+    public String getSerial() {
+        throw new RuntimeException("Stub!");
+    }
+}
@@ -0,0 +1,40 @@
+package com.android.future.usb;
+
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.os.ParcelFileDescriptor;
+
+/**
+ * Compile time stand-in for the Android class of the same name, so the benchmarks build without the SDK (see
+ * benchmarks/README.md). Covers only what adk-manager uses. Never on the classpath at runtime
+ */
+public class UsbManager {
+    public static final String ACTION_USB_ACCESSORY_ATTACHED = "android.hardware.usb.action.USB_ACCESSORY_ATTACHED";
+    public static final String ACTION_USB_ACCESSORY_DETACHED = "android.hardware.usb.action.USB_ACCESSORY_DETACHED";
+    public static final String EXTRA_PERMISSION_GRANTED = "permission";
+
+    public static UsbManager getInstance(Context context) {
+        throw new RuntimeException("Stub!");
+    }
+
+    public static UsbAccessory getAccessory(Intent intent) {
+        throw new RuntimeException("Stub!");
+    }
+
+    public UsbAccessory[] getAccessoryList() {
+        throw new RuntimeException("Stub!");
+    }
+
+    public boolean hasPermission(UsbAccessory accessory) {
+        throw new RuntimeException("Stub!");
+    }
+
+    public void requestPermission(UsbAccessory accessory, PendingIntent pi) {
+        throw new RuntimeException("Stub!");
+    }
+
+    public ParcelFileDescriptor openAccessory(UsbAccessory accessory) {
+        throw new RuntimeException("Stub!");
+    }
+}
@@ -9,61 +9,112 @@ import android.os.Handler;
 import android.os.ParcelFileDescriptor;
 import com.android.future.usb.UsbAccessory;
 import com.android.future.usb.UsbManager;
+import com.labs.adk.trace.TraceRecorder;
+import com.labs.adk.transport.Transport;
+import com.labs.adk.transport.UsbAccessoryChannelTransport;
+import com.labs.adk.transport.UsbAccessoryTransport;
 import com.labs.commons.SLog;
 
-import java.io.FileDescriptor;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.File;
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Controls over communication with an ADK device. <br/>
- * Communication protocol: [command - 1 byte][action - 1 byte][data length - 1 byte][data - X bytes]
+ * Communication protocol: [command - 1 byte][action - 1 byte][data length - 1 byte][data - X bytes] <br/>
+ * Takes care of the USB accessory lifecycle and leaves the protocol itself to an {@link AdkChannel}. <br/>
+ * Once {@link #connect()} is called the manager keeps the link up on its own: it reacts right away to the accessory
+ * being attached or to the user granting permission, and only falls back to retrying with a jittered exponential backoff
+ * when there's no broadcast to wait for. <br/>
+ * The state of the link is a single immutable snapshot swapped atomically, so sending a command never waits for
+ * broadcasts or connection attempts being handled on other threads
  *
  * @author Amir Lazarovich
  */
-public class ADKManager implements Runnable {
+public class ADKManager implements CommandSubmitter {
     ///////////////////////////////////////////////
     // Constants
     ///////////////////////////////////////////////
     private static final String TAG = "ADKManager";
     private static final String ACTION_USB_PERMISSION = "com.labs.adk.action.USB_PERMISSION";
+    public static final int DEFAULT_SEND_QUEUE_CAPACITY = AdkChannel.DEFAULT_SEND_QUEUE_CAPACITY;
+    public static final long DEFAULT_ACK_TIMEOUT_MILLIS = AdkChannel.DEFAULT_ACK_TIMEOUT_MILLIS;
+    public static final int DEFAULT_SEND_WINDOW = AdkChannel.DEFAULT_SEND_WINDOW;
+    private static final long RECONNECT_INITIAL_BACKOFF_MILLIS = 100;
+    private static final long RECONNECT_MAX_BACKOFF_MILLIS = 10000;
+    private static final long PERMISSION_TIMEOUT_MILLIS = 30000;
 
     ///////////////////////////////////////////////
     // Members
     ///////////////////////////////////////////////
-    private UsbManager mUsbManager;
-    private UsbAccessory mAccessory;
-    private ParcelFileDescriptor mFileDescriptor;
-    private FileInputStream mInputStream;
-    private FileOutputStream mOutputStream;
-
-    private ExecutorService mPool;
+    private final UsbManager mUsbManager;
+    private final AdkChannel mChannel;
     private Context mContext;
-    private Handler mHandler;
     private Callback mCallback;
-    private Thread mCommunicationThread;
-    private final Object[] mLock;
+    private final Executor mDispatcher;
+
+    private final AtomicReference<Link> mLink;
+    private final AtomicBoolean mReconnectRequested;
+    private volatile boolean mUseFileChannel = false;
 
-    private boolean mConnected = false;
-    private Timer mTimer;
-    private BroadcastReceiver mUsbReceiver;
+    private volatile long mLastReconnectNanos = -1;
+    private final Histogram mReconnectTimes;
+    private volatile long mConnectAttempts;
+    private ScheduledExecutorService mMetricsDumper;
+    private TraceRecorder mTrace;
 
     ///////////////////////////////////////////////
     // Constructors
     ///////////////////////////////////////////////
 
+    /**
+     * Acks and connection changes are delivered on the thread creating this manager, which must have a looper
+     *
+     * @param context
+     * @param callback
+     */
     public ADKManager(Context context, Callback callback) {
+        this(context, callback, Dispatchers.handler(new Handler()));
+    }
+
+    /**
+     * @param context
+     * @param callback
+     * @param dispatcher Delivers acks and connection changes to the callback. See {@link Dispatchers}
+     */
+    public ADKManager(Context context, Callback callback, Executor dispatcher) {
+        this(context, callback, dispatcher, DEFAULT_SEND_QUEUE_CAPACITY, OverflowPolicy.BLOCK);
+    }
+
+    /**
+     * @param context
+     * @param callback
+     * @param dispatcher        Delivers acks and connection changes to the callback. See {@link Dispatchers}
+     * @param sendQueueCapacity Max number of commands waiting to be written to the ADK device
+     * @param overflowPolicy    What to do with commands sent while the queue is full
+     */
+    public ADKManager(Context context, Callback callback, Executor dispatcher, int sendQueueCapacity, OverflowPolicy overflowPolicy) {
         mContext = context;
-        mHandler = new Handler();
         mCallback = callback;
-        mPool = Executors.newCachedThreadPool();
-        mLock = new Object[0];
+        mDispatcher = dispatcher;
+        mUsbManager = UsbManager.getInstance(context);
+        mChannel = new AdkChannel(callback, dispatcher, sendQueueCapacity, overflowPolicy);
+        mChannel.setListener(new AdkChannel.Listener() {
+            @Override
+            public void onLinkFailed(IOException e) {
+                SLog.e(TAG, e, "Lost the link to the ADK device");
+                handleLinkFailure();
+            }
+        });
+        mLink = new AtomicReference<Link>(Link.IDLE);
+        mReconnectRequested = new AtomicBoolean();
+        mReconnectTimes = new Histogram();
     }
 
 
@@ -72,31 +123,24 @@ public class ADKManager implements Runnable {
     ///////////////////////////////////////////////
 
     /**
-     * Connect to the ADK
+     * Connect to the ADK and keep reconnecting whenever the link is lost, until {@link #disconnect()} is called. <br/>
+     * Does nothing if already started
      */
     public void connect() {
-        mTimer = new Timer();
-        TimerTask reconnectTask = new TimerTask() {
-
-            @Override
-            public void run() {
-                synchronized (mLock) {
-                    if (!mConnected) {
-                        SLog.d(TAG, "Connecting to ADK...");
-                        disconnectInternal();
-                        connectInternal();
-                    } else {
-                        mTimer.cancel();
-                    }
-                }
-            }
-        };
+        Link idle = mLink.get();
+        if (idle.mState != LinkState.IDLE) {
+            return;
+        }
 
-        try {
-            mTimer.schedule(reconnectTask, 0, 10000);
-        } catch (IllegalStateException e) {
-            SLog.e(TAG, "Can't schedule a task on a canceled timer", e);
+        Session session = new Session();
+        if (!mLink.compareAndSet(idle, idle.searching(session, -1))) {
+            // someone else got here first
+            session.stop();
+            return;
         }
+
+        SLog.d(TAG, "Connecting to ADK...");
+        session.start();
     }
 
     /**
@@ -105,44 +149,333 @@ public class ADKManager implements Runnable {
     public void disconnect() {
         SLog.d(TAG, "Disconnecting from the ADK device");
         disconnectInternal();
-        mCallback.onDisconnected();
+        notifyDisconnected();
     }
 
     /**
-     * Send command to the ADK
+     * Send command to the ADK. Commands are written to the device in the order they were sent
      *
      * @param command
      * @param action
-     * @param data    May also be null if there's no data (if you read this, you rock!)
+     * @param data    Up to {@link AdkChannel#MAX_DATA_SIZE} bytes. May also be null if there's no data (if you read this, you rock!)
+     * @return false if the command was dropped, either because we're not connected and the replay buffer didn't take it
+     * (see {@link #setReplayBuffer(int, ReplayPolicy)}), or because the send queue was full and the overflow policy is
+     * {@link OverflowPolicy#REJECT}
+     * @throws IllegalArgumentException If the data is too long for a single command, see
+     *                                  {@link #startTransfer(byte, byte, byte[], TransferListener)} for longer data
      */
-    public void sendCommand(final byte command, final byte action, final byte[] data) {
-        mPool.execute(new Runnable() {
-            @Override
-            public void run() {
-                int dataLength = ((data != null) ? data.length : 0);
-
-                ByteBuffer buffer = ByteBuffer.allocate(3 + dataLength);
-                buffer.put(command);
-                buffer.put(action);
-                buffer.put(toUnsignedByte(dataLength));
-                if (data != null) {
-                    buffer.put(data);
-                }
+    @Override
+    public boolean sendCommand(byte command, byte action, byte[] data) {
+        if (!mChannel.isOpen()) {
+            reconnect();
+        }
 
-                if (mOutputStream != null) {
-                    try {
-                        SLog.d(TAG, "sendCommand: Sending data to ADK device: " + buffer);
-                        mOutputStream.write(buffer.array());
-                    } catch (IOException e) {
-                        SLog.e(TAG, e, "sendCommand: Failed to send command to ADK device");
-                        reconnect();
-                    }
-                } else {
-                    SLog.d(TAG, "sendCommand: Send failed: mOutStream was null");
-                    reconnect();
+        return mChannel.sendCommand(command, action, data);
+    }
+
+    /**
+     * Send command to the ADK and track its ack. <br/>
+     * In sequenced mode (see {@link #setSequencedCommands(boolean)}) the ack is matched to the command by its sequence number,
+     * otherwise it's matched to the oldest command still waiting for an ack
+     *
+     * @param command
+     * @param action
+     * @param data    Up to {@link AdkChannel#MAX_DATA_SIZE} bytes. May also be null if there's no data
+     * @return A future that completes once the ADK device acked the command. It fails with a
+     * {@link java.util.concurrent.TimeoutException} if no ack arrives in time, or right away if the command was dropped
+     * @throws IllegalArgumentException If the data is too long for a single command, see
+     *                                  {@link #startTransfer(byte, byte, byte[], TransferListener)} for longer data
+     */
+    @Override
+    public CommandFuture submitCommand(byte command, byte action, byte[] data) {
+        return submitCommand(command, action, data, true);
+    }
+
+    /**
+     * See {@link AdkChannel#submitCommand(byte, byte, byte[], boolean)}
+     */
+    @Override
+    public CommandFuture submitCommand(byte command, byte action, byte[] data, boolean conflatable) {
+        if (!mChannel.isOpen()) {
+            reconnect();
+        }
+
+        return mChannel.submitCommand(command, action, data, conflatable);
+    }
+
+    /**
+     * Send a command whose data may not fit in a single frame, as a series of fragments of {@link Transfer#DEFAULT_FRAGMENT_SIZE}
+     * bytes, with up to a send window's worth of them in flight. See
+     * {@link #startTransfer(byte, byte, byte[], int, int, TransferListener)}
+     *
+     * @param command
+     * @param action
+     * @param data     Up to the device's max transfer size, see {@link #setMaxTransferSize(int)}
+     * @param listener May be null
+     * @return The transfer, already started
+     */
+    public Transfer startTransfer(byte command, byte action, byte[] data, TransferListener listener) {
+        return startTransfer(command, action, data, Transfer.DEFAULT_FRAGMENT_SIZE, mChannel.getSendWindow(), listener);
+    }
+
+    /**
+     * Send a command whose data may not fit in a single frame, as a series of fragments put back together by the ADK device. <br/>
+     * The ADK device must support fragmented transfers (see Adk_2012_leds_dashboard.ino, which holds up to
+     * {@link Transfer#DEFAULT_MAX_PAYLOAD_SIZE} bytes).
+     * Progress, completion and failure are reported through the dispatcher, like acks
+     *
+     * @param command
+     * @param action
+     * @param data         Up to the device's max transfer size, see {@link #setMaxTransferSize(int)}
+     * @param fragmentSize Data bytes per fragment. A fragment and its headers must fit in the device's receive buffer
+     * @param maxInFlight  Max number of fragments waiting for an ack at the same time
+     * @param listener     May be null
+     * @return The transfer, already started
+     * @throws IllegalArgumentException If the data is too long, or the fragment size is out of range
+     */
+    public Transfer startTransfer(byte command, byte action, byte[] data, int fragmentSize, int maxInFlight,
+                                  TransferListener listener) {
+        if (!mChannel.isOpen()) {
+            reconnect();
+        }
+
+        return mChannel.startTransfer(command, action, data, fragmentSize, maxInFlight, listener);
+    }
+
+    /**
+     * Choose whether commands carry a sequence number that the ADK device echoes back in its ack. <br/>
+     * The ADK device must support sequenced commands (see Adk_2012_leds_dashboard.ino)
+     *
+     * @param sequenced
+     */
+    public void setSequencedCommands(boolean sequenced) {
+        mChannel.setSequencedCommands(sequenced);
+    }
+
+    /**
+     * Set how long to wait for an ack before failing a command
+     *
+     * @param timeoutMillis
+     */
+    public void setAckTimeout(long timeoutMillis) {
+        mChannel.setAckTimeout(timeoutMillis);
+    }
+
+    /**
+     * Choose whether a command replaces a queued, not yet written command with the same command and action. <br/>
+     * Useful when only the latest state matters, e.g. a toggle flapped quickly or a pattern that outruns the USB link.
+     * The futures of replaced commands are cancelled
+     *
+     * @param conflating
+     */
+    public void setConflating(boolean conflating) {
+        mChannel.setConflating(conflating);
+    }
+
+    /**
+     * @return Number of commands that were replaced by a newer command before being written
+     */
+    public long getConflatedCount() {
+        return mChannel.getConflatedCount();
+    }
+
+    /**
+     * Keep commands sent while disconnected and write them as soon as the link is back, instead of dropping them. <br/>
+     * Commands that were queued but not yet written when the link went down are kept as well
+     *
+     * @param capacity Max number of commands to keep, up to the send queue capacity. 0 (the default) drops them
+     * @param policy   What to do with commands sent while the replay buffer is full
+     */
+    public void setReplayBuffer(int capacity, ReplayPolicy policy) {
+        mChannel.setReplayBuffer(capacity, policy);
+    }
+
+    /**
+     * @return Number of commands waiting for the link to come back
+     */
+    public int getReplayBufferSize() {
+        return mChannel.getReplayBufferSize();
+    }
+
+    /**
+     * @return Number of commands written once the link was back rather than dropped
+     */
+    public long getReplayedCount() {
+        return mChannel.getReplayedCount();
+    }
+
+    /**
+     * @return Number of commands dropped because the replay buffer was full
+     */
+    public long getReplayDroppedCount() {
+        return mChannel.getReplayDroppedCount();
+    }
+
+    /**
+     * Set the max number of commands that may wait for an ack at the same time. Once the window is full, further commands
+     * wait in the send queue until earlier ones are acked (or time out)
+     *
+     * @param window Between 1 (stop-and-wait) and 256
+     */
+    public void setSendWindow(int window) {
+        mChannel.setSendWindow(window);
+    }
+
+    public int getSendWindow() {
+        return mChannel.getSendWindow();
+    }
+
+    /**
+     * @return Number of commands written to the ADK device that weren't acked yet
+     */
+    public int getPendingAckCount() {
+        return mChannel.getPendingAckCount();
+    }
+
+    /**
+     * @return Round trip time of the most recently acked command, in nanoseconds, or -1 if none was acked yet
+     */
+    public long getLastRoundTripNanos() {
+        return mChannel.getLastRoundTripNanos();
+    }
+
+    /**
+     * @return Number of commands waiting to be written to the ADK device
+     */
+    public int getSendQueueDepth() {
+        return mChannel.getSendQueueDepth();
+    }
+
+    /**
+     * Choose whether the accessory is accessed through NIO file channels with direct buffers instead of plain streams. <br/>
+     * Takes effect the next time the accessory is opened
+     *
+     * @param useFileChannel
+     */
+    public void setUseFileChannel(boolean useFileChannel) {
+        mUseFileChannel = useFileChannel;
+    }
+
+    /**
+     * Let the writer coalesce queued commands into a single write of up to <code>maxBatchBytes</code>. <br/>
+     * The ADK device must handle several messages per read (see Adk_2012_leds_dashboard.ino).
+     * Takes effect the next time the accessory is opened
+     *
+     * @param maxBatchBytes 0 writes each command on its own
+     */
+    public void setMaxBatchBytes(int maxBatchBytes) {
+        mChannel.setMaxBatchBytes(maxBatchBytes);
+    }
+
+    /**
+     * Set the largest payload the ADK device puts back together. Longer transfers are rejected before anything is sent
+     *
+     * @param maxTransferSize Up to {@link Transfer#MAX_PAYLOAD_SIZE}. Defaults to {@link Transfer#DEFAULT_MAX_PAYLOAD_SIZE}
+     * @throws IllegalArgumentException If out of range
+     */
+    public void setMaxTransferSize(int maxTransferSize) {
+        mChannel.setMaxTransferSize(maxTransferSize);
+    }
+
+    /**
+     * @return Number of writes issued to the ADK device
+     */
+    public long getWrites() {
+        return mChannel.getWrites();
+    }
+
+    /**
+     * @return Number of commands written to the ADK device. Divide by {@link #getWrites()} for the average batch size
+     */
+    public long getFramesWritten() {
+        return mChannel.getFramesWritten();
+    }
+
+    /**
+     * Take a snapshot of the link metrics: traffic, queue health, ack round trips and reconnects. <br/>
+     * Recording the metrics is always on and cheap, taking a snapshot is what costs a little
+     *
+     * @return
+     */
+    public MetricsSnapshot getMetrics() {
+        MetricsSnapshot snapshot = new MetricsSnapshot();
+        mChannel.fillMetrics(snapshot);
+        snapshot.mReconnects = mReconnectTimes.count();
+        snapshot.mLastReconnectNanos = mLastReconnectNanos;
+        snapshot.mMaxReconnectNanos = mReconnectTimes.max();
+        snapshot.mMeanReconnectNanos = mReconnectTimes.mean();
+        return snapshot;
+    }
+
+    /**
+     * @return Telemetry samples sent by the ADK device, e.g. its analog readings
+     */
+    public TelemetryStore getTelemetry() {
+        return mChannel.getTelemetry();
+    }
+
+    /**
+     * See {@link AdkChannel#setTelemetrySubscribed(boolean)}
+     *
+     * @param subscribed
+     */
+    public void setTelemetrySubscribed(boolean subscribed) {
+        mChannel.setTelemetrySubscribed(subscribed);
+    }
+
+    /**
+     * Periodically log a snapshot of the link metrics through {@link SLog}
+     *
+     * @param periodMillis 0 stops logging
+     */
+    public synchronized void setMetricsDumpInterval(long periodMillis) {
+        if (mMetricsDumper != null) {
+            mMetricsDumper.shutdownNow();
+            mMetricsDumper = null;
+        }
+
+        if (periodMillis > 0) {
+            mMetricsDumper = Executors.newSingleThreadScheduledExecutor();
+            mMetricsDumper.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    SLog.i(TAG, "Metrics: %s", getMetrics());
                 }
-            }
-        });
+            }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Start recording every frame written to and read from the ADK device into a memory-mapped trace file, replacing any
+     * recording in progress. Play it back with {@link com.labs.adk.trace.TraceReplayer}
+     *
+     * @param file
+     * @param capacity Size of the trace file in bytes. Frames that don't fit aren't recorded
+     * @throws IOException If the trace file couldn't be created
+     */
+    public synchronized void startTrace(File file, int capacity) throws IOException {
+        stopTrace();
+        mTrace = new TraceRecorder(file, capacity);
+        mChannel.setTraceRecorder(mTrace);
+    }
+
+    /**
+     * Stop recording and close the trace file
+     */
+    public synchronized void stopTrace() {
+        if (mTrace == null) {
+            return;
+        }
+
+        mChannel.setTraceRecorder(null);
+        try {
+            mTrace.close();
+        } catch (IOException e) {
+            SLog.e(TAG, e, "Couldn't close trace file");
+        }
+
+        SLog.i(TAG, "Recorded %d frames, dropped %d", mTrace.getRecordCount(), mTrace.getDroppedCount());
+        mTrace = null;
     }
 
     /**
@@ -155,77 +488,107 @@ public class ADKManager implements Runnable {
         return (byte) (integer & 0xFF);
     }
 
+    /**
+     * @return Number of inbound bytes that couldn't be parsed as messages
+     */
+    public long getDecodeErrors() {
+        return mChannel.getDecodeErrors();
+    }
+
     /**
      * Check if connected to the ADK device
      *
      * @return
      */
     public boolean isConnected() {
-        return mConnected;
+        return mLink.get().mState == LinkState.CONNECTED;
     }
 
-    ///////////////////////////////////////////////
-    // Overrides & Implementations
-    ///////////////////////////////////////////////
+    /**
+     * @return Who the connected ADK device is, or null if not connected
+     */
+    public AccessoryIdentity getAccessoryIdentity() {
+        Link link = mLink.get();
+        UsbAccessory accessory = link.mAccessory;
+        if (link.mState != LinkState.CONNECTED || accessory.getManufacturer() == null || accessory.getModel() == null) {
+            return null;
+        }
+
+        return new AccessoryIdentity(accessory.getManufacturer(), accessory.getModel(), accessory.getSerial());
+    }
 
     /**
-     * The running thread. It takes care of the communication between the Android and the ADK
+     * @return Number of times the link was restored after being lost
      */
-    @Override
-    public void run() {
-        int ret;
-        byte[] buffer = new byte[16384];
-
-        // Keeps reading messages forever.
-        // There are probably a lot of messages in the buffer, each message 4 bytes.
-        while (true) {
-            try {
-                ret = mInputStream.read(buffer);
-                if (ret > 0) {
-                    final boolean ack = buffer[0] == 1;
-                    runOnUiThread(new Runnable() {
-                        @Override
-                        public void run() {
-                            mCallback.onAckReceived(ack);
-                        }
-                    });
-                }
-            } catch (Exception e) {
-                break;
-            }
+    public long getReconnectCount() {
+        return mReconnectTimes.count();
+    }
 
-        }
+    /**
+     * @return Time it took to restore the most recently lost link, in nanoseconds, or -1 if the link was never restored
+     */
+    public long getLastReconnectNanos() {
+        return mLastReconnectNanos;
+    }
+
+    /**
+     * @return Longest time it took to restore a lost link, in nanoseconds, or -1 if the link was never restored
+     */
+    public long getMaxReconnectNanos() {
+        return mReconnectTimes.max();
+    }
+
+    /**
+     * @return Number of times the manager looked for an ADK device, including attempts that found none
+     */
+    public long getConnectAttempts() {
+        return mConnectAttempts;
     }
 
     ///////////////////////////////////////////////
     // Private
     ///////////////////////////////////////////////
     /**
-     * Connect to the ADK device
+     * Look for the ADK device and open it, or ask for permission to open it. Runs on the session's scheduler thread. <br/>
+     * While waiting for permission, it's the permission timeout instead
+     *
+     * @param session
      */
-    void connectInternal() {
-        synchronized (mLock) {
-            mUsbManager = UsbManager.getInstance(mContext);
-            PendingIntent permissionIntent = PendingIntent.getBroadcast(mContext, 0, new Intent(ACTION_USB_PERMISSION), 0);
+    private void attempt(Session session) {
+        Link link = mLink.get();
+        if (link.mSession != session) {
+            return;
+        }
 
-            // register receiver
-            IntentFilter filter = new IntentFilter(ACTION_USB_PERMISSION);
-            filter.addAction(UsbManager.ACTION_USB_ACCESSORY_DETACHED);
-            filter.addAction(UsbManager.ACTION_USB_ACCESSORY_ATTACHED);
-            mUsbReceiver = new UsbReceiver();
-            mContext.registerReceiver(mUsbReceiver, filter);
-
-            // assume the only connected usb device is our ADK
-            UsbAccessory[] accessories = mUsbManager.getAccessoryList();
-            UsbAccessory accessory = (accessories == null) ? null : accessories[0];
-
-            if (accessory != null) {
-                if (mUsbManager.hasPermission(accessory)) {
-                    openAccessory(accessory);
-                } else {
-                    mUsbManager.requestPermission(accessory, permissionIntent);
-                }
+        if (link.mState == LinkState.AWAITING_PERMISSION) {
+            // no answer in time, e.g. the dialog was dismissed, so we'll ask again
+            if (mLink.compareAndSet(link, link.searching(session, link.mLostAt))) {
+                SLog.d(TAG, "No answer to the USB permission request");
+                session.retry();
+            }
+
+            return;
+        }
+
+        if (link.mState != LinkState.SEARCHING) {
+            return;
+        }
+
+        mConnectAttempts++;
+
+        // accessory mode only ever exposes a single accessory, see AdkHub for driving several devices
+        UsbAccessory[] accessories = mUsbManager.getAccessoryList();
+        UsbAccessory accessory = (accessories == null) ? null : accessories[0];
+
+        if (accessory == null) {
+            session.retry();
+        } else if (mUsbManager.hasPermission(accessory)) {
+            if (!openAccessory(link, accessory)) {
+                session.retry();
             }
+        } else if (mLink.compareAndSet(link, link.awaitingPermission(accessory))) {
+            mUsbManager.requestPermission(accessory, session.mPermissionIntent);
+            session.schedule(PERMISSION_TIMEOUT_MILLIS);
         }
     }
 
@@ -233,138 +596,351 @@ public class ADKManager implements Runnable {
      * Disconnect from the ADK device
      */
     private void disconnectInternal() {
-        synchronized (mLock) {
-            mConnected = false;
-            if (mTimer != null) {
-                mTimer.cancel();
-            }
-
-            if (mUsbReceiver != null) {
-                try {
-                    mContext.unregisterReceiver(mUsbReceiver);
-                } catch (Exception e) {
-                    SLog.e(TAG, e, "Couldn't unregister receiver");
-                } finally {
-                    mUsbReceiver = null;
-                }
+        Link link = mLink.getAndSet(Link.IDLE);
+        mReconnectRequested.set(false);
+        if (link.mSession != null) {
+            link.mSession.stop();
+        }
 
-            }
+        if (link.mTransport != null) {
+            mChannel.close(link.mTransport);
+        }
 
-            if (mFileDescriptor != null) {
-                try {
-                    mFileDescriptor.close();
-                } catch (IOException e) {
-                    SLog.e(TAG, e, "Couldn't close file descriptor");
-                } finally {
-                    mFileDescriptor = null;
-                }
-            }
+        // we're done with the device, not waiting for it to come back
+        mChannel.clearReplayBuffer();
+    }
 
-            if (mInputStream != null) {
-                try {
-                    mInputStream.close();
-                } catch (IOException e) {
-                    SLog.e(TAG, e, "Couldn't close input stream");
-                } finally {
-                    mInputStream = null;
-                }
-            }
+    /**
+     * Make sure we're trying to reconnect. <br/>
+     * Called for every command sent while disconnected, so only the first call does anything; the rest return
+     * right away until the link is back (or the manager is stopped)
+     */
+    void reconnect() {
+        if (!mReconnectRequested.compareAndSet(false, true)) {
+            return;
+        }
 
-            if (mOutputStream != null) {
-                try {
-                    mOutputStream.close();
-                } catch (IOException e) {
-                    SLog.e(TAG, e, "Couldn't close output stream");
-                } finally {
-                    mOutputStream = null;
-                }
-            }
+        SLog.d(TAG, "Not connected, making sure we're reconnecting");
+        // if not idle, the link was just lost and the state machine is already on it
+        connect();
+    }
 
-            mAccessory = null;
+    /**
+     * The channel can no longer talk to the ADK device
+     */
+    private void handleLinkFailure() {
+        Link link = mLink.get();
+        if (link.mState == LinkState.CONNECTED && onLinkLost(link)) {
+            // the device may still be there, e.g. after a transient I/O error
+            link.mSession.schedule(0);
         }
     }
 
     /**
-     * Try to reconnected
+     * Close the channel and go back to looking for the ADK device
+     *
+     * @param link The connected link that was lost
+     * @return false if the link had already moved on, in which case there's nothing to do
      */
-    void reconnect() {
+    private boolean onLinkLost(Link link) {
+        if (!mLink.compareAndSet(link, link.searching(link.mSession, System.nanoTime()))) {
+            return false;
+        }
+
         SLog.i(TAG, "attempting to reconnect to ADK device");
-        disconnect();
-        connect();
+        mChannel.close(link.mTransport);
+        link.mSession.resetBackoff();
+        notifyDisconnected();
+        return true;
     }
 
     /**
      * Open read and write to and from the ADK device
      *
+     * @param link      The link we're searching on
      * @param accessory
+     * @return false if the accessory couldn't be opened
      */
-    void openAccessory(UsbAccessory accessory) {
-        synchronized (mLock) {
-            SLog.d(TAG, "Trying to attach ADK device");
-            mFileDescriptor = mUsbManager.openAccessory(accessory);
-            if (mFileDescriptor != null) {
-                mAccessory = accessory;
-                FileDescriptor fd = mFileDescriptor.getFileDescriptor();
-                mInputStream = new FileInputStream(fd);
-                mOutputStream = new FileOutputStream(fd);
-
-                if (mCommunicationThread != null) {
-                    mCommunicationThread.interrupt();
-                }
+    private boolean openAccessory(Link link, UsbAccessory accessory) {
+        SLog.d(TAG, "Trying to attach ADK device");
+        ParcelFileDescriptor fileDescriptor = mUsbManager.openAccessory(accessory);
+        if (fileDescriptor == null) {
+            SLog.d(TAG, "openAccessory: accessory open failed");
+            return false;
+        }
+
+        Transport transport = mUseFileChannel
+                ? new UsbAccessoryChannelTransport(fileDescriptor)
+                : new UsbAccessoryTransport(fileDescriptor);
+        Link connected = link.connected(accessory, transport);
+        if (!mLink.compareAndSet(link, connected)) {
+            // stopped (or detached) meanwhile
+            closeQuietly(transport);
+            return true;
+        }
+
+        try {
+            mChannel.open(transport);
+        } catch (IllegalStateException e) {
+            // the channel is still open over a connection made by a session that was stopped meanwhile
+            SLog.w(TAG, "Channel is still busy with a previous connection");
+            closeQuietly(transport);
+            // go back to searching, unless the link has moved on in the meantime
+            return !mLink.compareAndSet(connected, link);
+        }
+
+        if (mLink.get() != connected) {
+            // lost again before the channel was even open, whoever moved the link on may have closed it too early
+            mChannel.close(transport);
+            return true;
+        }
+
+        link.mSession.resetBackoff();
+        mReconnectRequested.set(false);
+        if (link.mLostAt >= 0) {
+            long reconnectNanos = System.nanoTime() - link.mLostAt;
+            mLastReconnectNanos = reconnectNanos;
+            mReconnectTimes.record(reconnectNanos);
+            SLog.i(TAG, "Reconnected after %d ms", TimeUnit.NANOSECONDS.toMillis(reconnectNanos));
+        }
 
-                mCommunicationThread = new Thread(null, this, TAG);
-                mCommunicationThread.start();
-                mConnected = true;
+        notifyConnected();
+        SLog.d(TAG, "Attached");
+        return true;
+    }
+
+    /**
+     * Hand {@link Callback#onConnected()} to the dispatcher, since it's usually called on the session's thread
+     */
+    private void notifyConnected() {
+        mDispatcher.execute(new Runnable() {
+            @Override
+            public void run() {
                 mCallback.onConnected();
-                SLog.d(TAG, "Attached");
-            } else {
-                SLog.d(TAG, "openAccessory: accessory open failed");
             }
-        }
+        });
     }
 
     /**
-     * Run on UI thread
-     *
-     * @param runnable
+     * Hand {@link Callback#onDisconnected()} to the dispatcher, since it's usually called on the session's thread
      */
-    private void runOnUiThread(Runnable runnable) {
-        mHandler.post(runnable);
+    private void notifyDisconnected() {
+        mDispatcher.execute(new Runnable() {
+            @Override
+            public void run() {
+                mCallback.onDisconnected();
+            }
+        });
+    }
+
+    private static void closeQuietly(Transport transport) {
+        try {
+            transport.close();
+        } catch (IOException e) {
+            SLog.e(TAG, e, "Couldn't close transport");
+        }
     }
 
     ///////////////////////////////////////////////
     // Inner classes
     ///////////////////////////////////////////////
 
+    /**
+     * Where the manager stands with the ADK device
+     */
+    private enum LinkState {
+        /**
+         * Not started, or stopped by {@link #disconnect()}
+         */
+        IDLE,
+        /**
+         * Looking for the ADK device, or waiting to look again
+         */
+        SEARCHING,
+        /**
+         * Found the ADK device and waiting for the user to let us open it, for up to {@link #PERMISSION_TIMEOUT_MILLIS}
+         */
+        AWAITING_PERMISSION,
+        CONNECTED
+    }
+
+    /**
+     * Immutable snapshot of the link to the ADK device. Every change of state swaps in a new snapshot
+     */
+    private static final class Link {
+        static final Link IDLE = new Link(LinkState.IDLE, null, null, null, -1);
+
+        final LinkState mState;
+        final Session mSession;
+        final UsbAccessory mAccessory;
+        final Transport mTransport;
+        /**
+         * When the link was lost (System.nanoTime), or -1 if it wasn't connected before
+         */
+        final long mLostAt;
+
+        private Link(LinkState state, Session session, UsbAccessory accessory, Transport transport, long lostAt) {
+            mState = state;
+            mSession = session;
+            mAccessory = accessory;
+            mTransport = transport;
+            mLostAt = lostAt;
+        }
+
+        Link searching(Session session, long lostAt) {
+            return new Link(LinkState.SEARCHING, session, null, null, lostAt);
+        }
+
+        Link awaitingPermission(UsbAccessory accessory) {
+            return new Link(LinkState.AWAITING_PERMISSION, mSession, accessory, null, mLostAt);
+        }
+
+        Link connected(UsbAccessory accessory, Transport transport) {
+            return new Link(LinkState.CONNECTED, mSession, accessory, transport, mLostAt);
+        }
+    }
+
+    /**
+     * Everything that lives from {@link #connect()} to {@link #disconnect()}: the USB receiver and the thread making
+     * connection attempts, which is the only thread that ever opens the accessory
+     */
+    private final class Session implements Runnable {
+        final ScheduledExecutorService mScheduler;
+        final PendingIntent mPermissionIntent;
+        private final UsbReceiver mReceiver;
+        private final Backoff mBackoff;
+        private ScheduledFuture<?> mPendingAttempt;
+        private boolean mRegistered;
+        private boolean mStopped;
+
+        Session() {
+            mScheduler = Executors.newSingleThreadScheduledExecutor();
+            mPermissionIntent = PendingIntent.getBroadcast(mContext, 0, new Intent(ACTION_USB_PERMISSION), 0);
+            mReceiver = new UsbReceiver(this);
+            mBackoff = new Backoff(RECONNECT_INITIAL_BACKOFF_MILLIS, RECONNECT_MAX_BACKOFF_MILLIS);
+        }
+
+        synchronized void start() {
+            if (mStopped) {
+                return;
+            }
+
+            // a single receiver for as long as we're started
+            IntentFilter filter = new IntentFilter(ACTION_USB_PERMISSION);
+            filter.addAction(UsbManager.ACTION_USB_ACCESSORY_DETACHED);
+            filter.addAction(UsbManager.ACTION_USB_ACCESSORY_ATTACHED);
+            mContext.registerReceiver(mReceiver, filter);
+            mRegistered = true;
+            schedule(0);
+        }
+
+        synchronized void stop() {
+            mStopped = true;
+            mScheduler.shutdownNow();
+            if (mRegistered) {
+                try {
+                    mContext.unregisterReceiver(mReceiver);
+                } catch (Exception e) {
+                    SLog.e(TAG, e, "Couldn't unregister receiver");
+                } finally {
+                    mRegistered = false;
+                }
+            }
+        }
+
+        /**
+         * Schedule the next attempt, replacing any attempt already scheduled
+         *
+         * @param delayMillis
+         */
+        synchronized void schedule(long delayMillis) {
+            if (mStopped) {
+                return;
+            }
+
+            if (mPendingAttempt != null) {
+                mPendingAttempt.cancel(false);
+            }
+
+            mPendingAttempt = mScheduler.schedule(this, delayMillis, TimeUnit.MILLISECONDS);
+        }
+
+        /**
+         * Fall back to retrying later, for when there's no broadcast that would tell us when to try again
+         */
+        synchronized void retry() {
+            long delayMillis = mBackoff.nextDelayMillis();
+            SLog.d(TAG, "No ADK device to open, retrying in %d ms", delayMillis);
+            schedule(delayMillis);
+        }
+
+        synchronized void resetBackoff() {
+            mBackoff.reset();
+        }
+
+        @Override
+        public void run() {
+            attempt(this);
+        }
+    }
+
     /**
      * Listens for the following events:
      * {@link #ACTION_USB_PERMISSION}, {@link com.android.future.usb.UsbManager#ACTION_USB_ACCESSORY_ATTACHED}, {@link com.android.future.usb.UsbManager#ACTION_USB_ACCESSORY_DETACHED}
      */
     private class UsbReceiver extends BroadcastReceiver {
+        private final Session mSession;
+
+        UsbReceiver(Session session) {
+            mSession = session;
+        }
+
         @Override
         public void onReceive(Context context, Intent intent) {
             String action = intent.getAction();
             SLog.d(TAG, "Got USB intent ", action);
 
+            Link link = mLink.get();
+            if (link.mSession != mSession) {
+                // stopped meanwhile
+                return;
+            }
+
             if (ACTION_USB_PERMISSION.equals(action)) {
-                synchronized (mLock) {
-                    UsbAccessory accessory = UsbManager.getAccessory(intent);
+                if (link.mState == LinkState.AWAITING_PERMISSION
+                        && mLink.compareAndSet(link, link.searching(mSession, link.mLostAt))) {
                     if (intent.getBooleanExtra(UsbManager.EXTRA_PERMISSION_GRANTED, false)) {
-                        openAccessory(accessory);
+                        mSession.schedule(0);
                     } else {
                         SLog.d(TAG, "USB permission denied");
+                        mSession.retry();
                     }
                 }
             } else if (UsbManager.ACTION_USB_ACCESSORY_ATTACHED.equals(action)) {
                 SLog.d(TAG, "BroadcastReceiver:: USB Attached");
-                connect();
+                // re-plugged while asking for permission: the request was for the accessory as it was before
+                if (link.mState == LinkState.SEARCHING || (link.mState == LinkState.AWAITING_PERMISSION
+                        && mLink.compareAndSet(link, link.searching(mSession, link.mLostAt)))) {
+                    mSession.resetBackoff();
+                    mSession.schedule(0);
+                }
             } else if (UsbManager.ACTION_USB_ACCESSORY_DETACHED.equals(action)) {
                 UsbAccessory accessory = UsbManager.getAccessory(intent);
-                if (accessory != null && accessory.equals(mAccessory)) {
-                    SLog.d(TAG, "BroadcastReceiver:: USB Detached");
-                    disconnect();
+                if (accessory == null || !accessory.equals(link.mAccessory)) {
+                    return;
+                }
+
+                SLog.d(TAG, "BroadcastReceiver:: USB Detached");
+                if (link.mState == LinkState.AWAITING_PERMISSION) {
+                    // nobody to ask permission for anymore
+                    if (mLink.compareAndSet(link, link.searching(mSession, link.mLostAt))) {
+                        mSession.retry();
+                    }
+                } else if (onLinkLost(link)) {
+                    // nothing to open until it's attached again, keep looking in the background just in case
+                    mSession.retry();
                 }
             }
         }
     }
-}
\ No newline at end of file
+}
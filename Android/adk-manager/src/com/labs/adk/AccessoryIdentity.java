@@ -0,0 +1,83 @@
+package com.labs.adk;
+
+/**
+ * Who an ADK device is, as told by the strings its firmware announces when it switches to accessory mode
+ * (the sketch's <code>USB_MANUFACTURER</code>, <code>USB_MODEL</code> and <code>USB_SERIAL</code>). <br/>
+ * Two devices running the same sketch only differ by their serial, so each board driven by the same host must be flashed
+ * with a serial of its own
+ *
+ * @author Amir Lazarovich
+ */
+public final class AccessoryIdentity {
+    ///////////////////////////////////////////////
+    // Members
+    ///////////////////////////////////////////////
+    private final String mManufacturer;
+    private final String mModel;
+    private final String mSerial;
+
+    ///////////////////////////////////////////////
+    // Constructors
+    ///////////////////////////////////////////////
+
+    /**
+     * @param manufacturer
+     * @param model
+     * @param serial       May be null if the firmware doesn't announce one
+     */
+    public AccessoryIdentity(String manufacturer, String model, String serial) {
+        if (manufacturer == null || model == null) {
+            throw new IllegalArgumentException("manufacturer and model are required");
+        }
+
+        mManufacturer = manufacturer;
+        mModel = model;
+        mSerial = serial;
+    }
+
+    ///////////////////////////////////////////////
+    // Public
+    ///////////////////////////////////////////////
+    public String getManufacturer() {
+        return mManufacturer;
+    }
+
+    public String getModel() {
+        return mModel;
+    }
+
+    public String getSerial() {
+        return mSerial;
+    }
+
+    ///////////////////////////////////////////////
+    // Overrides & Implementations
+    ///////////////////////////////////////////////
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+
+        if (!(o instanceof AccessoryIdentity)) {
+            return false;
+        }
+
+        AccessoryIdentity other = (AccessoryIdentity) o;
+        return mManufacturer.equals(other.mManufacturer) && mModel.equals(other.mModel)
+                && (mSerial == null ? other.mSerial == null : mSerial.equals(other.mSerial));
+    }
+
+    @Override
+    public int hashCode() {
+        int result = mManufacturer.hashCode();
+        result = 31 * result + mModel.hashCode();
+        result = 31 * result + (mSerial == null ? 0 : mSerial.hashCode());
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return mManufacturer + "/" + mModel + "/" + mSerial;
+    }
+}
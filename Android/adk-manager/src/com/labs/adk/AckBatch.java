@@ -0,0 +1,126 @@
+package com.labs.adk;
+
+/**
+ * Acks decoded from the ADK device and delivered together in a single hop. <br/>
+ * The first {@link #MAX_SIZE} acks are kept one by one, in the order they arrived. Should the dispatcher stall (e.g. a busy
+ * UI thread) and more acks pile up, the rest are only counted per outcome, so a stalled dispatcher never costs more memory. <br/>
+ * A batch is only valid during the {@link BatchCallback#onAcksReceived(AckBatch)} call it was handed to, since it's reused afterwards
+ *
+ * @author Amir Lazarovich
+ */
+public final class AckBatch {
+    ///////////////////////////////////////////////
+    // Constants
+    ///////////////////////////////////////////////
+    public static final int NO_SEQUENCE = -1;
+    public static final int MAX_SIZE = 256;
+    private static final int INITIAL_CAPACITY = 32;
+
+    ///////////////////////////////////////////////
+    // Members
+    ///////////////////////////////////////////////
+    private boolean[] mAcks;
+    private int[] mSequences;
+    private int mSize;
+    private int mCoalescedAcks;
+    private int mCoalescedNacks;
+
+    ///////////////////////////////////////////////
+    // Constructors
+    ///////////////////////////////////////////////
+    AckBatch() {
+        mAcks = new boolean[INITIAL_CAPACITY];
+        mSequences = new int[INITIAL_CAPACITY];
+    }
+
+    ///////////////////////////////////////////////
+    // Public
+    ///////////////////////////////////////////////
+
+    /**
+     * @return Number of acks kept one by one in this batch, at most {@link #MAX_SIZE}
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * @return Number of acks that arrived after the first {@link #MAX_SIZE}, only counted
+     */
+    public int getCoalescedAcks() {
+        return mCoalescedAcks;
+    }
+
+    /**
+     * @return Number of nacks that arrived after the first {@link #MAX_SIZE}, only counted
+     */
+    public int getCoalescedNacks() {
+        return mCoalescedNacks;
+    }
+
+    /**
+     * @param index
+     * @return Whether the ADK device acked (true) or nacked (false) the command
+     */
+    public boolean isAck(int index) {
+        checkIndex(index);
+        return mAcks[index];
+    }
+
+    /**
+     * @param index
+     * @return The sequence number of the acked command, or {@link #NO_SEQUENCE} for a plain ack
+     */
+    public int getSequence(int index) {
+        checkIndex(index);
+        return mSequences[index];
+    }
+
+    ///////////////////////////////////////////////
+    // Package
+    ///////////////////////////////////////////////
+    void add(int sequence, boolean ack) {
+        if (mSize == MAX_SIZE) {
+            if (ack) {
+                mCoalescedAcks++;
+            } else {
+                mCoalescedNacks++;
+            }
+
+            return;
+        }
+
+        if (mSize == mAcks.length) {
+            grow();
+        }
+
+        mAcks[mSize] = ack;
+        mSequences[mSize] = sequence;
+        mSize++;
+    }
+
+    void clear() {
+        mSize = 0;
+        mCoalescedAcks = 0;
+        mCoalescedNacks = 0;
+    }
+
+    ///////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////
+    private void grow() {
+        int capacity = Math.min(mAcks.length * 2, MAX_SIZE);
+        boolean[] acks = new boolean[capacity];
+        int[] sequences = new int[capacity];
+        System.arraycopy(mAcks, 0, acks, 0, mSize);
+        System.arraycopy(mSequences, 0, sequences, 0, mSize);
+        mAcks = acks;
+        mSequences = sequences;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= mSize) {
+            throw new IndexOutOfBoundsException("index: " + index + ", size: " + mSize);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.labs.adk;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Collects acks decoded by the reading thread and delivers them to the callback in batches. <br/>
+ * Acks keep piling into the same batch until the dispatcher gets around to it, so at most one delivery is ever
+ * waiting in the dispatcher's queue, no matter how fast acks come in. Past {@link AckBatch#MAX_SIZE} acks the batch only
+ * counts them, so a dispatcher that stalls doesn't grow it either
+ *
+ * @author Amir Lazarovich
+ */
+final class AckDispatcher implements Runnable {
+    ///////////////////////////////////////////////
+    // Members
+    ///////////////////////////////////////////////
+    private final Executor mDispatcher;
+    private final Callback mCallback;
+    private final Object mDeliveryLock;
+
+    private AckBatch mFilling;
+    private AckBatch mDelivering;
+    private boolean mScheduled;
+
+    ///////////////////////////////////////////////
+    // Constructors
+    ///////////////////////////////////////////////
+    AckDispatcher(Executor dispatcher, Callback callback) {
+        mDispatcher = dispatcher;
+        mCallback = callback;
+        mDeliveryLock = new Object();
+        mFilling = new AckBatch();
+        mDelivering = new AckBatch();
+    }
+
+    ///////////////////////////////////////////////
+    // Public
+    ///////////////////////////////////////////////
+
+    /**
+     * Add an ack to the current batch. Nothing is delivered until {@link #flush()} is called
+     *
+     * @param sequence The acked sequence number, or {@link AckBatch#NO_SEQUENCE}
+     * @param ack
+     */
+    synchronized void add(int sequence, boolean ack) {
+        mFilling.add(sequence, ack);
+    }
+
+    /**
+     * Schedule delivery of the current batch, unless a delivery is already scheduled and will pick it up anyway
+     */
+    void flush() {
+        synchronized (this) {
+            if (mScheduled || mFilling.size() == 0) {
+                return;
+            }
+
+            mScheduled = true;
+        }
+
+        mDispatcher.execute(this);
+    }
+
+    ///////////////////////////////////////////////
+    // Overrides & Implementations
+    ///////////////////////////////////////////////
+    @Override
+    public void run() {
+        synchronized (mDeliveryLock) {
+            AckBatch batch;
+            synchronized (this) {
+                batch = mFilling;
+                mFilling = mDelivering;
+                mDelivering = batch;
+                mScheduled = false;
+            }
+
+            try {
+                deliver(batch);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    ///////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////
+    private void deliver(AckBatch batch) {
+        if (mCallback instanceof BatchCallback) {
+            ((BatchCallback) mCallback).onAcksReceived(batch);
+        } else {
+            for (int i = 0; i < batch.size(); i++) {
+                mCallback.onAckReceived(batch.isAck(i));
+            }
+
+            for (int i = 0; i < batch.getCoalescedAcks(); i++) {
+                mCallback.onAckReceived(true);
+            }
+
+            for (int i = 0; i < batch.getCoalescedNacks(); i++) {
+                mCallback.onAckReceived(false);
+            }
+        }
+    }
+}
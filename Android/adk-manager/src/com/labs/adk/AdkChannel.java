@@ -0,0 +1,748 @@
+package com.labs.adk;
+
+import com.labs.adk.trace.TraceRecorder;
+import com.labs.adk.trace.TracingTransport;
+import com.labs.adk.transport.Transport;
+import com.labs.commons.SLog;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The protocol stack of a single ADK device: encoding, the send queue and window, decoding and ack dispatching. <br/>
+ * A channel knows nothing about Android or USB, it talks to the device through whatever {@link Transport} it was opened with,
+ * so it runs just as well on a plain JVM against a socket or an in-memory pipe. <br/>
+ * Settings (window, conflation, sequencing...) outlive the transport: a channel can be closed and reopened over a new one. <br/>
+ * Commands sent while the channel is closed, along with those still queued when it closed, can be kept in a replay buffer
+ * (see {@link #setReplayBuffer(int, ReplayPolicy)}) and are written first thing once the channel is reopened
+ *
+ * @author Amir Lazarovich
+ */
+public class AdkChannel implements CommandSubmitter {
+    ///////////////////////////////////////////////
+    // Constants
+    ///////////////////////////////////////////////
+    private static final String TAG = "AdkChannel";
+    private static final long ACK_TIMEOUT_CHECK_MILLIS = 50;
+    private static final long WRITER_STOP_TIMEOUT_MILLIS = 1000;
+    private static final long TRANSFER_THREAD_KEEP_ALIVE_SECONDS = 10;
+    public static final int DEFAULT_SEND_QUEUE_CAPACITY = 64;
+    public static final long DEFAULT_ACK_TIMEOUT_MILLIS = 1000;
+    public static final int DEFAULT_SEND_WINDOW = 8;
+
+    // adk-commands
+    public static final byte COMMAND_TELEMETRY = 4;
+
+    // adk-actions
+    public static final byte ACTION_TELEMETRY_SUBSCRIBE = 1;
+    public static final byte ACTION_TELEMETRY_UNSUBSCRIBE = 2;
+
+    /**
+     * Max number of data bytes in a single command, one less in sequenced mode. Longer data goes through
+     * {@link #startTransfer(byte, byte, byte[], int, int, TransferListener)}
+     */
+    public static final int MAX_DATA_SIZE = FrameEncoder.MAX_PAYLOAD_SIZE;
+
+    ///////////////////////////////////////////////
+    // Members
+    ///////////////////////////////////////////////
+    private final FrameEncoder mEncoder;
+    private final SendQueue mSendQueue;
+    private final PendingCommands mPending;
+    private final FrameDecoder mDecoder;
+    private final AckDispatcher mAckDispatcher;
+    private final ReplayBuffer mReplay;
+    private final LinkMetrics mMetrics;
+    private final Executor mDispatcher;
+    private final AtomicInteger mNextTransferId;
+    private final ThreadPoolExecutor mTransfers;
+    private final TelemetryStore mTelemetry;
+
+    private volatile Transport mTransport;
+    private TracingTransport mTracing;
+    private TraceRecorder mTrace;
+    private volatile FrameWriter mWriter;
+    private FrameReader mReader;
+    private ScheduledExecutorService mAckTimeouts;
+    private ScheduledFuture<?> mAckTimeoutCheck;
+    private IoScheduler mScheduler;
+    private volatile Listener mListener;
+
+    private volatile int mMaxBatchBytes;
+    private volatile int mMaxTransferSize = Transfer.DEFAULT_MAX_PAYLOAD_SIZE;
+    private volatile boolean mSequenced;
+    private volatile boolean mTelemetrySubscribed;
+    private volatile long mAckTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_ACK_TIMEOUT_MILLIS);
+
+    ///////////////////////////////////////////////
+    // Constructors
+    ///////////////////////////////////////////////
+
+    /**
+     * @param callback   Receives the acks. {@link Callback#onConnected()} and {@link Callback#onDisconnected()} are left to the owner
+     * @param dispatcher Delivers acks to the callback. See {@link Dispatchers}
+     */
+    public AdkChannel(Callback callback, Executor dispatcher) {
+        this(callback, dispatcher, DEFAULT_SEND_QUEUE_CAPACITY, OverflowPolicy.BLOCK);
+    }
+
+    /**
+     * @param callback          Receives the acks. {@link Callback#onConnected()} and {@link Callback#onDisconnected()} are left to the owner
+     * @param dispatcher        Delivers acks to the callback. See {@link Dispatchers}
+     * @param sendQueueCapacity Max number of commands waiting to be written to the ADK device
+     * @param overflowPolicy    What to do with commands sent while the queue is full
+     */
+    public AdkChannel(Callback callback, Executor dispatcher, int sendQueueCapacity, OverflowPolicy overflowPolicy) {
+        mMetrics = new LinkMetrics();
+        // a full queue plus the batch being written
+        mEncoder = new FrameEncoder(sendQueueCapacity + FrameWriter.MAX_BATCH_FRAMES);
+        mSendQueue = new SendQueue(sendQueueCapacity, overflowPolicy, mEncoder);
+        mPending = new PendingCommands(mMetrics);
+        mPending.setWindow(DEFAULT_SEND_WINDOW);
+        mDecoder = new FrameDecoder(new InboundListener());
+        mAckDispatcher = new AckDispatcher(dispatcher, callback);
+        mDispatcher = dispatcher;
+        mNextTransferId = new AtomicInteger();
+        // a single thread, and only while there are transfers to send
+        mTransfers = new ThreadPoolExecutor(0, 1, TRANSFER_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(null, runnable, Transfer.TAG);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        mTelemetry = new TelemetryStore(TelemetryStore.DEFAULT_CAPACITY);
+        mReplay = new ReplayBuffer(mEncoder);
+    }
+
+    ///////////////////////////////////////////////
+    // Public
+    ///////////////////////////////////////////////
+
+    /**
+     * Start talking to the ADK device over <code>transport</code>
+     *
+     * @param transport
+     * @throws IllegalStateException If the channel is already open
+     */
+    public synchronized void open(Transport transport) {
+        if (mTransport != null) {
+            throw new IllegalStateException("Channel is already open");
+        }
+
+        mDecoder.reset();
+        mEncoder.setDirect(transport.prefersDirectBuffers());
+        mTracing = new TracingTransport(transport);
+        mTracing.setRecorder(mTrace);
+        LinkListener linkListener = new LinkListener(transport);
+        mReader = new FrameReader(mTracing, mDecoder, mAckDispatcher, mMetrics, linkListener);
+        mWriter = new FrameWriter(mSendQueue, mEncoder, mPending, mTracing, mMaxBatchBytes, mMetrics, linkListener);
+        final FrameWriter writer = mWriter;
+        mAckTimeouts = (mScheduler == null) ? Executors.newSingleThreadScheduledExecutor() : null;
+        ScheduledExecutorService ackTimeouts = (mScheduler == null) ? mAckTimeouts : mScheduler.timers();
+        mAckTimeoutCheck = ackTimeouts.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                mPending.expire(System.nanoTime(), mAckTimeoutNanos);
+                // expired commands free up credits
+                writer.wake();
+            }
+        }, ACK_TIMEOUT_CHECK_MILLIS, ACK_TIMEOUT_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+
+        // replayed frames must be queued before anything sent from now on
+        synchronized (mReplay) {
+            int replayed = mReplay.drainTo(mSendQueue);
+            if (replayed > 0) {
+                SLog.d(TAG, "Replaying %d commands", replayed);
+            }
+
+            mTransport = transport;
+        }
+
+        if (mScheduler == null) {
+            mReader.start();
+            mWriter.start();
+        } else {
+            mScheduler.start(mReader, mWriter);
+        }
+
+        // the device forgets its subscriber once the connection is gone
+        if (mTelemetrySubscribed) {
+            enqueue(COMMAND_TELEMETRY, ACTION_TELEMETRY_SUBSCRIBE, null, null, true);
+        }
+    }
+
+    /**
+     * Stop talking to the ADK device and close the transport. Queued commands move to the replay buffer as long as it has
+     * room and are dropped otherwise. Pending ones fail
+     */
+    public synchronized void close() {
+        Transport transport = mTransport;
+        if (transport == null) {
+            return;
+        }
+
+        mTransport = null;
+        FrameWriter writer = mWriter;
+        writer.stop();
+        mReader.stop();
+        mAckTimeoutCheck.cancel(false);
+        if (mAckTimeouts != null) {
+            mAckTimeouts.shutdownNow();
+        }
+
+        mWriter = null;
+        mReader = null;
+        mTracing = null;
+        mAckTimeouts = null;
+        mAckTimeoutCheck = null;
+
+        try {
+            transport.close();
+        } catch (IOException e) {
+            SLog.e(TAG, e, "Couldn't close transport");
+        }
+
+        // a writer still on its way out could otherwise take frames meant for the next transport
+        try {
+            if (!writer.awaitTermination(WRITER_STOP_TIMEOUT_MILLIS)) {
+                SLog.w(TAG, "Writer didn't stop in time");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // commands that didn't make it to the device yet get another chance once reopened. Senders queue under the same
+        // lock, so nothing gets in behind the frames moved here
+        synchronized (mReplay) {
+            Frame frame;
+            while ((frame = mSendQueue.poll(Integer.MAX_VALUE)) != null) {
+                if (!mReplay.offer(frame)) {
+                    drop(frame);
+                }
+            }
+
+            mSendQueue.clear();
+        }
+
+        mPending.clear(new IOException("Disconnected from the ADK device"));
+    }
+
+    /**
+     * Like {@link #close()}, but only if the channel is still open over <code>transport</code>. <br/>
+     * Lets an owner that lost a race with a newer connection close its own transport without touching the newer one
+     *
+     * @param transport
+     */
+    public synchronized void close(Transport transport) {
+        if (mTransport == transport) {
+            close();
+        }
+    }
+
+    /**
+     * Run the channel's reading, writing and ack timeouts on threads managed along with other channels', see {@link IoScheduler}.
+     * Takes effect the next time the channel is opened
+     *
+     * @param scheduler May be null for threads of the channel's own
+     */
+    public synchronized void setIoScheduler(IoScheduler scheduler) {
+        mScheduler = scheduler;
+    }
+
+    /**
+     * Drop the commands waiting in the replay buffer, e.g. when the owner is done with the ADK device rather than
+     * waiting for it to come back
+     */
+    public void clearReplayBuffer() {
+        mReplay.clear();
+    }
+
+    /**
+     * @return true if the channel was opened and not closed since
+     */
+    public boolean isOpen() {
+        return mTransport != null;
+    }
+
+    /**
+     * Set who gets notified when the transport fails
+     *
+     * @param listener
+     */
+    public synchronized void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Send command to the ADK. Commands are written to the device in the order they were sent
+     *
+     * @param command
+     * @param action
+     * @param data    Up to {@link #MAX_DATA_SIZE} bytes. May also be null if there's no data
+     * @return false if the command was dropped, either because the channel isn't open and the replay buffer didn't take it,
+     * or because the send queue was full and the overflow policy is {@link OverflowPolicy#REJECT}
+     * @throws IllegalArgumentException If the data is too long for a single command
+     */
+    @Override
+    public boolean sendCommand(byte command, byte action, byte[] data) {
+        return enqueue(command, action, data, null, true);
+    }
+
+    /**
+     * Send command to the ADK and track its ack. <br/>
+     * In sequenced mode (see {@link #setSequencedCommands(boolean)}) the ack is matched to the command by its sequence number,
+     * otherwise it's matched to the oldest command still waiting for an ack
+     *
+     * @param command
+     * @param action
+     * @param data    Up to {@link #MAX_DATA_SIZE} bytes. May also be null if there's no data
+     * @return A future that completes once the ADK device acked the command. It fails with a
+     * {@link java.util.concurrent.TimeoutException} if no ack arrives in time, or right away if the command was dropped
+     * @throws IllegalArgumentException If the data is too long for a single command
+     */
+    @Override
+    public CommandFuture submitCommand(byte command, byte action, byte[] data) {
+        return submitCommand(command, action, data, true);
+    }
+
+    /**
+     * Like {@link #submitCommand(byte, byte, byte[])}, for a command that may not be conflatable (see {@link #setConflating(boolean)}
+     * and {@link ReplayPolicy#CONFLATE})
+     *
+     * @param command
+     * @param action
+     * @param data        Up to {@link #MAX_DATA_SIZE} bytes. May also be null if there's no data
+     * @param conflatable false for a command that must never replace, or be replaced by, another command with the same
+     *                    command and action, e.g. one of a series whose data depends on its place in it
+     * @return
+     * @throws IllegalArgumentException If the data is too long for a single command
+     */
+    @Override
+    public CommandFuture submitCommand(byte command, byte action, byte[] data, boolean conflatable) {
+        CommandFuture future = new CommandFuture();
+        if (!enqueue(command, action, data, future, conflatable)) {
+            future.fail(new IOException("Command dropped"));
+        }
+
+        return future;
+    }
+
+    /**
+     * Send a command whose data may not fit in a single frame, as a series of fragments put back together by the ADK device. <br/>
+     * The device must support fragmented transfers (see Adk_2012_leds_dashboard.ino). Fragments take their turn in the send
+     * queue and window like any other command, and retry on their own, see {@link Transfer}. Transfers run one at a time,
+     * a transfer started while another one is running waits for it to end
+     *
+     * @param command
+     * @param action
+     * @param data         Up to the device's max transfer size, see {@link #setMaxTransferSize(int)}
+     * @param fragmentSize Data bytes per fragment. A fragment and its headers must fit in the device's receive buffer,
+     *                     see {@link Transfer#DEFAULT_FRAGMENT_SIZE}
+     * @param maxInFlight  Max number of fragments waiting for an ack at the same time. More than the send window only queues them
+     * @param listener     Follows the transfer through the channel's dispatcher. May be null
+     * @return The transfer, already started
+     * @throws IllegalArgumentException If the data is too long, or the fragment size is out of range
+     */
+    public Transfer startTransfer(byte command, byte action, byte[] data, int fragmentSize, int maxInFlight,
+                                  TransferListener listener) {
+        int maxTransferSize = mMaxTransferSize;
+        if (data.length > maxTransferSize) {
+            throw new IllegalArgumentException("data can't be longer than the device's " + maxTransferSize + " bytes");
+        }
+
+        Transfer transfer = new Transfer(this, mDispatcher, mTransfers, mNextTransferId.getAndIncrement(), command, action,
+                data, fragmentSize, maxInFlight, listener);
+        transfer.start();
+        return transfer;
+    }
+
+    /**
+     * Choose whether commands carry a sequence number that the ADK device echoes back in its ack. <br/>
+     * The ADK device must support sequenced commands (see Adk_2012_leds_dashboard.ino)
+     *
+     * @param sequenced
+     */
+    public void setSequencedCommands(boolean sequenced) {
+        mSequenced = sequenced;
+    }
+
+    /**
+     * Set how long to wait for an ack before failing a command
+     *
+     * @param timeoutMillis
+     */
+    public void setAckTimeout(long timeoutMillis) {
+        mAckTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    }
+
+    /**
+     * Choose whether a command replaces a queued, not yet written command with the same command and action. <br/>
+     * Useful when only the latest state matters, e.g. a toggle flapped quickly or a pattern that outruns the USB link.
+     * The futures of replaced commands are cancelled. Commands submitted as not conflatable
+     * (see {@link #submitCommand(byte, byte, byte[], boolean)}) are never replaced
+     *
+     * @param conflating
+     */
+    public void setConflating(boolean conflating) {
+        mSendQueue.setConflating(conflating);
+    }
+
+    /**
+     * @return Number of commands that were replaced by a newer command before being written
+     */
+    public long getConflatedCount() {
+        return mSendQueue.getConflatedCount();
+    }
+
+    /**
+     * Let the writer send several queued commands in a single transfer. Takes effect the next time the channel is opened. <br/>
+     * The ADK device must handle every message in a transfer rather than only the first one (see Adk_2012_leds_dashboard.ino),
+     * and a transfer must fit in its receive buffer
+     *
+     * @param maxBatchBytes Max size of a transfer, e.g. the device's 16 byte receive buffer. 0 writes each command on its own
+     */
+    public void setMaxBatchBytes(int maxBatchBytes) {
+        mMaxBatchBytes = maxBatchBytes;
+    }
+
+    /**
+     * Set the largest payload the ADK device puts back together, see {@link #startTransfer(byte, byte, byte[], int, int, TransferListener)}.
+     * A longer transfer is rejected before anything is sent. A device that holds less than this nacks the transfer's start,
+     * which fails the transfer
+     *
+     * @param maxTransferSize Up to {@link Transfer#MAX_PAYLOAD_SIZE}. Defaults to {@link Transfer#DEFAULT_MAX_PAYLOAD_SIZE},
+     *                        what Adk_2012_leds_dashboard.ino holds
+     * @throws IllegalArgumentException If out of range
+     */
+    public void setMaxTransferSize(int maxTransferSize) {
+        if (maxTransferSize < 0 || maxTransferSize > Transfer.MAX_PAYLOAD_SIZE) {
+            throw new IllegalArgumentException("maxTransferSize must be between 0 and " + Transfer.MAX_PAYLOAD_SIZE);
+        }
+
+        mMaxTransferSize = maxTransferSize;
+    }
+
+    public int getMaxTransferSize() {
+        return mMaxTransferSize;
+    }
+
+    /**
+     * @return Number of writes made to the transport so far. Compare with {@link #getFramesWritten()} to see how well batching works
+     */
+    public long getWrites() {
+        return mMetrics.getWrites();
+    }
+
+    /**
+     * @return Number of commands written to the transport so far
+     */
+    public long getFramesWritten() {
+        return mMetrics.getFramesSent();
+    }
+
+    /**
+     * Record every frame written to and every read from the ADK device, starting right away if the channel is open. <br/>
+     * See {@link com.labs.adk.trace.TraceReplayer} for playing the recording back
+     *
+     * @param recorder May be null to stop recording. Closing it is left to the caller
+     */
+    public synchronized void setTraceRecorder(TraceRecorder recorder) {
+        mTrace = recorder;
+        if (mTracing != null) {
+            mTracing.setRecorder(recorder);
+        }
+    }
+
+    /**
+     * Keep commands sent while the channel is closed and write them once it's reopened, instead of dropping them. <br/>
+     * The replay buffer can't hold more commands than the send queue, since it's emptied into it all at once
+     *
+     * @param capacity Max number of commands to keep. 0 (the default) drops commands sent while closed
+     * @param policy   What to do with commands sent while the replay buffer is full
+     */
+    public void setReplayBuffer(int capacity, ReplayPolicy policy) {
+        mReplay.configure(Math.min(capacity, mSendQueue.capacity()), policy);
+    }
+
+    /**
+     * @return Number of commands waiting in the replay buffer
+     */
+    public int getReplayBufferSize() {
+        return mReplay.size();
+    }
+
+    /**
+     * @return Number of commands written after the channel was reopened rather than dropped
+     */
+    public long getReplayedCount() {
+        return mReplay.getReplayedCount();
+    }
+
+    /**
+     * @return Number of commands dropped because the replay buffer was full
+     */
+    public long getReplayDroppedCount() {
+        return mReplay.getDroppedCount();
+    }
+
+    /**
+     * Set the max number of commands that may wait for an ack at the same time. Once the window is full, further commands
+     * wait in the send queue until earlier ones are acked (or time out)
+     *
+     * @param window Between 1 (stop-and-wait) and 256
+     */
+    public void setSendWindow(int window) {
+        mPending.setWindow(window);
+    }
+
+    public int getSendWindow() {
+        return mPending.getWindow();
+    }
+
+    /**
+     * @return Number of commands written to the ADK device that weren't acked yet
+     */
+    public int getPendingAckCount() {
+        return mPending.size();
+    }
+
+    /**
+     * @return Round trip time of the most recently acked command, in nanoseconds, or -1 if none was acked yet
+     */
+    public long getLastRoundTripNanos() {
+        return mPending.getLastRoundTripNanos();
+    }
+
+    /**
+     * @return Number of commands waiting to be written to the ADK device
+     */
+    public int getSendQueueDepth() {
+        return mSendQueue.size();
+    }
+
+    /**
+     * @return Number of inbound bytes that couldn't be parsed as messages
+     */
+    public long getDecodeErrors() {
+        return mDecoder.getDecodeErrors();
+    }
+
+    /**
+     * Take a snapshot of the link metrics. Metrics are kept for the lifetime of the channel, across reconnects
+     *
+     * @return
+     */
+    public MetricsSnapshot getMetrics() {
+        MetricsSnapshot snapshot = new MetricsSnapshot();
+        fillMetrics(snapshot);
+        return snapshot;
+    }
+
+    /**
+     * @return Telemetry samples sent by the ADK device. Kept across reopens of the channel
+     */
+    public TelemetryStore getTelemetry() {
+        return mTelemetry;
+    }
+
+    /**
+     * Choose whether the ADK device streams telemetry (see Adk_2012_leds_dashboard.ino). Off by default, so a channel that
+     * doesn't care about telemetry only ever reads acks. <br/>
+     * The subscription is sent again every time the channel is opened. Its ack reaches the callback like any other
+     *
+     * @param subscribed
+     */
+    public void setTelemetrySubscribed(boolean subscribed) {
+        mTelemetrySubscribed = subscribed;
+        if (isOpen()) {
+            enqueue(COMMAND_TELEMETRY, subscribed ? ACTION_TELEMETRY_SUBSCRIBE : ACTION_TELEMETRY_UNSUBSCRIBE, null, null, true);
+        }
+    }
+
+    public boolean isTelemetrySubscribed() {
+        return mTelemetrySubscribed;
+    }
+
+    ///////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////
+
+    /**
+     * Queue a command for the writer
+     *
+     * @param command
+     * @param action
+     * @param data
+     * @param future      May be null if nobody waits for the ack
+     * @param conflatable
+     * @return false if the command was dropped
+     */
+    private boolean enqueue(byte command, byte action, byte[] data, CommandFuture future, boolean conflatable) {
+        Frame frame = mEncoder.encode(command, action, data, mSequenced);
+        frame.mFuture = future;
+        frame.mConflatable = conflatable;
+        try {
+            while (true) {
+                // open() and close() move frames between the replay buffer and the queue under this lock, so checking
+                // whether we're open and queueing must happen under it too, or a frame could end up on the wrong side
+                synchronized (mReplay) {
+                    if (mTransport == null) {
+                        if (mReplay.offer(frame)) {
+                            return true;
+                        }
+
+                        mEncoder.recycle(frame);
+                        SLog.d(TAG, "sendCommand: Send failed: channel isn't open");
+                        return false;
+                    }
+
+                    if (mSendQueue.offer(frame)) {
+                        break;
+                    }
+
+                    if (mSendQueue.policy() == OverflowPolicy.REJECT) {
+                        mEncoder.recycle(frame);
+                        SLog.w(TAG, "sendCommand: Send queue is full, command dropped");
+                        return false;
+                    }
+                }
+
+                // wait for room without the lock, close() may need it meanwhile
+                mSendQueue.awaitRoom();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            mEncoder.recycle(frame);
+            SLog.w(TAG, "sendCommand: Interrupted while waiting for room, command dropped");
+            return false;
+        }
+
+        wakeWriter();
+        return true;
+    }
+
+    /**
+     * Copy the current metrics of this channel into <code>snapshot</code>
+     *
+     * @param snapshot
+     */
+    void fillMetrics(MetricsSnapshot snapshot) {
+        mMetrics.fill(snapshot);
+        snapshot.mDecodeErrors = mDecoder.getDecodeErrors();
+        snapshot.mConflated = mSendQueue.getConflatedCount();
+        snapshot.mSendQueueDepth = mSendQueue.size();
+        snapshot.mMaxSendQueueDepth = mSendQueue.getMaxDepth();
+        snapshot.mPendingAcks = mPending.size();
+        snapshot.mReplayBufferSize = mReplay.size();
+    }
+
+    /**
+     * Let a writer running on a shared scheduler know there may be something for it to do
+     */
+    private void wakeWriter() {
+        FrameWriter writer = mWriter;
+        if (writer != null) {
+            writer.wake();
+        }
+    }
+
+    /**
+     * Drop a frame that was already queued, failing its future
+     *
+     * @param frame
+     */
+    private void drop(Frame frame) {
+        if (frame.mFuture != null) {
+            frame.mFuture.fail(new IOException("Disconnected from the ADK device"));
+        }
+
+        mEncoder.recycle(frame);
+    }
+
+    /**
+     * Report a failed transport, unless the channel has moved on to another transport (or was closed) in the meantime
+     *
+     * @param transport
+     * @param e
+     */
+    private void onLinkFailed(Transport transport, IOException e) {
+        // no locking here: close() may be holding the lock while waiting for the writer that reports this
+        if (transport != mTransport) {
+            return;
+        }
+
+        Listener listener = mListener;
+        if (listener != null) {
+            listener.onLinkFailed(e);
+        }
+    }
+
+    ///////////////////////////////////////////////
+    // Inner classes
+    ///////////////////////////////////////////////
+
+    /**
+     * Notified when the transport can no longer be read from or written to. The channel stays open until closed by its owner
+     */
+    public interface Listener {
+        void onLinkFailed(IOException e);
+    }
+
+    /**
+     * Matches messages decoded by the reading thread to pending commands and batches them up for the callback
+     */
+    private class InboundListener implements FrameDecoder.Listener {
+        @Override
+        public void onAck(boolean ack) {
+            mMetrics.onAck(ack);
+            mPending.completeOldest(ack, System.nanoTime());
+            mAckDispatcher.add(AckBatch.NO_SEQUENCE, ack);
+            wakeWriter();
+        }
+
+        @Override
+        public void onSequencedAck(int sequence, boolean ack) {
+            mMetrics.onAck(ack);
+            mPending.complete(sequence, ack, System.nanoTime());
+            mAckDispatcher.add(sequence, ack);
+            wakeWriter();
+        }
+
+        @Override
+        public void onTelemetry(int channel, int value) {
+            mTelemetry.record(channel, value, System.nanoTime());
+        }
+    }
+
+    /**
+     * Relays reader and writer failures of a specific transport
+     */
+    private class LinkListener implements FrameReader.Listener, FrameWriter.Listener {
+        private final Transport mLinkTransport;
+
+        LinkListener(Transport transport) {
+            mLinkTransport = transport;
+        }
+
+        @Override
+        public void onReadFailed(IOException e) {
+            onLinkFailed(mLinkTransport, e);
+        }
+
+        @Override
+        public void onWriteFailed(IOException e) {
+            onLinkFailed(mLinkTransport, e);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.labs.adk;
+
+/**
+ * A single ADK device driven by an {@link AdkHub}: its identity and the channel talking to it. <br/>
+ * The device outlives its connections, so its settings, replay buffer and metrics carry over when it's attached again
+ *
+ * @author Amir Lazarovich
+ */
+public final class AdkDevice implements CommandSubmitter {
+    ///////////////////////////////////////////////
+    // Members
+    ///////////////////////////////////////////////
+    private final AccessoryIdentity mIdentity;
+    private final AdkChannel mChannel;
+
+    ///////////////////////////////////////////////
+    // Constructors
+    ///////////////////////////////////////////////
+    AdkDevice(AccessoryIdentity identity, AdkChannel channel) {
+        mIdentity = identity;
+        mChannel = channel;
+    }
+
+    ///////////////////////////////////////////////
+    // Public
+    ///////////////////////////////////////////////
+    public AccessoryIdentity getIdentity() {
+        return mIdentity;
+    }
+
+    /**
+     * @return The device's channel, for settings and metrics beyond the ones offered here
+     */
+    public AdkChannel getChannel() {
+        return mChannel;
+    }
+
+    /**
+     * @return true if the device is attached
+     */
+    public boolean isConnected() {
+        return mChannel.isOpen();
+    }
+
+    /**
+     * See {@link AdkChannel#submitCommand(byte, byte, byte[])}
+     *
+     * @param command
+     * @param action
+     * @param data    May also be null if there's no data
+     * @return
+     * @throws IllegalArgumentException If the data is too long for a single command
+     */
+    @Override
+    public CommandFuture submitCommand(byte command, byte action, byte[] data) {
+        return mChannel.submitCommand(command, action, data);
+    }
+
+    /**
+     * See {@link AdkChannel#submitCommand(byte, byte, byte[], boolean)}
+     */
+    @Override
+    public CommandFuture submitCommand(byte command, byte action, byte[] data, boolean conflatable) {
+        return mChannel.submitCommand(command, action, data, conflatable);
+    }
+
+    public MetricsSnapshot getMetrics() {
+        return mChannel.getMetrics();
+    }
+
+    ///////////////////////////////////////////////
+    // Overrides & Implementations
+    ///////////////////////////////////////////////
+
+    /**
+     * See {@link AdkChannel#sendCommand(byte, byte, byte[])}
+     */
+    @Override
+    public boolean sendCommand(byte command, byte action, byte[] data) {
+        return mChannel.sendCommand(command, action, data);
+    }
+
+    @Override
+    public String toString() {
+        return mIdentity.toString();
+    }
+}
@@ -0,0 +1,291 @@
+package com.labs.adk;
+
+import com.labs.adk.transport.Transport;
+import com.labs.commons.SLog;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Drives several ADK devices at once, each through a channel of its own, told apart by their {@link AccessoryIdentity}. <br/>
+ * Every device has its own send queue, window, reader and metrics, so a slow or lost device never holds back the others,
+ * while all of them share the threads of a single {@link IoScheduler}. Commands go either to one device or to all of them. <br/>
+ * The hub doesn't look for devices itself: whoever finds one (a socket server, a simulator, a USB host stack...) attaches it
+ * along with its transport. Android's accessory mode only ever exposes a single accessory, which is what {@link ADKManager}
+ * is for
+ *
+ * @author Amir Lazarovich
+ */
+public class AdkHub {
+    ///////////////////////////////////////////////
+    // Constants
+    ///////////////////////////////////////////////
+    private static final String TAG = "AdkHub";
+
+    ///////////////////////////////////////////////
+    // Members
+    ///////////////////////////////////////////////
+    private final Listener mListener;
+    private final Executor mDispatcher;
+    private final IoScheduler mScheduler;
+    private final ConcurrentMap<AccessoryIdentity, AdkDevice> mDevices;
+
+    ///////////////////////////////////////////////
+    // Constructors
+    ///////////////////////////////////////////////
+
+    /**
+     * @param listener   Notified of devices coming and going, and of their acks
+     * @param dispatcher Delivers everything to the listener. See {@link Dispatchers}
+     * @param scheduler  Threads shared by every device. Shutting it down is left to the caller
+     */
+    public AdkHub(Listener listener, Executor dispatcher, IoScheduler scheduler) {
+        mListener = listener;
+        mDispatcher = dispatcher;
+        mScheduler = scheduler;
+        mDevices = new ConcurrentHashMap<AccessoryIdentity, AdkDevice>();
+    }
+
+    ///////////////////////////////////////////////
+    // Public
+    ///////////////////////////////////////////////
+
+    /**
+     * Get the device with this identity, adding it if the hub doesn't know it yet. <br/>
+     * Lets a device be set up (window, sequencing, batching...) before it's attached, since some settings only take
+     * effect when its channel opens
+     *
+     * @param identity
+     * @return
+     */
+    public AdkDevice add(AccessoryIdentity identity) {
+        AdkDevice device = mDevices.get(identity);
+        if (device != null) {
+            return device;
+        }
+
+        DeviceCallback callback = new DeviceCallback();
+        AdkChannel channel = new AdkChannel(callback, mDispatcher);
+        channel.setIoScheduler(mScheduler);
+        device = new AdkDevice(identity, channel);
+        AdkDevice existing = mDevices.putIfAbsent(identity, device);
+        if (existing != null) {
+            return existing;
+        }
+
+        callback.mDevice = device;
+        channel.setListener(new LinkListener(device));
+        return device;
+    }
+
+    /**
+     * Start talking to a device over <code>transport</code>. A device that's already attached drops its previous transport
+     * for the new one, e.g. when it's plugged back in before its old link was found dead
+     *
+     * @param identity
+     * @param transport
+     * @return The device
+     */
+    public AdkDevice attach(AccessoryIdentity identity, Transport transport) {
+        AdkDevice device = add(identity);
+        AdkChannel channel = device.getChannel();
+        synchronized (channel) {
+            channel.close();
+            channel.open(transport);
+        }
+
+        SLog.i(TAG, "Attached %s", identity);
+        dispatchAttached(device);
+        return device;
+    }
+
+    /**
+     * Stop talking to a device and close its transport. The hub keeps the device, along with commands sent to it meanwhile
+     * if it has a replay buffer, until it's attached again or removed
+     *
+     * @param identity
+     */
+    public void detach(AccessoryIdentity identity) {
+        AdkDevice device = mDevices.get(identity);
+        if (device != null && close(device)) {
+            dispatchDetached(device, null);
+        }
+    }
+
+    /**
+     * Detach a device and forget about it
+     *
+     * @param identity
+     */
+    public void remove(AccessoryIdentity identity) {
+        detach(identity);
+        AdkDevice device = mDevices.remove(identity);
+        if (device != null) {
+            device.getChannel().clearReplayBuffer();
+        }
+    }
+
+    /**
+     * Detach and forget every device
+     */
+    public void shutdown() {
+        for (AccessoryIdentity identity : mDevices.keySet()) {
+            remove(identity);
+        }
+    }
+
+    /**
+     * @param identity
+     * @return The device, or null if the hub doesn't know it
+     */
+    public AdkDevice getDevice(AccessoryIdentity identity) {
+        return mDevices.get(identity);
+    }
+
+    /**
+     * @return Every device the hub knows, attached or not
+     */
+    public List<AdkDevice> getDevices() {
+        return new ArrayList<AdkDevice>(mDevices.values());
+    }
+
+    public int getDeviceCount() {
+        return mDevices.size();
+    }
+
+    /**
+     * Send command to a single device
+     *
+     * @param identity
+     * @param command
+     * @param action
+     * @param data     May also be null if there's no data
+     * @return false if the hub doesn't know the device or the command was dropped, see {@link AdkChannel#sendCommand(byte, byte, byte[])}
+     */
+    public boolean sendCommand(AccessoryIdentity identity, byte command, byte action, byte[] data) {
+        AdkDevice device = mDevices.get(identity);
+        return device != null && device.sendCommand(command, action, data);
+    }
+
+    /**
+     * Send command to every device the hub knows. Each device gets it through its own queue, so a device that's falling
+     * behind doesn't delay the others (unless its queue is full and its overflow policy blocks)
+     *
+     * @param command
+     * @param action
+     * @param data    May also be null if there's no data. Shared by every device, so it must not change afterwards
+     * @return Number of devices that took the command
+     */
+    public int broadcast(byte command, byte action, byte[] data) {
+        int sent = 0;
+        for (AdkDevice device : mDevices.values()) {
+            if (device.sendCommand(command, action, data)) {
+                sent++;
+            }
+        }
+
+        return sent;
+    }
+
+    ///////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////
+
+    /**
+     * @param device
+     * @return false if the device wasn't attached, so there's nobody to tell it was detached
+     */
+    private static boolean close(AdkDevice device) {
+        AdkChannel channel = device.getChannel();
+        synchronized (channel) {
+            if (!channel.isOpen()) {
+                return false;
+            }
+
+            channel.close();
+            return true;
+        }
+    }
+
+    private void dispatchAttached(final AdkDevice device) {
+        mDispatcher.execute(new Runnable() {
+            @Override
+            public void run() {
+                mListener.onAttached(device);
+            }
+        });
+    }
+
+    private void dispatchDetached(final AdkDevice device, final IOException cause) {
+        mDispatcher.execute(new Runnable() {
+            @Override
+            public void run() {
+                mListener.onDetached(device, cause);
+            }
+        });
+    }
+
+    ///////////////////////////////////////////////
+    // Inner classes
+    ///////////////////////////////////////////////
+
+    /**
+     * Notified through the hub's dispatcher
+     */
+    public interface Listener {
+        void onAttached(AdkDevice device);
+
+        /**
+         * @param device
+         * @param cause  Why the link was lost, or null if the device was detached by the hub's owner
+         */
+        void onDetached(AdkDevice device, IOException cause);
+
+        void onAckReceived(AdkDevice device, boolean ack);
+    }
+
+    /**
+     * Relays a device's acks to the hub's listener, which the channel already calls through the dispatcher
+     */
+    private final class DeviceCallback implements Callback {
+        volatile AdkDevice mDevice;
+
+        @Override
+        public void onAckReceived(boolean ack) {
+            mListener.onAckReceived(mDevice, ack);
+        }
+
+        @Override
+        public void onConnected() {
+            // the hub reports attaching on its own
+        }
+
+        @Override
+        public void onDisconnected() {
+            // the hub reports detaching on its own
+        }
+    }
+
+    /**
+     * Detaches a device whose link failed. The device stays with the hub, waiting to be attached again
+     */
+    private final class LinkListener implements AdkChannel.Listener {
+        private final AdkDevice mDevice;
+
+        LinkListener(AdkDevice device) {
+            mDevice = device;
+        }
+
+        @Override
+        public void onLinkFailed(IOException e) {
+            SLog.e(TAG, e, "Lost the link to %s", mDevice.getIdentity());
+            if (close(mDevice)) {
+                dispatchDetached(mDevice, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.labs.adk;
+
+import java.util.Random;
+
+/**
+ * Jittered exponential backoff between connection attempts. <br/>
+ * Every delay is picked at random between half and all of the current ceiling, so several devices (or apps) that lost
+ * their link at the same moment don't keep retrying in lockstep. The ceiling doubles after each attempt up to a max
+ *
+ * @author Amir Lazarovich
+ */
+final class Backoff {
+    ///////////////////////////////////////////////
+    // Constants
+    ///////////////////////////////////////////////
+    private static final int MAX_SHIFT = 30;
+
+    ///////////////////////////////////////////////
+    // Members
+    ///////////////////////////////////////////////
+    private final long mInitialMillis;
+    private final long mMaxMillis;
+    private final Random mRandom;
+    private int mAttempt;
+
+    ///////////////////////////////////////////////
+    // Constructors
+    ///////////////////////////////////////////////
+    Backoff(long initialMillis, long maxMillis) {
+        if (initialMillis < 1 || maxMillis < initialMillis) {
+            throw new IllegalArgumentException("Invalid backoff range: " + initialMillis + " - " + maxMillis);
+        }
+
+        mInitialMillis = initialMillis;
+        mMaxMillis = maxMillis;
+        mRandom = new Random();
+    }
+
+    ///////////////////////////////////////////////
+    // Package
+    ///////////////////////////////////////////////
+
+    /**
+     * @return How long to wait before the next attempt, in milliseconds
+     */
+    long nextDelayMillis() {
+        long ceiling = mInitialMillis << Math.min(mAttempt, MAX_SHIFT);
+        if (ceiling <= 0 || ceiling > mMaxMillis) {
+            ceiling = mMaxMillis;
+        } else {
+            mAttempt++;
+        }
+
+        long half = ceiling / 2;
+        return half + (long) (mRandom.nextDouble() * (ceiling - half));
+    }
+
+    /**
+     * Start over from the initial delay, e.g. once connected or when the device is known to be back
+     */
+    void reset() {
+        mAttempt = 0;
+    }
+}
@@ -0,0 +1,17 @@
+package com.labs.adk;
+
+/**
+ * A {@link Callback} that receives acks in batches rather than one by one. <br/>
+ * All the acks decoded since the previous delivery are handed over in a single call, which saves a hop per ack
+ * when the ADK device acks at a high rate
+ *
+ * @author Amir Lazarovich
+ */
+public interface BatchCallback extends Callback {
+    /**
+     * Callback invoked with all the acks received since the last call. {@link #onAckReceived(boolean)} isn't invoked for these acks
+     *
+     * @param batch Only valid during this call
+     */
+    void onAcksReceived(AckBatch batch);
+}
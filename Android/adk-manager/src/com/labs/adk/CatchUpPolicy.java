@@ -0,0 +1,18 @@
+package com.labs.adk;
+
+/**
+ * What a {@link Sequencer} does when a track falls behind, i.e. more than one of its steps is already due
+ *
+ * @author Amir Lazarovich
+ */
+public enum CatchUpPolicy {
+    /**
+     * Send every step that's due, back to back, until the track is back on schedule
+     */
+    CATCH_UP,
+
+    /**
+     * Send only the latest step that's due and skip the ones before it. Right for leds, where only the latest state matters
+     */
+    SKIP
+}
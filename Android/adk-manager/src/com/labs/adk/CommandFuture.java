@@ -0,0 +1,222 @@
+package com.labs.adk;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The pending result of a command sent through {@link ADKManager#submitCommand(byte, byte, byte[])}. <br/>
+ * Completes with the ack sent back by the ADK device, or fails with a {@link TimeoutException} if no ack arrived in time
+ *
+ * @author Amir Lazarovich
+ */
+public class CommandFuture implements Future<Boolean> {
+    ///////////////////////////////////////////////
+    // Constants
+    ///////////////////////////////////////////////
+    private static final int PENDING = 0;
+    private static final int ACKED = 1;
+    private static final int FAILED = 2;
+    private static final int CANCELLED = 3;
+
+    ///////////////////////////////////////////////
+    // Members
+    ///////////////////////////////////////////////
+    private final CountDownLatch mDone;
+    private int mState;
+    private boolean mAck;
+    private Throwable mFailure;
+    private long mRoundTripNanos = -1;
+    private Listener mListener;
+
+    ///////////////////////////////////////////////
+    // Constructors
+    ///////////////////////////////////////////////
+    CommandFuture() {
+        mDone = new CountDownLatch(1);
+    }
+
+    ///////////////////////////////////////////////
+    // Public
+    ///////////////////////////////////////////////
+
+    /**
+     * @return The time between writing the command and receiving its ack, in nanoseconds, or -1 if the command wasn't acked
+     */
+    public synchronized long getRoundTripNanos() {
+        return mRoundTripNanos;
+    }
+
+    /**
+     * Combine the futures of a series of commands, e.g. the chunks of an upload, into one. <br/>
+     * The combined future completes with true once all commands were acked, with false once all are done and any was
+     * nacked, and fails as soon as any of them fails or gets cancelled (with a {@link CancellationException} for the latter)
+     *
+     * @param futures
+     * @return
+     */
+    public static CommandFuture all(CommandFuture... futures) {
+        final CommandFuture all = new CommandFuture();
+        if (futures.length == 0) {
+            all.complete(true, -1);
+            return all;
+        }
+
+        final AtomicInteger remaining = new AtomicInteger(futures.length);
+        final boolean[] nacked = new boolean[1];
+        Listener listener = new Listener() {
+            @Override
+            public void onDone(CommandFuture future) {
+                if (future.isCancelled()) {
+                    all.fail(new CancellationException("A command was cancelled"));
+                } else if (future.getFailure() != null) {
+                    all.fail(future.getFailure());
+                } else if (!future.isAcked()) {
+                    synchronized (nacked) {
+                        nacked[0] = true;
+                    }
+                }
+
+                if (remaining.decrementAndGet() == 0) {
+                    synchronized (nacked) {
+                        all.complete(!nacked[0], -1);
+                    }
+                }
+            }
+        };
+
+        for (CommandFuture future : futures) {
+            future.setListener(listener);
+        }
+
+        return all;
+    }
+
+    ///////////////////////////////////////////////
+    // Overrides & Implementations
+    ///////////////////////////////////////////////
+
+    /**
+     * Stop waiting for the ack. The command itself may still reach the device
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return finish(CANCELLED, false, null, -1);
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return mState == CANCELLED;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return mState != PENDING;
+    }
+
+    @Override
+    public Boolean get() throws InterruptedException, ExecutionException {
+        mDone.await();
+        return result();
+    }
+
+    @Override
+    public Boolean get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        if (!mDone.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+
+        return result();
+    }
+
+    ///////////////////////////////////////////////
+    // Package
+    ///////////////////////////////////////////////
+    boolean complete(boolean ack, long roundTripNanos) {
+        return finish(ACKED, ack, null, roundTripNanos);
+    }
+
+    boolean fail(Throwable failure) {
+        return finish(FAILED, false, failure, -1);
+    }
+
+    /**
+     * Get notified once the future is done, right away if it already is
+     *
+     * @param listener Called on whichever thread completes the future, so it must be quick and never block
+     */
+    void setListener(Listener listener) {
+        synchronized (this) {
+            if (mState == PENDING) {
+                mListener = listener;
+                return;
+            }
+        }
+
+        listener.onDone(this);
+    }
+
+    /**
+     * @return true if the future is done and the ADK device acked the command
+     */
+    synchronized boolean isAcked() {
+        return mState == ACKED && mAck;
+    }
+
+    /**
+     * @return Why the future failed, or null if it didn't
+     */
+    synchronized Throwable getFailure() {
+        return mFailure;
+    }
+
+    ///////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////
+    private boolean finish(int state, boolean ack, Throwable failure, long roundTripNanos) {
+        Listener listener;
+        synchronized (this) {
+            if (mState != PENDING) {
+                return false;
+            }
+
+            mState = state;
+            mAck = ack;
+            mFailure = failure;
+            mRoundTripNanos = roundTripNanos;
+            listener = mListener;
+            mListener = null;
+        }
+
+        mDone.countDown();
+        if (listener != null) {
+            listener.onDone(this);
+        }
+
+        return true;
+    }
+
+    private synchronized Boolean result() throws ExecutionException {
+        switch (mState) {
+            case ACKED:
+                return mAck;
+
+            case CANCELLED:
+                throw new CancellationException();
+
+            default:
+                throw new ExecutionException(mFailure);
+        }
+    }
+
+    ///////////////////////////////////////////////
+    // Inner classes
+    ///////////////////////////////////////////////
+    interface Listener {
+        void onDone(CommandFuture future);
+    }
+}
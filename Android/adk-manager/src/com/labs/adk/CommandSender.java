@@ -0,0 +1,18 @@
+package com.labs.adk;
+
+/**
+ * Anything commands can be sent through to an ADK device, e.g. an {@link ADKManager} or an {@link AdkChannel}
+ *
+ * @author Amir Lazarovich
+ */
+public interface CommandSender {
+    /**
+     * Send command to the ADK
+     *
+     * @param command
+     * @param action
+     * @param data    May also be null if there's no data
+     * @return false if the command was dropped
+     */
+    boolean sendCommand(byte command, byte action, byte[] data);
+}
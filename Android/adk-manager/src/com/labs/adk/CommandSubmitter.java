@@ -0,0 +1,31 @@
+package com.labs.adk;
+
+/**
+ * A {@link CommandSender} that also tracks the acks of the commands it sends, e.g. an {@link ADKManager}, an
+ * {@link AdkChannel} or an {@link AdkDevice}
+ *
+ * @author Amir Lazarovich
+ */
+public interface CommandSubmitter extends CommandSender {
+    /**
+     * Send command to the ADK and track its ack
+     *
+     * @param command
+     * @param action
+     * @param data    May also be null if there's no data
+     * @return A future that completes once the ADK device acked the command
+     */
+    CommandFuture submitCommand(byte command, byte action, byte[] data);
+
+    /**
+     * Like {@link #submitCommand(byte, byte, byte[])}, for a command that may not be conflatable, see {@link AdkChannel#setConflating(boolean)}
+     *
+     * @param command
+     * @param action
+     * @param data        May also be null if there's no data
+     * @param conflatable false for a command that must never replace, or be replaced by, another command with the same
+     *                    command and action, e.g. one of a series whose data depends on its place in it
+     * @return A future that completes once the ADK device acked the command
+     */
+    CommandFuture submitCommand(byte command, byte action, byte[] data, boolean conflatable);
+}
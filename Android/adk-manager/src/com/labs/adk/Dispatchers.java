@@ -0,0 +1,56 @@
+package com.labs.adk;
+
+import android.os.Handler;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Ready made dispatchers, deciding on which thread {@link ADKManager} delivers acks and connection changes to its callback. <br/>
+ * Any {@link Executor} can serve as a dispatcher, these cover the common cases:
+ * <ul>
+ * <li>{@link #DIRECT} - right on the reading thread. The cheapest option, for background consumers that react to acks quickly</li>
+ * <li>{@link #handler(Handler)} - on the handler's thread, usually the UI thread</li>
+ * </ul>
+ *
+ * @author Amir Lazarovich
+ */
+public final class Dispatchers {
+    ///////////////////////////////////////////////
+    // Constants
+    ///////////////////////////////////////////////
+
+    /**
+     * Deliver on the reading thread. The callback must not block, or it will hold back reading from the ADK device
+     */
+    public static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    ///////////////////////////////////////////////
+    // Constructors
+    ///////////////////////////////////////////////
+    private Dispatchers() {
+    }
+
+    ///////////////////////////////////////////////
+    // Public
+    ///////////////////////////////////////////////
+
+    /**
+     * Deliver on the handler's thread
+     *
+     * @param handler
+     * @return
+     */
+    public static Executor handler(final Handler handler) {
+        return new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                handler.post(command);
+            }
+        };
+    }
+}
@@ -0,0 +1,205 @@
+package com.labs.adk;
+
+import java.util.BitSet;
+
+/**
+ * Puts {@link Transfer}s back together on the receiving end, the way the ADK device does (see Adk_2012_leds_dashboard.ino). <br/>
+ * It's the reference for the firmware's reassembly, and lets the far end of a link run on a plain JVM, e.g. fed by
+ * {@link com.labs.adk.sim.AccessorySimulator}. Unlike the device, which handles one transfer at a time, it keeps a transfer
+ * per id. <br/>
+ * A fragment may arrive more than once or out of order, it's placed by its index. A start for an id that's still being
+ * put together drops what arrived so far. A start for more than the max payload size is turned down, where the device
+ * nacks it. Not thread safe: messages are expected from a single reading thread
+ *
+ * @author Amir Lazarovich
+ */
+public final class FragmentReassembler {
+    ///////////////////////////////////////////////
+    // Constants
+    ///////////////////////////////////////////////
+    private static final int MAX_TRANSFERS = 256;
+
+    ///////////////////////////////////////////////
+    // Members
+    ///////////////////////////////////////////////
+    private final Listener mListener;
+    private final int mMaxPayloadSize;
+    private final Slot[] mSlots;
+    private long mCompleted;
+    private long mDropped;
+    private long mRejected;
+
+    ///////////////////////////////////////////////
+    // Constructors
+    ///////////////////////////////////////////////
+
+    /**
+     * Holds payloads of up to {@link Transfer#DEFAULT_MAX_PAYLOAD_SIZE} bytes, like the device
+     *
+     * @param listener Gets every payload once it's complete
+     */
+    public FragmentReassembler(Listener listener) {
+        this(listener, Transfer.DEFAULT_MAX_PAYLOAD_SIZE);
+    }
+
+    /**
+     * @param listener       Gets every payload once it's complete
+     * @param maxPayloadSize Longest payload put together, up to {@link Transfer#MAX_PAYLOAD_SIZE}
+     */
+    public FragmentReassembler(Listener listener, int maxPayloadSize) {
+        mListener = listener;
+        mMaxPayloadSize = maxPayloadSize;
+        mSlots = new Slot[MAX_TRANSFERS];
+    }
+
+    ///////////////////////////////////////////////
+    // Public
+    ///////////////////////////////////////////////
+
+    /**
+     * Handle a message received from the other end
+     *
+     * @param command
+     * @param action
+     * @param data
+     * @param offset Where the message's data starts in <code>data</code>
+     * @param length Length of the message's data
+     * @return false if it isn't a fragment, and should be handled as a regular command
+     */
+    public boolean onMessage(int command, int action, byte[] data, int offset, int length) {
+        if ((byte) command != Transfer.COMMAND_FRAGMENT) {
+            return false;
+        }
+
+        if (action == Transfer.ACTION_FRAGMENT_START) {
+            if (length < Transfer.START_SIZE || !onStart(data, offset)) {
+                mRejected++;
+            }
+        } else if (action == Transfer.ACTION_FRAGMENT_DATA && length > Transfer.DATA_HEADER_SIZE) {
+            onData(data, offset, length);
+        }
+
+        return true;
+    }
+
+    /**
+     * @return Number of payloads put together
+     */
+    public long getCompletedCount() {
+        return mCompleted;
+    }
+
+    /**
+     * @return Number of payloads dropped halfway, because their id was reused for a new transfer
+     */
+    public long getDroppedCount() {
+        return mDropped;
+    }
+
+    /**
+     * @return Number of starts turned down, because they were malformed or for more than the max payload size. The device
+     * nacks these, which fails the transfer on the sending end
+     */
+    public long getRejectedCount() {
+        return mRejected;
+    }
+
+    ///////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////
+    /**
+     * @return false if the start was turned down
+     */
+    private boolean onStart(byte[] data, int offset) {
+        int id = data[offset] & 0xFF;
+        Slot slot = mSlots[id];
+        if (slot != null && slot.mActive) {
+            slot.mActive = false;
+            mDropped++;
+        }
+
+        int total = ((data[offset + 3] & 0xFF) << 8) | (data[offset + 4] & 0xFF);
+        int fragmentSize = data[offset + 5] & 0xFF;
+        if (fragmentSize == 0 || total > mMaxPayloadSize) {
+            return false;
+        }
+
+        if (slot == null || slot.mPayload.length != total) {
+            slot = new Slot(total);
+            mSlots[id] = slot;
+        }
+
+        slot.mCommand = data[offset + 1];
+        slot.mAction = data[offset + 2];
+        slot.mFragmentSize = fragmentSize;
+        slot.mRemaining = (total + fragmentSize - 1) / fragmentSize;
+        slot.mReceived.clear();
+        slot.mActive = true;
+        if (slot.mRemaining == 0) {
+            complete(slot);
+        }
+
+        return true;
+    }
+
+    private void onData(byte[] data, int offset, int length) {
+        Slot slot = mSlots[data[offset] & 0xFF];
+        if (slot == null || !slot.mActive) {
+            return;
+        }
+
+        int index = ((data[offset + 1] & 0xFF) << 8) | (data[offset + 2] & 0xFF);
+        int start = index * slot.mFragmentSize;
+        int size = length - Transfer.DATA_HEADER_SIZE;
+        if (start + size > slot.mPayload.length || slot.mReceived.get(index)) {
+            return;
+        }
+
+        System.arraycopy(data, offset + Transfer.DATA_HEADER_SIZE, slot.mPayload, start, size);
+        slot.mReceived.set(index);
+        if (--slot.mRemaining == 0) {
+            complete(slot);
+        }
+    }
+
+    private void complete(Slot slot) {
+        slot.mActive = false;
+        mCompleted++;
+        // the slot may be reused by the next transfer, so the listener gets its own copy
+        mListener.onPayloadReceived(slot.mCommand, slot.mAction, slot.mPayload.clone());
+    }
+
+    ///////////////////////////////////////////////
+    // Inner classes
+    ///////////////////////////////////////////////
+
+    /**
+     * Gets every payload once all of its fragments arrived
+     */
+    public interface Listener {
+        /**
+         * @param command The command the payload was sent with
+         * @param action  The action the payload was sent with
+         * @param payload
+         */
+        void onPayloadReceived(byte command, byte action, byte[] payload);
+    }
+
+    /**
+     * A transfer being put together
+     */
+    private static final class Slot {
+        final byte[] mPayload;
+        final BitSet mReceived;
+        byte mCommand;
+        byte mAction;
+        int mFragmentSize;
+        int mRemaining;
+        boolean mActive;
+
+        Slot(int total) {
+            mPayload = new byte[total];
+            mReceived = new BitSet();
+        }
+    }
+}
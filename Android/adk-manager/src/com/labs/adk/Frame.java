@@ -0,0 +1,50 @@
+package com.labs.adk;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A single outbound message, laid out according to the ADK communication protocol:
+ * [command - 1 byte][action - 1 byte][data length - 1 byte][data - X bytes]. <br/>
+ * Sequenced frames flag the command with {@link FrameEncoder#FLAG_SEQUENCED} and carry an extra
+ * [sequence - 1 byte] right before the data, which the ADK device echoes back in its ack. <br/>
+ * A frame whose data depends on its place in a series (a chunk of an upload, a fragment) isn't conflatable: it never
+ * replaces, and is never replaced by, a queued frame with the same command and action. <br/>
+ * Frames are handed out and taken back by {@link FrameEncoder} so the send path doesn't allocate once it's warmed up
+ *
+ * @author Amir Lazarovich
+ */
+final class Frame {
+    ///////////////////////////////////////////////
+    // Members
+    ///////////////////////////////////////////////
+    final ByteBuffer mBuffer;
+    boolean mSequenced;
+    boolean mConflatable;
+    CommandFuture mFuture;
+
+    ///////////////////////////////////////////////
+    // Constructors
+    ///////////////////////////////////////////////
+    Frame(int capacity, boolean direct) {
+        mBuffer = direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    ///////////////////////////////////////////////
+    // Public
+    ///////////////////////////////////////////////
+
+    /**
+     * @return The number of bytes this frame occupies on the wire
+     */
+    int length() {
+        return mBuffer.limit();
+    }
+
+    byte command() {
+        return mBuffer.get(0);
+    }
+
+    byte action() {
+        return mBuffer.get(1);
+    }
+}
@@ -0,0 +1,171 @@
+package com.labs.adk;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Incremental decoder for messages sent by the ADK device. <br/>
+ * Messages are parsed in place, straight out of the read buffer. A single read may carry several messages, and a message
+ * may be split across reads: the unfinished tail of a read is kept aside and completed by the next one. <br/>
+ * Inbound protocol: [type - 1 byte][type specific fields]. The device sends either a plain 1 byte ack (1) or nack (0),
+ * or, in response to a sequenced command, [ack (0x81) or nack (0x80)][sequence - 1 byte]. <br/>
+ * Once subscribed (see {@link AdkChannel#setTelemetrySubscribed(boolean)}), the device also sends telemetry samples on its
+ * own: [0x20][channel - 1 byte][value - 2 bytes, high byte first]
+ *
+ * @author Amir Lazarovich
+ */
+final class FrameDecoder {
+    ///////////////////////////////////////////////
+    // Constants
+    ///////////////////////////////////////////////
+    static final byte MSG_NACK = 0;
+    static final byte MSG_ACK = 1;
+    static final byte MSG_SEQUENCED_NACK = (byte) 0x80;
+    static final byte MSG_SEQUENCED_ACK = (byte) 0x81;
+    static final byte MSG_TELEMETRY = 0x20;
+
+    private static final int MAX_MESSAGE_SIZE = 4;
+    private static final int NEED_MORE = -1;
+    private static final int UNKNOWN = 0;
+
+    ///////////////////////////////////////////////
+    // Members
+    ///////////////////////////////////////////////
+    private final Listener mListener;
+    private final ByteBuffer mPartial;
+    private int mPartialLength;
+    private volatile long mDecodeErrors;
+
+    ///////////////////////////////////////////////
+    // Constructors
+    ///////////////////////////////////////////////
+    FrameDecoder(Listener listener) {
+        mListener = listener;
+        mPartial = ByteBuffer.allocate(MAX_MESSAGE_SIZE);
+    }
+
+    ///////////////////////////////////////////////
+    // Public
+    ///////////////////////////////////////////////
+
+    /**
+     * Decode everything between the buffer's position and limit, dispatching each complete message to the listener.
+     * The buffer is fully consumed when this method returns
+     *
+     * @param in
+     */
+    void decode(ByteBuffer in) {
+        int position = in.position();
+        int limit = in.limit();
+
+        // first complete a message left over from the previous read
+        while (mPartialLength > 0 && position < limit) {
+            mPartial.put(mPartialLength++, in.get(position++));
+            int length = messageLength(mPartial, 0, mPartialLength);
+            if (length == mPartialLength) {
+                dispatch(mPartial, 0);
+                mPartialLength = 0;
+            }
+        }
+
+        while (position < limit) {
+            int available = limit - position;
+            int length = messageLength(in, position, available);
+            if (length == UNKNOWN) {
+                // skip the garbage byte and try to resync on the next one
+                mDecodeErrors++;
+                position++;
+            } else if (length == NEED_MORE || length > available) {
+                for (int i = 0; i < available; i++) {
+                    mPartial.put(i, in.get(position + i));
+                }
+
+                mPartialLength = available;
+                position = limit;
+            } else {
+                dispatch(in, position);
+                position += length;
+            }
+        }
+
+        in.position(limit);
+    }
+
+    /**
+     * Forget any partially received message. Call this when the connection is reset
+     */
+    void reset() {
+        mPartialLength = 0;
+    }
+
+    /**
+     * @return Number of bytes that couldn't be parsed as a message since this decoder was created
+     */
+    long getDecodeErrors() {
+        return mDecodeErrors;
+    }
+
+    ///////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////
+
+    /**
+     * Figure out the full length of the message starting at <code>offset</code>
+     *
+     * @param buffer
+     * @param offset
+     * @param available Number of bytes available starting at <code>offset</code>
+     * @return The message length, {@link #NEED_MORE} if the header isn't complete yet or {@link #UNKNOWN} for an unknown message type
+     */
+    private static int messageLength(ByteBuffer buffer, int offset, int available) {
+        switch (buffer.get(offset)) {
+            case MSG_NACK:
+            case MSG_ACK:
+                return 1;
+
+            case MSG_SEQUENCED_NACK:
+            case MSG_SEQUENCED_ACK:
+                return 2;
+
+            case MSG_TELEMETRY:
+                return 4;
+
+            default:
+                return UNKNOWN;
+        }
+    }
+
+    private void dispatch(ByteBuffer buffer, int offset) {
+        byte type = buffer.get(offset);
+        switch (type) {
+            case MSG_NACK:
+            case MSG_ACK:
+                mListener.onAck(type == MSG_ACK);
+                break;
+
+            case MSG_SEQUENCED_NACK:
+            case MSG_SEQUENCED_ACK:
+                mListener.onSequencedAck(buffer.get(offset + 1) & 0xFF, type == MSG_SEQUENCED_ACK);
+                break;
+
+            case MSG_TELEMETRY:
+                mListener.onTelemetry(buffer.get(offset + 1) & 0xFF,
+                        ((buffer.get(offset + 2) & 0xFF) << 8) | (buffer.get(offset + 3) & 0xFF));
+                break;
+        }
+    }
+
+    ///////////////////////////////////////////////
+    // Inner classes
+    ///////////////////////////////////////////////
+
+    /**
+     * Receives every message decoded from the ADK device, on the reading thread
+     */
+    interface Listener {
+        void onAck(boolean ack);
+
+        void onSequencedAck(int sequence, boolean ack);
+
+        void onTelemetry(int channel, int value);
+    }
+}
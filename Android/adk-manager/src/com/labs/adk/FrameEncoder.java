@@ -0,0 +1,159 @@
+package com.labs.adk;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes commands into {@link Frame}s and recycles them once they were written. <br/>
+ * Frames are kept in buckets keyed by the size of what follows the header, so a steady stream of similar commands
+ * (which is what a blinking led or an animation usually produces) reuses the same few buffers over and over
+ *
+ * @author Amir Lazarovich
+ */
+final class FrameEncoder {
+    ///////////////////////////////////////////////
+    // Constants
+    ///////////////////////////////////////////////
+    static final int HEADER_SIZE = 3;
+    static final int MAX_PAYLOAD_SIZE = 255;
+    static final int SEQUENCE_OFFSET = 3;
+    static final byte FLAG_SEQUENCED = (byte) 0x80;
+
+    ///////////////////////////////////////////////
+    // Members
+    ///////////////////////////////////////////////
+    private final Bucket[] mBuckets;
+    private final int mMaxPooledPerSize;
+    private volatile boolean mDirect;
+
+    ///////////////////////////////////////////////
+    // Constructors
+    ///////////////////////////////////////////////
+    /**
+     * @param maxPooledPerSize Max number of free frames kept per payload size. Every frame that may be queued or written
+     *                         at the same time must fit, or a sender running ahead of the writer allocates the rest anew
+     */
+    FrameEncoder(int maxPooledPerSize) {
+        mMaxPooledPerSize = maxPooledPerSize;
+        mBuckets = new Bucket[MAX_PAYLOAD_SIZE + 1];
+        for (int i = 0; i < mBuckets.length; i++) {
+            mBuckets[i] = new Bucket();
+        }
+    }
+
+    ///////////////////////////////////////////////
+    // Public
+    ///////////////////////////////////////////////
+
+    /**
+     * Choose whether new frames are backed by direct buffers, which suit NIO transports best.
+     * Frames already pooled are kept as they are, they still work, only with an extra copy
+     *
+     * @param direct
+     */
+    void setDirect(boolean direct) {
+        mDirect = direct;
+    }
+
+    /**
+     * Encode a command into a pooled frame
+     *
+     * @param command
+     * @param action
+     * @param data      May also be null if there's no data
+     * @param sequenced Whether to reserve room for a sequence number. The writer fills it in right before writing the frame
+     * @return A frame ready to be written. Hand it back through {@link #recycle(Frame)} once written
+     * @throws IllegalArgumentException If the data doesn't fit in a single frame, see {@link #maxDataSize(boolean)}
+     */
+    Frame encode(byte command, byte action, byte[] data, boolean sequenced) {
+        int dataLength = ((data != null) ? data.length : 0);
+        if (dataLength > maxDataSize(sequenced)) {
+            throw new IllegalArgumentException("data can't be longer than " + maxDataSize(sequenced)
+                    + " bytes, use a transfer (see AdkChannel#startTransfer) for longer data");
+        }
+
+        Frame frame = obtain(dataLength + (sequenced ? 1 : 0));
+        frame.mSequenced = sequenced;
+        ByteBuffer buffer = frame.mBuffer;
+        buffer.clear();
+        buffer.put(sequenced ? (byte) (command | FLAG_SEQUENCED) : command);
+        buffer.put(action);
+        buffer.put((byte) dataLength);
+        if (sequenced) {
+            buffer.put((byte) 0);
+        }
+
+        if (data != null) {
+            buffer.put(data);
+        }
+
+        buffer.flip();
+        return frame;
+    }
+
+    /**
+     * @param sequenced
+     * @return Max number of data bytes in a single frame. At most {@link #MAX_PAYLOAD_SIZE} bytes follow the header,
+     * including the sequence number of a sequenced frame
+     */
+    static int maxDataSize(boolean sequenced) {
+        return sequenced ? MAX_PAYLOAD_SIZE - 1 : MAX_PAYLOAD_SIZE;
+    }
+
+    /**
+     * Return a frame to the pool. The frame must not be used after calling this method
+     *
+     * @param frame
+     */
+    void recycle(Frame frame) {
+        frame.mFuture = null;
+        int dataLength = frame.mBuffer.capacity() - HEADER_SIZE;
+        if (dataLength >= mBuckets.length) {
+            // oversized frames are rare, don't bother keeping them around
+            return;
+        }
+
+        Bucket bucket = mBuckets[dataLength];
+        synchronized (bucket) {
+            if (bucket.mFrames == null) {
+                // most sizes are never used, so only pay for the ones that are
+                bucket.mFrames = new Frame[mMaxPooledPerSize];
+            }
+
+            if (bucket.mCount < mMaxPooledPerSize) {
+                bucket.mFrames[bucket.mCount++] = frame;
+            }
+        }
+    }
+
+    ///////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////
+    private Frame obtain(int dataLength) {
+        if (dataLength >= mBuckets.length) {
+            return new Frame(HEADER_SIZE + dataLength, mDirect);
+        }
+
+        Bucket bucket = mBuckets[dataLength];
+        synchronized (bucket) {
+            if (bucket.mCount > 0) {
+                Frame frame = bucket.mFrames[--bucket.mCount];
+                bucket.mFrames[bucket.mCount] = null;
+                return frame;
+            }
+        }
+
+        return new Frame(HEADER_SIZE + dataLength, mDirect);
+    }
+
+    ///////////////////////////////////////////////
+    // Inner classes
+    ///////////////////////////////////////////////
+
+    /**
+     * Free frames of a single payload size
+     */
+    private static final class Bucket {
+        Frame[] mFrames;
+        int mCount;
+    }
+}
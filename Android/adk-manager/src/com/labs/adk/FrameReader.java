@@ -0,0 +1,117 @@
+package com.labs.adk;
+
+import com.labs.adk.transport.Transport;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * The reading side of a connection. Keeps reading from the transport and feeds whatever arrives to the decoder
+ *
+ * @author Amir Lazarovich
+ */
+final class FrameReader implements Runnable {
+    ///////////////////////////////////////////////
+    // Constants
+    ///////////////////////////////////////////////
+    private static final String TAG = "FrameReader";
+    private static final int BUFFER_SIZE = 16384;
+
+    ///////////////////////////////////////////////
+    // Members
+    ///////////////////////////////////////////////
+    private final Transport mTransport;
+    private final FrameDecoder mDecoder;
+    private final AckDispatcher mAckDispatcher;
+    private final LinkMetrics mMetrics;
+    private final Listener mListener;
+    private volatile boolean mRunning;
+    private Thread mThread;
+
+    ///////////////////////////////////////////////
+    // Constructors
+    ///////////////////////////////////////////////
+    FrameReader(Transport transport, FrameDecoder decoder, AckDispatcher ackDispatcher, LinkMetrics metrics, Listener listener) {
+        mTransport = transport;
+        mDecoder = decoder;
+        mAckDispatcher = ackDispatcher;
+        mMetrics = metrics;
+        mListener = listener;
+    }
+
+    ///////////////////////////////////////////////
+    // Public
+    ///////////////////////////////////////////////
+    void start() {
+        start(null);
+    }
+
+    /**
+     * @param threads Makes the reading thread, see {@link IoScheduler}. May be null for a plain thread
+     */
+    void start(ThreadFactory threads) {
+        mRunning = true;
+        mThread = (threads == null) ? new Thread(null, this, TAG) : threads.newThread(this);
+        mThread.start();
+    }
+
+    /**
+     * Stop reading. Closing the transport is what actually unblocks a pending read. <br/>
+     * May be called from the reading thread itself, e.g. from {@link Listener#onReadFailed(IOException)}
+     */
+    void stop() {
+        mRunning = false;
+        // on the reading thread the loop ends by itself. Interrupting it would make whatever the caller waits on next,
+        // e.g. the writer in AdkChannel.close(), throw right away
+        if (mThread != null && mThread != Thread.currentThread()) {
+            mThread.interrupt();
+        }
+    }
+
+    ///////////////////////////////////////////////
+    // Overrides & Implementations
+    ///////////////////////////////////////////////
+    @Override
+    public void run() {
+        ByteBuffer buffer = mTransport.prefersDirectBuffers() ?
+                ByteBuffer.allocateDirect(BUFFER_SIZE) :
+                ByteBuffer.allocate(BUFFER_SIZE);
+
+        // Keeps reading messages forever.
+        // A single read may carry several messages, or only part of one, the decoder takes care of both.
+        while (mRunning) {
+            try {
+                buffer.clear();
+                int ret = mTransport.read(buffer);
+                if (ret < 0) {
+                    throw new EOFException("ADK device closed the connection");
+                }
+
+                if (ret > 0) {
+                    mMetrics.onRead(ret);
+                    buffer.flip();
+                    mDecoder.decode(buffer);
+                    mAckDispatcher.flush();
+                }
+            } catch (IOException e) {
+                if (mRunning) {
+                    mRunning = false;
+                    mListener.onReadFailed(e);
+                }
+            }
+        }
+    }
+
+    ///////////////////////////////////////////////
+    // Inner classes
+    ///////////////////////////////////////////////
+
+    /**
+     * Notified when the connection can no longer be read from
+     */
+    interface Listener {
+        void onReadFailed(IOException e);
+    }
+}
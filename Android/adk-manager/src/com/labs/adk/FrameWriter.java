@@ -0,0 +1,313 @@
+package com.labs.adk;
+
+import com.labs.adk.transport.Transport;
+import com.labs.commons.SLog;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * The single writer of a connection. Takes frames off the {@link SendQueue} one by one and writes them to the ADK device,
+ * so commands reach the device in exactly the order they were sent. <br/>
+ * The writer keeps going as long as the send window has room, and waits for acks once it's full. <br/>
+ * When batching is on, frames already queued behind the first one are written along with it in a single gathering write,
+ * as long as they fit in the batch size and the window. <br/>
+ * The writer either runs on a thread of its own, blocking while there's nothing to write, or on a shared executor
+ * (see {@link IoScheduler}), where it only runs while there's both something to write and room in the window, and is woken
+ * up by {@link #wake()} otherwise
+ *
+ * @author Amir Lazarovich
+ */
+final class FrameWriter implements Runnable {
+    ///////////////////////////////////////////////
+    // Constants
+    ///////////////////////////////////////////////
+    private static final String TAG = "FrameWriter";
+    static final int MAX_BATCH_FRAMES = 32;
+
+    ///////////////////////////////////////////////
+    // Members
+    ///////////////////////////////////////////////
+    private final SendQueue mQueue;
+    private final FrameEncoder mEncoder;
+    private final PendingCommands mPending;
+    private final Transport mTransport;
+    private final Listener mListener;
+    private final Frame[] mBatch;
+    private final ByteBuffer[] mBuffers;
+    private final int mMaxBatchBytes;
+    private final LinkMetrics mMetrics;
+    private final Runnable mDrain;
+    private volatile boolean mRunning;
+    private Thread mThread;
+    private volatile Executor mExecutor;
+    private boolean mScheduled;
+    private volatile Thread mDrainThread;
+
+    ///////////////////////////////////////////////
+    // Constructors
+    ///////////////////////////////////////////////
+    /**
+     * @param queue
+     * @param encoder
+     * @param pending
+     * @param transport
+     * @param maxBatchBytes Max number of bytes written in a single gathering write. Frames longer than that are written alone
+     * @param metrics
+     * @param listener
+     */
+    FrameWriter(SendQueue queue, FrameEncoder encoder, PendingCommands pending, Transport transport, int maxBatchBytes,
+                LinkMetrics metrics, Listener listener) {
+        mQueue = queue;
+        mEncoder = encoder;
+        mPending = pending;
+        mTransport = transport;
+        mListener = listener;
+        mMaxBatchBytes = maxBatchBytes;
+        mMetrics = metrics;
+        mBatch = new Frame[MAX_BATCH_FRAMES];
+        mBuffers = new ByteBuffer[MAX_BATCH_FRAMES];
+        mDrain = new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        };
+    }
+
+    ///////////////////////////////////////////////
+    // Public
+    ///////////////////////////////////////////////
+    void start() {
+        start(null);
+    }
+
+    /**
+     * @param threads Makes the writing thread, see {@link IoScheduler}. May be null for a plain thread
+     */
+    void start(ThreadFactory threads) {
+        mRunning = true;
+        mThread = (threads == null) ? new Thread(null, this, TAG) : threads.newThread(this);
+        mThread.start();
+    }
+
+    /**
+     * Start writing on a shared executor rather than a thread of its own
+     *
+     * @param executor
+     */
+    void startOn(Executor executor) {
+        mExecutor = executor;
+        mRunning = true;
+        // frames may already be waiting, e.g. replayed ones
+        wake();
+    }
+
+    /**
+     * Stop writing. Frames still in the queue are left for the caller to clear. <br/>
+     * May be called from the writing thread itself, e.g. from {@link Listener#onWriteFailed(IOException)}
+     */
+    void stop() {
+        mRunning = false;
+        // the writing thread leaves its loop by itself, and an interrupt would only hit the caller's own waits
+        if (mThread != null && mThread != Thread.currentThread()) {
+            mThread.interrupt();
+        }
+    }
+
+    /**
+     * Let the writer know a frame was queued or a credit freed up. Only needed when running on a shared executor, where
+     * it schedules the writer unless it's already scheduled
+     */
+    void wake() {
+        if (mExecutor == null) {
+            return;
+        }
+
+        synchronized (this) {
+            if (!mRunning || mScheduled) {
+                return;
+            }
+
+            mScheduled = true;
+        }
+
+        try {
+            mExecutor.execute(mDrain);
+        } catch (RejectedExecutionException e) {
+            SLog.w(TAG, "Scheduler is shut down, nothing more will be written");
+            synchronized (this) {
+                mScheduled = false;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Wait for the writing thread to exit after {@link #stop()}, so it can't take any more frames off the queue. <br/>
+     * Returns right away when called from the writing thread itself, e.g. from {@link Listener#onWriteFailed(IOException)}
+     *
+     * @param timeoutMillis
+     * @return false if the thread is still running
+     * @throws InterruptedException
+     */
+    boolean awaitTermination(long timeoutMillis) throws InterruptedException {
+        if (mExecutor != null) {
+            return awaitDrained(timeoutMillis);
+        }
+
+        Thread thread = mThread;
+        if (thread == null || thread == Thread.currentThread()) {
+            return true;
+        }
+
+        thread.join(timeoutMillis);
+        return !thread.isAlive();
+    }
+
+    ///////////////////////////////////////////////
+    // Overrides & Implementations
+    ///////////////////////////////////////////////
+    @Override
+    public void run() {
+        while (mRunning) {
+            Frame frame;
+            try {
+                mPending.awaitCredit();
+                frame = mQueue.take();
+            } catch (InterruptedException e) {
+                break;
+            }
+
+            write(frame);
+        }
+    }
+
+    ///////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////
+
+    /**
+     * Write whatever the window lets through, then give the executor thread back
+     */
+    private void drain() {
+        mDrainThread = Thread.currentThread();
+        try {
+            Frame frame;
+            while (mRunning && mPending.hasCredit(1) && (frame = mQueue.poll(Integer.MAX_VALUE)) != null) {
+                write(frame);
+            }
+        } finally {
+            mDrainThread = null;
+            synchronized (this) {
+                mScheduled = false;
+                notifyAll();
+            }
+        }
+
+        // a frame or a credit may have come in after we last looked, and its wake up found us still scheduled
+        if (mRunning && mPending.hasCredit(1) && mQueue.size() > 0) {
+            wake();
+        }
+    }
+
+    /**
+     * Wait for a drain that's scheduled or running to finish. A stopped writer isn't scheduled again
+     *
+     * @param timeoutMillis
+     * @return false if it's still scheduled or running
+     * @throws InterruptedException
+     */
+    private synchronized boolean awaitDrained(long timeoutMillis) throws InterruptedException {
+        if (mDrainThread == Thread.currentThread()) {
+            return true;
+        }
+
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        long remaining = timeoutMillis;
+        while (mScheduled && remaining > 0) {
+            wait(remaining);
+            remaining = deadline - System.currentTimeMillis();
+        }
+
+        return !mScheduled;
+    }
+
+    /**
+     * Write <code>first</code>, along with whatever can be batched with it
+     *
+     * @param first
+     */
+    private void write(Frame first) {
+        int count = batch(first);
+        try {
+            long now = System.nanoTime();
+            int bytes = 0;
+            for (int i = 0; i < count; i++) {
+                Frame batched = mBatch[i];
+                int sequence = mPending.register(batched.mFuture, now);
+                if (batched.mSequenced) {
+                    batched.mBuffer.put(FrameEncoder.SEQUENCE_OFFSET, (byte) sequence);
+                }
+
+                mBuffers[i] = batched.mBuffer;
+                bytes += batched.length();
+            }
+
+            SLog.d(TAG, "Sending %d frames to ADK device", count);
+
+            mTransport.write(mBuffers, 0, count);
+            mMetrics.onWrite(count, bytes);
+        } catch (IOException e) {
+            if (mRunning) {
+                SLog.e(TAG, e, "Failed to send command to ADK device");
+                mRunning = false;
+                mListener.onWriteFailed(e);
+            }
+        } finally {
+            for (int i = 0; i < count; i++) {
+                mEncoder.recycle(mBatch[i]);
+                mBatch[i] = null;
+                mBuffers[i] = null;
+            }
+        }
+    }
+
+    /**
+     * Gather the frames that go out along with <code>first</code>
+     *
+     * @param first
+     * @return Number of frames in the batch
+     */
+    private int batch(Frame first) {
+        mBatch[0] = first;
+        int count = 1;
+        int bytes = first.length();
+        // the first frame took a credit that isn't registered yet
+        while (count < MAX_BATCH_FRAMES && mPending.hasCredit(count + 1)) {
+            Frame next = mQueue.poll(mMaxBatchBytes - bytes);
+            if (next == null) {
+                break;
+            }
+
+            mBatch[count++] = next;
+            bytes += next.length();
+        }
+
+        return count;
+    }
+
+    ///////////////////////////////////////////////
+    // Inner classes
+    ///////////////////////////////////////////////
+
+    /**
+     * Notified when the connection can no longer be written to
+     */
+    interface Listener {
+        void onWriteFailed(IOException e);
+    }
+}
@@ -0,0 +1,114 @@
+package com.labs.adk;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free histogram of non negative values, with a bucket per power of two. <br/>
+ * Recording is a couple of atomic increments and never allocates, so it's cheap enough to leave on in release builds.
+ * Percentiles are only as precise as the buckets: they report the upper bound of the bucket they fall in
+ *
+ * @author Amir Lazarovich
+ */
+final class Histogram {
+    ///////////////////////////////////////////////
+    // Constants
+    ///////////////////////////////////////////////
+    private static final int BUCKETS = 65;
+
+    ///////////////////////////////////////////////
+    // Members
+    ///////////////////////////////////////////////
+    private final AtomicLongArray mCounts;
+    private final AtomicLong mCount;
+    private final AtomicLong mSum;
+    private final AtomicLong mMax;
+
+    ///////////////////////////////////////////////
+    // Constructors
+    ///////////////////////////////////////////////
+    Histogram() {
+        mCounts = new AtomicLongArray(BUCKETS);
+        mCount = new AtomicLong();
+        mSum = new AtomicLong();
+        mMax = new AtomicLong(-1);
+    }
+
+    ///////////////////////////////////////////////
+    // Package
+    ///////////////////////////////////////////////
+    void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+
+        mCounts.incrementAndGet(bucket(value));
+        mCount.incrementAndGet();
+        mSum.addAndGet(value);
+        long max;
+        while ((max = mMax.get()) < value && !mMax.compareAndSet(max, value)) {
+            // raced with another recording, try again
+        }
+    }
+
+    long count() {
+        return mCount.get();
+    }
+
+    /**
+     * @return Mean of the recorded values, or -1 if nothing was recorded
+     */
+    long mean() {
+        long count = mCount.get();
+        return (count == 0) ? -1 : mSum.get() / count;
+    }
+
+    /**
+     * @return Largest recorded value, or -1 if nothing was recorded
+     */
+    long max() {
+        return mMax.get();
+    }
+
+    /**
+     * @param percentile Between 0 and 100
+     * @return Upper bound of the bucket holding the given percentile, or -1 if nothing was recorded
+     */
+    long percentile(double percentile) {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += mCounts.get(i);
+        }
+
+        if (total == 0) {
+            return -1;
+        }
+
+        long rank = (long) Math.ceil(total * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += mCounts.get(i);
+            if (seen >= rank && seen > 0) {
+                // never report more than what was actually recorded
+                return Math.min(upperBound(i), mMax.get());
+            }
+        }
+
+        return mMax.get();
+    }
+
+    ///////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////
+
+    /**
+     * 0 goes to bucket 0, 1 to bucket 1, 2-3 to bucket 2, 4-7 to bucket 3 and so on
+     */
+    private static int bucket(long value) {
+        return 64 - Long.numberOfLeadingZeros(value);
+    }
+
+    private static long upperBound(int bucket) {
+        return (bucket == 64) ? Long.MAX_VALUE : (1L << bucket) - 1;
+    }
+}
@@ -0,0 +1,222 @@
+package com.labs.adk;
+
+import com.labs.commons.SLog;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Threads shared by the channels of several ADK devices (see {@link AdkHub}), so a host driving many devices doesn't pay
+ * for a full set of threads per device. <br/>
+ * A pooled scheduler runs writers on a small pool, only when they have something to write and room in their window, and
+ * checks ack timeouts on the same pool. Reading is the one thing that can't be shared:
+ * {@link com.labs.adk.transport.Transport#read(java.nio.ByteBuffer)} blocks, so each device still gets a reading thread
+ * of its own, made by the scheduler. <br/>
+ * A scheduler built on a {@link ThreadFactory} gives every reader and writer a thread of its own instead, which is what
+ * virtual threads are for (see {@link #newVirtualThreadScheduler()}): they're cheap enough to block on, and only the ack
+ * timeouts need a platform thread. <br/>
+ * A channel opened without a scheduler keeps a reading, a writing and an ack timeout thread to itself
+ *
+ * @author Amir Lazarovich
+ */
+public final class IoScheduler {
+    ///////////////////////////////////////////////
+    // Constants
+    ///////////////////////////////////////////////
+    private static final String TAG = "IoScheduler";
+
+    ///////////////////////////////////////////////
+    // Members
+    ///////////////////////////////////////////////
+    private final ScheduledThreadPoolExecutor mExecutor;
+    private final ThreadFactory mReaderThreads;
+    private final ThreadFactory mWriterThreads;
+    private final AtomicInteger mReaders;
+    private final AtomicInteger mWriters;
+    private final boolean mVirtual;
+
+    ///////////////////////////////////////////////
+    // Constructors
+    ///////////////////////////////////////////////
+
+    /**
+     * A pool with a thread per available processor
+     */
+    public IoScheduler() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param threads Number of threads shared by the writers and ack timeouts
+     */
+    public IoScheduler(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive");
+        }
+
+        mReaders = new AtomicInteger();
+        mWriters = new AtomicInteger();
+        mExecutor = new ScheduledThreadPoolExecutor(threads, new NamedThreadFactory(TAG));
+        mReaderThreads = new CountingThreadFactory(new NamedThreadFactory("FrameReader"), mReaders);
+        mWriterThreads = null;
+        mVirtual = false;
+    }
+
+    /**
+     * A thread of its own for every reader and writer, made by <code>threads</code>
+     *
+     * @param threads
+     */
+    public IoScheduler(ThreadFactory threads) {
+        this(threads, false);
+    }
+
+    private IoScheduler(ThreadFactory threads, boolean virtual) {
+        mReaders = new AtomicInteger();
+        mWriters = new AtomicInteger();
+        // only checks ack timeouts
+        mExecutor = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory(TAG));
+        mReaderThreads = new CountingThreadFactory(threads, mReaders);
+        mWriterThreads = new CountingThreadFactory(threads, mWriters);
+        mVirtual = virtual;
+    }
+
+    ///////////////////////////////////////////////
+    // Public
+    ///////////////////////////////////////////////
+
+    /**
+     * A virtual thread for every reader and writer when the runtime has them (Java 21), so a host can drive hundreds of
+     * devices without hundreds of platform threads. Falls back to a pooled scheduler otherwise, e.g. on Android
+     *
+     * @return
+     */
+    public static IoScheduler newVirtualThreadScheduler() {
+        ThreadFactory threads = VirtualThreads.factory("AdkIo");
+        if (threads == null) {
+            SLog.i(TAG, "No virtual threads, falling back to a pool");
+            return new IoScheduler();
+        }
+
+        return new IoScheduler(threads, true);
+    }
+
+    /**
+     * @return true if readers and writers run on virtual threads
+     */
+    public boolean usesVirtualThreads() {
+        return mVirtual;
+    }
+
+    /**
+     * Stop the shared threads. Channels still open on the scheduler stop writing, so close them first
+     */
+    public void shutdown() {
+        mExecutor.shutdownNow();
+    }
+
+    public boolean isShutdown() {
+        return mExecutor.isShutdown();
+    }
+
+    /**
+     * @return Number of threads shared by the writers and ack timeouts, or only the ack timeouts when every writer
+     * has a thread of its own
+     */
+    public int getPoolSize() {
+        return mExecutor.getCorePoolSize();
+    }
+
+    /**
+     * @return Number of reading threads currently running, one per open channel
+     */
+    public int getReaderCount() {
+        return mReaders.get();
+    }
+
+    /**
+     * @return Number of writing threads currently running, one per open channel when every writer has a thread of its own,
+     * always 0 otherwise
+     */
+    public int getWriterCount() {
+        return mWriters.get();
+    }
+
+    ///////////////////////////////////////////////
+    // Package
+    ///////////////////////////////////////////////
+    /**
+     * Start a channel's reader and writer on the scheduler's threads
+     *
+     * @param reader
+     * @param writer
+     */
+    void start(FrameReader reader, FrameWriter writer) {
+        reader.start(mReaderThreads);
+        if (mWriterThreads != null) {
+            writer.start(mWriterThreads);
+        } else {
+            writer.startOn(mExecutor);
+        }
+    }
+
+    /**
+     * @return Where ack timeouts are checked
+     */
+    ScheduledExecutorService timers() {
+        return mExecutor;
+    }
+
+    ///////////////////////////////////////////////
+    // Inner classes
+    ///////////////////////////////////////////////
+
+    /**
+     * Numbered daemon threads, so a host isn't kept alive by devices it forgot to close
+     */
+    private static final class NamedThreadFactory implements ThreadFactory {
+        private final String mName;
+        private final AtomicInteger mNext = new AtomicInteger();
+
+        NamedThreadFactory(String name) {
+            mName = name;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(null, runnable, mName + "-" + mNext.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    /**
+     * Counts the threads it made that are still running
+     */
+    private static final class CountingThreadFactory implements ThreadFactory {
+        private final ThreadFactory mThreads;
+        private final AtomicInteger mRunning;
+
+        CountingThreadFactory(ThreadFactory threads, AtomicInteger running) {
+            mThreads = threads;
+            mRunning = running;
+        }
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            return mThreads.newThread(new Runnable() {
+                @Override
+                public void run() {
+                    mRunning.incrementAndGet();
+                    try {
+                        runnable.run();
+                    } finally {
+                        mRunning.decrementAndGet();
+                    }
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.labs.adk;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and histograms of a channel, kept across reconnects. <br/>
+ * Updated from the writer, reader and ack timeout threads with plain atomic operations, so recording never blocks
+ * and never allocates. Reading them all at once is left to {@link #fill(MetricsSnapshot)}
+ *
+ * @author Amir Lazarovich
+ */
+final class LinkMetrics {
+    ///////////////////////////////////////////////
+    // Members
+    ///////////////////////////////////////////////
+    private final AtomicLong mWrites;
+    private final AtomicLong mFramesSent;
+    private final AtomicLong mBytesSent;
+    private final AtomicLong mReads;
+    private final AtomicLong mBytesReceived;
+    private final AtomicLong mAcks;
+    private final AtomicLong mNacks;
+    private final AtomicLong mTimeouts;
+    private final Histogram mRoundTrips;
+
+    ///////////////////////////////////////////////
+    // Constructors
+    ///////////////////////////////////////////////
+    LinkMetrics() {
+        mWrites = new AtomicLong();
+        mFramesSent = new AtomicLong();
+        mBytesSent = new AtomicLong();
+        mReads = new AtomicLong();
+        mBytesReceived = new AtomicLong();
+        mAcks = new AtomicLong();
+        mNacks = new AtomicLong();
+        mTimeouts = new AtomicLong();
+        mRoundTrips = new Histogram();
+    }
+
+    ///////////////////////////////////////////////
+    // Package
+    ///////////////////////////////////////////////
+    void onWrite(int frames, int bytes) {
+        mWrites.incrementAndGet();
+        mFramesSent.addAndGet(frames);
+        mBytesSent.addAndGet(bytes);
+    }
+
+    void onRead(int bytes) {
+        mReads.incrementAndGet();
+        mBytesReceived.addAndGet(bytes);
+    }
+
+    void onAck(boolean ack) {
+        if (ack) {
+            mAcks.incrementAndGet();
+        } else {
+            mNacks.incrementAndGet();
+        }
+    }
+
+    void onRoundTrip(long roundTripNanos) {
+        mRoundTrips.record(roundTripNanos);
+    }
+
+    void onTimeout() {
+        mTimeouts.incrementAndGet();
+    }
+
+    long getWrites() {
+        return mWrites.get();
+    }
+
+    long getFramesSent() {
+        return mFramesSent.get();
+    }
+
+    /**
+     * Copy the current values into <code>snapshot</code>
+     *
+     * @param snapshot
+     */
+    void fill(MetricsSnapshot snapshot) {
+        snapshot.mWrites = mWrites.get();
+        snapshot.mFramesSent = mFramesSent.get();
+        snapshot.mBytesSent = mBytesSent.get();
+        snapshot.mReads = mReads.get();
+        snapshot.mBytesReceived = mBytesReceived.get();
+        snapshot.mAcks = mAcks.get();
+        snapshot.mNacks = mNacks.get();
+        snapshot.mTimeouts = mTimeouts.get();
+        snapshot.mRoundTripCount = mRoundTrips.count();
+        snapshot.mRoundTripMeanNanos = mRoundTrips.mean();
+        snapshot.mRoundTripP50Nanos = mRoundTrips.percentile(50);
+        snapshot.mRoundTripP90Nanos = mRoundTrips.percentile(90);
+        snapshot.mRoundTripP99Nanos = mRoundTrips.percentile(99);
+        snapshot.mRoundTripMaxNanos = mRoundTrips.max();
+    }
+}
@@ -0,0 +1,198 @@
+package com.labs.adk;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Point in time copy of the link metrics: traffic in both directions, queue health, ack round trips and reconnects. <br/>
+ * Each value is read on its own, so a snapshot taken while commands are flowing may be off by a few between values.
+ * Round trip percentiles are rounded up to the next power of two nanoseconds
+ *
+ * @author Amir Lazarovich
+ */
+public final class MetricsSnapshot {
+    ///////////////////////////////////////////////
+    // Members
+    ///////////////////////////////////////////////
+    long mWrites;
+    long mFramesSent;
+    long mBytesSent;
+    long mReads;
+    long mBytesReceived;
+    long mAcks;
+    long mNacks;
+    long mTimeouts;
+    long mDecodeErrors;
+    long mConflated;
+
+    int mSendQueueDepth;
+    int mMaxSendQueueDepth;
+    int mPendingAcks;
+    int mReplayBufferSize;
+
+    long mRoundTripCount;
+    long mRoundTripMeanNanos;
+    long mRoundTripP50Nanos;
+    long mRoundTripP90Nanos;
+    long mRoundTripP99Nanos;
+    long mRoundTripMaxNanos;
+
+    long mReconnects;
+    long mLastReconnectNanos = -1;
+    long mMaxReconnectNanos = -1;
+    long mMeanReconnectNanos = -1;
+
+    ///////////////////////////////////////////////
+    // Constructors
+    ///////////////////////////////////////////////
+    MetricsSnapshot() {
+    }
+
+    ///////////////////////////////////////////////
+    // Public
+    ///////////////////////////////////////////////
+
+    /**
+     * @return Number of writes made to the transport, each one carrying one or more frames
+     */
+    public long getWrites() {
+        return mWrites;
+    }
+
+    public long getFramesSent() {
+        return mFramesSent;
+    }
+
+    public long getBytesSent() {
+        return mBytesSent;
+    }
+
+    public long getReads() {
+        return mReads;
+    }
+
+    public long getBytesReceived() {
+        return mBytesReceived;
+    }
+
+    /**
+     * @return Number of messages received from the ADK device, acks and nacks alike
+     */
+    public long getMessagesReceived() {
+        return mAcks + mNacks;
+    }
+
+    public long getAcks() {
+        return mAcks;
+    }
+
+    public long getNacks() {
+        return mNacks;
+    }
+
+    /**
+     * @return Number of commands that got no ack in time
+     */
+    public long getTimeouts() {
+        return mTimeouts;
+    }
+
+    public long getDecodeErrors() {
+        return mDecodeErrors;
+    }
+
+    public long getConflated() {
+        return mConflated;
+    }
+
+    public int getSendQueueDepth() {
+        return mSendQueueDepth;
+    }
+
+    /**
+     * @return Deepest the send queue has ever been
+     */
+    public int getMaxSendQueueDepth() {
+        return mMaxSendQueueDepth;
+    }
+
+    public int getPendingAcks() {
+        return mPendingAcks;
+    }
+
+    public int getReplayBufferSize() {
+        return mReplayBufferSize;
+    }
+
+    public long getRoundTripCount() {
+        return mRoundTripCount;
+    }
+
+    /**
+     * @return Mean ack round trip time, in nanoseconds, or -1 if no command was acked yet
+     */
+    public long getRoundTripMeanNanos() {
+        return mRoundTripMeanNanos;
+    }
+
+    public long getRoundTripP50Nanos() {
+        return mRoundTripP50Nanos;
+    }
+
+    public long getRoundTripP90Nanos() {
+        return mRoundTripP90Nanos;
+    }
+
+    public long getRoundTripP99Nanos() {
+        return mRoundTripP99Nanos;
+    }
+
+    public long getRoundTripMaxNanos() {
+        return mRoundTripMaxNanos;
+    }
+
+    public long getReconnects() {
+        return mReconnects;
+    }
+
+    /**
+     * @return Time it took to restore the most recently lost link, in nanoseconds, or -1 if the link was never restored
+     */
+    public long getLastReconnectNanos() {
+        return mLastReconnectNanos;
+    }
+
+    public long getMaxReconnectNanos() {
+        return mMaxReconnectNanos;
+    }
+
+    public long getMeanReconnectNanos() {
+        return mMeanReconnectNanos;
+    }
+
+    ///////////////////////////////////////////////
+    // Overrides & Implementations
+    ///////////////////////////////////////////////
+    @Override
+    public String toString() {
+        return "sent " + mFramesSent + " frames/" + mBytesSent + " bytes in " + mWrites + " writes"
+                + ", received " + getMessagesReceived() + " messages/" + mBytesReceived + " bytes in " + mReads + " reads"
+                + ", acks " + mAcks + " nacks " + mNacks + " timeouts " + mTimeouts + " decode errors " + mDecodeErrors
+                + ", queue " + mSendQueueDepth + " (max " + mMaxSendQueueDepth + ") pending " + mPendingAcks
+                + " conflated " + mConflated + " replay " + mReplayBufferSize
+                + ", rtt us p50 " + micros(mRoundTripP50Nanos) + " p90 " + micros(mRoundTripP90Nanos)
+                + " p99 " + micros(mRoundTripP99Nanos) + " max " + micros(mRoundTripMaxNanos)
+                + ", reconnects " + mReconnects + " (last " + millis(mLastReconnectNanos) + " ms, max "
+                + millis(mMaxReconnectNanos) + " ms)";
+    }
+
+    ///////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////
+    private static long micros(long nanos) {
+        return (nanos < 0) ? -1 : TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    private static long millis(long nanos) {
+        return (nanos < 0) ? -1 : TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+}
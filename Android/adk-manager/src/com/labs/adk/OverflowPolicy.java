@@ -0,0 +1,18 @@
+package com.labs.adk;
+
+/**
+ * What to do when a command is sent while the send queue is already full
+ *
+ * @author Amir Lazarovich
+ */
+public enum OverflowPolicy {
+    /**
+     * Wait on the sending thread until the queue has room for the command
+     */
+    BLOCK,
+
+    /**
+     * Drop the command and let the caller know it wasn't queued
+     */
+    REJECT
+}
@@ -0,0 +1,342 @@
+package com.labs.adk;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Table of commands that were written to the ADK device and are still waiting for an ack. <br/>
+ * Every written command gets a sequence number, which is also its slot in the table. Acks that carry a sequence number
+ * are matched to their slot; plain acks are matched to the oldest pending command, since the device handles commands in order. <br/>
+ * The table also acts as the send window: the writer waits for a free credit before writing, so no more than
+ * {@link #setWindow(int)} commands are ever waiting for an ack at the same time. <br/>
+ * The writer waits on an explicit lock rather than a monitor, so a writer running on a virtual thread doesn't pin the
+ * platform thread carrying it while the window is full. <br/>
+ * Futures are completed after the lock is released, since their listeners (e.g. a {@link Transfer} queueing a retry)
+ * run right there and must not hold up the writer or the reader
+ *
+ * @author Amir Lazarovich
+ */
+final class PendingCommands {
+    ///////////////////////////////////////////////
+    // Constants
+    ///////////////////////////////////////////////
+    static final int CAPACITY = 256;
+
+    ///////////////////////////////////////////////
+    // Members
+    ///////////////////////////////////////////////
+    private final boolean[] mInUse;
+    private final long[] mSentAt;
+    private final CommandFuture[] mFutures;
+    private final LinkMetrics mMetrics;
+    private final ReentrantLock mLock;
+    private final Condition mCredit;
+
+    private int mNext;
+    private int mOldest;
+    private int mCount;
+    private int mWindow = CAPACITY;
+    private long mLastRoundTripNanos = -1;
+
+    ///////////////////////////////////////////////
+    // Constructors
+    ///////////////////////////////////////////////
+    PendingCommands(LinkMetrics metrics) {
+        mMetrics = metrics;
+        mInUse = new boolean[CAPACITY];
+        mSentAt = new long[CAPACITY];
+        mFutures = new CommandFuture[CAPACITY];
+        mLock = new ReentrantLock();
+        mCredit = mLock.newCondition();
+    }
+
+    ///////////////////////////////////////////////
+    // Public
+    ///////////////////////////////////////////////
+
+    /**
+     * Set the max number of commands allowed to wait for an ack at the same time
+     *
+     * @param window Between 1 and {@link #CAPACITY}
+     */
+    void setWindow(int window) {
+        mLock.lock();
+        try {
+            if (window < 1 || window > CAPACITY) {
+                throw new IllegalArgumentException("window must be between 1 and " + CAPACITY);
+            }
+
+            mWindow = window;
+            mCredit.signalAll();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    int getWindow() {
+        mLock.lock();
+        try {
+            return mWindow;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Wait until the window has room for another command
+     *
+     * @throws InterruptedException
+     */
+    void awaitCredit() throws InterruptedException {
+        mLock.lock();
+        try {
+            while (mCount >= mWindow) {
+                mCredit.await();
+            }
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * @param credits
+     * @return true if the window has room for <code>credits</code> more commands right now
+     */
+    boolean hasCredit(int credits) {
+        mLock.lock();
+        try {
+            return mCount + credits <= mWindow;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Register a command that's about to be written
+     *
+     * @param future May be null if nobody waits for this command
+     * @param now    {@link System#nanoTime()} at the time of writing
+     * @return The command's sequence number
+     */
+    int register(CommandFuture future, long now) {
+        int sequence;
+        CommandFuture stale = null;
+        mLock.lock();
+        try {
+            sequence = mNext;
+            boolean wrapped = mInUse[sequence];
+            if (wrapped) {
+                // we went all the way around and this one never got an ack
+                stale = release(sequence);
+            }
+
+            mInUse[sequence] = true;
+            mSentAt[sequence] = now;
+            mFutures[sequence] = future;
+            mCount++;
+            mNext = (mNext + 1) % CAPACITY;
+            if (wrapped) {
+                mOldest = mNext;
+                skipFinished();
+            }
+        } finally {
+            mLock.unlock();
+        }
+
+        if (stale != null) {
+            stale.fail(new TimeoutException("No ack received for command " + sequence));
+        }
+
+        return sequence;
+    }
+
+    /**
+     * Match an ack carrying a sequence number
+     *
+     * @param sequence
+     * @param ack
+     * @param now
+     */
+    void complete(int sequence, boolean ack, long now) {
+        CommandFuture future = null;
+        long roundTripNanos = -1;
+        mLock.lock();
+        try {
+            if (mInUse[sequence]) {
+                roundTripNanos = now - mSentAt[sequence];
+                future = finish(sequence, roundTripNanos);
+            }
+        } finally {
+            mLock.unlock();
+        }
+
+        if (future != null) {
+            future.complete(ack, roundTripNanos);
+        }
+    }
+
+    /**
+     * Match a plain ack to the oldest pending command
+     *
+     * @param ack
+     * @param now
+     */
+    void completeOldest(boolean ack, long now) {
+        CommandFuture future = null;
+        long roundTripNanos = -1;
+        mLock.lock();
+        try {
+            if (mCount > 0) {
+                roundTripNanos = now - mSentAt[mOldest];
+                future = finish(mOldest, roundTripNanos);
+            }
+        } finally {
+            mLock.unlock();
+        }
+
+        if (future != null) {
+            future.complete(ack, roundTripNanos);
+        }
+    }
+
+    /**
+     * Fail every command that has been waiting for longer than <code>timeoutNanos</code>
+     *
+     * @param now
+     * @param timeoutNanos
+     */
+    void expire(long now, long timeoutNanos) {
+        List<CommandFuture> expired = null;
+        List<Throwable> causes = null;
+        mLock.lock();
+        try {
+            for (int i = 0; mCount > 0 && i < CAPACITY; i++) {
+                if (mInUse[i] && now - mSentAt[i] >= timeoutNanos) {
+                    CommandFuture future = expire(i);
+                    if (future != null) {
+                        if (expired == null) {
+                            // this runs every few ms, so only allocate once something actually expired
+                            expired = new ArrayList<CommandFuture>();
+                            causes = new ArrayList<Throwable>();
+                        }
+
+                        expired.add(future);
+                        causes.add(new TimeoutException("No ack received for command " + i));
+                    }
+                }
+            }
+        } finally {
+            mLock.unlock();
+        }
+
+        for (int i = 0; expired != null && i < expired.size(); i++) {
+            expired.get(i).fail(causes.get(i));
+        }
+    }
+
+    /**
+     * Fail all pending commands, for example when the connection is lost
+     *
+     * @param cause
+     */
+    void clear(Throwable cause) {
+        List<CommandFuture> cleared = new ArrayList<CommandFuture>();
+        mLock.lock();
+        try {
+            for (int i = 0; mCount > 0 && i < CAPACITY; i++) {
+                if (mInUse[i]) {
+                    CommandFuture future = release(i);
+                    if (future != null) {
+                        cleared.add(future);
+                    }
+                }
+            }
+
+            skipFinished();
+        } finally {
+            mLock.unlock();
+        }
+
+        for (CommandFuture future : cleared) {
+            future.fail(cause);
+        }
+    }
+
+    int size() {
+        mLock.lock();
+        try {
+            return mCount;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * @return Round trip time of the most recently acked command, in nanoseconds, or -1 if none was acked yet
+     */
+    long getLastRoundTripNanos() {
+        mLock.lock();
+        try {
+            return mLastRoundTripNanos;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    ///////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////
+    /**
+     * Release an acked command. Must be called while holding the lock
+     *
+     * @param sequence
+     * @param roundTripNanos
+     * @return The command's future, for the caller to complete once it released the lock. May be null
+     */
+    private CommandFuture finish(int sequence, long roundTripNanos) {
+        CommandFuture future = release(sequence);
+        mLastRoundTripNanos = roundTripNanos;
+        mMetrics.onRoundTrip(roundTripNanos);
+        skipFinished();
+        return future;
+    }
+
+    /**
+     * Release a command that timed out. Must be called while holding the lock
+     *
+     * @param sequence
+     * @return The command's future, for the caller to fail once it released the lock. May be null
+     */
+    private CommandFuture expire(int sequence) {
+        CommandFuture future = release(sequence);
+        mMetrics.onTimeout();
+        skipFinished();
+        return future;
+    }
+
+    private CommandFuture release(int sequence) {
+        CommandFuture future = mFutures[sequence];
+        mFutures[sequence] = null;
+        mInUse[sequence] = false;
+        mCount--;
+        mCredit.signalAll();
+        return future;
+    }
+
+    /**
+     * Move the oldest pointer past commands that were already acked or expired
+     */
+    private void skipFinished() {
+        if (mCount == 0) {
+            mOldest = mNext;
+            return;
+        }
+
+        while (!mInUse[mOldest]) {
+            mOldest = (mOldest + 1) % CAPACITY;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package com.labs.adk;
+
+import java.io.IOException;
+
+/**
+ * Bounded buffer of frames sent while the link to the ADK device is down. <br/>
+ * Once the link is back the frames are moved to the {@link SendQueue} all at once, in the order they were sent, and go out
+ * ahead of anything sent afterwards. The buffer holds nothing until given a capacity, so by default commands sent while
+ * disconnected are simply dropped
+ *
+ * @author Amir Lazarovich
+ */
+final class ReplayBuffer {
+    ///////////////////////////////////////////////
+    // Members
+    ///////////////////////////////////////////////
+    private final FrameEncoder mEncoder;
+    private Frame[] mFrames;
+    private ReplayPolicy mPolicy;
+    private int mHead;
+    private int mCount;
+    private long mDroppedCount;
+    private long mReplayedCount;
+
+    ///////////////////////////////////////////////
+    // Constructors
+    ///////////////////////////////////////////////
+    ReplayBuffer(FrameEncoder encoder) {
+        mEncoder = encoder;
+        mFrames = new Frame[0];
+        mPolicy = ReplayPolicy.DROP_OLDEST;
+    }
+
+    ///////////////////////////////////////////////
+    // Package
+    ///////////////////////////////////////////////
+
+    /**
+     * Resize the buffer, dropping the oldest frames if they no longer fit
+     *
+     * @param capacity 0 turns replaying off
+     * @param policy
+     */
+    synchronized void configure(int capacity, ReplayPolicy policy) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity must not be negative");
+        }
+
+        while (mCount > capacity) {
+            drop(removeOldest());
+        }
+
+        Frame[] frames = new Frame[capacity];
+        for (int i = 0; i < mCount; i++) {
+            frames[i] = mFrames[(mHead + i) % mFrames.length];
+        }
+
+        mFrames = frames;
+        mHead = 0;
+        mPolicy = policy;
+    }
+
+    /**
+     * Buffer a frame, applying the replay policy if the buffer is full
+     *
+     * @param frame
+     * @return true if the frame was buffered, false if it was rejected. Rejected frames are left to the caller
+     */
+    synchronized boolean offer(Frame frame) {
+        if (mFrames.length == 0) {
+            return false;
+        }
+
+        if (mPolicy == ReplayPolicy.CONFLATE && replace(frame)) {
+            return true;
+        }
+
+        if (mCount == mFrames.length) {
+            if (mPolicy == ReplayPolicy.DROP_NEWEST) {
+                return false;
+            }
+
+            drop(removeOldest());
+        }
+
+        mFrames[(mHead + mCount) % mFrames.length] = frame;
+        mCount++;
+        return true;
+    }
+
+    /**
+     * Move every buffered frame to <code>queue</code>, oldest first
+     *
+     * @param queue
+     * @return Number of frames moved. Frames that didn't fit in the queue are dropped
+     */
+    synchronized int drainTo(SendQueue queue) {
+        int moved = 0;
+        while (mCount > 0) {
+            Frame frame = removeOldest();
+            if (queue.offerNow(frame)) {
+                moved++;
+            } else {
+                drop(frame);
+            }
+        }
+
+        mReplayedCount += moved;
+        return moved;
+    }
+
+    /**
+     * Drop all buffered frames, failing their futures
+     */
+    synchronized void clear() {
+        while (mCount > 0) {
+            drop(removeOldest());
+        }
+    }
+
+    synchronized int size() {
+        return mCount;
+    }
+
+    /**
+     * @return Number of frames dropped for lack of room, either in this buffer or in the send queue once replayed
+     */
+    synchronized long getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    /**
+     * @return Number of frames moved to the send queue once the link was back
+     */
+    synchronized long getReplayedCount() {
+        return mReplayedCount;
+    }
+
+    ///////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////
+    private Frame removeOldest() {
+        Frame frame = mFrames[mHead];
+        mFrames[mHead] = null;
+        mHead = (mHead + 1) % mFrames.length;
+        mCount--;
+        return frame;
+    }
+
+    private void drop(Frame frame) {
+        mDroppedCount++;
+        if (frame.mFuture != null) {
+            frame.mFuture.fail(new IOException("Dropped while disconnected from the ADK device"));
+        }
+
+        mEncoder.recycle(frame);
+    }
+
+    /**
+     * Replace a buffered frame having the same command and action as <code>frame</code>, if both are conflatable
+     *
+     * @param frame
+     * @return true if a buffered frame was replaced
+     */
+    private boolean replace(Frame frame) {
+        if (!frame.mConflatable) {
+            return false;
+        }
+
+        for (int i = 0; i < mCount; i++) {
+            int index = (mHead + i) % mFrames.length;
+            Frame buffered = mFrames[index];
+            if (buffered.mConflatable && buffered.command() == frame.command() && buffered.action() == frame.action()) {
+                mFrames[index] = frame;
+                if (buffered.mFuture != null) {
+                    buffered.mFuture.cancel(false);
+                }
+
+                mEncoder.recycle(buffered);
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,24 @@
+package com.labs.adk;
+
+/**
+ * What to do when a command is sent while the link is down and the replay buffer is already full
+ *
+ * @author Amir Lazarovich
+ */
+public enum ReplayPolicy {
+    /**
+     * Make room by dropping the oldest buffered command
+     */
+    DROP_OLDEST,
+
+    /**
+     * Drop the command being sent and keep what's already buffered
+     */
+    DROP_NEWEST,
+
+    /**
+     * Replace a buffered command with the same command and action, whether the buffer is full or not, so only the latest
+     * state of each led is replayed. Falls back to dropping the oldest command when there's nothing to replace
+     */
+    CONFLATE
+}
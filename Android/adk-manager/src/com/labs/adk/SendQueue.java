@@ -0,0 +1,286 @@
+package com.labs.adk;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded multi-producer/single-consumer queue of outbound frames. <br/>
+ * Any thread may offer frames, only the writer thread takes them, and frames always come out in the order they went in. <br/>
+ * When conflating, a frame replaces any queued frame with the same command and action instead of being added after it.
+ * Only the latest state of each led matters, so there's no point in writing the ones in between. Frames that aren't
+ * conflatable (see {@link Frame#mConflatable}) are always added
+ *
+ * @author Amir Lazarovich
+ */
+final class SendQueue {
+    ///////////////////////////////////////////////
+    // Members
+    ///////////////////////////////////////////////
+    private final Frame[] mFrames;
+    private final ReentrantLock mLock;
+    private final Condition mNotEmpty;
+    private final Condition mNotFull;
+    private final OverflowPolicy mPolicy;
+    private final FrameEncoder mEncoder;
+
+    private int mHead;
+    private int mCount;
+    private int mMaxCount;
+    private boolean mConflating;
+    private long mConflatedCount;
+
+    ///////////////////////////////////////////////
+    // Constructors
+    ///////////////////////////////////////////////
+    SendQueue(int capacity, OverflowPolicy policy, FrameEncoder encoder) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+
+        mFrames = new Frame[capacity];
+        mPolicy = policy;
+        mEncoder = encoder;
+        mLock = new ReentrantLock();
+        mNotEmpty = mLock.newCondition();
+        mNotFull = mLock.newCondition();
+    }
+
+    ///////////////////////////////////////////////
+    // Public
+    ///////////////////////////////////////////////
+
+    /**
+     * Queue a frame, or replace a queued one when conflating. Never waits: what to do when the queue is full is left to
+     * the caller, see {@link #policy()} and {@link #awaitRoom()}
+     *
+     * @param frame
+     * @return true if the frame was queued, false if the queue is full
+     */
+    boolean offer(Frame frame) {
+        mLock.lock();
+        try {
+            if (mConflating && replace(frame)) {
+                return true;
+            }
+
+            if (mCount == mFrames.length) {
+                return false;
+            }
+
+            add(frame);
+            return true;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Wait until the queue has room for another frame
+     *
+     * @throws InterruptedException
+     */
+    void awaitRoom() throws InterruptedException {
+        mLock.lockInterruptibly();
+        try {
+            while (mCount == mFrames.length) {
+                mNotFull.await();
+            }
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Queue a frame if there's room for it, whatever the overflow policy. Never waits
+     *
+     * @param frame
+     * @return true if the frame was queued
+     */
+    boolean offerNow(Frame frame) {
+        mLock.lock();
+        try {
+            if (mCount == mFrames.length) {
+                return false;
+            }
+
+            add(frame);
+            return true;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Take the oldest frame, waiting for one if the queue is empty
+     *
+     * @return
+     * @throws InterruptedException
+     */
+    Frame take() throws InterruptedException {
+        mLock.lockInterruptibly();
+        try {
+            while (mCount == 0) {
+                mNotEmpty.await();
+            }
+
+            Frame frame = mFrames[mHead];
+            mFrames[mHead] = null;
+            mHead = (mHead + 1) % mFrames.length;
+            mCount--;
+            mNotFull.signal();
+            return frame;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Take the oldest frame, but only if it's no longer than <code>maxLength</code>. Never waits
+     *
+     * @param maxLength
+     * @return The frame, or null if the queue is empty or the oldest frame is too long
+     */
+    Frame poll(int maxLength) {
+        mLock.lock();
+        try {
+            if (mCount == 0 || mFrames[mHead].length() > maxLength) {
+                return null;
+            }
+
+            Frame frame = mFrames[mHead];
+            mFrames[mHead] = null;
+            mHead = (mHead + 1) % mFrames.length;
+            mCount--;
+            mNotFull.signal();
+            return frame;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Drop all queued frames, handing them back to the encoder
+     */
+    void clear() {
+        mLock.lock();
+        try {
+            while (mCount > 0) {
+                mEncoder.recycle(mFrames[mHead]);
+                mFrames[mHead] = null;
+                mHead = (mHead + 1) % mFrames.length;
+                mCount--;
+            }
+
+            mNotFull.signalAll();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * @return Number of frames waiting to be written
+     */
+    int size() {
+        mLock.lock();
+        try {
+            return mCount;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Turn conflation of queued frames on or off
+     *
+     * @param conflating
+     */
+    void setConflating(boolean conflating) {
+        mLock.lock();
+        try {
+            mConflating = conflating;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * @return Number of frames that were replaced by a newer frame before being written
+     */
+    long getConflatedCount() {
+        mLock.lock();
+        try {
+            return mConflatedCount;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * @return Most frames ever waiting in the queue at the same time
+     */
+    int getMaxDepth() {
+        mLock.lock();
+        try {
+            return mMaxCount;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    int capacity() {
+        return mFrames.length;
+    }
+
+    OverflowPolicy policy() {
+        return mPolicy;
+    }
+
+    ///////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////
+
+    /**
+     * Add a frame at the tail. Must be called while holding the lock, with room in the queue
+     *
+     * @param frame
+     */
+    private void add(Frame frame) {
+        mFrames[(mHead + mCount) % mFrames.length] = frame;
+        mCount++;
+        if (mCount > mMaxCount) {
+            mMaxCount = mCount;
+        }
+
+        mNotEmpty.signal();
+    }
+
+    /**
+     * Replace a queued frame having the same command and action as <code>frame</code>, if both are conflatable.
+     * Must be called while holding the lock
+     *
+     * @param frame
+     * @return true if a queued frame was replaced
+     */
+    private boolean replace(Frame frame) {
+        if (!frame.mConflatable) {
+            return false;
+        }
+
+        for (int i = 0; i < mCount; i++) {
+            int index = (mHead + i) % mFrames.length;
+            Frame queued = mFrames[index];
+            if (queued.mConflatable && queued.command() == frame.command() && queued.action() == frame.action()) {
+                mFrames[index] = frame;
+                mConflatedCount++;
+                if (queued.mFuture != null) {
+                    queued.mFuture.cancel(false);
+                }
+
+                mEncoder.recycle(queued);
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,235 @@
+package com.labs.adk;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Plays timed command sequences ({@link Track}s) to an ADK device, any number of them at once. <br/>
+ * A single thread keeps the playing tracks ordered by their next deadline and sleeps until the earliest one is due.
+ * Deadlines come from {@link System#nanoTime()} and from when each track started, so a late step (timer slack, a GC pause,
+ * a blocked send) delays only itself and never shifts the steps after it. A track that fell behind gets back on schedule
+ * according to its {@link CatchUpPolicy}. <br/>
+ * Steps are sent on the sequencer thread, so a sender that blocks (e.g. {@link OverflowPolicy#BLOCK}) holds up every track
+ *
+ * @author Amir Lazarovich
+ */
+public class Sequencer implements Runnable {
+    ///////////////////////////////////////////////
+    // Constants
+    ///////////////////////////////////////////////
+    private static final String TAG = "Sequencer";
+    private static final int INITIAL_CAPACITY = 8;
+
+    ///////////////////////////////////////////////
+    // Members
+    ///////////////////////////////////////////////
+    private final CommandSender mSender;
+    private final PriorityQueue<Track> mTracks;
+    private final ReentrantLock mLock;
+    private final Condition mChanged;
+    private volatile Thread mThread;
+
+    ///////////////////////////////////////////////
+    // Constructors
+    ///////////////////////////////////////////////
+
+    /**
+     * @param sender Where the steps are sent, e.g. an {@link ADKManager}
+     */
+    public Sequencer(CommandSender sender) {
+        mSender = sender;
+        mTracks = new PriorityQueue<Track>(INITIAL_CAPACITY, new Comparator<Track>() {
+            @Override
+            public int compare(Track lhs, Track rhs) {
+                // deadlines may wrap around, so only their difference is meaningful
+                long diff = lhs.mDeadline - rhs.mDeadline;
+                return (diff < 0) ? -1 : ((diff == 0) ? 0 : 1);
+            }
+        });
+        mLock = new ReentrantLock();
+        mChanged = mLock.newCondition();
+    }
+
+    ///////////////////////////////////////////////
+    // Public
+    ///////////////////////////////////////////////
+
+    /**
+     * Start the sequencer thread. Tracks can be played before it starts, they're just not sent until then
+     */
+    public void start() {
+        mLock.lock();
+        try {
+            if (mThread != null) {
+                return;
+            }
+
+            mThread = new Thread(null, this, TAG);
+            mThread.start();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Stop every track and the sequencer thread. The sequencer can be started again
+     */
+    public void shutdown() {
+        Thread thread;
+        mLock.lock();
+        try {
+            stopAllLocked();
+            thread = mThread;
+            mThread = null;
+        } finally {
+            mLock.unlock();
+        }
+
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    /**
+     * Play <code>track</code> from its first step, starting now
+     *
+     * @param track
+     * @throws IllegalStateException If the track is already playing, has no steps or loops before its last step
+     */
+    public void play(Track track) {
+        play(track, System.nanoTime());
+    }
+
+    /**
+     * Play <code>track</code> from its first step, starting at <code>startNanos</code>. Starting several tracks at the same
+     * time keeps them in step with each other
+     *
+     * @param track
+     * @param startNanos As given by {@link System#nanoTime()}. May be in the past, in which case the track starts out behind
+     * @throws IllegalStateException If the track is already playing, has no steps or loops before its last step
+     */
+    public void play(Track track, long startNanos) {
+        mLock.lock();
+        try {
+            if (track.mPlaying) {
+                throw new IllegalStateException("Track " + track.getName() + " is already playing");
+            }
+
+            track.rewind(startNanos);
+            track.mPlaying = true;
+            mTracks.add(track);
+            mChanged.signal();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Stop playing <code>track</code>. A step already being sent still goes through
+     *
+     * @param track
+     */
+    public void stop(Track track) {
+        mLock.lock();
+        try {
+            if (mTracks.remove(track)) {
+                mChanged.signal();
+            }
+
+            track.mPlaying = false;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Stop playing every track
+     */
+    public void stopAll() {
+        mLock.lock();
+        try {
+            stopAllLocked();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * @return Number of tracks playing
+     */
+    public int getTrackCount() {
+        mLock.lock();
+        try {
+            return mTracks.size();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    ///////////////////////////////////////////////
+    // Overrides & Implementations
+    ///////////////////////////////////////////////
+    @Override
+    public void run() {
+        // a sequencer restarted right after shutting down has a new thread, this one must not keep going
+        while (mThread == Thread.currentThread()) {
+            Track track;
+            int step;
+            long deadline;
+            mLock.lock();
+            try {
+                track = mTracks.peek();
+                if (track == null) {
+                    mChanged.await();
+                    continue;
+                }
+
+                long now = System.nanoTime();
+                long wait = track.mDeadline - now;
+                if (wait > 0) {
+                    mChanged.awaitNanos(wait);
+                    continue;
+                }
+
+                mTracks.poll();
+                if (track.getPolicy() == CatchUpPolicy.SKIP) {
+                    long next;
+                    while ((next = track.nextDeadline()) != Long.MAX_VALUE && next - now <= 0) {
+                        track.advance();
+                        track.onSkipped();
+                    }
+                }
+
+                // move on before sending, so stopping or replaying the track meanwhile doesn't race with the send
+                step = track.mIndex;
+                deadline = track.mDeadline;
+                if (track.advance()) {
+                    mTracks.add(track);
+                } else {
+                    track.mPlaying = false;
+                }
+            } catch (InterruptedException e) {
+                // shutting down
+                continue;
+            } finally {
+                mLock.unlock();
+            }
+
+            track.send(mSender, step, deadline);
+        }
+    }
+
+    ///////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////
+    private void stopAllLocked() {
+        Track track;
+        while ((track = mTracks.poll()) != null) {
+            track.mPlaying = false;
+        }
+
+        mChanged.signal();
+    }
+}
@@ -0,0 +1,313 @@
+package com.labs.adk;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The latest telemetry samples sent by the ADK device (e.g. analog readings), in a fixed size ring per channel. <br/>
+ * A sample is packed into a single long, its arrival time in microseconds above its 16 bit value, so recording one
+ * never allocates or locks, and reading one always sees a whole sample. The reading thread is
+ * the only writer; queries may run on any thread, at any time, and see a window that ends at the newest sample. A query
+ * walks from the newest sample back and then, like a seqlock, checks how far the writer got in the meantime: a sample a
+ * whole ring behind one the writer started on may have been overwritten while it was read, and is left out, so a query
+ * never mixes up old and new samples. <br/>
+ * A channel's ring is allocated by its first sample, once
+ *
+ * @author Amir Lazarovich
+ */
+public final class TelemetryStore {
+    ///////////////////////////////////////////////
+    // Constants
+    ///////////////////////////////////////////////
+    public static final int MAX_CHANNELS = 256;
+    public static final int DEFAULT_CAPACITY = 4096;
+    private static final int VALUE_BITS = 16;
+    private static final long VALUE_MASK = (1 << VALUE_BITS) - 1;
+
+    ///////////////////////////////////////////////
+    // Members
+    ///////////////////////////////////////////////
+    private final int mCapacity;
+    private final AtomicReferenceArray<Ring> mRings;
+    private final long mBaseNanos;
+
+    ///////////////////////////////////////////////
+    // Constructors
+    ///////////////////////////////////////////////
+
+    /**
+     * @param capacity Number of samples kept per channel, rounded up to a power of two
+     */
+    public TelemetryStore(int capacity) {
+        if (capacity < 1 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException("capacity must be between 1 and 2^30");
+        }
+
+        int rounded = 1;
+        while (rounded < capacity) {
+            rounded <<= 1;
+        }
+
+        mCapacity = rounded;
+        mRings = new AtomicReferenceArray<Ring>(MAX_CHANNELS);
+        mBaseNanos = System.nanoTime();
+    }
+
+    ///////////////////////////////////////////////
+    // Public
+    ///////////////////////////////////////////////
+
+    /**
+     * @return Number of samples kept per channel
+     */
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    /**
+     * @param channel
+     * @return Number of samples received on the channel so far, including those no longer kept
+     */
+    public long getCount(int channel) {
+        Ring ring = mRings.get(channel);
+        return (ring == null) ? 0 : ring.mCount;
+    }
+
+    /**
+     * @param channel
+     * @return The channel's newest value, or -1 if it has none
+     */
+    public int getLatest(int channel) {
+        Ring ring = mRings.get(channel);
+        long count = (ring == null) ? 0 : ring.mCount;
+        return (count == 0) ? -1 : value(ring.mSamples.get(index(count - 1)));
+    }
+
+    /**
+     * Copy the channel's newest samples, oldest first
+     *
+     * @param channel
+     * @param values     Receives the values. Its length is the max number of samples copied
+     * @param timesNanos Receives when each sample arrived, as given by {@link System#nanoTime()} to the microsecond. May be null
+     * @return Number of samples copied
+     */
+    public int getSamples(int channel, int[] values, long[] timesNanos) {
+        Ring ring = mRings.get(channel);
+        if (ring == null) {
+            return 0;
+        }
+
+        long end = ring.mCount;
+        long start = Math.max(0, Math.max(end - mCapacity, end - values.length));
+        for (long seq = end - 1; seq >= start; seq--) {
+            long sample = ring.mSamples.get(index(seq));
+            int slot = (int) (seq - start);
+            values[slot] = value(sample);
+            if (timesNanos != null) {
+                timesNanos[slot] = toNanos(sample >>> VALUE_BITS);
+            }
+        }
+
+        // the oldest samples may have been overwritten while they were copied, which leaves a gap at the start
+        int skipped = (int) Math.max(0, firstIntact(ring) - start);
+        int copied = (int) Math.max(0, end - start - skipped);
+        if (skipped > 0 && copied > 0) {
+            System.arraycopy(values, skipped, values, 0, copied);
+            if (timesNanos != null) {
+                System.arraycopy(timesNanos, skipped, timesNanos, 0, copied);
+            }
+        }
+
+        return copied;
+    }
+
+    /**
+     * Min, max and mean of the channel's samples that arrived within the last <code>windowNanos</code>
+     *
+     * @param channel
+     * @param windowNanos
+     * @return
+     */
+    public TelemetryWindow query(int channel, long windowNanos) {
+        return query(channel, windowNanos, new TelemetryWindow());
+    }
+
+    /**
+     * Like {@link #query(int, long)}, reusing <code>out</code> so polling doesn't allocate
+     *
+     * @param channel
+     * @param windowNanos
+     * @param out
+     * @return <code>out</code>
+     */
+    public TelemetryWindow query(int channel, long windowNanos, TelemetryWindow out) {
+        out.reset(channel);
+        Ring ring = mRings.get(channel);
+        if (ring == null) {
+            return out;
+        }
+
+        long from = micros(System.nanoTime() - windowNanos);
+        long end = ring.mCount;
+        long start = Math.max(0, end - mCapacity);
+        for (long seq = end - 1; seq >= start; seq--) {
+            long sample = ring.mSamples.get(index(seq));
+            long micros = sample >>> VALUE_BITS;
+            // a sum can't take a sample back, so each one is checked before it's added
+            if (micros < from || seq < firstIntact(ring)) {
+                break;
+            }
+
+            out.add(value(sample), micros);
+        }
+
+        if (out.mCount > 0) {
+            out.mFirstNanos = toNanos(out.mFirstMicros);
+            out.mLastNanos = toNanos(out.mLastMicros);
+        }
+
+        return out;
+    }
+
+    /**
+     * Squeeze the channel's samples from the last <code>windowNanos</code> into equal time buckets, oldest first, e.g. to
+     * plot them. The number of buckets is the length of <code>means</code>
+     *
+     * @param channel
+     * @param windowNanos
+     * @param means       Receives the mean of each bucket, or NaN for a bucket without samples
+     * @param mins        Receives the min of each bucket, or -1 for a bucket without samples. May be null
+     * @param maxs        Receives the max of each bucket, or -1 for a bucket without samples. May be null
+     * @return Number of samples in the window
+     */
+    public int downsample(int channel, long windowNanos, float[] means, int[] mins, int[] maxs) {
+        int buckets = means.length;
+        int[] counts = new int[buckets];
+        Arrays.fill(means, 0);
+        if (mins != null) {
+            Arrays.fill(mins, -1);
+        }
+
+        if (maxs != null) {
+            Arrays.fill(maxs, -1);
+        }
+
+        int total = 0;
+        Ring ring = mRings.get(channel);
+        if (ring != null && windowNanos > 0) {
+            long to = micros(System.nanoTime());
+            long windowMicros = Math.max(1, TimeUnit.NANOSECONDS.toMicros(windowNanos));
+            long from = to - windowMicros;
+            long end = ring.mCount;
+            long start = Math.max(0, end - mCapacity);
+            for (long seq = end - 1; seq >= start; seq--) {
+                long sample = ring.mSamples.get(index(seq));
+                long micros = sample >>> VALUE_BITS;
+                if (micros < from || seq < firstIntact(ring)) {
+                    break;
+                }
+
+                int bucket = (int) Math.min(buckets - 1, (micros - from) * buckets / windowMicros);
+                int value = value(sample);
+                means[bucket] += value;
+                if (mins != null && (counts[bucket] == 0 || value < mins[bucket])) {
+                    mins[bucket] = value;
+                }
+
+                if (maxs != null && value > maxs[bucket]) {
+                    maxs[bucket] = value;
+                }
+
+                counts[bucket]++;
+                total++;
+            }
+        }
+
+        for (int i = 0; i < buckets; i++) {
+            means[i] = (counts[i] == 0) ? Float.NaN : means[i] / counts[i];
+        }
+
+        return total;
+    }
+
+    ///////////////////////////////////////////////
+    // Package
+    ///////////////////////////////////////////////
+
+    /**
+     * Record a sample. Called by the reading thread only
+     *
+     * @param channel
+     * @param value     Unsigned 16 bit
+     * @param nowNanos  {@link System#nanoTime()} when the sample arrived
+     */
+    void record(int channel, int value, long nowNanos) {
+        Ring ring = mRings.get(channel);
+        if (ring == null) {
+            ring = new Ring(mCapacity);
+            mRings.set(channel, ring);
+        }
+
+        long count = ring.mCount;
+        // ordered ahead of the sample's own store, and a reader that sees the sample sees this too
+        ring.mStarted.lazySet(count + 1);
+        ring.mSamples.lazySet(index(count), (micros(nowNanos) << VALUE_BITS) | (value & VALUE_MASK));
+        ring.mCount = count + 1;
+    }
+
+    ///////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////
+    private int index(long seq) {
+        return (int) seq & (mCapacity - 1);
+    }
+
+    /**
+     * Read after the samples it vouches for. The writer publishes that it started on a sample before it overwrites the
+     * slot, so a sample read over is counted here
+     *
+     * @param ring
+     * @return The oldest sequence number whose sample, already read, is known to be intact
+     */
+    private long firstIntact(Ring ring) {
+        return ring.mStarted.get() - mCapacity;
+    }
+
+    private long micros(long nanos) {
+        return Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos - mBaseNanos));
+    }
+
+    /**
+     * @param micros As packed in a sample
+     * @return The matching {@link System#nanoTime()}
+     */
+    private long toNanos(long micros) {
+        return mBaseNanos + TimeUnit.MICROSECONDS.toNanos(micros);
+    }
+
+    private static int value(long sample) {
+        return (int) (sample & VALUE_MASK);
+    }
+
+    ///////////////////////////////////////////////
+    // Inner classes
+    ///////////////////////////////////////////////
+
+    /**
+     * A channel's samples. Only the reading thread writes, so the counts need no atomic increments. <br/>
+     * <code>mStarted</code> runs ahead of <code>mCount</code> while a sample is being written
+     */
+    private static final class Ring {
+        final AtomicLongArray mSamples;
+        volatile long mCount;
+        final AtomicLong mStarted;
+
+        Ring(int capacity) {
+            mSamples = new AtomicLongArray(capacity);
+            mStarted = new AtomicLong();
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.labs.adk;
+
+/**
+ * Min, max and mean of a telemetry channel over a window of time, see {@link TelemetryStore#query(int, long)}. <br/>
+ * Can be reused across queries, so polling a channel doesn't allocate
+ *
+ * @author Amir Lazarovich
+ */
+public final class TelemetryWindow {
+    ///////////////////////////////////////////////
+    // Members
+    ///////////////////////////////////////////////
+    int mChannel;
+    int mCount;
+    int mMin;
+    int mMax;
+    long mSum;
+    long mFirstMicros;
+    long mLastMicros;
+    long mFirstNanos;
+    long mLastNanos;
+
+    ///////////////////////////////////////////////
+    // Constructors
+    ///////////////////////////////////////////////
+    public TelemetryWindow() {
+        reset(0);
+    }
+
+    ///////////////////////////////////////////////
+    // Public
+    ///////////////////////////////////////////////
+    public int getChannel() {
+        return mChannel;
+    }
+
+    /**
+     * @return Number of samples in the window
+     */
+    public int getCount() {
+        return mCount;
+    }
+
+    /**
+     * @return The smallest value, or -1 if the window is empty
+     */
+    public int getMin() {
+        return mMin;
+    }
+
+    /**
+     * @return The largest value, or -1 if the window is empty
+     */
+    public int getMax() {
+        return mMax;
+    }
+
+    /**
+     * @return The mean value, or NaN if the window is empty
+     */
+    public double getMean() {
+        return (mCount == 0) ? Double.NaN : (double) mSum / mCount;
+    }
+
+    /**
+     * @return When the oldest sample in the window arrived, as given by {@link System#nanoTime()}
+     */
+    public long getFirstNanos() {
+        return mFirstNanos;
+    }
+
+    /**
+     * @return When the newest sample in the window arrived, as given by {@link System#nanoTime()}
+     */
+    public long getLastNanos() {
+        return mLastNanos;
+    }
+
+    ///////////////////////////////////////////////
+    // Overrides & Implementations
+    ///////////////////////////////////////////////
+    @Override
+    public String toString() {
+        return "channel " + mChannel + ": " + mCount + " samples, min " + mMin + " max " + mMax + " mean " + getMean();
+    }
+
+    ///////////////////////////////////////////////
+    // Package
+    ///////////////////////////////////////////////
+    void reset(int channel) {
+        mChannel = channel;
+        mCount = 0;
+        mMin = -1;
+        mMax = -1;
+        mSum = 0;
+        mFirstMicros = 0;
+        mLastMicros = 0;
+        mFirstNanos = 0;
+        mLastNanos = 0;
+    }
+
+    /**
+     * Add a sample. Samples are added newest first
+     *
+     * @param value
+     * @param micros
+     */
+    void add(int value, long micros) {
+        if (mCount == 0) {
+            mMin = value;
+            mMax = value;
+            mLastMicros = micros;
+        } else {
+            mMin = Math.min(mMin, value);
+            mMax = Math.max(mMax, value);
+        }
+
+        mSum += value;
+        mFirstMicros = micros;
+        mCount++;
+    }
+}
@@ -0,0 +1,240 @@
+package com.labs.adk;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A timed sequence of commands, played by a {@link Sequencer}. <br/>
+ * Each step is due at a fixed offset from the start of the track, and a looping track starts over every period. Deadlines are
+ * always computed from when the track started rather than from when the previous step was sent, so delays never add up. <br/>
+ * Steps are added before the track is played. A track plays on a single sequencer at a time
+ *
+ * @author Amir Lazarovich
+ */
+public final class Track {
+    ///////////////////////////////////////////////
+    // Constants
+    ///////////////////////////////////////////////
+    private static final int INITIAL_CAPACITY = 4;
+
+    ///////////////////////////////////////////////
+    // Members
+    ///////////////////////////////////////////////
+    private final String mName;
+    private final CatchUpPolicy mPolicy;
+
+    private long[] mOffsets;
+    private byte[] mCommands;
+    private byte[] mActions;
+    private byte[][] mData;
+    private int mSteps;
+    private long mPeriodNanos;
+
+    // playback state, owned by the sequencer
+    volatile boolean mPlaying;
+    long mStartNanos;
+    long mCycle;
+    int mIndex;
+    long mDeadline;
+
+    // stats, written by the sequencer thread only
+    private final Histogram mLateness;
+    private volatile long mSent;
+    private volatile long mSkipped;
+    private volatile long mDropped;
+
+    ///////////////////////////////////////////////
+    // Constructors
+    ///////////////////////////////////////////////
+
+    /**
+     * @param name   Shows in the stats
+     * @param policy What to do when the track falls behind
+     */
+    public Track(String name, CatchUpPolicy policy) {
+        mName = name;
+        mPolicy = policy;
+        mOffsets = new long[INITIAL_CAPACITY];
+        mCommands = new byte[INITIAL_CAPACITY];
+        mActions = new byte[INITIAL_CAPACITY];
+        mData = new byte[INITIAL_CAPACITY][];
+        mLateness = new Histogram();
+    }
+
+    ///////////////////////////////////////////////
+    // Public
+    ///////////////////////////////////////////////
+
+    /**
+     * Add a step to the end of the track
+     *
+     * @param offsetMillis When the step is due, relative to the start of the track (or of the current loop). Can't come before the previous step
+     * @param command
+     * @param action
+     * @param data         May also be null if there's no data
+     * @throws IllegalStateException If the track is playing
+     */
+    public synchronized void addStep(long offsetMillis, byte command, byte action, byte[] data) {
+        if (mPlaying) {
+            throw new IllegalStateException("Can't change a track while it's playing");
+        }
+
+        long offset = TimeUnit.MILLISECONDS.toNanos(offsetMillis);
+        if (offset < 0 || (mSteps > 0 && offset < mOffsets[mSteps - 1])) {
+            throw new IllegalArgumentException("Steps must be added in time order");
+        }
+
+        if (mSteps == mOffsets.length) {
+            grow();
+        }
+
+        mOffsets[mSteps] = offset;
+        mCommands[mSteps] = command;
+        mActions[mSteps] = action;
+        mData[mSteps] = data;
+        mSteps++;
+    }
+
+    /**
+     * Make the track start over every <code>periodMillis</code>
+     *
+     * @param periodMillis Must be longer than the offset of the last step. 0 (the default) plays the track once
+     * @throws IllegalStateException If the track is playing
+     */
+    public synchronized void setLoopPeriod(long periodMillis) {
+        if (mPlaying) {
+            throw new IllegalStateException("Can't change a track while it's playing");
+        }
+
+        mPeriodNanos = TimeUnit.MILLISECONDS.toNanos(periodMillis);
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public CatchUpPolicy getPolicy() {
+        return mPolicy;
+    }
+
+    /**
+     * @return true from the moment the track is played until it's stopped or, if it doesn't loop, its last step was sent
+     */
+    public boolean isPlaying() {
+        return mPlaying;
+    }
+
+    /**
+     * Take a snapshot of how well the track kept its schedule
+     *
+     * @return
+     */
+    public TrackStats getStats() {
+        TrackStats stats = new TrackStats();
+        stats.mName = mName;
+        stats.mSent = mSent;
+        stats.mSkipped = mSkipped;
+        stats.mDropped = mDropped;
+        stats.mLatenessMeanNanos = mLateness.mean();
+        stats.mLatenessP50Nanos = mLateness.percentile(50);
+        stats.mLatenessP90Nanos = mLateness.percentile(90);
+        stats.mLatenessP99Nanos = mLateness.percentile(99);
+        stats.mLatenessMaxNanos = mLateness.max();
+        return stats;
+    }
+
+    ///////////////////////////////////////////////
+    // Package
+    ///////////////////////////////////////////////
+
+    /**
+     * Get ready to play from the first step, starting at <code>startNanos</code>
+     *
+     * @param startNanos
+     * @throws IllegalStateException If the track has no steps or its loop period is too short
+     */
+    synchronized void rewind(long startNanos) {
+        if (mSteps == 0) {
+            throw new IllegalStateException("Track " + mName + " has no steps");
+        }
+
+        if (mPeriodNanos > 0 && mPeriodNanos <= mOffsets[mSteps - 1]) {
+            throw new IllegalStateException("Track " + mName + " loops before its last step");
+        }
+
+        mStartNanos = startNanos;
+        mCycle = 0;
+        mIndex = 0;
+        mDeadline = startNanos + mOffsets[0];
+    }
+
+    /**
+     * Move to the next step
+     *
+     * @return false if there are no more steps
+     */
+    boolean advance() {
+        mIndex++;
+        if (mIndex == mSteps) {
+            if (mPeriodNanos == 0) {
+                return false;
+            }
+
+            mIndex = 0;
+            mCycle++;
+        }
+
+        mDeadline = mStartNanos + mCycle * mPeriodNanos + mOffsets[mIndex];
+        return true;
+    }
+
+    /**
+     * @return When the step after the current one is due, or {@link Long#MAX_VALUE} if there's none
+     */
+    long nextDeadline() {
+        if (mIndex + 1 < mSteps) {
+            return mStartNanos + mCycle * mPeriodNanos + mOffsets[mIndex + 1];
+        }
+
+        return (mPeriodNanos == 0) ? Long.MAX_VALUE : mStartNanos + (mCycle + 1) * mPeriodNanos + mOffsets[0];
+    }
+
+    /**
+     * Send a step. The step is passed in rather than taken from the current one, since the sequencer moves on to the
+     * following step before sending
+     *
+     * @param sender
+     * @param index    Which step to send
+     * @param deadline When the step was due
+     */
+    void send(CommandSender sender, int index, long deadline) {
+        mLateness.record(System.nanoTime() - deadline);
+        if (sender.sendCommand(mCommands[index], mActions[index], mData[index])) {
+            mSent++;
+        } else {
+            mDropped++;
+        }
+    }
+
+    void onSkipped() {
+        mSkipped++;
+    }
+
+    ///////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////
+    private void grow() {
+        int capacity = mOffsets.length * 2;
+        long[] offsets = new long[capacity];
+        byte[] commands = new byte[capacity];
+        byte[] actions = new byte[capacity];
+        byte[][] data = new byte[capacity][];
+        System.arraycopy(mOffsets, 0, offsets, 0, mSteps);
+        System.arraycopy(mCommands, 0, commands, 0, mSteps);
+        System.arraycopy(mActions, 0, actions, 0, mSteps);
+        System.arraycopy(mData, 0, data, 0, mSteps);
+        mOffsets = offsets;
+        mCommands = commands;
+        mActions = actions;
+        mData = data;
+    }
+}
@@ -0,0 +1,101 @@
+package com.labs.adk;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Point in time copy of how well a {@link Track} kept its schedule, over every time it was played. <br/>
+ * Lateness is how long after its deadline a step was actually sent, so its spread is the track's jitter.
+ * Percentiles are rounded up to the next power of two nanoseconds
+ *
+ * @author Amir Lazarovich
+ */
+public final class TrackStats {
+    ///////////////////////////////////////////////
+    // Members
+    ///////////////////////////////////////////////
+    String mName;
+    long mSent;
+    long mSkipped;
+    long mDropped;
+
+    long mLatenessMeanNanos;
+    long mLatenessP50Nanos;
+    long mLatenessP90Nanos;
+    long mLatenessP99Nanos;
+    long mLatenessMaxNanos;
+
+    ///////////////////////////////////////////////
+    // Constructors
+    ///////////////////////////////////////////////
+    TrackStats() {
+    }
+
+    ///////////////////////////////////////////////
+    // Public
+    ///////////////////////////////////////////////
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * @return Number of steps sent
+     */
+    public long getSent() {
+        return mSent;
+    }
+
+    /**
+     * @return Number of steps skipped to get back on schedule, see {@link CatchUpPolicy#SKIP}
+     */
+    public long getSkipped() {
+        return mSkipped;
+    }
+
+    /**
+     * @return Number of steps whose command was dropped, e.g. because the ADK device wasn't connected
+     */
+    public long getDropped() {
+        return mDropped;
+    }
+
+    /**
+     * @return Mean lateness in nanoseconds, or -1 if no step was sent yet
+     */
+    public long getLatenessMeanNanos() {
+        return mLatenessMeanNanos;
+    }
+
+    public long getLatenessP50Nanos() {
+        return mLatenessP50Nanos;
+    }
+
+    public long getLatenessP90Nanos() {
+        return mLatenessP90Nanos;
+    }
+
+    public long getLatenessP99Nanos() {
+        return mLatenessP99Nanos;
+    }
+
+    public long getLatenessMaxNanos() {
+        return mLatenessMaxNanos;
+    }
+
+    ///////////////////////////////////////////////
+    // Overrides & Implementations
+    ///////////////////////////////////////////////
+    @Override
+    public String toString() {
+        return mName + ": sent " + mSent + " skipped " + mSkipped + " dropped " + mDropped
+                + ", lateness us mean " + micros(mLatenessMeanNanos) + " p50 " + micros(mLatenessP50Nanos)
+                + " p90 " + micros(mLatenessP90Nanos) + " p99 " + micros(mLatenessP99Nanos)
+                + " max " + micros(mLatenessMaxNanos);
+    }
+
+    ///////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////
+    private static long micros(long nanos) {
+        return (nanos < 0) ? -1 : TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+}
@@ -0,0 +1,397 @@
+package com.labs.adk;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * A command whose data doesn't fit in a single frame, sent as a series of fragments and put back together by the ADK device
+ * (see Adk_2012_leds_dashboard.ino, or {@link FragmentReassembler} on a JVM). <br/>
+ * Fragments are sent as {@link #COMMAND_FRAGMENT} commands: first {@link #ACTION_FRAGMENT_START}
+ * [transfer id][command][action][length high][length low][fragment size], then an {@link #ACTION_FRAGMENT_DATA}
+ * [transfer id][index high][index low][data] per fragment. Once every fragment arrived, the device handles the command
+ * as if it came in a single frame. <br/>
+ * The transfer waits for the start to be acked, then keeps several fragments in flight at once. A fragment that's nacked,
+ * times out or is dropped is sent again, up to {@link #MAX_ATTEMPTS} times, and the transfer fails after that. Fragments may
+ * arrive more than once or out of order, the device places each by its index. A nacked start means the device can't take
+ * the transfer, e.g. because it's longer than the device holds, so the transfer fails right away. <br/>
+ * Fragments are sent on the channel's transfer thread, so starting a transfer never blocks. The device puts back together
+ * one transfer at a time, so a channel's transfers run one after the other
+ *
+ * @author Amir Lazarovich
+ */
+public class Transfer {
+    ///////////////////////////////////////////////
+    // Constants
+    ///////////////////////////////////////////////
+    static final String TAG = "Transfer";
+
+    // adk-commands
+    public static final byte COMMAND_FRAGMENT = 0x7F;
+
+    // adk-actions
+    public static final byte ACTION_FRAGMENT_START = 1;
+    public static final byte ACTION_FRAGMENT_DATA = 2;
+
+    static final int START_SIZE = 6;
+    static final int DATA_HEADER_SIZE = 3;
+
+    /**
+     * Largest fragment that fits in the device's 16 byte receive buffer, even in sequenced mode
+     */
+    public static final int DEFAULT_FRAGMENT_SIZE = 9;
+    public static final int MAX_FRAGMENT_SIZE = FrameEncoder.maxDataSize(true) - DATA_HEADER_SIZE;
+    /**
+     * Largest payload the protocol can describe. Devices hold less, see {@link #DEFAULT_MAX_PAYLOAD_SIZE}
+     */
+    public static final int MAX_PAYLOAD_SIZE = 0xFFFF;
+    /**
+     * Largest payload Adk_2012_leds_dashboard.ino puts back together. It nacks the start of a longer transfer
+     */
+    public static final int DEFAULT_MAX_PAYLOAD_SIZE = 255;
+    public static final int MAX_ATTEMPTS = 3;
+
+    private static final int START = -1;
+    private static final int STOP = -2;
+
+    ///////////////////////////////////////////////
+    // Members
+    ///////////////////////////////////////////////
+    private final AdkChannel mChannel;
+    private final Executor mDispatcher;
+    private final Executor mPumps;
+    private final TransferListener mListener;
+    private final byte mId;
+    private final byte mCommand;
+    private final byte mAction;
+    private final byte[] mData;
+    private final int mFragmentSize;
+    private final int mFragments;
+    private final AtomicIntegerArray mAttempts;
+    private final Semaphore mInFlight;
+    private final LinkedBlockingDeque<Integer> mWork;
+    private final CountDownLatch mDone;
+
+    private volatile long mStartNanos;
+    private volatile long mEndNanos;
+    private volatile int mBytesAcked;
+    private volatile int mFragmentsAcked;
+    private volatile int mRetries;
+    private volatile boolean mFinished;
+    private volatile Throwable mFailure;
+
+    ///////////////////////////////////////////////
+    // Constructors
+    ///////////////////////////////////////////////
+    Transfer(AdkChannel channel, Executor dispatcher, Executor pumps, int id, byte command, byte action, byte[] data,
+             int fragmentSize, int maxInFlight, TransferListener listener) {
+        if (data.length > MAX_PAYLOAD_SIZE) {
+            throw new IllegalArgumentException("data can't be longer than " + MAX_PAYLOAD_SIZE + " bytes");
+        }
+
+        if (fragmentSize < 1 || fragmentSize > MAX_FRAGMENT_SIZE) {
+            throw new IllegalArgumentException("fragmentSize must be between 1 and " + MAX_FRAGMENT_SIZE);
+        }
+
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be positive");
+        }
+
+        mChannel = channel;
+        mDispatcher = dispatcher;
+        mPumps = pumps;
+        mListener = listener;
+        mId = (byte) id;
+        mCommand = command;
+        mAction = action;
+        mData = data;
+        mFragmentSize = fragmentSize;
+        mFragments = (data.length + fragmentSize - 1) / fragmentSize;
+        // acks of different fragments may complete on different threads. The last slot counts the start's attempts
+        mAttempts = new AtomicIntegerArray(mFragments + 1);
+        mInFlight = new Semaphore(maxInFlight);
+        mWork = new LinkedBlockingDeque<Integer>();
+        mDone = new CountDownLatch(1);
+    }
+
+    ///////////////////////////////////////////////
+    // Public
+    ///////////////////////////////////////////////
+
+    /**
+     * Stop sending fragments. Fragments already sent may still reach the device, which drops what it put together so far
+     * once a new transfer with the same id starts
+     */
+    public void cancel() {
+        finish(new IOException("Transfer cancelled"));
+    }
+
+    /**
+     * Wait for the transfer to end
+     *
+     * @param timeout
+     * @param unit
+     * @return true if it ended, whether it succeeded or not
+     * @throws InterruptedException
+     */
+    public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        return mDone.await(timeout, unit);
+    }
+
+    public boolean isDone() {
+        return mFinished;
+    }
+
+    /**
+     * @return true if every fragment was acked
+     */
+    public boolean isSuccessful() {
+        return mFinished && mFailure == null;
+    }
+
+    /**
+     * @return Why the transfer failed, or null if it didn't (yet)
+     */
+    public Throwable getFailure() {
+        return mFailure;
+    }
+
+    public int getTotalBytes() {
+        return mData.length;
+    }
+
+    /**
+     * @return Number of bytes the device acked so far
+     */
+    public int getBytesAcked() {
+        return mBytesAcked;
+    }
+
+    public int getFragmentCount() {
+        return mFragments;
+    }
+
+    public int getFragmentsAcked() {
+        return mFragmentsAcked;
+    }
+
+    /**
+     * @return Number of fragments sent again after they were nacked, timed out or dropped
+     */
+    public int getRetries() {
+        return mRetries;
+    }
+
+    /**
+     * @return How long the transfer took so far, or took overall once it ended, in nanoseconds
+     */
+    public long getElapsedNanos() {
+        long start = mStartNanos;
+        if (start == 0) {
+            return 0;
+        }
+
+        return (mFinished ? mEndNanos : System.nanoTime()) - start;
+    }
+
+    /**
+     * @return Acked bytes per second so far
+     */
+    public long getBytesPerSecond() {
+        long elapsed = getElapsedNanos();
+        return (elapsed <= 0) ? 0 : mBytesAcked * TimeUnit.SECONDS.toNanos(1) / elapsed;
+    }
+
+    @Override
+    public String toString() {
+        return "transfer " + (mId & 0xFF) + ": " + mBytesAcked + "/" + mData.length + " bytes, " + mFragmentsAcked + "/"
+                + mFragments + " fragments, " + mRetries + " retries, " + getBytesPerSecond() + " bytes/s";
+    }
+
+    ///////////////////////////////////////////////
+    // Package
+    ///////////////////////////////////////////////
+
+    /**
+     * Start sending fragments once the pumps are done with earlier transfers
+     */
+    void start() {
+        mWork.add(START);
+        mPumps.execute(new Pump());
+    }
+
+    ///////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////
+
+    /**
+     * Send the start, or a fragment, without waiting for it to be acked
+     *
+     * @param index {@link #START} or the index of a fragment
+     */
+    private void send(final int index) {
+        byte[] data;
+        byte action;
+        if (index == START) {
+            action = ACTION_FRAGMENT_START;
+            data = new byte[]{mId, mCommand, mAction, (byte) (mData.length >> 8), (byte) mData.length, (byte) mFragmentSize};
+        } else {
+            action = ACTION_FRAGMENT_DATA;
+            int offset = index * mFragmentSize;
+            int length = Math.min(mFragmentSize, mData.length - offset);
+            data = new byte[DATA_HEADER_SIZE + length];
+            data[0] = mId;
+            data[1] = (byte) (index >> 8);
+            data[2] = (byte) index;
+            System.arraycopy(mData, offset, data, DATA_HEADER_SIZE, length);
+        }
+
+        // every fragment carries a different part of the data, so none may replace another queued one
+        mChannel.submitCommand(COMMAND_FRAGMENT, action, data, false).setListener(new CommandFuture.Listener() {
+            @Override
+            public void onDone(CommandFuture future) {
+                onSent(index, future);
+            }
+        });
+    }
+
+    /**
+     * Called on whichever thread completed the fragment's future. Never sends anything itself, since that may block
+     *
+     * @param index
+     * @param future
+     */
+    private void onSent(int index, CommandFuture future) {
+        if (mFinished) {
+            return;
+        }
+
+        if (index == START && !future.isAcked() && !future.isCancelled() && future.getFailure() == null) {
+            // the device got the start and turned it down, sending it again won't change its mind
+            finish(new IOException("ADK device rejected a transfer of " + mData.length + " bytes"));
+            return;
+        }
+
+        if (!future.isAcked()) {
+            // only one attempt per fragment is in flight at a time
+            int attempts = mAttempts.incrementAndGet((index == START) ? mFragments : index);
+            if (attempts >= MAX_ATTEMPTS) {
+                Throwable cause = future.getFailure();
+                finish((cause != null) ? cause : new IOException("Fragment " + index + " was nacked " + MAX_ATTEMPTS + " times"));
+                return;
+            }
+
+            synchronized (this) {
+                mRetries++;
+            }
+
+            mWork.addFirst(index);
+            mInFlight.release();
+            return;
+        }
+
+        if (index == START) {
+            // fragments only go out once the device is ready for them
+            for (int i = 0; i < mFragments; i++) {
+                mWork.add(i);
+            }
+
+            if (mFragments == 0) {
+                finish(null);
+            }
+
+            mInFlight.release();
+            return;
+        }
+
+        int offset = index * mFragmentSize;
+        boolean last;
+        synchronized (this) {
+            mBytesAcked += Math.min(mFragmentSize, mData.length - offset);
+            last = ++mFragmentsAcked == mFragments;
+        }
+
+        mInFlight.release();
+        if (last) {
+            finish(null);
+        } else {
+            dispatch(false);
+        }
+    }
+
+    private void finish(Throwable failure) {
+        synchronized (this) {
+            if (mFinished) {
+                return;
+            }
+
+            mFailure = failure;
+            mEndNanos = System.nanoTime();
+            mFinished = true;
+        }
+
+        mWork.addFirst(STOP);
+        mInFlight.release();
+        mDone.countDown();
+        dispatch(true);
+    }
+
+    private void dispatch(final boolean done) {
+        if (mListener == null) {
+            return;
+        }
+
+        mDispatcher.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!done) {
+                    mListener.onProgress(Transfer.this);
+                } else if (mFailure == null) {
+                    mListener.onComplete(Transfer.this);
+                } else {
+                    mListener.onFailed(Transfer.this, mFailure);
+                }
+            }
+        });
+    }
+
+    ///////////////////////////////////////////////
+    // Inner classes
+    ///////////////////////////////////////////////
+
+    /**
+     * Sends fragments as long as there's room in flight for them
+     */
+    private final class Pump implements Runnable {
+        @Override
+        public void run() {
+            synchronized (Transfer.this) {
+                if (mFinished) {
+                    // cancelled while waiting for its turn
+                    return;
+                }
+
+                mStartNanos = System.nanoTime();
+            }
+
+            try {
+                while (true) {
+                    mInFlight.acquire();
+                    int index = mWork.take();
+                    if (index == STOP) {
+                        return;
+                    }
+
+                    // fragments are only queued once the start is acked, so nothing else goes out before it
+                    send(index);
+                }
+            } catch (InterruptedException e) {
+                finish(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.labs.adk;
+
+/**
+ * Follows a {@link Transfer}. Called through the dispatcher the channel was created with, see {@link Dispatchers}
+ *
+ * @author Amir Lazarovich
+ */
+public interface TransferListener {
+    /**
+     * Another fragment was acked, see {@link Transfer#getBytesAcked()}
+     *
+     * @param transfer
+     */
+    void onProgress(Transfer transfer);
+
+    /**
+     * Every fragment was acked
+     *
+     * @param transfer
+     */
+    void onComplete(Transfer transfer);
+
+    /**
+     * The transfer was cancelled, or a fragment couldn't be delivered
+     *
+     * @param transfer
+     * @param failure
+     */
+    void onFailed(Transfer transfer, Throwable failure);
+}
@@ -0,0 +1,37 @@
+package com.labs.adk;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Reaches virtual threads (Java 21) through reflection, since this library also builds for Android, which has none
+ *
+ * @author Amir Lazarovich
+ */
+final class VirtualThreads {
+    ///////////////////////////////////////////////
+    // Constructors
+    ///////////////////////////////////////////////
+    private VirtualThreads() {
+    }
+
+    ///////////////////////////////////////////////
+    // Package
+    ///////////////////////////////////////////////
+
+    /**
+     * @param name Prefix of the threads' names, followed by a counter
+     * @return A factory of virtual threads, or null if the runtime has none (or only as a preview feature that isn't enabled)
+     */
+    static ThreadFactory factory(String name) {
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Method naming = builderClass.getMethod("name", String.class, long.class);
+            builder = naming.invoke(builder, name + "-", 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+}
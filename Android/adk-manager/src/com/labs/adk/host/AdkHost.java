@@ -0,0 +1,174 @@
+package com.labs.adk.host;
+
+import com.labs.adk.AccessoryIdentity;
+import com.labs.adk.AdkDevice;
+import com.labs.adk.AdkHub;
+import com.labs.adk.IoScheduler;
+import com.labs.adk.MetricsSnapshot;
+import com.labs.adk.sim.AccessorySimulator;
+import com.labs.adk.transport.PipeTransport;
+import com.labs.adk.transport.SocketTransport;
+import com.labs.commons.SLog;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs the protocol stack on a plain JVM, without Android, to drive fleets of ADK devices: simulated ones for soak testing,
+ * or real ones bridged over sockets. <br/>
+ * The host is an {@link AdkHub} on an {@link IoScheduler#newVirtualThreadScheduler()}: on Java 21 every device gets a
+ * virtual thread for reading and another for writing, so hundreds of devices cost a handful of platform threads. On older
+ * runtimes it falls back to a pooled scheduler, with a platform thread per device for reading
+ *
+ * @author Amir Lazarovich
+ */
+public class AdkHost {
+    ///////////////////////////////////////////////
+    // Constants
+    ///////////////////////////////////////////////
+    private static final String TAG = "AdkHost";
+
+    ///////////////////////////////////////////////
+    // Members
+    ///////////////////////////////////////////////
+    private final IoScheduler mScheduler;
+    private final AdkHub mHub;
+    private final ConcurrentMap<AccessoryIdentity, AccessorySimulator> mSimulators;
+
+    ///////////////////////////////////////////////
+    // Constructors
+    ///////////////////////////////////////////////
+
+    /**
+     * @param listener   Notified of devices coming and going, and of their acks
+     * @param dispatcher Delivers everything to the listener. See {@link com.labs.adk.Dispatchers#DIRECT}
+     */
+    public AdkHost(AdkHub.Listener listener, Executor dispatcher) {
+        mScheduler = IoScheduler.newVirtualThreadScheduler();
+        mHub = new AdkHub(listener, dispatcher, mScheduler);
+        mSimulators = new ConcurrentHashMap<AccessoryIdentity, AccessorySimulator>();
+        SLog.i(TAG, "Host started on %s threads", mScheduler.usesVirtualThreads() ? "virtual" : "pooled");
+    }
+
+    ///////////////////////////////////////////////
+    // Public
+    ///////////////////////////////////////////////
+
+    /**
+     * Attach a device listening on <code>host:port</code>, e.g. a board bridged to the network
+     *
+     * @param identity
+     * @param host
+     * @param port
+     * @return
+     * @throws IOException If the device couldn't be reached
+     */
+    public AdkDevice attachSocket(AccessoryIdentity identity, String host, int port) throws IOException {
+        return mHub.attach(identity, SocketTransport.connect(host, port));
+    }
+
+    /**
+     * Attach a simulated device running the dashboard sketch, over an in-memory pipe
+     *
+     * @param identity
+     * @param listener Notified of every message the simulated device handles. May be null
+     * @return The simulator, to tune its timing (see {@link AccessorySimulator#setServiceTimeNanos(long)}) or to stop it,
+     * which the host sees as the device going away
+     */
+    public AccessorySimulator attachSimulated(AccessoryIdentity identity, AccessorySimulator.Listener listener) {
+        PipeTransport[] pair = PipeTransport.createPair(PipeTransport.DEFAULT_CAPACITY);
+        AccessorySimulator simulator = new AccessorySimulator(pair[1], listener);
+        AccessorySimulator previous = mSimulators.put(identity, simulator);
+        if (previous != null) {
+            previous.stop();
+        }
+
+        simulator.start();
+        mHub.attach(identity, pair[0]);
+        return simulator;
+    }
+
+    /**
+     * Detach a device and forget about it, stopping it if it's simulated
+     *
+     * @param identity
+     */
+    public void remove(AccessoryIdentity identity) {
+        mHub.remove(identity);
+        AccessorySimulator simulator = mSimulators.remove(identity);
+        if (simulator != null) {
+            simulator.stop();
+        }
+    }
+
+    /**
+     * Detach every device, stop the simulated ones and the host's threads. The host can't be used afterwards
+     */
+    public void shutdown() {
+        mHub.shutdown();
+        for (AccessorySimulator simulator : mSimulators.values()) {
+            simulator.stop();
+        }
+
+        mSimulators.clear();
+        mScheduler.shutdown();
+    }
+
+    /**
+     * @return The hub, for sending commands and for devices attached some other way
+     */
+    public AdkHub getHub() {
+        return mHub;
+    }
+
+    public IoScheduler getScheduler() {
+        return mScheduler;
+    }
+
+    /**
+     * @return Number of devices currently attached
+     */
+    public int getConnectedCount() {
+        int connected = 0;
+        for (AdkDevice device : mHub.getDevices()) {
+            if (device.isConnected()) {
+                connected++;
+            }
+        }
+
+        return connected;
+    }
+
+    /**
+     * Take a snapshot of the whole fleet's traffic
+     *
+     * @return
+     */
+    public FleetStats getStats() {
+        FleetStats stats = new FleetStats();
+        List<AdkDevice> devices = mHub.getDevices();
+        stats.mDevices = devices.size();
+        for (AdkDevice device : devices) {
+            if (device.isConnected()) {
+                stats.mConnected++;
+            }
+
+            MetricsSnapshot metrics = device.getMetrics();
+            stats.mFramesSent += metrics.getFramesSent();
+            stats.mBytesSent += metrics.getBytesSent();
+            stats.mAcks += metrics.getAcks();
+            stats.mNacks += metrics.getNacks();
+            stats.mTimeouts += metrics.getTimeouts();
+            stats.mPendingAcks += metrics.getPendingAcks();
+            stats.mMaxRoundTripNanos = Math.max(stats.mMaxRoundTripNanos, metrics.getRoundTripMaxNanos());
+        }
+
+        stats.mReaderThreads = mScheduler.getReaderCount();
+        stats.mWriterThreads = mScheduler.getWriterCount();
+        stats.mVirtual = mScheduler.usesVirtualThreads();
+        return stats;
+    }
+}
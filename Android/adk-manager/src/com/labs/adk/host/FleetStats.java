@@ -0,0 +1,100 @@
+package com.labs.adk.host;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Point in time totals over every device of an {@link AdkHost}. Compare two snapshots for rates
+ *
+ * @author Amir Lazarovich
+ */
+public final class FleetStats {
+    ///////////////////////////////////////////////
+    // Members
+    ///////////////////////////////////////////////
+    int mDevices;
+    int mConnected;
+    long mFramesSent;
+    long mBytesSent;
+    long mAcks;
+    long mNacks;
+    long mTimeouts;
+    long mPendingAcks;
+    long mMaxRoundTripNanos = -1;
+    int mReaderThreads;
+    int mWriterThreads;
+    boolean mVirtual;
+
+    ///////////////////////////////////////////////
+    // Constructors
+    ///////////////////////////////////////////////
+    FleetStats() {
+    }
+
+    ///////////////////////////////////////////////
+    // Public
+    ///////////////////////////////////////////////
+    public int getDevices() {
+        return mDevices;
+    }
+
+    public int getConnected() {
+        return mConnected;
+    }
+
+    public long getFramesSent() {
+        return mFramesSent;
+    }
+
+    public long getBytesSent() {
+        return mBytesSent;
+    }
+
+    public long getAcks() {
+        return mAcks;
+    }
+
+    public long getNacks() {
+        return mNacks;
+    }
+
+    public long getTimeouts() {
+        return mTimeouts;
+    }
+
+    public long getPendingAcks() {
+        return mPendingAcks;
+    }
+
+    /**
+     * @return Slowest round trip of any device, in nanoseconds, or -1 if none was acked yet
+     */
+    public long getMaxRoundTripNanos() {
+        return mMaxRoundTripNanos;
+    }
+
+    public int getReaderThreads() {
+        return mReaderThreads;
+    }
+
+    public int getWriterThreads() {
+        return mWriterThreads;
+    }
+
+    /**
+     * @return true if readers and writers run on virtual threads
+     */
+    public boolean isVirtual() {
+        return mVirtual;
+    }
+
+    ///////////////////////////////////////////////
+    // Overrides & Implementations
+    ///////////////////////////////////////////////
+    @Override
+    public String toString() {
+        return mConnected + "/" + mDevices + " devices connected, sent " + mFramesSent + " frames/" + mBytesSent
+                + " bytes, acks " + mAcks + " nacks " + mNacks + " timeouts " + mTimeouts + " pending " + mPendingAcks
+                + ", max rtt us " + ((mMaxRoundTripNanos < 0) ? -1 : TimeUnit.NANOSECONDS.toMicros(mMaxRoundTripNanos))
+                + ", " + (mVirtual ? "virtual" : "platform") + " readers " + mReaderThreads + " writers " + mWriterThreads;
+    }
+}
@@ -0,0 +1,113 @@
+package com.labs.adk.pattern;
+
+/**
+ * The pattern bytecode. <br/>
+ * A program is a version byte followed by instructions, each an opcode followed by its operands. There's a single
+ * register, an unsigned byte that wraps around, for patterns that compute led levels (e.g. fading). <br/>
+ * Must be kept in sync with the interpreter in Adk_2012_leds_dashboard.ino
+ *
+ * @author Amir Lazarovich
+ */
+final class Op {
+    ///////////////////////////////////////////////
+    // Constants
+    ///////////////////////////////////////////////
+    static final int VERSION = 1;
+
+    /**
+     * Stop the program, leaving the leds as they are
+     */
+    static final int HALT = 0x00;
+
+    /**
+     * [led][level] - set a led's level. 0 is off and 255 fully on
+     */
+    static final int SET = 0x01;
+
+    /**
+     * [level] - set every led's level
+     */
+    static final int SET_ALL = 0x02;
+
+    /**
+     * [millis high][millis low] - show the leds as they are for a while. Every frame of the pattern ends with a delay
+     */
+    static final int DELAY = 0x03;
+
+    /**
+     * [count] - repeat the instructions up to the matching {@link #END} <code>count</code> times, forever if 0
+     */
+    static final int LOOP = 0x04;
+
+    /**
+     * End of the innermost loop
+     */
+    static final int END = 0x05;
+
+    /**
+     * [value] - load the register
+     */
+    static final int LOAD = 0x06;
+
+    /**
+     * [delta] - add a signed byte to the register
+     */
+    static final int ADD = 0x07;
+
+    /**
+     * [led] - set a led's level to the register
+     */
+    static final int SET_REGISTER = 0x08;
+
+    /**
+     * Set every led's level to the register
+     */
+    static final int SET_ALL_REGISTER = 0x09;
+
+    /**
+     * Max number of loops nested in each other
+     */
+    static final int MAX_LOOPS = 4;
+
+    /**
+     * Max number of instructions run without a delay. A program that goes further is stopped rather than freezing the device
+     */
+    static final int MAX_STEPS = 1000;
+
+    ///////////////////////////////////////////////
+    // Constructors
+    ///////////////////////////////////////////////
+    private Op() {
+    }
+
+    ///////////////////////////////////////////////
+    // Package
+    ///////////////////////////////////////////////
+
+    /**
+     * @param op
+     * @return Number of operand bytes following <code>op</code>, or -1 if it isn't an opcode
+     */
+    static int operands(int op) {
+        switch (op) {
+            case HALT:
+            case END:
+            case SET_ALL_REGISTER:
+                return 0;
+
+            case SET_ALL:
+            case LOOP:
+            case LOAD:
+            case ADD:
+            case SET_REGISTER:
+                return 1;
+
+            case SET:
+            case DELAY:
+                return 2;
+
+            default:
+                return -1;
+        }
+    }
+}
@@ -0,0 +1,408 @@
+package com.labs.adk.pattern;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A led pattern, described step by step and compiled into a compact program the ADK device runs on its own
+ * (see {@link PatternCommands#upload(com.labs.adk.CommandSubmitter, byte[])}), so the pattern costs a single upload instead
+ * of a command per frame, and keeps its timing whatever the USB link does. <br/>
+ * Each method adds a step and returns the pattern, so a pattern reads like the script it is:
+ * <pre>
+ * new Pattern()
+ *     .forever()
+ *         .allOn().delay(250)
+ *         .allOff().delay(250)
+ *     .end();
+ * </pre>
+ * The leds change as the steps run and are shown for the length of each delay, so every frame of the pattern ends with a delay.
+ * Leds are numbered from 0, and a step for a led the device doesn't have is ignored. <br/>
+ * {@link #render(int, int, PatternOutput)} plays the pattern on the host, the way it would be driven frame by frame over USB.
+ * {@link PatternInterpreter} runs the compiled program the way the device does, so both can be checked against each other
+ *
+ * @author Amir Lazarovich
+ */
+public class Pattern {
+    ///////////////////////////////////////////////
+    // Constants
+    ///////////////////////////////////////////////
+
+    /**
+     * Max size of a compiled program, as fits in the device's program buffer
+     */
+    public static final int MAX_PROGRAM_SIZE = 128;
+    public static final int MAX_LEVEL = 255;
+    public static final int MAX_DELAY_MILLIS = 0xFFFF;
+    public static final int MAX_REPEAT = 255;
+
+    ///////////////////////////////////////////////
+    // Members
+    ///////////////////////////////////////////////
+    private final List<Node> mSteps;
+    private final ArrayList<Node> mOpenLoops;
+
+    ///////////////////////////////////////////////
+    // Constructors
+    ///////////////////////////////////////////////
+    public Pattern() {
+        mSteps = new ArrayList<Node>();
+        mOpenLoops = new ArrayList<Node>();
+    }
+
+    ///////////////////////////////////////////////
+    // Public
+    ///////////////////////////////////////////////
+
+    /**
+     * Set a led's level
+     *
+     * @param led
+     * @param level 0 is off and 255 fully on. Levels in between dim leds that support it and are rounded to on or off otherwise
+     * @return
+     */
+    public Pattern set(int led, int level) {
+        return append(new Node(Op.SET, checkLed(led), checkLevel(level)));
+    }
+
+    public Pattern on(int led) {
+        return set(led, MAX_LEVEL);
+    }
+
+    public Pattern off(int led) {
+        return set(led, 0);
+    }
+
+    /**
+     * Set every led's level
+     *
+     * @param level
+     * @return
+     */
+    public Pattern setAll(int level) {
+        return append(new Node(Op.SET_ALL, checkLevel(level), 0));
+    }
+
+    public Pattern allOn() {
+        return setAll(MAX_LEVEL);
+    }
+
+    public Pattern allOff() {
+        return setAll(0);
+    }
+
+    /**
+     * Show the leds as they are for a while
+     *
+     * @param millis Up to {@link #MAX_DELAY_MILLIS}
+     * @return
+     */
+    public Pattern delay(int millis) {
+        if (millis < 0 || millis > MAX_DELAY_MILLIS) {
+            throw new IllegalArgumentException("delay must be between 0 and " + MAX_DELAY_MILLIS + " ms");
+        }
+
+        return append(new Node(Op.DELAY, millis, 0));
+    }
+
+    /**
+     * Load a level into the register, see {@link #add(int)}
+     *
+     * @param level
+     * @return
+     */
+    public Pattern load(int level) {
+        return append(new Node(Op.LOAD, checkLevel(level), 0));
+    }
+
+    /**
+     * Add to the register. The register is a single unsigned byte, so it wraps around past 0 and 255
+     *
+     * @param delta Between -128 and 127
+     * @return
+     */
+    public Pattern add(int delta) {
+        if (delta < Byte.MIN_VALUE || delta > Byte.MAX_VALUE) {
+            throw new IllegalArgumentException("delta must fit in a signed byte");
+        }
+
+        return append(new Node(Op.ADD, delta, 0));
+    }
+
+    /**
+     * Set a led's level to the register
+     *
+     * @param led
+     * @return
+     */
+    public Pattern setFromRegister(int led) {
+        return append(new Node(Op.SET_REGISTER, checkLed(led), 0));
+    }
+
+    /**
+     * Set every led's level to the register
+     *
+     * @return
+     */
+    public Pattern setAllFromRegister() {
+        return append(new Node(Op.SET_ALL_REGISTER, 0, 0));
+    }
+
+    /**
+     * Repeat the steps added from now until the matching {@link #end()}
+     *
+     * @param count Between 1 and {@link #MAX_REPEAT}
+     * @return
+     */
+    public Pattern repeat(int count) {
+        if (count < 1 || count > MAX_REPEAT) {
+            throw new IllegalArgumentException("count must be between 1 and " + MAX_REPEAT);
+        }
+
+        return openLoop(count);
+    }
+
+    /**
+     * Repeat the steps added from now until the matching {@link #end()} forever. They must include a delay
+     *
+     * @return
+     */
+    public Pattern forever() {
+        return openLoop(0);
+    }
+
+    /**
+     * Close the innermost {@link #repeat(int)} or {@link #forever()}
+     *
+     * @return
+     */
+    public Pattern end() {
+        if (mOpenLoops.isEmpty()) {
+            throw new IllegalStateException("end() without a loop to end");
+        }
+
+        Node loop = mOpenLoops.remove(mOpenLoops.size() - 1);
+        if (loop.mArg1 == 0 && !hasDelay(loop.mBody)) {
+            throw new IllegalStateException("A forever loop must include a delay");
+        }
+
+        return this;
+    }
+
+    /**
+     * Compile the pattern into a program for the ADK device
+     *
+     * @return
+     * @throws IllegalStateException If a loop wasn't ended or the program is larger than {@link #MAX_PROGRAM_SIZE}
+     */
+    public byte[] compile() {
+        checkComplete();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(MAX_PROGRAM_SIZE);
+        out.write(Op.VERSION);
+        compile(mSteps, out);
+        if (out.size() > MAX_PROGRAM_SIZE) {
+            throw new IllegalStateException("Program takes " + out.size() + " bytes, the device has room for " + MAX_PROGRAM_SIZE);
+        }
+
+        return out.toByteArray();
+    }
+
+    /**
+     * Play the pattern on the host, one frame at a time, the same way the compiled program plays on the device
+     *
+     * @param ledCount  Number of leds
+     * @param maxFrames Stop after this many frames, since a pattern may go on forever
+     * @param output
+     * @return Number of frames played
+     * @throws IllegalStateException If a loop wasn't ended
+     */
+    public int render(int ledCount, int maxFrames, PatternOutput output) {
+        checkComplete();
+        Renderer renderer = new Renderer(ledCount, maxFrames, output);
+        renderer.render(mSteps);
+        return renderer.mFrames;
+    }
+
+    ///////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////
+    private Pattern append(Node node) {
+        if (mOpenLoops.isEmpty()) {
+            mSteps.add(node);
+        } else {
+            mOpenLoops.get(mOpenLoops.size() - 1).mBody.add(node);
+        }
+
+        return this;
+    }
+
+    private Pattern openLoop(int count) {
+        if (mOpenLoops.size() == Op.MAX_LOOPS) {
+            throw new IllegalStateException("Loops can't be nested more than " + Op.MAX_LOOPS + " deep");
+        }
+
+        Node loop = new Node(Op.LOOP, count, 0);
+        append(loop);
+        mOpenLoops.add(loop);
+        return this;
+    }
+
+    private void checkComplete() {
+        if (!mOpenLoops.isEmpty()) {
+            throw new IllegalStateException(mOpenLoops.size() + " loops weren't ended");
+        }
+    }
+
+    private static void compile(List<Node> steps, ByteArrayOutputStream out) {
+        for (Node node : steps) {
+            out.write(node.mOp);
+            switch (node.mOp) {
+                case Op.SET:
+                    out.write(node.mArg1);
+                    out.write(node.mArg2);
+                    break;
+
+                case Op.DELAY:
+                    out.write(node.mArg1 >> 8);
+                    out.write(node.mArg1);
+                    break;
+
+                case Op.LOOP:
+                    out.write(node.mArg1);
+                    compile(node.mBody, out);
+                    out.write(Op.END);
+                    break;
+
+                case Op.SET_ALL:
+                case Op.LOAD:
+                case Op.ADD:
+                case Op.SET_REGISTER:
+                    out.write(node.mArg1);
+                    break;
+            }
+        }
+    }
+
+    private static boolean hasDelay(List<Node> steps) {
+        for (Node node : steps) {
+            if (node.mOp == Op.DELAY || (node.mOp == Op.LOOP && hasDelay(node.mBody))) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static int checkLed(int led) {
+        if (led < 0 || led > 0xFF) {
+            throw new IllegalArgumentException("led must fit in an unsigned byte");
+        }
+
+        return led;
+    }
+
+    private static int checkLevel(int level) {
+        if (level < 0 || level > MAX_LEVEL) {
+            throw new IllegalArgumentException("level must be between 0 and " + MAX_LEVEL);
+        }
+
+        return level;
+    }
+
+    ///////////////////////////////////////////////
+    // Inner classes
+    ///////////////////////////////////////////////
+
+    /**
+     * A step of the pattern. A loop holds the steps it repeats
+     */
+    private static final class Node {
+        final int mOp;
+        final int mArg1;
+        final int mArg2;
+        final List<Node> mBody;
+
+        Node(int op, int arg1, int arg2) {
+            mOp = op;
+            mArg1 = arg1;
+            mArg2 = arg2;
+            mBody = (op == Op.LOOP) ? new ArrayList<Node>() : null;
+        }
+    }
+
+    /**
+     * Walks the steps directly, without compiling them
+     */
+    private static final class Renderer {
+        final int[] mLevels;
+        final int mMaxFrames;
+        final PatternOutput mOutput;
+        int mRegister;
+        int mFrames;
+
+        Renderer(int ledCount, int maxFrames, PatternOutput output) {
+            mLevels = new int[ledCount];
+            mMaxFrames = maxFrames;
+            mOutput = output;
+        }
+
+        /**
+         * @return false once the max number of frames was played
+         */
+        boolean render(List<Node> steps) {
+            for (Node node : steps) {
+                if (mFrames == mMaxFrames) {
+                    return false;
+                }
+
+                switch (node.mOp) {
+                    case Op.SET:
+                        set(node.mArg1, node.mArg2);
+                        break;
+
+                    case Op.SET_ALL:
+                        Arrays.fill(mLevels, node.mArg1);
+                        break;
+
+                    case Op.DELAY:
+                        mOutput.onFrame(mLevels, node.mArg1);
+                        mFrames++;
+                        break;
+
+                    case Op.LOOP:
+                        for (int i = 0; node.mArg1 == 0 || i < node.mArg1; i++) {
+                            if (!render(node.mBody)) {
+                                return false;
+                            }
+                        }
+                        break;
+
+                    case Op.LOAD:
+                        mRegister = node.mArg1;
+                        break;
+
+                    case Op.ADD:
+                        mRegister = (mRegister + node.mArg1) & 0xFF;
+                        break;
+
+                    case Op.SET_REGISTER:
+                        set(node.mArg1, mRegister);
+                        break;
+
+                    case Op.SET_ALL_REGISTER:
+                        Arrays.fill(mLevels, mRegister);
+                        break;
+                }
+            }
+
+            return mFrames < mMaxFrames;
+        }
+
+        private void set(int led, int level) {
+            if (led < mLevels.length) {
+                mLevels[led] = level;
+            }
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.labs.adk.pattern;
+
+import com.labs.adk.CommandFuture;
+import com.labs.adk.CommandSender;
+import com.labs.adk.CommandSubmitter;
+
+/**
+ * Protocol for running patterns on the ADK device (see Adk_2012_leds_dashboard.ino). <br/>
+ * A program is uploaded in chunks small enough for the device's 16 byte receive buffer, even in sequenced mode:
+ * {@link #ACTION_PATTERN_BEGIN} with the program's length, {@link #ACTION_PATTERN_DATA} with an offset and the chunk itself,
+ * and {@link #ACTION_PATTERN_RUN} once the whole program arrived. The device stops any pattern it's running once a new
+ * upload begins
+ *
+ * @author Amir Lazarovich
+ */
+public class PatternCommands {
+    // adk-commands
+    public static final byte COMMAND_PATTERN = 2;
+
+    // adk-actions
+    public static final byte ACTION_PATTERN_BEGIN = 1;
+    public static final byte ACTION_PATTERN_DATA = 2;
+    public static final byte ACTION_PATTERN_RUN = 3;
+    public static final byte ACTION_PATTERN_STOP = 4;
+
+    /**
+     * Max number of program bytes per chunk: a 16 byte buffer, less the header, the sequence number and the offset
+     */
+    public static final int MAX_CHUNK_SIZE = 11;
+
+    ///////////////////////////////////////////////
+    // Public
+    ///////////////////////////////////////////////
+
+    /**
+     * Upload a program to the ADK device and start running it. <br/>
+     * The upload's commands are never conflated (see {@link CommandSubmitter#submitCommand(byte, byte, byte[], boolean)}),
+     * since each chunk carries a different part of the program
+     *
+     * @param sender
+     * @param program As compiled by {@link Pattern#compile()}
+     * @return A future that completes with true once the device acked every command of the upload. It fails if any of
+     * them was dropped, timed out or got cancelled, in which case the device doesn't run the program
+     */
+    public static CommandFuture upload(CommandSubmitter sender, byte[] program) {
+        if (program.length > Pattern.MAX_PROGRAM_SIZE) {
+            throw new IllegalArgumentException("Program is larger than " + Pattern.MAX_PROGRAM_SIZE + " bytes");
+        }
+
+        int chunks = (program.length + MAX_CHUNK_SIZE - 1) / MAX_CHUNK_SIZE;
+        CommandFuture[] futures = new CommandFuture[chunks + 2];
+        futures[0] = sender.submitCommand(COMMAND_PATTERN, ACTION_PATTERN_BEGIN, new byte[]{(byte) program.length}, false);
+        for (int i = 0; i < chunks; i++) {
+            int offset = i * MAX_CHUNK_SIZE;
+            int length = Math.min(MAX_CHUNK_SIZE, program.length - offset);
+            byte[] chunk = new byte[1 + length];
+            chunk[0] = (byte) offset;
+            System.arraycopy(program, offset, chunk, 1, length);
+            futures[1 + i] = sender.submitCommand(COMMAND_PATTERN, ACTION_PATTERN_DATA, chunk, false);
+        }
+
+        futures[chunks + 1] = sender.submitCommand(COMMAND_PATTERN, ACTION_PATTERN_RUN, null, false);
+        return CommandFuture.all(futures);
+    }
+
+    /**
+     * Stop the pattern running on the ADK device and turn its leds off
+     *
+     * @param sender
+     * @return false if the command was dropped
+     */
+    public static boolean stop(CommandSender sender) {
+        return sender.sendCommand(COMMAND_PATTERN, ACTION_PATTERN_STOP, null);
+    }
+}
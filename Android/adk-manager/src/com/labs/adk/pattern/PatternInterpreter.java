@@ -0,0 +1,234 @@
+package com.labs.adk.pattern;
+
+import java.util.Arrays;
+
+/**
+ * Runs a compiled pattern program the way the ADK device does (see Adk_2012_leds_dashboard.ino), one frame at a time. <br/>
+ * It's the reference for the firmware's interpreter, and lets a pattern be checked on a plain JVM: {@link #verify(Pattern, int, int)}
+ * makes sure the compiled program shows exactly the frames the host would have driven itself. <br/>
+ * Unlike the device, which just stops a broken program, the interpreter throws for anything the device would stop on
+ *
+ * @author Amir Lazarovich
+ */
+public final class PatternInterpreter {
+    ///////////////////////////////////////////////
+    // Members
+    ///////////////////////////////////////////////
+    private final byte[] mProgram;
+    private final int[] mLevels;
+    private final int[] mLoopStarts;
+    private final int[] mLoopsLeft;
+
+    private int mPc;
+    private int mRegister;
+    private int mLoops;
+    private boolean mHalted;
+
+    ///////////////////////////////////////////////
+    // Constructors
+    ///////////////////////////////////////////////
+
+    /**
+     * @param program  As compiled by {@link Pattern#compile()}
+     * @param ledCount Number of leds on the device
+     * @throws IllegalArgumentException If the program was compiled for another version of the interpreter
+     */
+    public PatternInterpreter(byte[] program, int ledCount) {
+        if (program.length == 0 || program[0] != Op.VERSION) {
+            throw new IllegalArgumentException("Unsupported program version");
+        }
+
+        if (program.length > Pattern.MAX_PROGRAM_SIZE) {
+            throw new IllegalArgumentException("Program is larger than " + Pattern.MAX_PROGRAM_SIZE + " bytes");
+        }
+
+        mProgram = program;
+        mLevels = new int[ledCount];
+        mLoopStarts = new int[Op.MAX_LOOPS];
+        mLoopsLeft = new int[Op.MAX_LOOPS];
+        reset();
+    }
+
+    ///////////////////////////////////////////////
+    // Public
+    ///////////////////////////////////////////////
+
+    /**
+     * Start over from the first instruction, with every led off
+     */
+    public void reset() {
+        mPc = 1;
+        mRegister = 0;
+        mLoops = 0;
+        mHalted = false;
+        Arrays.fill(mLevels, 0);
+    }
+
+    /**
+     * Run up to the end of the next frame
+     *
+     * @return How long the frame is shown, in milliseconds, or -1 if the program ended
+     * @throws IllegalStateException If the program is broken, e.g. it runs too many instructions without a delay
+     */
+    public int step() {
+        int steps = 0;
+        while (!mHalted) {
+            if (++steps > Op.MAX_STEPS) {
+                throw new IllegalStateException("No delay in " + Op.MAX_STEPS + " instructions at " + mPc);
+            }
+
+            if (mPc >= mProgram.length) {
+                mHalted = true;
+                break;
+            }
+
+            int op = mProgram[mPc] & 0xFF;
+            int operands = Op.operands(op);
+            if (operands < 0) {
+                throw new IllegalStateException("Unknown opcode " + op + " at " + mPc);
+            }
+
+            if (mPc + operands >= mProgram.length) {
+                throw new IllegalStateException("Missing operands at " + mPc);
+            }
+
+            int arg1 = (operands > 0) ? mProgram[mPc + 1] & 0xFF : 0;
+            int arg2 = (operands > 1) ? mProgram[mPc + 2] & 0xFF : 0;
+            mPc += 1 + operands;
+            switch (op) {
+                case Op.HALT:
+                    mHalted = true;
+                    break;
+
+                case Op.SET:
+                    set(arg1, arg2);
+                    break;
+
+                case Op.SET_ALL:
+                    Arrays.fill(mLevels, arg1);
+                    break;
+
+                case Op.DELAY:
+                    return (arg1 << 8) | arg2;
+
+                case Op.LOOP:
+                    if (mLoops == Op.MAX_LOOPS) {
+                        throw new IllegalStateException("Loops nested too deep at " + mPc);
+                    }
+
+                    mLoopsLeft[mLoops] = arg1;
+                    mLoopStarts[mLoops] = mPc;
+                    mLoops++;
+                    break;
+
+                case Op.END:
+                    if (mLoops == 0) {
+                        throw new IllegalStateException("End of a loop that didn't start at " + mPc);
+                    }
+
+                    // 0 loops forever
+                    int left = mLoopsLeft[mLoops - 1];
+                    if (left == 0 || --mLoopsLeft[mLoops - 1] > 0) {
+                        mPc = mLoopStarts[mLoops - 1];
+                    } else {
+                        mLoops--;
+                    }
+                    break;
+
+                case Op.LOAD:
+                    mRegister = arg1;
+                    break;
+
+                case Op.ADD:
+                    mRegister = (mRegister + (byte) arg1) & 0xFF;
+                    break;
+
+                case Op.SET_REGISTER:
+                    set(arg1, mRegister);
+                    break;
+
+                case Op.SET_ALL_REGISTER:
+                    Arrays.fill(mLevels, mRegister);
+                    break;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Run the program frame by frame
+     *
+     * @param maxFrames Stop after this many frames, since a pattern may go on forever
+     * @param output
+     * @return Number of frames played
+     */
+    public int run(int maxFrames, PatternOutput output) {
+        int frames = 0;
+        int duration;
+        while (frames < maxFrames && (duration = step()) >= 0) {
+            output.onFrame(mLevels, duration);
+            frames++;
+        }
+
+        return frames;
+    }
+
+    /**
+     * @param led
+     * @return The led's current level
+     */
+    public int getLevel(int led) {
+        return mLevels[led];
+    }
+
+    public boolean isHalted() {
+        return mHalted;
+    }
+
+    /**
+     * Check that the compiled pattern shows the very same frames as the pattern played on the host
+     *
+     * @param pattern
+     * @param ledCount
+     * @param frames   How many frames to compare
+     * @throws IllegalStateException Describing the first frame that differs
+     */
+    public static void verify(Pattern pattern, int ledCount, int frames) {
+        final int[][] expectedLevels = new int[frames][];
+        final int[] expectedDurations = new int[frames];
+        int rendered = pattern.render(ledCount, frames, new PatternOutput() {
+            private int mFrame;
+
+            @Override
+            public void onFrame(int[] levels, int durationMillis) {
+                expectedLevels[mFrame] = levels.clone();
+                expectedDurations[mFrame] = durationMillis;
+                mFrame++;
+            }
+        });
+
+        PatternInterpreter interpreter = new PatternInterpreter(pattern.compile(), ledCount);
+        for (int i = 0; i < rendered; i++) {
+            int duration = interpreter.step();
+            if (duration != expectedDurations[i] || !Arrays.equals(interpreter.mLevels, expectedLevels[i])) {
+                throw new IllegalStateException("Frame " + i + ": expected " + Arrays.toString(expectedLevels[i])
+                        + " for " + expectedDurations[i] + " ms, got " + Arrays.toString(interpreter.mLevels)
+                        + " for " + duration + " ms");
+            }
+        }
+
+        if (rendered < frames && interpreter.step() >= 0) {
+            throw new IllegalStateException("Expected the program to end after " + rendered + " frames");
+        }
+    }
+
+    ///////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////
+    private void set(int led, int level) {
+        if (led < mLevels.length) {
+            mLevels[led] = level;
+        }
+    }
+}
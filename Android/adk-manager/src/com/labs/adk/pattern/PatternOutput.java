@@ -0,0 +1,17 @@
+package com.labs.adk.pattern;
+
+/**
+ * Receives the frames of a pattern, whether rendered on the host ({@link Pattern#render(int, int, PatternOutput)}) or run from
+ * its bytecode ({@link PatternInterpreter#run(int, PatternOutput)})
+ *
+ * @author Amir Lazarovich
+ */
+public interface PatternOutput {
+    /**
+     * A frame of the pattern: the leds as they are shown, and for how long
+     *
+     * @param levels         Level of each led, 0 to 255. Only valid during the call
+     * @param durationMillis
+     */
+    void onFrame(int[] levels, int durationMillis);
+}
@@ -0,0 +1,88 @@
+package com.labs.adk.pattern;
+
+/**
+ * Ready made patterns, after the modes of the xmas_leds sketch
+ *
+ * @author Amir Lazarovich
+ */
+public class Patterns {
+    ///////////////////////////////////////////////
+    // Public
+    ///////////////////////////////////////////////
+
+    /**
+     * Every led on, then every led off
+     *
+     * @param delayMillis How long each half lasts
+     * @return
+     */
+    public static Pattern blink(int delayMillis) {
+        return new Pattern()
+                .forever()
+                    .allOn().delay(delayMillis)
+                    .allOff().delay(delayMillis)
+                .end();
+    }
+
+    /**
+     * A single lit led running from the first led to the last one and back
+     *
+     * @param ledCount
+     * @param delayMillis How long each led stays lit
+     * @return
+     */
+    public static Pattern bounce(int ledCount, int delayMillis) {
+        Pattern pattern = new Pattern().forever();
+        for (int led = 0; led < ledCount; led++) {
+            pattern.allOff().on(led).delay(delayMillis);
+        }
+
+        for (int led = ledCount - 2; led > 0; led--) {
+            pattern.allOff().on(led).delay(delayMillis);
+        }
+
+        return pattern.end();
+    }
+
+    /**
+     * Pairs of leds moving from both ends to the middle and back out
+     *
+     * @param ledCount
+     * @param delayMillis How long each pair stays lit
+     * @return
+     */
+    public static Pattern inOut(int ledCount, int delayMillis) {
+        Pattern pattern = new Pattern().forever();
+        int pairs = (ledCount + 1) / 2;
+        for (int i = 0; i < pairs; i++) {
+            pattern.allOff().on(i).on(ledCount - 1 - i).delay(delayMillis);
+        }
+
+        for (int i = pairs - 2; i > 0; i--) {
+            pattern.allOff().on(i).on(ledCount - 1 - i).delay(delayMillis);
+        }
+
+        return pattern.end();
+    }
+
+    /**
+     * Every led fading in and out together
+     *
+     * @param step        How much the level changes every frame
+     * @param delayMillis How long each frame lasts
+     * @return
+     */
+    public static Pattern fade(int step, int delayMillis) {
+        int frames = Pattern.MAX_LEVEL / step;
+        return new Pattern()
+                .load(0)
+                .forever()
+                    .repeat(frames)
+                        .setAllFromRegister().delay(delayMillis).add(step)
+                    .end()
+                    .repeat(frames)
+                        .setAllFromRegister().delay(delayMillis).add(-step)
+                    .end()
+                .end();
+    }
+}
@@ -0,0 +1,353 @@
+package com.labs.adk.sim;
+
+import com.labs.adk.transport.Transport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Host side stand-in for an ADK device running the Adk_2012_leds_dashboard sketch. <br/>
+ * Reproduces the sketch's main loop: every iteration reads at most {@link #BUFFER_SIZE} bytes, handles each message
+ * in the buffer and answers each with a 1 byte ack (or a sequenced ack for a sequenced command). Like the sketch, it nacks
+ * the start of a fragmented transfer longer than {@link #FRAGMENT_BUFFER_SIZE} bytes.
+ * A message that doesn't fit in what was read is dropped along with whatever follows it, just like on the real device. <br/>
+ * Telemetry samples, which the sketch sends on its own from its analog inputs once the host subscribed, are sent with
+ * {@link #sendTelemetry(int, int)}. <br/>
+ * On top of that, the simulator can model the parts of the real thing that make it slow:
+ * <ul>
+ * <li>Service time - how long each loop iteration takes (serial prints, led updates...)</li>
+ * <li>Link bandwidth - how long it takes the bytes to cross the wire</li>
+ * <li>Jitter - random extra delay added to each iteration</li>
+ * </ul>
+ *
+ * @author Amir Lazarovich
+ */
+public class AccessorySimulator implements Runnable {
+    ///////////////////////////////////////////////
+    // Constants
+    ///////////////////////////////////////////////
+    private static final String TAG = "AccessorySimulator";
+    public static final int BUFFER_SIZE = 16;
+    private static final int HEADER_SIZE = 3;
+    private static final int FLAG_SEQUENCED = 0x80;
+    private static final byte MSG_TELEMETRY = 0x20;
+    private static final int COMMAND_TELEMETRY = 4;
+    private static final int ACTION_TELEMETRY_SUBSCRIBE = 1;
+    private static final int ACTION_TELEMETRY_UNSUBSCRIBE = 2;
+    private static final int COMMAND_FRAGMENT = 0x7F;
+    private static final int ACTION_FRAGMENT_START = 1;
+    public static final int FRAGMENT_BUFFER_SIZE = 255;
+
+    ///////////////////////////////////////////////
+    // Members
+    ///////////////////////////////////////////////
+    private final Transport mTransport;
+    private final Listener mListener;
+    private final Random mRandom;
+    private final ByteBuffer[] mAck;
+    private final ByteBuffer[] mNack;
+    private final ByteBuffer[] mSequencedAck;
+    private final ByteBuffer[] mTelemetry;
+    private final ReentrantLock mSendLock;
+
+    private volatile long mServiceTimeNanos;
+    private volatile long mJitterNanos;
+    private volatile long mBytesPerSecond;
+    private volatile boolean mRunning;
+    private volatile boolean mTelemetrySubscribed;
+    private Thread mThread;
+
+    private volatile long mLoops;
+    private volatile long mMessages;
+
+    ///////////////////////////////////////////////
+    // Constructors
+    ///////////////////////////////////////////////
+
+    /**
+     * @param transport The device's end of the link
+     * @param listener  Notified of every message handled by the simulated sketch. May be null
+     */
+    public AccessorySimulator(Transport transport, Listener listener) {
+        mTransport = transport;
+        mListener = listener;
+        mRandom = new Random();
+        mAck = new ByteBuffer[]{ByteBuffer.wrap(new byte[]{1})};
+        mNack = new ByteBuffer[]{ByteBuffer.wrap(new byte[]{0})};
+        mSequencedAck = new ByteBuffer[]{ByteBuffer.wrap(new byte[]{(byte) (FLAG_SEQUENCED | 1), 0})};
+        mTelemetry = new ByteBuffer[]{ByteBuffer.wrap(new byte[]{MSG_TELEMETRY, 0, 0, 0})};
+        mSendLock = new ReentrantLock();
+    }
+
+    ///////////////////////////////////////////////
+    // Public
+    ///////////////////////////////////////////////
+
+    /**
+     * Set how long each loop iteration takes on top of reading and acking
+     *
+     * @param serviceTimeNanos
+     */
+    public void setServiceTimeNanos(long serviceTimeNanos) {
+        mServiceTimeNanos = serviceTimeNanos;
+    }
+
+    /**
+     * Set the max random delay added to each loop iteration
+     *
+     * @param jitterNanos
+     */
+    public void setJitterNanos(long jitterNanos) {
+        mJitterNanos = jitterNanos;
+    }
+
+    /**
+     * Limit the link bandwidth, in both directions
+     *
+     * @param bytesPerSecond 0 for unlimited
+     */
+    public void setBandwidth(long bytesPerSecond) {
+        mBytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * Start running the sketch's main loop on its own thread
+     */
+    public void start() {
+        mRunning = true;
+        mThread = new Thread(null, this, TAG);
+        mThread.start();
+    }
+
+    /**
+     * Stop the main loop and close the device's end of the link
+     */
+    public void stop() {
+        mRunning = false;
+        try {
+            mTransport.close();
+        } catch (IOException e) {
+            // nothing we can do about it
+        }
+
+        if (mThread != null) {
+            mThread.interrupt();
+        }
+    }
+
+    /**
+     * Send a telemetry sample, like the sketch's <code>sendTelemetry</code>. May be called from any thread, e.g. a timer
+     * standing in for the sketch's telemetry interval
+     *
+     * @param channel
+     * @param value   Unsigned 16 bit
+     * @return false if the host didn't subscribe to telemetry, in which case the sample isn't sent
+     * @throws IOException
+     */
+    public boolean sendTelemetry(int channel, int value) throws IOException {
+        if (!mTelemetrySubscribed) {
+            return false;
+        }
+
+        mSendLock.lock();
+        try {
+            ByteBuffer msg = mTelemetry[0];
+            msg.put(1, (byte) channel);
+            msg.put(2, (byte) (value >> 8));
+            msg.put(3, (byte) value);
+            send(mTelemetry);
+        } finally {
+            mSendLock.unlock();
+        }
+
+        return true;
+    }
+
+    /**
+     * @return true if the host subscribed to telemetry
+     */
+    public boolean isTelemetrySubscribed() {
+        return mTelemetrySubscribed;
+    }
+
+    /**
+     * @return Number of loop iterations that read something
+     */
+    public long getLoops() {
+        return mLoops;
+    }
+
+    /**
+     * @return Number of messages handled
+     */
+    public long getMessages() {
+        return mMessages;
+    }
+
+    ///////////////////////////////////////////////
+    // Overrides & Implementations
+    ///////////////////////////////////////////////
+
+    /**
+     * The equivalent of the sketch's <code>loop()</code>, forever
+     */
+    @Override
+    public void run() {
+        byte[] msg = new byte[BUFFER_SIZE];
+        ByteBuffer buffer = ByteBuffer.wrap(msg);
+        while (mRunning) {
+            try {
+                buffer.clear();
+                int len = mTransport.read(buffer);
+                if (len < 0) {
+                    break;
+                }
+
+                if (len > 0) {
+                    mLoops++;
+                    transfer(len);
+
+                    // several messages may arrive in a single transfer
+                    int offset = 0;
+                    while (offset + HEADER_SIZE <= len && offset + messageLength(msg, offset) <= len) {
+                        offset += handleMsgFromDevice(msg, offset);
+                    }
+                }
+
+                onLoop();
+            } catch (IOException e) {
+                break;
+            }
+        }
+    }
+
+    ///////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////
+
+    /**
+     * Handle the message at <code>offset</code> and ack or nack it, like the sketch's <code>handleMsgFromDevice</code> and
+     * <code>sendAck</code>
+     *
+     * @param msg
+     * @param offset
+     * @return The length of the handled message
+     * @throws IOException
+     */
+    private int handleMsgFromDevice(byte[] msg, int offset) throws IOException {
+        boolean sequenced = (msg[offset] & FLAG_SEQUENCED) != 0;
+        int command = msg[offset] & ~FLAG_SEQUENCED & 0xFF;
+        int action = msg[offset + 1];
+        int dataLength = msg[offset + 2] & 0xFF;
+        int dataOffset = offset + (sequenced ? HEADER_SIZE + 1 : HEADER_SIZE);
+        mMessages++;
+        boolean ack = true;
+        if (command == COMMAND_FRAGMENT && action == ACTION_FRAGMENT_START) {
+            // like the sketch's onFragment, which turns down a start it can't make sense of or has no room for
+            ack = dataLength >= 6 && msg[dataOffset + 5] != 0
+                    && (((msg[dataOffset + 3] & 0xFF) << 8) | (msg[dataOffset + 4] & 0xFF)) <= FRAGMENT_BUFFER_SIZE;
+        } else if (command == COMMAND_TELEMETRY) {
+            // like the sketch's onTelemetryMessage
+            if (action == ACTION_TELEMETRY_SUBSCRIBE) {
+                mTelemetrySubscribed = true;
+            } else if (action == ACTION_TELEMETRY_UNSUBSCRIBE) {
+                mTelemetrySubscribed = false;
+            }
+        }
+
+        if (mListener != null) {
+            mListener.onMessageReceived(command, action, dataLength, msg, dataOffset);
+        }
+
+        mSendLock.lock();
+        try {
+            if (sequenced) {
+                mSequencedAck[0].put(0, (byte) (FLAG_SEQUENCED | (ack ? 1 : 0)));
+                mSequencedAck[0].put(1, msg[offset + 3]);
+                send(mSequencedAck);
+            } else {
+                send(ack ? mAck : mNack);
+            }
+        } finally {
+            mSendLock.unlock();
+        }
+
+        return dataOffset - offset + dataLength;
+    }
+
+    /**
+     * @param msg
+     * @param offset
+     * @return The length of the message at <code>offset</code>, header included, like the sketch's <code>messageLength</code>
+     */
+    private static int messageLength(byte[] msg, int offset) {
+        int length = HEADER_SIZE + (msg[offset + 2] & 0xFF);
+        return ((msg[offset] & FLAG_SEQUENCED) != 0) ? length + 1 : length;
+    }
+
+    private void send(ByteBuffer[] msg) throws IOException {
+        msg[0].clear();
+        transfer(msg[0].remaining());
+        mTransport.write(msg, 0, 1);
+    }
+
+    /**
+     * Simulate the time it takes <code>bytes</code> to cross the link
+     *
+     * @param bytes
+     */
+    private void transfer(int bytes) {
+        long bytesPerSecond = mBytesPerSecond;
+        if (bytesPerSecond > 0) {
+            sleep(bytes * 1000000000L / bytesPerSecond);
+        }
+    }
+
+    /**
+     * Simulate the rest of the loop iteration
+     */
+    private void onLoop() {
+        long delay = mServiceTimeNanos;
+        long jitter = mJitterNanos;
+        if (jitter > 0) {
+            delay += (long) (mRandom.nextDouble() * jitter);
+        }
+
+        sleep(delay);
+    }
+
+    private static void sleep(long nanos) {
+        if (nanos <= 0) {
+            return;
+        }
+
+        long deadline = System.nanoTime() + nanos;
+        long remaining = nanos;
+        while (remaining > 0 && !Thread.currentThread().isInterrupted()) {
+            LockSupport.parkNanos(remaining);
+            remaining = deadline - System.nanoTime();
+        }
+    }
+
+    ///////////////////////////////////////////////
+    // Inner classes
+    ///////////////////////////////////////////////
+
+    /**
+     * Notified on the simulator's thread of every message the simulated sketch handles,
+     * like the sketch's <code>onMessageReceived</code>
+     */
+    public interface Listener {
+        /**
+         * @param command
+         * @param action
+         * @param dataLength The length of the data
+         * @param buffer     The receive buffer
+         * @param dataOffset Where the data starts in <code>buffer</code>
+         */
+        void onMessageReceived(int command, int action, int dataLength, byte[] buffer, int dataOffset);
+    }
+}
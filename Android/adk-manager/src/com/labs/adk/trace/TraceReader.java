@@ -0,0 +1,150 @@
+package com.labs.adk.trace;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads back a trace file written by {@link TraceRecorder}, one record at a time. <br/>
+ * The reader is a cursor: {@link #next()} moves it to the following record and the getters describe the current one.
+ * A trace whose recorder wasn't closed (e.g. the app was killed) is read up to its last complete record
+ *
+ * @author Amir Lazarovich
+ */
+public final class TraceReader {
+    ///////////////////////////////////////////////
+    // Members
+    ///////////////////////////////////////////////
+    private final RandomAccessFile mFile;
+    private final MappedByteBuffer mMap;
+    private final long mStartMillis;
+    private final int mEnd;
+
+    private int mNext;
+    private int mDataPosition;
+    private int mLength;
+    private int mDirection;
+    private long mTimeNanos;
+
+    ///////////////////////////////////////////////
+    // Constructors
+    ///////////////////////////////////////////////
+
+    /**
+     * @param file
+     * @throws IOException If the file can't be read or isn't a trace file
+     */
+    public TraceReader(File file) throws IOException {
+        mFile = new RandomAccessFile(file, "r");
+        try {
+            long length = mFile.length();
+            if (length < TraceRecorder.HEADER_SIZE || length > Integer.MAX_VALUE) {
+                throw new IOException("Not a trace file: " + file);
+            }
+
+            mMap = mFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+            if (mMap.getInt(0) != TraceRecorder.MAGIC) {
+                throw new IOException("Not a trace file: " + file);
+            }
+
+            if (mMap.getInt(4) != TraceRecorder.VERSION) {
+                throw new IOException("Unsupported trace version " + mMap.getInt(4));
+            }
+        } catch (IOException e) {
+            mFile.close();
+            throw e;
+        }
+
+        mStartMillis = mMap.getLong(8);
+        int end = mMap.getInt(TraceRecorder.END_OFFSET);
+        mEnd = (end > 0) ? Math.min(end, mMap.capacity()) : mMap.capacity();
+        rewind();
+    }
+
+    ///////////////////////////////////////////////
+    // Public
+    ///////////////////////////////////////////////
+
+    /**
+     * Move to the next record
+     *
+     * @return false if there are no more records
+     */
+    public boolean next() {
+        if (mNext > mEnd - TraceRecorder.RECORD_HEADER_SIZE) {
+            return false;
+        }
+
+        int tag = mMap.getInt(mNext);
+        if ((tag & TraceRecorder.TAG_MARKER_MASK) != TraceRecorder.TAG_MARKER) {
+            // never written, or still being written when the recorder stopped
+            return false;
+        }
+
+        int length = tag & TraceRecorder.TAG_LENGTH_MASK;
+        if (mNext + TraceRecorder.RECORD_HEADER_SIZE + length > mEnd) {
+            return false;
+        }
+
+        mDirection = ((tag & TraceRecorder.TAG_INBOUND) != 0) ? TraceRecorder.INBOUND : TraceRecorder.OUTBOUND;
+        mLength = length;
+        mTimeNanos = mMap.getLong(mNext + 4);
+        mDataPosition = mNext + TraceRecorder.RECORD_HEADER_SIZE;
+        mNext = mDataPosition + length;
+        return true;
+    }
+
+    /**
+     * Go back to before the first record
+     */
+    public void rewind() {
+        mNext = TraceRecorder.HEADER_SIZE;
+        mLength = 0;
+    }
+
+    /**
+     * @return {@link TraceRecorder#OUTBOUND} or {@link TraceRecorder#INBOUND}
+     */
+    public int getDirection() {
+        return mDirection;
+    }
+
+    /**
+     * @return When the current record's bytes crossed the link, in nanoseconds since the recording started
+     */
+    public long getTimeNanos() {
+        return mTimeNanos;
+    }
+
+    /**
+     * @return Number of bytes in the current record
+     */
+    public int getLength() {
+        return mLength;
+    }
+
+    /**
+     * Copy the current record's bytes into <code>buffer</code>, advancing its position
+     *
+     * @param buffer Must have room for {@link #getLength()} bytes
+     */
+    public void getData(ByteBuffer buffer) {
+        for (int i = 0; i < mLength; i++) {
+            buffer.put(mMap.get(mDataPosition + i));
+        }
+    }
+
+    /**
+     * @return Wall clock time the recording started at, in milliseconds since the epoch
+     */
+    public long getStartMillis() {
+        return mStartMillis;
+    }
+
+    public void close() throws IOException {
+        mFile.close();
+    }
+}
@@ -0,0 +1,176 @@
+package com.labs.adk.trace;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records the bytes crossing a link into a memory-mapped trace file, see {@link TracingTransport}. <br/>
+ * The file is mapped once, up front, so recording is only a copy into memory: a record's room is reserved with a single CAS,
+ * which lets the reading and writing threads record at the same time without taking a lock, and the kernel writes the pages
+ * out in the background. Once the file is full, records are dropped and counted. <br/>
+ * File layout, big endian:
+ * <ul>
+ * <li>Header ({@link #HEADER_SIZE} bytes) - magic, version, wall clock time of the first byte, end of the last record
+ * (written on {@link #close()}, 0 if the recorder wasn't closed)</li>
+ * <li>Records - a tag (marker, direction and length of the data, written last so a half written record is never read),
+ * the time since the recorder was created in nanoseconds and the data itself</li>
+ * </ul>
+ *
+ * @author Amir Lazarovich
+ */
+public final class TraceRecorder {
+    ///////////////////////////////////////////////
+    // Constants
+    ///////////////////////////////////////////////
+    public static final int OUTBOUND = 0;
+    public static final int INBOUND = 1;
+    public static final int MAX_DATA_LENGTH = 0xFFFF;
+
+    static final int MAGIC = 0x41444B54; // "ADKT"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 24;
+    static final int END_OFFSET = 16;
+    static final int RECORD_HEADER_SIZE = 12;
+    static final int TAG_MARKER = 0xAD000000;
+    static final int TAG_MARKER_MASK = 0xFF000000;
+    static final int TAG_INBOUND = 0x10000;
+    static final int TAG_LENGTH_MASK = 0xFFFF;
+
+    ///////////////////////////////////////////////
+    // Members
+    ///////////////////////////////////////////////
+    private final RandomAccessFile mFile;
+    private final MappedByteBuffer mMap;
+    private final int mCapacity;
+    private final long mStartNanos;
+    private final AtomicInteger mPosition;
+    private final AtomicLong mRecords;
+    private final AtomicLong mDropped;
+    private volatile boolean mClosed;
+
+    ///////////////////////////////////////////////
+    // Constructors
+    ///////////////////////////////////////////////
+
+    /**
+     * Create a trace file, replacing any existing file
+     *
+     * @param file
+     * @param capacity Size of the file in bytes. Records that don't fit are dropped
+     * @throws IOException
+     */
+    public TraceRecorder(File file, int capacity) throws IOException {
+        if (capacity <= HEADER_SIZE) {
+            throw new IllegalArgumentException("capacity must be larger than " + HEADER_SIZE);
+        }
+
+        mFile = new RandomAccessFile(file, "rw");
+        try {
+            mFile.setLength(0);
+            mMap = mFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        } catch (IOException e) {
+            mFile.close();
+            throw e;
+        }
+
+        mCapacity = capacity;
+        mStartNanos = System.nanoTime();
+        mPosition = new AtomicInteger(HEADER_SIZE);
+        mRecords = new AtomicLong();
+        mDropped = new AtomicLong();
+
+        mMap.putInt(0, MAGIC);
+        mMap.putInt(4, VERSION);
+        mMap.putLong(8, System.currentTimeMillis());
+    }
+
+    ///////////////////////////////////////////////
+    // Public
+    ///////////////////////////////////////////////
+
+    /**
+     * Record <code>length</code> bytes of <code>buffer</code>, starting at <code>offset</code>. Leaves the buffer's position as is
+     *
+     * @param direction  {@link #OUTBOUND} or {@link #INBOUND}
+     * @param timeNanos  When the bytes crossed the link, as given by {@link System#nanoTime()}
+     * @param buffer
+     * @param offset
+     * @param length
+     * @return false if the record was dropped, because the file is full or the recorder is closed
+     */
+    public boolean record(int direction, long timeNanos, ByteBuffer buffer, int offset, int length) {
+        if (mClosed) {
+            return false;
+        }
+
+        int dataLength = Math.min(length, MAX_DATA_LENGTH);
+        int size = RECORD_HEADER_SIZE + dataLength;
+        int position;
+        do {
+            position = mPosition.get();
+            if (position > mCapacity - size) {
+                mDropped.incrementAndGet();
+                return false;
+            }
+        } while (!mPosition.compareAndSet(position, position + size));
+
+        // absolute puts only, the map's position is shared by all recording threads
+        mMap.putLong(position + 4, timeNanos - mStartNanos);
+        int dataPosition = position + RECORD_HEADER_SIZE;
+        for (int i = 0; i < dataLength; i++) {
+            mMap.put(dataPosition + i, buffer.get(offset + i));
+        }
+
+        int tag = TAG_MARKER | dataLength;
+        if (direction == INBOUND) {
+            tag |= TAG_INBOUND;
+        }
+
+        mMap.putInt(position, tag);
+        mRecords.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * @return Number of records in the trace
+     */
+    public long getRecordCount() {
+        return mRecords.get();
+    }
+
+    /**
+     * @return Number of records dropped because the file was full
+     */
+    public long getDroppedCount() {
+        return mDropped.get();
+    }
+
+    /**
+     * @return Number of bytes of the file used so far
+     */
+    public int getSize() {
+        return Math.min(mPosition.get(), mCapacity);
+    }
+
+    /**
+     * Stop recording, mark where the trace ends and flush it to the file. Recording after this is ignored
+     *
+     * @throws IOException
+     */
+    public synchronized void close() throws IOException {
+        if (mClosed) {
+            return;
+        }
+
+        mClosed = true;
+        mMap.putInt(END_OFFSET, getSize());
+        mMap.force();
+        mFile.close();
+    }
+}
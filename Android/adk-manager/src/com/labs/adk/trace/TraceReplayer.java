@@ -0,0 +1,247 @@
+package com.labs.adk.trace;
+
+import com.labs.adk.transport.Transport;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Plays one direction of a recorded trace into a transport, keeping the original timing or speeding it up. <br/>
+ * Replaying the outbound records into a pipe whose other end runs an {@link com.labs.adk.sim.AccessorySimulator} (or into a real device)
+ * repeats what the app sent; replaying the inbound records into a pipe whose other end is an {@link com.labs.adk.AdkChannel}
+ * repeats what the device sent. Records of the same direction and time (a batch) are written together, as they originally were. <br/>
+ * While replaying, whatever comes back from the other end is read and thrown away, so it doesn't stall the link
+ *
+ * @author Amir Lazarovich
+ */
+public class TraceReplayer {
+    ///////////////////////////////////////////////
+    // Constants
+    ///////////////////////////////////////////////
+    private static final String TAG = "TraceReplayer";
+    private static final int MAX_BATCH = 64;
+    private static final int DRAIN_BUFFER_SIZE = 16384;
+
+    ///////////////////////////////////////////////
+    // Members
+    ///////////////////////////////////////////////
+    private final TraceReader mReader;
+    private final int mDirection;
+    private final Transport mTransport;
+    private final ByteBuffer[] mBatch;
+
+    private volatile double mSpeed = 1;
+    private volatile boolean mRunning;
+    private volatile long mRecordsReplayed;
+    private volatile long mBytesReplayed;
+    private volatile long mBytesReceived;
+    private volatile long mMaxLagNanos;
+
+    ///////////////////////////////////////////////
+    // Constructors
+    ///////////////////////////////////////////////
+
+    /**
+     * @param reader    The trace to replay
+     * @param direction Which records to replay, {@link TraceRecorder#OUTBOUND} or {@link TraceRecorder#INBOUND}
+     * @param transport Where to write them
+     */
+    public TraceReplayer(TraceReader reader, int direction, Transport transport) {
+        mReader = reader;
+        mDirection = direction;
+        mTransport = transport;
+        mBatch = new ByteBuffer[MAX_BATCH];
+    }
+
+    ///////////////////////////////////////////////
+    // Public
+    ///////////////////////////////////////////////
+
+    /**
+     * Set how much faster than the original the trace is replayed
+     *
+     * @param speed 1 for the original timing, 2 for twice as fast... 0 writes the records back to back
+     */
+    public void setSpeed(double speed) {
+        if (speed < 0) {
+            throw new IllegalArgumentException("speed can't be negative");
+        }
+
+        mSpeed = speed;
+    }
+
+    /**
+     * Replay the whole trace, from its first record, on the calling thread. <br/>
+     * Closing the transport is left to the caller
+     *
+     * @return Number of records replayed
+     * @throws IOException If writing to the transport failed
+     */
+    public long replay() throws IOException {
+        mRunning = true;
+        mRecordsReplayed = 0;
+        mBytesReplayed = 0;
+        mMaxLagNanos = 0;
+
+        Thread drainer = new Thread(null, new Drainer(), TAG);
+        drainer.setDaemon(true);
+        drainer.start();
+
+        try {
+            mReader.rewind();
+            long startNanos = System.nanoTime();
+            long firstTime = -1;
+            long batchTime = 0;
+            int count = 0;
+            while (mRunning && mReader.next()) {
+                if (mReader.getDirection() != mDirection) {
+                    continue;
+                }
+
+                long time = mReader.getTimeNanos();
+                if (firstTime < 0) {
+                    firstTime = time;
+                }
+
+                if (count > 0 && (time != batchTime || count == MAX_BATCH)) {
+                    write(count, startNanos, batchTime - firstTime);
+                    count = 0;
+                }
+
+                ByteBuffer buffer = obtain(count, mReader.getLength());
+                mReader.getData(buffer);
+                buffer.flip();
+                batchTime = time;
+                count++;
+            }
+
+            if (count > 0) {
+                write(count, startNanos, batchTime - firstTime);
+            }
+        } finally {
+            mRunning = false;
+        }
+
+        return mRecordsReplayed;
+    }
+
+    /**
+     * Stop a replay in progress after the current write
+     */
+    public void stop() {
+        mRunning = false;
+    }
+
+    /**
+     * @return Number of records written so far
+     */
+    public long getRecordsReplayed() {
+        return mRecordsReplayed;
+    }
+
+    /**
+     * @return Number of bytes written so far
+     */
+    public long getBytesReplayed() {
+        return mBytesReplayed;
+    }
+
+    /**
+     * @return Number of bytes that came back from the other end
+     */
+    public long getBytesReceived() {
+        return mBytesReceived;
+    }
+
+    /**
+     * @return Longest a write started after its due time. Large values mean the transport can't keep up with the chosen speed
+     */
+    public long getMaxLagNanos() {
+        return mMaxLagNanos;
+    }
+
+    ///////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////
+
+    /**
+     * Get an empty buffer for the <code>index</code>'th record of a batch, reusing the buffer of the previous batch if it's large enough
+     *
+     * @param index
+     * @param length
+     * @return
+     */
+    private ByteBuffer obtain(int index, int length) {
+        ByteBuffer buffer = mBatch[index];
+        if (buffer == null || buffer.capacity() < length) {
+            buffer = ByteBuffer.allocate(length);
+            mBatch[index] = buffer;
+        }
+
+        buffer.clear();
+        buffer.limit(length);
+        return buffer;
+    }
+
+    /**
+     * Write the first <code>count</code> buffers of the batch once their time comes
+     *
+     * @param count
+     * @param startNanos  When the replay started
+     * @param offsetNanos When the batch was recorded, relative to the first replayed record
+     * @throws IOException
+     */
+    private void write(int count, long startNanos, long offsetNanos) throws IOException {
+        double speed = mSpeed;
+        if (speed > 0) {
+            long due = startNanos + (long) (offsetNanos / speed);
+            long left;
+            while ((left = due - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(left);
+                if (Thread.interrupted()) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while replaying");
+                }
+            }
+
+            long lag = System.nanoTime() - due;
+            if (lag > mMaxLagNanos) {
+                mMaxLagNanos = lag;
+            }
+        }
+
+        long bytes = 0;
+        for (int i = 0; i < count; i++) {
+            bytes += mBatch[i].remaining();
+        }
+
+        mTransport.write(mBatch, 0, count);
+        mRecordsReplayed += count;
+        mBytesReplayed += bytes;
+    }
+
+    ///////////////////////////////////////////////
+    // Inner classes
+    ///////////////////////////////////////////////
+
+    /**
+     * Reads and throws away whatever comes back, until the transport is closed
+     */
+    private final class Drainer implements Runnable {
+        @Override
+        public void run() {
+            ByteBuffer buffer = ByteBuffer.allocate(DRAIN_BUFFER_SIZE);
+            try {
+                int count;
+                while ((count = mTransport.read(buffer)) >= 0) {
+                    mBytesReceived += count;
+                    buffer.clear();
+                }
+            } catch (IOException e) {
+                // the transport was closed
+            }
+        }
+    }
+}
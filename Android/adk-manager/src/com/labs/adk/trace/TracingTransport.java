@@ -0,0 +1,86 @@
+package com.labs.adk.trace;
+
+import com.labs.adk.transport.Transport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Taps a transport: whatever is written or read goes through as is, and is also recorded by a {@link TraceRecorder} when one is set. <br/>
+ * Each buffer of a write is recorded on its own, and the writer hands over one buffer per frame, so outbound records are whole frames
+ * (all the frames of a batch share the same time). Inbound records are whatever a single read returned. <br/>
+ * The recorder can be set and removed while the link is busy. Without one, the tap costs a volatile read per read or write
+ *
+ * @author Amir Lazarovich
+ */
+public class TracingTransport implements Transport {
+    ///////////////////////////////////////////////
+    // Members
+    ///////////////////////////////////////////////
+    private final Transport mTransport;
+    private volatile TraceRecorder mRecorder;
+
+    ///////////////////////////////////////////////
+    // Constructors
+    ///////////////////////////////////////////////
+
+    /**
+     * @param transport The transport to tap
+     */
+    public TracingTransport(Transport transport) {
+        mTransport = transport;
+    }
+
+    ///////////////////////////////////////////////
+    // Public
+    ///////////////////////////////////////////////
+
+    /**
+     * Start recording to <code>recorder</code>, or stop recording
+     *
+     * @param recorder May be null. Closing it is left to the caller
+     */
+    public void setRecorder(TraceRecorder recorder) {
+        mRecorder = recorder;
+    }
+
+    ///////////////////////////////////////////////
+    // Overrides & Implementations
+    ///////////////////////////////////////////////
+    @Override
+    public int read(ByteBuffer buffer) throws IOException {
+        int start = buffer.position();
+        int count = mTransport.read(buffer);
+        TraceRecorder recorder = mRecorder;
+        if (recorder != null && count > 0) {
+            recorder.record(TraceRecorder.INBOUND, System.nanoTime(), buffer, start, count);
+        }
+
+        return count;
+    }
+
+    @Override
+    public void write(ByteBuffer[] buffers, int offset, int length) throws IOException {
+        TraceRecorder recorder = mRecorder;
+        if (recorder != null) {
+            // recorded before writing, since writing consumes the buffers
+            long now = System.nanoTime();
+            for (int i = offset; i < offset + length; i++) {
+                ByteBuffer buffer = buffers[i];
+                recorder.record(TraceRecorder.OUTBOUND, now, buffer, buffer.position(), buffer.remaining());
+            }
+        }
+
+        mTransport.write(buffers, offset, length);
+    }
+
+    @Override
+    public boolean prefersDirectBuffers() {
+        return mTransport.prefersDirectBuffers();
+    }
+
+    @Override
+    public void close() throws IOException {
+        mTransport.close();
+    }
+}
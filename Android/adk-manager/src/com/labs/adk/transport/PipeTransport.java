@@ -0,0 +1,202 @@
+package com.labs.adk.transport;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * In-memory transport. Pipes come in connected pairs, see {@link #createPair(int)}. <br/>
+ * Like a USB accessory, and unlike a socket, a pipe keeps the boundaries of what was written: a read never returns bytes
+ * of two different writes (buffers written together in a single call count as one write). Nothing is allocated per read or write, so the pipe itself doesn't skew measurements
+ *
+ * @author Amir Lazarovich
+ */
+public class PipeTransport implements Transport {
+    ///////////////////////////////////////////////
+    // Constants
+    ///////////////////////////////////////////////
+    public static final int DEFAULT_CAPACITY = 16384;
+
+    ///////////////////////////////////////////////
+    // Members
+    ///////////////////////////////////////////////
+    private final Direction mIn;
+    private final Direction mOut;
+
+    ///////////////////////////////////////////////
+    // Constructors
+    ///////////////////////////////////////////////
+    private PipeTransport(Direction in, Direction out) {
+        mIn = in;
+        mOut = out;
+    }
+
+    ///////////////////////////////////////////////
+    // Public
+    ///////////////////////////////////////////////
+
+    /**
+     * Create two connected ends of a pipe. What's written to one end is read from the other
+     *
+     * @param capacity Max number of bytes buffered in each direction. Writers block while it's full
+     * @return Both ends of the pipe
+     */
+    public static PipeTransport[] createPair(int capacity) {
+        Direction aToB = new Direction(capacity);
+        Direction bToA = new Direction(capacity);
+        return new PipeTransport[]{new PipeTransport(bToA, aToB), new PipeTransport(aToB, bToA)};
+    }
+
+    ///////////////////////////////////////////////
+    // Overrides & Implementations
+    ///////////////////////////////////////////////
+    @Override
+    public int read(ByteBuffer buffer) throws IOException {
+        return mIn.read(buffer);
+    }
+
+    @Override
+    public void write(ByteBuffer[] buffers, int offset, int length) throws IOException {
+        mOut.write(buffers, offset, length);
+    }
+
+    @Override
+    public boolean prefersDirectBuffers() {
+        return false;
+    }
+
+    /**
+     * Close both directions. Bytes already written can still be read by the other end
+     */
+    @Override
+    public void close() {
+        mIn.close();
+        mOut.close();
+    }
+
+    ///////////////////////////////////////////////
+    // Inner classes
+    ///////////////////////////////////////////////
+
+    /**
+     * Bounded ring of bytes flowing in one direction, along with the length of each write
+     */
+    private static final class Direction {
+        private final byte[] mData;
+        private final int[] mWrites;
+        private final ReentrantLock mLock;
+        private final Condition mReadable;
+        private final Condition mWritable;
+
+        private int mReadPosition;
+        private int mSize;
+        private int mWritesHead;
+        private int mWritesCount;
+        private boolean mClosed;
+
+        Direction(int capacity) {
+            mData = new byte[capacity];
+            mWrites = new int[capacity];
+            mLock = new ReentrantLock();
+            mReadable = mLock.newCondition();
+            mWritable = mLock.newCondition();
+        }
+
+        void write(ByteBuffer[] buffers, int offset, int length) throws IOException {
+            int left = 0;
+            for (int i = offset; i < offset + length; i++) {
+                left += buffers[i].remaining();
+            }
+
+            mLock.lock();
+            try {
+                int current = offset;
+                while (left > 0) {
+                    // writes larger than the whole pipe go through in pieces
+                    int chunk = Math.min(left, mData.length);
+                    while (!mClosed && mData.length - mSize < chunk) {
+                        mWritable.await();
+                    }
+
+                    if (mClosed) {
+                        throw new IOException("Pipe closed");
+                    }
+
+                    int copied = 0;
+                    while (copied < chunk) {
+                        ByteBuffer buffer = buffers[current];
+                        if (!buffer.hasRemaining()) {
+                            current++;
+                            continue;
+                        }
+
+                        int count = Math.min(buffer.remaining(), chunk - copied);
+                        int writePosition = (mReadPosition + mSize) % mData.length;
+                        int first = Math.min(count, mData.length - writePosition);
+                        buffer.get(mData, writePosition, first);
+                        buffer.get(mData, 0, count - first);
+                        mSize += count;
+                        copied += count;
+                    }
+
+                    mWrites[(mWritesHead + mWritesCount) % mWrites.length] = chunk;
+                    mWritesCount++;
+                    left -= chunk;
+                    mReadable.signal();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while writing to pipe");
+            } finally {
+                mLock.unlock();
+            }
+        }
+
+        int read(ByteBuffer buffer) throws IOException {
+            mLock.lock();
+            try {
+                while (!mClosed && mWritesCount == 0) {
+                    mReadable.await();
+                }
+
+                if (mWritesCount == 0) {
+                    return -1;
+                }
+
+                int count = Math.min(buffer.remaining(), mWrites[mWritesHead]);
+                int first = Math.min(count, mData.length - mReadPosition);
+                buffer.put(mData, mReadPosition, first);
+                buffer.put(mData, 0, count - first);
+                mReadPosition = (mReadPosition + count) % mData.length;
+                mSize -= count;
+
+                mWrites[mWritesHead] -= count;
+                if (mWrites[mWritesHead] == 0) {
+                    mWritesHead = (mWritesHead + 1) % mWrites.length;
+                    mWritesCount--;
+                }
+
+                mWritable.signalAll();
+                return count;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while reading from pipe");
+            } finally {
+                mLock.unlock();
+            }
+        }
+
+        void close() {
+            mLock.lock();
+            try {
+                mClosed = true;
+                mReadable.signalAll();
+                mWritable.signalAll();
+            } finally {
+                mLock.unlock();
+            }
+        }
+    }
+}
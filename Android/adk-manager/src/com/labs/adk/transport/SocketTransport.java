@@ -0,0 +1,63 @@
+package com.labs.adk.transport;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * Transport over a TCP socket, e.g. to a simulated ADK device listening on the loopback interface
+ *
+ * @author Amir Lazarovich
+ */
+public class SocketTransport extends StreamTransport {
+    ///////////////////////////////////////////////
+    // Members
+    ///////////////////////////////////////////////
+    private final Socket mSocket;
+
+    ///////////////////////////////////////////////
+    // Constructors
+    ///////////////////////////////////////////////
+
+    /**
+     * @param socket A connected socket
+     * @throws IOException
+     */
+    public SocketTransport(Socket socket) throws IOException {
+        super(socket.getInputStream(), socket.getOutputStream());
+        mSocket = socket;
+        // frames are tiny, don't let Nagle hold them back
+        mSocket.setTcpNoDelay(true);
+    }
+
+    ///////////////////////////////////////////////
+    // Public
+    ///////////////////////////////////////////////
+
+    /**
+     * Connect to an ADK device listening on <code>host:port</code>
+     *
+     * @param host
+     * @param port
+     * @return
+     * @throws IOException
+     */
+    public static SocketTransport connect(String host, int port) throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(host, port));
+            return new SocketTransport(socket);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    ///////////////////////////////////////////////
+    // Overrides & Implementations
+    ///////////////////////////////////////////////
+    @Override
+    public void close() throws IOException {
+        mSocket.close();
+    }
+}
@@ -0,0 +1,113 @@
+package com.labs.adk.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Base class for transports built on a pair of {@link InputStream}/{@link OutputStream}. <br/>
+ * Buffers written together are first gathered into one array, so they still go out in a single stream write. <br/>
+ * Locks are explicit rather than monitors, since a virtual thread blocked on a stream while holding a monitor would pin
+ * the platform thread carrying it
+ *
+ * @author Amir Lazarovich
+ */
+public abstract class StreamTransport implements Transport {
+    ///////////////////////////////////////////////
+    // Constants
+    ///////////////////////////////////////////////
+    private static final int INITIAL_SCRATCH_SIZE = 256;
+
+    ///////////////////////////////////////////////
+    // Members
+    ///////////////////////////////////////////////
+    private final InputStream mInputStream;
+    private final OutputStream mOutputStream;
+    private final ReentrantLock mReadLock;
+    private final ReentrantLock mWriteLock;
+    private byte[] mReadScratch;
+    private byte[] mWriteScratch;
+
+    ///////////////////////////////////////////////
+    // Constructors
+    ///////////////////////////////////////////////
+    protected StreamTransport(InputStream inputStream, OutputStream outputStream) {
+        mInputStream = inputStream;
+        mOutputStream = outputStream;
+        mReadLock = new ReentrantLock();
+        mWriteLock = new ReentrantLock();
+        mReadScratch = new byte[0];
+        mWriteScratch = new byte[INITIAL_SCRATCH_SIZE];
+    }
+
+    ///////////////////////////////////////////////
+    // Overrides & Implementations
+    ///////////////////////////////////////////////
+    @Override
+    public int read(ByteBuffer buffer) throws IOException {
+        if (buffer.hasArray()) {
+            int ret = mInputStream.read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            if (ret > 0) {
+                buffer.position(buffer.position() + ret);
+            }
+
+            return ret;
+        }
+
+        mReadLock.lock();
+        try {
+            if (mReadScratch.length < buffer.remaining()) {
+                mReadScratch = new byte[buffer.remaining()];
+            }
+
+            int ret = mInputStream.read(mReadScratch, 0, buffer.remaining());
+            if (ret > 0) {
+                buffer.put(mReadScratch, 0, ret);
+            }
+
+            return ret;
+        } finally {
+            mReadLock.unlock();
+        }
+    }
+
+    @Override
+    public void write(ByteBuffer[] buffers, int offset, int length) throws IOException {
+        if (length == 1 && buffers[offset].hasArray()) {
+            ByteBuffer buffer = buffers[offset];
+            mOutputStream.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            buffer.position(buffer.limit());
+            return;
+        }
+
+        mWriteLock.lock();
+        try {
+            int total = 0;
+            for (int i = offset; i < offset + length; i++) {
+                total += buffers[i].remaining();
+            }
+
+            if (mWriteScratch.length < total) {
+                mWriteScratch = new byte[Math.max(total, mWriteScratch.length * 2)];
+            }
+
+            int position = 0;
+            for (int i = offset; i < offset + length; i++) {
+                int remaining = buffers[i].remaining();
+                buffers[i].get(mWriteScratch, position, remaining);
+                position += remaining;
+            }
+
+            mOutputStream.write(mWriteScratch, 0, total);
+        } finally {
+            mWriteLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean prefersDirectBuffers() {
+        return false;
+    }
+}
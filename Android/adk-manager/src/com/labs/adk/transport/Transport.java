@@ -0,0 +1,46 @@
+package com.labs.adk.transport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A bidirectional byte link to an ADK device. <br/>
+ * Keeps the protocol stack ({@link com.labs.adk.AdkChannel}) unaware of what's on the other end:
+ * a USB accessory, a socket or an in-memory pipe
+ *
+ * @author Amir Lazarovich
+ */
+public interface Transport {
+    /**
+     * Read whatever is available into <code>buffer</code>, between its position and limit,
+     * blocking until at least one byte arrives. The buffer's position is advanced past the bytes read
+     *
+     * @param buffer
+     * @return Number of bytes read, or -1 if the link was closed
+     * @throws IOException
+     */
+    int read(ByteBuffer buffer) throws IOException;
+
+    /**
+     * Write the remaining bytes of <code>length</code> buffers, starting at <code>buffers[offset]</code>, in full.
+     * Transports do their best to send them all in a single transfer
+     *
+     * @param buffers
+     * @param offset
+     * @param length
+     * @throws IOException
+     */
+    void write(ByteBuffer[] buffers, int offset, int length) throws IOException;
+
+    /**
+     * @return true if this transport works best with direct buffers, false if it prefers heap buffers
+     */
+    boolean prefersDirectBuffers();
+
+    /**
+     * Close the link. Unblocks any pending read
+     *
+     * @throws IOException
+     */
+    void close() throws IOException;
+}
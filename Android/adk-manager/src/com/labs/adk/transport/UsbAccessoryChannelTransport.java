@@ -0,0 +1,92 @@
+package com.labs.adk.transport;
+
+import android.os.ParcelFileDescriptor;
+
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Transport over an opened USB accessory, using NIO {@link FileChannel}s. <br/>
+ * Reads and writes go straight between direct buffers and the file descriptor, without the extra copy a stream makes
+ * through the java heap, and frames written together go out in a single gathering write
+ *
+ * @author Amir Lazarovich
+ */
+public class UsbAccessoryChannelTransport implements Transport {
+    ///////////////////////////////////////////////
+    // Members
+    ///////////////////////////////////////////////
+    private final ParcelFileDescriptor mFileDescriptor;
+    private final FileChannel mInputChannel;
+    private final FileChannel mOutputChannel;
+
+    ///////////////////////////////////////////////
+    // Constructors
+    ///////////////////////////////////////////////
+
+    /**
+     * @param fileDescriptor As returned by {@link com.android.future.usb.UsbManager#openAccessory(com.android.future.usb.UsbAccessory)}
+     */
+    public UsbAccessoryChannelTransport(ParcelFileDescriptor fileDescriptor) {
+        mFileDescriptor = fileDescriptor;
+        FileDescriptor fd = fileDescriptor.getFileDescriptor();
+        mInputChannel = new FileInputStream(fd).getChannel();
+        mOutputChannel = new FileOutputStream(fd).getChannel();
+    }
+
+    ///////////////////////////////////////////////
+    // Overrides & Implementations
+    ///////////////////////////////////////////////
+    @Override
+    public int read(ByteBuffer buffer) throws IOException {
+        return mInputChannel.read(buffer);
+    }
+
+    @Override
+    public void write(ByteBuffer[] buffers, int offset, int length) throws IOException {
+        int last = offset + length - 1;
+        while (buffers[last].hasRemaining()) {
+            mOutputChannel.write(buffers, offset, length);
+        }
+    }
+
+    @Override
+    public boolean prefersDirectBuffers() {
+        return true;
+    }
+
+    /**
+     * Close the file descriptor and both channels, even if closing one of them fails
+     *
+     * @throws IOException The first failure
+     */
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        try {
+            mFileDescriptor.close();
+        } catch (IOException e) {
+            failure = e;
+        }
+
+        try {
+            mInputChannel.close();
+        } catch (IOException e) {
+            failure = (failure == null) ? e : failure;
+        }
+
+        try {
+            mOutputChannel.close();
+        } catch (IOException e) {
+            failure = (failure == null) ? e : failure;
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
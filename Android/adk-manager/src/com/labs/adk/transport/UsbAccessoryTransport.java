@@ -0,0 +1,80 @@
+package com.labs.adk.transport;
+
+import android.os.ParcelFileDescriptor;
+
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Transport over an opened USB accessory, using plain file streams
+ *
+ * @author Amir Lazarovich
+ * @see UsbAccessoryChannelTransport
+ */
+public class UsbAccessoryTransport extends StreamTransport {
+    ///////////////////////////////////////////////
+    // Members
+    ///////////////////////////////////////////////
+    private final ParcelFileDescriptor mFileDescriptor;
+    private final FileInputStream mInputStream;
+    private final FileOutputStream mOutputStream;
+
+    ///////////////////////////////////////////////
+    // Constructors
+    ///////////////////////////////////////////////
+
+    /**
+     * @param fileDescriptor As returned by {@link com.android.future.usb.UsbManager#openAccessory(com.android.future.usb.UsbAccessory)}
+     */
+    public UsbAccessoryTransport(ParcelFileDescriptor fileDescriptor) {
+        this(fileDescriptor, fileDescriptor.getFileDescriptor());
+    }
+
+    private UsbAccessoryTransport(ParcelFileDescriptor fileDescriptor, FileDescriptor fd) {
+        this(fileDescriptor, new FileInputStream(fd), new FileOutputStream(fd));
+    }
+
+    private UsbAccessoryTransport(ParcelFileDescriptor fileDescriptor, FileInputStream inputStream, FileOutputStream outputStream) {
+        super(inputStream, outputStream);
+        mFileDescriptor = fileDescriptor;
+        mInputStream = inputStream;
+        mOutputStream = outputStream;
+    }
+
+    ///////////////////////////////////////////////
+    // Overrides & Implementations
+    ///////////////////////////////////////////////
+
+    /**
+     * Close the file descriptor and both streams, even if closing one of them fails
+     *
+     * @throws IOException The first failure
+     */
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        try {
+            mFileDescriptor.close();
+        } catch (IOException e) {
+            failure = e;
+        }
+
+        try {
+            mInputStream.close();
+        } catch (IOException e) {
+            failure = (failure == null) ? e : failure;
+        }
+
+        try {
+            mOutputStream.close();
+        } catch (IOException e) {
+            failure = (failure == null) ? e : failure;
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
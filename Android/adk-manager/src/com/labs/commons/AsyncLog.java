@@ -0,0 +1,202 @@
+package com.labs.commons;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Background writer for {@link SLog}. <br/>
+ * Logging threads only copy the level, tag, format and arguments into a preallocated record of a ring buffer;
+ * formatting and writing the message happens on a single background thread. Claiming a record is a single CAS, so
+ * logging never blocks. When the ring is full the record is dropped and counted rather than waiting for room. <br/>
+ * Object arguments are kept by reference until formatted, so they should not be changed after being logged
+ *
+ * @author Amir Lazarovich
+ */
+final class AsyncLog implements Runnable {
+    ///////////////////////////////////////////////
+    // Constants
+    ///////////////////////////////////////////////
+    private static final String THREAD_NAME = "AsyncLog";
+    private static final long IDLE_PARK_NANOS = 1000000;
+    static final int MAX_ARGS = 3;
+
+    ///////////////////////////////////////////////
+    // Members
+    ///////////////////////////////////////////////
+    private final Record[] mRecords;
+    private final int mMask;
+    private final AtomicLong mHead;
+    private final AtomicLong mDropped;
+    private volatile long mTail;
+    private volatile boolean mRunning;
+    private Thread mThread;
+
+    ///////////////////////////////////////////////
+    // Constructors
+    ///////////////////////////////////////////////
+
+    /**
+     * @param capacity Number of records in the ring, rounded up to a power of two
+     */
+    AsyncLog(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        mRecords = new Record[size];
+        for (int i = 0; i < size; i++) {
+            mRecords[i] = new Record(i - size);
+        }
+
+        mMask = size - 1;
+        mHead = new AtomicLong();
+        mDropped = new AtomicLong();
+    }
+
+    ///////////////////////////////////////////////
+    // Package
+    ///////////////////////////////////////////////
+    void start() {
+        mRunning = true;
+        mThread = new Thread(null, this, THREAD_NAME);
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    /**
+     * Stop the background thread once everything logged so far was written
+     */
+    void stop() {
+        mRunning = false;
+        if (mThread != null) {
+            LockSupport.unpark(mThread);
+            try {
+                mThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Claim the next free record
+     *
+     * @return The record to fill and then {@link #publish(Record)}, or null if the ring is full
+     */
+    Record claim() {
+        long sequence;
+        do {
+            sequence = mHead.get();
+            if (sequence - mTail >= mRecords.length) {
+                mDropped.incrementAndGet();
+                return null;
+            }
+        } while (!mHead.compareAndSet(sequence, sequence + 1));
+
+        Record record = mRecords[(int) (sequence & mMask)];
+        record.mClaimed = sequence;
+        return record;
+    }
+
+    /**
+     * Hand a filled record over to the background thread
+     *
+     * @param record
+     */
+    void publish(Record record) {
+        record.mPublished = record.mClaimed;
+    }
+
+    long getDroppedCount() {
+        return mDropped.get();
+    }
+
+    ///////////////////////////////////////////////
+    // Overrides & Implementations
+    ///////////////////////////////////////////////
+    @Override
+    public void run() {
+        long tail = mTail;
+        while (true) {
+            Record record = mRecords[(int) (tail & mMask)];
+            if (record.mPublished != tail) {
+                if (!mRunning && mHead.get() == tail) {
+                    // stopped and drained
+                    break;
+                }
+
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+                continue;
+            }
+
+            try {
+                SLog.write(record.mLevel, record.mTag, record.format(), record.mError);
+            } catch (RuntimeException e) {
+                // a bad format string must not take the logging thread down
+                SLog.write(SLog.ERROR, THREAD_NAME, "Couldn't format \"" + record.mFormat + "\"", e);
+            }
+
+            record.clear();
+            mTail = ++tail;
+        }
+    }
+
+    ///////////////////////////////////////////////
+    // Inner classes
+    ///////////////////////////////////////////////
+
+    /**
+     * A single log call waiting to be formatted. Up to {@link #MAX_ARGS} arguments, each either a long or an object
+     */
+    static final class Record {
+        int mLevel;
+        String mTag;
+        String mFormat;
+        Throwable mError;
+        int mArgCount;
+        final boolean[] mPrimitive = new boolean[MAX_ARGS];
+        final long[] mLongs = new long[MAX_ARGS];
+        final Object[] mObjects = new Object[MAX_ARGS];
+        Object[] mVarArgs;
+        long mClaimed;
+        volatile long mPublished;
+
+        Record(long published) {
+            mPublished = published;
+        }
+
+        void setLong(int index, long value) {
+            mPrimitive[index] = true;
+            mLongs[index] = value;
+        }
+
+        void setObject(int index, Object value) {
+            mPrimitive[index] = false;
+            mObjects[index] = value;
+        }
+
+        String format() {
+            if (mVarArgs != null) {
+                return String.format(mFormat, mVarArgs);
+            }
+
+            if (mArgCount == 0) {
+                return mFormat;
+            }
+
+            Object[] args = new Object[mArgCount];
+            for (int i = 0; i < mArgCount; i++) {
+                args[i] = mPrimitive[i] ? Long.valueOf(mLongs[i]) : mObjects[i];
+            }
+
+            return String.format(mFormat, args);
+        }
+
+        void clear() {
+            mTag = null;
+            mFormat = null;
+            mError = null;
+            mVarArgs = null;
+            for (int i = 0; i < MAX_ARGS; i++) {
+                mObjects[i] = null;
+            }
+        }
+    }
+}
@@ -3,200 +3,407 @@ package com.labs.commons;
 import android.util.Log;
 import com.labs.adk.BuildConfig;
 
+import java.io.PrintStream;
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
  * Wrapper class for {@link android.util.Log}.<br/>
  * The reason there are so many overloading methods is to minimize the use of the Argument parameter method (the one with the three dots). <br/>
  * What happens behind the scene when calling such methods is an instantiation of a new array of objects which may be a huge waste if the application
- * calls this class often
+ * calls this class often. For the same reason there are overloads taking longs, which spare boxing numbers into objects. <br/>
+ * Levels can be changed at runtime, for all tags or per tag. By default debug builds log everything and release builds nothing. <br/>
+ * In async mode (see {@link #startAsync(int)}) messages are formatted and written on a background thread, so logging costs the caller
+ * little more than copying its arguments. <br/>
+ * Outside of Android (e.g. when running the protocol stack on a plain JVM) messages go to the standard output streams instead
  *
  * @author Amir Lazarovich
  */
 public class SLog {
+    ///////////////////////////////////////////////
+    // Constants
+    ///////////////////////////////////////////////
+    public static final int DEBUG = 0;
+    public static final int INFO = 1;
+    public static final int WARN = 2;
+    public static final int ERROR = 3;
+    public static final int SILENT = 4;
+
+    private static final boolean ANDROID = isAndroid();
+    private static final char[] LEVEL_NAMES = {'D', 'I', 'W', 'E'};
+
     ///////////////////////////////////////////////
     // Members
     ///////////////////////////////////////////////
-    private enum Type {
-        DEBUG,
-        INFO,
-        WARN,
-        ERROR
-    }
+    private static volatile int sLevel = BuildConfig.DEBUG ? DEBUG : SILENT;
+    private static final ConcurrentHashMap<String, Integer> sTagLevels = new ConcurrentHashMap<String, Integer>();
+    private static volatile boolean sHasTagLevels;
+    private static volatile AsyncLog sAsync;
 
     ///////////////////////////////////////////////
     // Public
     ///////////////////////////////////////////////
     public static void d(String tag, String msg) {
-        if (!BuildConfig.DEBUG || msg == null) {
+        if (msg == null || !isLoggable(tag, DEBUG)) {
             return;
         }
 
-       log(Type.DEBUG, tag, msg, null);
+        log(DEBUG, tag, msg, null);
     }
 
     public static void d(String tag, String formattedMessage, Object arg1) {
-        if (!BuildConfig.DEBUG || formattedMessage == null) {
+        if (formattedMessage == null || !isLoggable(tag, DEBUG)) {
             return;
         }
 
-        log(Type.DEBUG, tag, String.format(formattedMessage, arg1), null);
+        log(DEBUG, tag, null, formattedMessage, 1, arg1, null, null);
     }
 
     public static void d(String tag, String formattedMessage, Object arg1, Object arg2) {
-        if (!BuildConfig.DEBUG || formattedMessage == null) {
+        if (formattedMessage == null || !isLoggable(tag, DEBUG)) {
             return;
         }
 
-        log(Type.DEBUG, tag, String.format(formattedMessage, arg1, arg2), null);
+        log(DEBUG, tag, null, formattedMessage, 2, arg1, arg2, null);
     }
 
     public static void d(String tag, String formattedMessage, Object arg1, Object arg2, Object arg3) {
-        if (!BuildConfig.DEBUG || formattedMessage == null) {
+        if (formattedMessage == null || !isLoggable(tag, DEBUG)) {
             return;
         }
 
-        log(Type.DEBUG, tag, String.format(formattedMessage, arg1, arg2, arg3), null);
+        log(DEBUG, tag, null, formattedMessage, 3, arg1, arg2, arg3);
     }
 
     public static void d(String tag, String formattedMessage, Object... args) {
-        if (!BuildConfig.DEBUG || formattedMessage == null) {
+        if (formattedMessage == null || !isLoggable(tag, DEBUG)) {
             return;
         }
 
-        log(Type.DEBUG, tag, String.format(formattedMessage, args), null);
+        log(DEBUG, tag, null, formattedMessage, args);
+    }
+
+    public static void d(String tag, String formattedMessage, long arg1) {
+        if (formattedMessage == null || !isLoggable(tag, DEBUG)) {
+            return;
+        }
+
+        log(DEBUG, tag, null, formattedMessage, 1, arg1, 0, 0);
+    }
+
+    public static void d(String tag, String formattedMessage, long arg1, long arg2) {
+        if (formattedMessage == null || !isLoggable(tag, DEBUG)) {
+            return;
+        }
+
+        log(DEBUG, tag, null, formattedMessage, 2, arg1, arg2, 0);
+    }
+
+    public static void d(String tag, String formattedMessage, long arg1, long arg2, long arg3) {
+        if (formattedMessage == null || !isLoggable(tag, DEBUG)) {
+            return;
+        }
+
+        log(DEBUG, tag, null, formattedMessage, 3, arg1, arg2, arg3);
     }
 
     public static void i(String tag, String msg) {
-        if (!BuildConfig.DEBUG || msg == null) {
+        if (msg == null || !isLoggable(tag, INFO)) {
             return;
         }
 
-        log(Type.INFO, tag, msg, null);
+        log(INFO, tag, msg, null);
     }
 
     public static void i(String tag, String formattedMessage, Object arg1) {
-        if (!BuildConfig.DEBUG || formattedMessage == null) {
+        if (formattedMessage == null || !isLoggable(tag, INFO)) {
             return;
         }
 
-        log(Type.INFO, tag, String.format(formattedMessage, arg1), null);
+        log(INFO, tag, null, formattedMessage, 1, arg1, null, null);
     }
 
     public static void i(String tag, String formattedMessage, Object arg1, Object arg2) {
-        if (!BuildConfig.DEBUG || formattedMessage == null) {
+        if (formattedMessage == null || !isLoggable(tag, INFO)) {
             return;
         }
 
-        log(Type.INFO, tag, String.format(formattedMessage, arg1, arg2), null);
+        log(INFO, tag, null, formattedMessage, 2, arg1, arg2, null);
     }
 
     public static void i(String tag, String formattedMessage, Object arg1, Object arg2, Object arg3) {
-        if (!BuildConfig.DEBUG || formattedMessage == null) {
+        if (formattedMessage == null || !isLoggable(tag, INFO)) {
             return;
         }
 
-        log(Type.INFO, tag, String.format(formattedMessage, arg1, arg2, arg3), null);
+        log(INFO, tag, null, formattedMessage, 3, arg1, arg2, arg3);
     }
 
     public static void i(String tag, String formattedMessage, Object... args) {
-        if (!BuildConfig.DEBUG || formattedMessage == null) {
+        if (formattedMessage == null || !isLoggable(tag, INFO)) {
+            return;
+        }
+
+        log(INFO, tag, null, formattedMessage, args);
+    }
+
+    public static void i(String tag, String formattedMessage, long arg1) {
+        if (formattedMessage == null || !isLoggable(tag, INFO)) {
+            return;
+        }
+
+        log(INFO, tag, null, formattedMessage, 1, arg1, 0, 0);
+    }
+
+    public static void i(String tag, String formattedMessage, long arg1, long arg2) {
+        if (formattedMessage == null || !isLoggable(tag, INFO)) {
+            return;
+        }
+
+        log(INFO, tag, null, formattedMessage, 2, arg1, arg2, 0);
+    }
+
+    public static void i(String tag, String formattedMessage, long arg1, long arg2, long arg3) {
+        if (formattedMessage == null || !isLoggable(tag, INFO)) {
             return;
         }
 
-        log(Type.INFO, tag, String.format(formattedMessage, args), null);
+        log(INFO, tag, null, formattedMessage, 3, arg1, arg2, arg3);
     }
 
     public static void w(String tag, String msg) {
-        if (!BuildConfig.DEBUG || msg == null) {
+        if (msg == null || !isLoggable(tag, WARN)) {
             return;
         }
 
-        log(Type.WARN, tag, msg, null);
+        log(WARN, tag, msg, null);
     }
 
     public static void w(String tag, String formattedMessage, Object arg1) {
-        if (!BuildConfig.DEBUG || formattedMessage == null) {
+        if (formattedMessage == null || !isLoggable(tag, WARN)) {
             return;
         }
 
-        log(Type.WARN, tag, String.format(formattedMessage, arg1), null);
+        log(WARN, tag, null, formattedMessage, 1, arg1, null, null);
     }
 
     public static void w(String tag, String formattedMessage, Object arg1, Object arg2) {
-        if (!BuildConfig.DEBUG || formattedMessage == null) {
+        if (formattedMessage == null || !isLoggable(tag, WARN)) {
             return;
         }
 
-        log(Type.WARN, tag, String.format(formattedMessage, arg1, arg2), null);
+        log(WARN, tag, null, formattedMessage, 2, arg1, arg2, null);
     }
 
     public static void w(String tag, String formattedMessage, Object arg1, Object arg2, Object arg3) {
-        if (!BuildConfig.DEBUG || formattedMessage == null) {
+        if (formattedMessage == null || !isLoggable(tag, WARN)) {
             return;
         }
 
-        log(Type.WARN, tag, String.format(formattedMessage, arg1, arg2, arg3), null);
+        log(WARN, tag, null, formattedMessage, 3, arg1, arg2, arg3);
     }
 
     public static void w(String tag, String formattedMessage, Object... args) {
-        if (!BuildConfig.DEBUG || formattedMessage == null) {
+        if (formattedMessage == null || !isLoggable(tag, WARN)) {
             return;
         }
 
-        log(Type.WARN, tag, String.format(formattedMessage, args), null);
+        log(WARN, tag, null, formattedMessage, args);
+    }
+
+    public static void w(String tag, String formattedMessage, long arg1) {
+        if (formattedMessage == null || !isLoggable(tag, WARN)) {
+            return;
+        }
+
+        log(WARN, tag, null, formattedMessage, 1, arg1, 0, 0);
+    }
+
+    public static void w(String tag, String formattedMessage, long arg1, long arg2) {
+        if (formattedMessage == null || !isLoggable(tag, WARN)) {
+            return;
+        }
+
+        log(WARN, tag, null, formattedMessage, 2, arg1, arg2, 0);
+    }
+
+    public static void w(String tag, String formattedMessage, long arg1, long arg2, long arg3) {
+        if (formattedMessage == null || !isLoggable(tag, WARN)) {
+            return;
+        }
+
+        log(WARN, tag, null, formattedMessage, 3, arg1, arg2, arg3);
     }
 
     public static void e(String tag, String msg, Throwable e) {
-        if (!BuildConfig.DEBUG || msg == null) {
+        if (msg == null || !isLoggable(tag, ERROR)) {
             return;
         }
 
-        log(Type.ERROR, tag, msg, e);
+        log(ERROR, tag, msg, e);
     }
 
     public static void e(String tag, Throwable e, String formattedMessage, Object arg1) {
-        if (!BuildConfig.DEBUG || formattedMessage == null) {
+        if (formattedMessage == null || !isLoggable(tag, ERROR)) {
             return;
         }
 
-        log(Type.ERROR, tag, String.format(formattedMessage, arg1), e);
+        log(ERROR, tag, e, formattedMessage, 1, arg1, null, null);
     }
 
     public static void e(String tag, Throwable e, String formattedMessage, Object arg1, Object arg2) {
-        if (!BuildConfig.DEBUG || formattedMessage == null) {
+        if (formattedMessage == null || !isLoggable(tag, ERROR)) {
             return;
         }
 
-        log(Type.ERROR, tag, String.format(formattedMessage, arg1, arg2), e);
+        log(ERROR, tag, e, formattedMessage, 2, arg1, arg2, null);
     }
 
     public static void e(String tag, Throwable e, String formattedMessage, Object arg1, Object arg2, Object arg3) {
-        if (!BuildConfig.DEBUG || formattedMessage == null) {
+        if (formattedMessage == null || !isLoggable(tag, ERROR)) {
             return;
         }
 
-        log(Type.ERROR, tag, String.format(formattedMessage, arg1, arg2, arg3), e);
+        log(ERROR, tag, e, formattedMessage, 3, arg1, arg2, arg3);
     }
 
     public static void e(String tag, Throwable e, String formattedMessage, Object... args) {
-        if (!BuildConfig.DEBUG || formattedMessage == null) {
+        if (formattedMessage == null || !isLoggable(tag, ERROR)) {
+            return;
+        }
+
+        log(ERROR, tag, e, formattedMessage, args);
+    }
+
+    public static void e(String tag, Throwable e, String formattedMessage, long arg1) {
+        if (formattedMessage == null || !isLoggable(tag, ERROR)) {
             return;
         }
 
-        log(Type.ERROR, tag, String.format(formattedMessage, args), e);
+        log(ERROR, tag, e, formattedMessage, 1, arg1, 0, 0);
     }
 
+    /**
+     * @return true if anything at all may be logged
+     */
     public static boolean isEnabled() {
-        return BuildConfig.DEBUG;
+        return sLevel < SILENT || sHasTagLevels;
+    }
+
+    /**
+     * Check whether a message would be logged. Use it to skip preparing arguments that are costly to compute
+     *
+     * @param tag   May be null, in which case only the level set by {@link #setLevel(int)} applies
+     * @param level One of {@link #DEBUG}, {@link #INFO}, {@link #WARN} or {@link #ERROR}
+     * @return
+     */
+    public static boolean isLoggable(String tag, int level) {
+        if (tag != null && sHasTagLevels) {
+            Integer tagLevel = sTagLevels.get(tag);
+            if (tagLevel != null) {
+                return level >= tagLevel;
+            }
+        }
+
+        return level >= sLevel;
+    }
+
+    /**
+     * Set the minimal level logged for tags that don't have a level of their own
+     *
+     * @param level One of {@link #DEBUG}, {@link #INFO}, {@link #WARN}, {@link #ERROR} or {@link #SILENT}
+     */
+    public static void setLevel(int level) {
+        sLevel = level;
+    }
+
+    /**
+     * Set the minimal level logged for <code>tag</code>, overriding the level set by {@link #setLevel(int)}
+     *
+     * @param tag   Not null
+     * @param level One of {@link #DEBUG}, {@link #INFO}, {@link #WARN}, {@link #ERROR} or {@link #SILENT}
+     */
+    public static void setLevel(String tag, int level) {
+        if (tag == null) {
+            throw new IllegalArgumentException("tag can't be null");
+        }
+
+        // the flag must follow the map, or a concurrent clearLevel() could leave it false with a level still set
+        synchronized (sTagLevels) {
+            sTagLevels.put(tag, level);
+            sHasTagLevels = true;
+        }
+    }
+
+    /**
+     * Let <code>tag</code> follow the level set by {@link #setLevel(int)} again
+     *
+     * @param tag
+     */
+    public static void clearLevel(String tag) {
+        if (tag == null) {
+            return;
+        }
+
+        synchronized (sTagLevels) {
+            sTagLevels.remove(tag);
+            sHasTagLevels = !sTagLevels.isEmpty();
+        }
+    }
+
+    /**
+     * Format and write messages on a background thread from now on. <br/>
+     * Messages logged while the buffer is full are dropped, see {@link #getDroppedCount()}
+     *
+     * @param capacity Number of messages that may wait to be written, rounded up to a power of two
+     */
+    public static synchronized void startAsync(int capacity) {
+        stopAsync();
+        AsyncLog async = new AsyncLog(capacity);
+        async.start();
+        sAsync = async;
+    }
+
+    /**
+     * Go back to writing messages on the logging thread, once the messages already logged were written
+     */
+    public static synchronized void stopAsync() {
+        AsyncLog async = sAsync;
+        if (async != null) {
+            sAsync = null;
+            async.stop();
+        }
+    }
+
+    /**
+     * @return Number of messages dropped because the async buffer was full
+     */
+    public static long getDroppedCount() {
+        AsyncLog async = sAsync;
+        return (async != null) ? async.getDroppedCount() : 0;
     }
 
     ///////////////////////////////////////////////
-    // Private
+    // Package
     ///////////////////////////////////////////////
-    private static void log(Type type, String tag, String msg, Throwable e) {
-        switch (type) {
-             case DEBUG:
-                 Log.d(tag, msg);
-                 break;
+
+    /**
+     * Write an already formatted message
+     *
+     * @param level
+     * @param tag
+     * @param msg
+     * @param e     May be null
+     */
+    static void write(int level, String tag, String msg, Throwable e) {
+        if (!ANDROID) {
+            logToStandardStreams(level, tag, msg, e);
+            return;
+        }
+
+        switch (level) {
+            case DEBUG:
+                Log.d(tag, msg);
+                break;
 
             case INFO:
                 Log.i(tag, msg);
@@ -215,4 +422,121 @@ public class SLog {
                 break;
         }
     }
+
+    ///////////////////////////////////////////////
+    // Private
+    ///////////////////////////////////////////////
+    private static void log(int level, String tag, String msg, Throwable e) {
+        AsyncLog async = sAsync;
+        if (async == null) {
+            write(level, tag, msg, e);
+            return;
+        }
+
+        AsyncLog.Record record = async.claim();
+        if (record != null) {
+            fill(record, level, tag, e, msg, 0);
+            async.publish(record);
+        }
+    }
+
+    private static void log(int level, String tag, Throwable e, String format, int argCount, Object arg1, Object arg2, Object arg3) {
+        AsyncLog async = sAsync;
+        if (async == null) {
+            write(level, tag, format(format, argCount, arg1, arg2, arg3), e);
+            return;
+        }
+
+        AsyncLog.Record record = async.claim();
+        if (record != null) {
+            fill(record, level, tag, e, format, argCount);
+            record.setObject(0, arg1);
+            record.setObject(1, arg2);
+            record.setObject(2, arg3);
+            async.publish(record);
+        }
+    }
+
+    private static void log(int level, String tag, Throwable e, String format, int argCount, long arg1, long arg2, long arg3) {
+        AsyncLog async = sAsync;
+        if (async == null) {
+            write(level, tag, format(format, argCount, arg1, arg2, arg3), e);
+            return;
+        }
+
+        AsyncLog.Record record = async.claim();
+        if (record != null) {
+            fill(record, level, tag, e, format, argCount);
+            record.setLong(0, arg1);
+            record.setLong(1, arg2);
+            record.setLong(2, arg3);
+            async.publish(record);
+        }
+    }
+
+    private static void log(int level, String tag, Throwable e, String format, Object[] args) {
+        AsyncLog async = sAsync;
+        if (async == null) {
+            write(level, tag, String.format(format, args), e);
+            return;
+        }
+
+        AsyncLog.Record record = async.claim();
+        if (record != null) {
+            fill(record, level, tag, e, format, args.length);
+            record.mVarArgs = args;
+            async.publish(record);
+        }
+    }
+
+    private static void fill(AsyncLog.Record record, int level, String tag, Throwable e, String format, int argCount) {
+        record.mLevel = level;
+        record.mTag = tag;
+        record.mError = e;
+        record.mFormat = format;
+        record.mArgCount = argCount;
+    }
+
+    private static String format(String format, int argCount, Object arg1, Object arg2, Object arg3) {
+        switch (argCount) {
+            case 1:
+                return String.format(format, arg1);
+
+            case 2:
+                return String.format(format, arg1, arg2);
+
+            default:
+                return String.format(format, arg1, arg2, arg3);
+        }
+    }
+
+    private static String format(String format, int argCount, long arg1, long arg2, long arg3) {
+        switch (argCount) {
+            case 1:
+                return String.format(format, arg1);
+
+            case 2:
+                return String.format(format, arg1, arg2);
+
+            default:
+                return String.format(format, arg1, arg2, arg3);
+        }
+    }
+
+    private static void logToStandardStreams(int level, String tag, String msg, Throwable e) {
+        PrintStream out = (level >= WARN) ? System.err : System.out;
+        out.println(LEVEL_NAMES[level] + "/" + tag + ": " + msg);
+        if (e != null) {
+            e.printStackTrace(out);
+        }
+    }
+
+    private static boolean isAndroid() {
+        try {
+            Class.forName("android.util.Log");
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
 }
@@ -3,14 +3,17 @@ package com.labs.ui;
 import android.app.Activity;
 import android.os.Bundle;
 import com.labs.adk.ADKManager;
-import com.labs.adk.Callback;
+import com.labs.adk.AckBatch;
+import com.labs.adk.BatchCallback;
+import com.labs.adk.CommandSender;
+import com.labs.adk.Sequencer;
 
 /**
  * Abstract base class for screens that communicate with an ADK device
  *
  * @author Amir Lazarovich
  */
-public abstract class AdkActivity extends Activity implements Callback {
+public abstract class AdkActivity extends Activity implements BatchCallback {
     ///////////////////////////////////////////////
     // Constants
     ///////////////////////////////////////////////
@@ -20,6 +23,7 @@ public abstract class AdkActivity extends Activity implements Callback {
     // Members
     ///////////////////////////////////////////////
     private ADKManager mADKManager;
+    private Sequencer mSequencer;
 
     ///////////////////////////////////////////////
     // Activity Flow
@@ -29,22 +33,27 @@ public abstract class AdkActivity extends Activity implements Callback {
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         mADKManager = new ADKManager(this, this);
+        mSequencer = new Sequencer(new CommandSender() {
+            @Override
+            public boolean sendCommand(byte command, byte action, byte[] data) {
+                return AdkActivity.this.sendCommand(command, action, data);
+            }
+        });
     }
 
     @Override
     public void onResume() {
         super.onResume();
-        if (!mADKManager.isConnected()) {
-            mADKManager.connect();
-        }
+        mSequencer.start();
+        mADKManager.connect();
     }
 
     @Override
     public void onPause() {
         super.onPause();
-        if (mADKManager.isConnected()) {
-            mADKManager.disconnect();
-        }
+        // also stops looking for the device if it wasn't found yet
+        mADKManager.disconnect();
+        mSequencer.shutdown();
     }
 
     ///////////////////////////////////////////////
@@ -56,10 +65,21 @@ public abstract class AdkActivity extends Activity implements Callback {
      * @param command
      * @param action
      * @param data
+     * @return false if the command was dropped
      */
-    protected final void sendCommand(final byte command, final byte action, final byte[] data) {
+    protected final boolean sendCommand(final byte command, final byte action, final byte[] data) {
         onSendCommand();
-        mADKManager.sendCommand(command, action, data);
+        return mADKManager.sendCommand(command, action, data);
+    }
+
+    /**
+     * Get the sequencer for playing timed command sequences. It runs while the screen is resumed, and every track is stopped
+     * when it's paused. Steps go through {@link #sendCommand(byte, byte, byte[])}
+     *
+     * @return
+     */
+    protected Sequencer getSequencer() {
+        return mSequencer;
     }
 
     /**
@@ -81,9 +101,61 @@ public abstract class AdkActivity extends Activity implements Callback {
         return mADKManager.isConnected();
     }
 
+    /**
+     * Set the max number of commands that may wait for an ack at the same time.
+     * Use 1 for a strict stop-and-wait exchange with the ADK device
+     *
+     * @param window
+     */
+    protected void setSendWindow(int window) {
+        mADKManager.setSendWindow(window);
+    }
+
+    protected int getSendWindow() {
+        return mADKManager.getSendWindow();
+    }
+
+    /**
+     * @return Number of commands sent but not acked yet, including those still waiting to be written
+     */
+    protected int getCommandsInFlight() {
+        return mADKManager.getPendingAckCount() + mADKManager.getSendQueueDepth();
+    }
+
+    /**
+     * Check if the send window is full, in which case new commands will wait until earlier ones are acked
+     *
+     * @return
+     */
+    protected boolean isSendWindowFull() {
+        return getCommandsInFlight() >= getSendWindow();
+    }
+
     //////////////////////////////////////////
     // Overrides & Implementations
     //////////////////////////////////////////
+
+    /**
+     * Acks arrive in batches, one batch per UI thread hop. By default each ack is handed to {@link #onAckReceived(boolean)},
+     * coalesced ones last. Override this method to handle a whole batch at once, e.g. to refresh the screen only once
+     *
+     * @param batch
+     */
+    @Override
+    public void onAcksReceived(AckBatch batch) {
+        for (int i = 0; i < batch.size(); i++) {
+            onAckReceived(batch.isAck(i));
+        }
+
+        for (int i = 0; i < batch.getCoalescedAcks(); i++) {
+            onAckReceived(true);
+        }
+
+        for (int i = 0; i < batch.getCoalescedNacks(); i++) {
+            onAckReceived(false);
+        }
+    }
+
     @Override
     public void onAckReceived(boolean ack) {
 
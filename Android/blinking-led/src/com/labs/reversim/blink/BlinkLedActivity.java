@@ -2,13 +2,13 @@ package com.labs.reversim.blink;
 
 import android.os.Bundle;
 import android.util.Log;
+import com.labs.adk.CatchUpPolicy;
+import com.labs.adk.Track;
 import com.labs.ui.AdkActivity;
 
-import java.util.Timer;
-import java.util.TimerTask;
-
 /**
- * Send commands to an ADK device in a fixed interval to turn a led on and off
+ * Send commands to an ADK device in a fixed interval to turn a led on and off. <br/>
+ * The blinking is a looping track played by the activity's sequencer, so it keeps its rhythm however late a single blink is
  *
  * @author Amir Lazarovich
  */
@@ -17,12 +17,12 @@ public class BlinkLedActivity extends AdkActivity {
     // Constants
     //////////////////////////////////////////
     private static final String TAG = "BlinkLedActivity";
+    private static final long BLINK_INTERVAL_MILLIS = 500;
 
     //////////////////////////////////////////
     // Members
     //////////////////////////////////////////
-    private int count;
-    private Timer timer;
+    private Track blink;
 
     //////////////////////////////////////////
     // Overrides & Implementations
@@ -31,28 +31,28 @@ public class BlinkLedActivity extends AdkActivity {
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.main);
+
+        // only the latest state of the led matters, so a late blink skips the ones it missed
+        blink = new Track("blink", CatchUpPolicy.SKIP);
+        blink.addStep(0, Commands.COMMAND_LEDS, Commands.ACTION_LED_13, Commands.LED_ON);
+        blink.addStep(BLINK_INTERVAL_MILLIS, Commands.COMMAND_LEDS, Commands.ACTION_LED_13, Commands.LED_OFF);
+        blink.setLoopPeriod(2 * BLINK_INTERVAL_MILLIS);
     }
 
     @Override
     public void onConnected() {
         super.onConnected();
         Log.d(TAG, "onConnected");
-        timer = new Timer();
-        timer.schedule(new TimerTask() {
-            @Override
-            public void run() {
-                if (isConnected()) {
-                    sendCommand(Commands.COMMAND_LEDS, Commands.ACTION_LED_13, (count++ % 2 == 0) ? Commands.LED_ON : Commands.LED_OFF);
-                }
-            }
-        }, 0, 500);
+        if (!blink.isPlaying()) {
+            getSequencer().play(blink);
+        }
     }
 
     @Override
     public void onDisconnected() {
         super.onDisconnected();
-        Log.d(TAG, "onDisconnected");
-        timer.cancel();
+        Log.d(TAG, "onDisconnected: " + blink.getStats());
+        getSequencer().stop(blink);
     }
 
     @Override
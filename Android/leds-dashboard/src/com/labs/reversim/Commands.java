@@ -6,13 +6,42 @@ package com.labs.reversim;
 public class Commands {
     // adk-commands
     public static final byte COMMAND_LEDS = 1;
+    public static final byte COMMAND_LEDS_BULK = 3;
 
     // adk-actions
     public static final byte ACTION_LED_RED = 1;
     public static final byte ACTION_LED_GREEN = 2;
     public static final byte ACTION_LED_YELLOW = 3;
 
+    // adk-actions of COMMAND_LEDS_BULK
+    public static final byte ACTION_LEDS_MASK = 1;
+    public static final byte ACTION_LEDS_PWM = 2;
+
     // adk-data
     public static final byte[] LED_ON = {1};
     public static final byte[] LED_OFF = {0};
+
+    /**
+     * Encode the on/off state of every led, for {@link #ACTION_LEDS_MASK}
+     *
+     * @param red
+     * @param green
+     * @param yellow
+     * @return
+     */
+    public static byte[] ledsMask(boolean red, boolean green, boolean yellow) {
+        return new byte[]{(byte) ((red ? 1 : 0) | (green ? 2 : 0) | (yellow ? 4 : 0))};
+    }
+
+    /**
+     * Encode the level of every led, for {@link #ACTION_LEDS_PWM}
+     *
+     * @param red    0 is off and 255 fully on
+     * @param green
+     * @param yellow
+     * @return
+     */
+    public static byte[] ledsPwm(int red, int green, int yellow) {
+        return new byte[]{(byte) red, (byte) green, (byte) yellow};
+    }
 }
@@ -52,22 +52,38 @@ public class MainActivity extends AdkActivity implements CompoundButton.OnChecke
     // Overrides & Implementations
     ///////////////////////////////////////////////
 
+    /**
+     * The ADK device may have been reset while disconnected, so bring it back to what the toggles show, in a single command
+     */
+    @Override
+    public void onConnected() {
+        sendCommand(Commands.COMMAND_LEDS_BULK, Commands.ACTION_LEDS_MASK,
+                Commands.ledsMask(mToggleRed.isChecked(), mToggleGreen.isChecked(), mToggleYellow.isChecked()));
+    }
+
     @Override
     protected void onSendCommand() {
         mProgress.setVisibility(View.VISIBLE);
         mTxtAck.setVisibility(View.INVISIBLE);
-        enableButtons(false);
+
+        // this command takes the last free slot of the send window
+        if (getCommandsInFlight() + 1 >= getSendWindow()) {
+            enableButtons(false);
+        }
     }
 
     @Override
     public void onAckReceived(boolean ack) {
-        enableButtons(ack);
+        // a nack frees a slot of the window too, and an ack doesn't free one if other commands are still queued
+        enableButtons(!isSendWindowFull());
         mTxtAck.setTextColor(ack ?
                 getResources().getColor(R.color.holo_green_light) :
                 getResources().getColor(R.color.holo_red_light));
         mTxtAck.setText(String.format("Ack received: %b", ack));
-        mProgress.setVisibility(View.INVISIBLE);
-        mTxtAck.setVisibility(View.VISIBLE);
+        if (getCommandsInFlight() == 0) {
+            mProgress.setVisibility(View.INVISIBLE);
+            mTxtAck.setVisibility(View.VISIBLE);
+        }
     }
 
     @Override
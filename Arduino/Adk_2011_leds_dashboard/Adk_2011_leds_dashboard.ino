@@ -6,15 +6,23 @@
 ////// Constants
 //////////////////////////////////////////
 #define COMMAND_LEDS           1
+#define COMMAND_LEDS_BULK      3
 
 #define ACTION_LED_RED         1
 #define ACTION_LED_GREEN       2
 #define ACTION_LED_YELLOW      3
 
+#define ACTION_LEDS_MASK       1
+#define ACTION_LEDS_PWM        2
+
 #define PIN_LED_RED            5
 #define PIN_LED_GREEN          6
 #define PIN_LED_YELLOW         7
 
+#define LED_COUNT              3
+
+const byte LED_PINS[LED_COUNT] = {PIN_LED_RED, PIN_LED_GREEN, PIN_LED_YELLOW};
+
 //////////////////////////////////////////
 ////// Initialization
 //////////////////////////////////////////
@@ -47,6 +55,10 @@ void onMessageReceived(byte command, byte action, byte dataLength, byte* data) {
       onChangeLedState(action, data[0]);      
       break;
       
+    case COMMAND_LEDS_BULK:
+      onChangeLedsBulk(action, dataLength, data);
+      break;
+      
     default:
       Serial.print("Unknown command received: ");
       Serial.println(command, DEC);
@@ -81,6 +93,36 @@ void onChangeLedState(byte action, int ledState) {
 }
 
 
+/**
+ * Change the state of every led at once
+ * 
+ * @param action ACTION_LEDS_MASK - a single byte, bit i for the i'th led. ACTION_LEDS_PWM - a level (0-255) per led
+ * @param dataLength
+ * @param data
+ */ 
+void onChangeLedsBulk(byte action, byte dataLength, byte* data) {
+  switch (action) {
+    case ACTION_LEDS_MASK:
+      if (dataLength > 0) {
+        for (int i = 0; i < LED_COUNT; i++) {
+          digitalWrite(LED_PINS[i], (data[0] >> i) & 1);
+        }
+      }
+      break;
+      
+    case ACTION_LEDS_PWM:
+      for (int i = 0; i < LED_COUNT && i < dataLength; i++) {
+        analogWrite(LED_PINS[i], data[i]);
+      }
+      break;
+      
+    default:
+     Serial.print("Unknown bulk-action received: ");
+     Serial.println(action, DEC);
+  }  
+}
+
+
 //////////////////////////////////////////
 ////// Main loop
 //////////////////////////////////////////
@@ -5,6 +5,9 @@
 ////// Constants
 //////////////////////////////////////////
 #define COMMAND_LEDS           1
+#define COMMAND_PATTERN        2
+#define COMMAND_LEDS_BULK      3
+#define COMMAND_TELEMETRY      4
 
 #define ACTION_LED_RED         1
 #define ACTION_LED_GREEN       2
@@ -14,6 +17,64 @@
 #define PIN_LED_GREEN          6
 #define PIN_LED_YELLOW         7
 
+#define ACTION_LEDS_MASK       1
+#define ACTION_LEDS_PWM        2
+
+#define ACTION_TELEMETRY_SUBSCRIBE   1
+#define ACTION_TELEMETRY_UNSUBSCRIBE 2
+
+#define ACTION_PATTERN_BEGIN   1
+#define ACTION_PATTERN_DATA    2
+#define ACTION_PATTERN_RUN     3
+#define ACTION_PATTERN_STOP    4
+
+// pattern bytecode, must be kept in sync with com.labs.adk.pattern.Op
+#define PATTERN_SIZE           128
+#define PATTERN_VERSION        1
+#define PATTERN_MAX_LOOPS      4
+#define PATTERN_MAX_STEPS      1000
+
+#define OP_HALT                0x00
+#define OP_SET                 0x01
+#define OP_SET_ALL             0x02
+#define OP_DELAY               0x03
+#define OP_LOOP                0x04
+#define OP_END                 0x05
+#define OP_LOAD                0x06
+#define OP_ADD                 0x07
+#define OP_SET_REGISTER        0x08
+#define OP_SET_ALL_REGISTER    0x09
+
+#define LED_COUNT              3
+
+// analog inputs 0 .. TELEMETRY_CHANNELS - 1 are streamed to the Android device every TELEMETRY_INTERVAL ms, once it subscribed.
+// A host that never subscribes only ever gets acks, so it can't mistake a sample's value bytes for them
+#define TELEMETRY_CHANNELS     2
+#define TELEMETRY_INTERVAL     20
+
+const byte LED_PINS[LED_COUNT] = {PIN_LED_RED, PIN_LED_GREEN, PIN_LED_YELLOW};
+
+//////////////////////////////////////////
+////// Pattern state
+//////////////////////////////////////////
+byte pattern[PATTERN_SIZE];
+int patternLength = 0;
+int patternReceived = 0;
+byte patternChunks[PATTERN_SIZE / 8]; // one bit per program byte already received, so a retransmitted chunk counts once
+boolean patternRunning = false;
+int patternPc;
+byte patternRegister;
+unsigned long patternWakeAt;
+int patternLoopStart[PATTERN_MAX_LOOPS];
+byte patternLoopsLeft[PATTERN_MAX_LOOPS];
+int patternLoops;
+
+//////////////////////////////////////////
+////// Telemetry state
+//////////////////////////////////////////
+unsigned long telemetryAt;
+boolean telemetrySubscribed = false;
+
 //////////////////////////////////////////
 ////// Initialization
 //////////////////////////////////////////
@@ -43,9 +104,24 @@ void onCreate() {
 void onMessageReceived(byte command, byte action, byte dataLength, byte* data) {
   switch(command) {
     case COMMAND_LEDS:
+      // the Android device takes over the leds
+      patternRunning = false;
       onChangeLedState(action, data[0]);      
       break;
       
+    case COMMAND_LEDS_BULK:
+      patternRunning = false;
+      onChangeLedsBulk(action, dataLength, data);
+      break;
+      
+    case COMMAND_PATTERN:
+      onPatternMessage(action, dataLength, data);
+      break;
+      
+    case COMMAND_TELEMETRY:
+      onTelemetryMessage(action);
+      break;
+      
     default:
       Serial.print("Unknown command received: ");
       Serial.println(command, DEC);
@@ -80,6 +156,115 @@ void onChangeLedState(byte action, int ledState) {
 }
 
 
+/**
+ * Change the state of every led at once
+ * 
+ * @param action ACTION_LEDS_MASK - a single byte, bit i for the i'th led. ACTION_LEDS_PWM - a level (0-255) per led
+ * @param dataLength
+ * @param data
+ */ 
+void onChangeLedsBulk(byte action, byte dataLength, byte* data) {
+  switch (action) {
+    case ACTION_LEDS_MASK:
+      if (dataLength > 0) {
+        for (int i = 0; i < LED_COUNT; i++) {
+          digitalWrite(LED_PINS[i], (data[0] >> i) & 1);
+        }
+      }
+      break;
+      
+    case ACTION_LEDS_PWM:
+      for (int i = 0; i < LED_COUNT && i < dataLength; i++) {
+        analogWrite(LED_PINS[i], data[i]);
+      }
+      break;
+      
+    default:
+     Serial.print("Unknown bulk-action received: ");
+     Serial.println(action, DEC);
+  }  
+}
+
+/**
+ * Start or stop streaming telemetry to the Android device
+ * 
+ * @param action
+ */ 
+void onTelemetryMessage(byte action) {
+  switch (action) {
+    case ACTION_TELEMETRY_SUBSCRIBE:
+      telemetrySubscribed = true;
+      telemetryAt = millis();
+      break;
+      
+    case ACTION_TELEMETRY_UNSUBSCRIBE:
+      telemetrySubscribed = false;
+      break;
+      
+    default:
+     Serial.print("Unknown telemetry-action received: ");
+     Serial.println(action, DEC);
+  }
+}
+
+/**
+ * Receive a pattern program from the Android device, in chunks, and start or stop running it
+ * 
+ * @param action
+ * @param dataLength
+ * @param data
+ */ 
+void onPatternMessage(byte action, byte dataLength, byte* data) {
+  switch (action) {
+    case ACTION_PATTERN_BEGIN:
+      if (dataLength < 1) {
+        Serial.println("Pattern begin without a length");
+        break;
+      }
+      
+      patternRunning = false;
+      patternLength = min(data[0], PATTERN_SIZE);
+      patternReceived = 0;
+      memset(patternChunks, 0, sizeof(patternChunks));
+      break;
+      
+    case ACTION_PATTERN_DATA:
+      // data[0] is where the chunk goes, the rest is the chunk itself
+      if (dataLength > 1 && data[0] + dataLength - 1 <= patternLength) {
+        memcpy(pattern + data[0], data + 1, dataLength - 1);
+        for (int i = data[0]; i < data[0] + dataLength - 1; i++) {
+          if (!(patternChunks[i / 8] & (1 << (i % 8)))) {
+            patternChunks[i / 8] |= 1 << (i % 8);
+            patternReceived++;
+          }
+        }
+      }
+      break;
+      
+    case ACTION_PATTERN_RUN:
+      if (patternReceived == patternLength && patternLength > 0 && pattern[0] == PATTERN_VERSION) {
+        patternPc = 1;
+        patternRegister = 0;
+        patternLoops = 0;
+        patternWakeAt = millis();
+        patternRunning = true;
+      } else {
+        Serial.println("Incomplete pattern, not running it");
+      }
+      break;
+      
+    case ACTION_PATTERN_STOP:
+      patternRunning = false;
+      setAllLeds(0);
+      break;
+      
+    default:
+     Serial.print("Unknown pattern-action received: ");
+     Serial.println(action, DEC);
+  }
+}
+
+
 //////////////////////////////////////////
 ////// Main loop
 //////////////////////////////////////////
@@ -89,7 +274,162 @@ void onChangeLedState(byte action, int ledState) {
  * This method is called very frequently in an infinite loop
  */
 void onLoop() {
-  // do nothing...
+  runPattern();
+  streamTelemetry();
+}
+
+/**
+ * Send a reading of every telemetry channel to a subscribed Android device, once TELEMETRY_INTERVAL has passed since the previous one was due.
+ * Readings missed while the loop was busy (or nothing was connected) are skipped rather than sent in a burst
+ */
+void streamTelemetry() {
+  if (!telemetrySubscribed || (long) (millis() - telemetryAt) < 0) {
+    return;
+  }
+
+  int values[TELEMETRY_CHANNELS];
+  for (byte i = 0; i < TELEMETRY_CHANNELS; i++) {
+    values[i] = analogRead(i);
+  }
+
+  sendTelemetry(values, TELEMETRY_CHANNELS);
+  telemetryAt += TELEMETRY_INTERVAL;
+  if ((long) (millis() - telemetryAt) >= 0) {
+    telemetryAt = millis() + TELEMETRY_INTERVAL;
+  }
+}
+
+/**
+ * Run the pattern program up to its next delay, once the current delay is over. 
+ * Delays count from when the previous one was due rather than from now, so the pattern keeps its pace however long the loop takes.
+ * A broken program (unknown opcode, loops nested too deep, no delay for too long) just stops
+ */
+void runPattern() {
+  if (!patternRunning || (long) (millis() - patternWakeAt) < 0) {
+    return;
+  }
+  
+  int steps = 0;
+  while (patternRunning) {
+    if (++steps > PATTERN_MAX_STEPS || patternPc >= patternLength) {
+      patternRunning = false;
+      return;
+    }
+    
+    byte op = pattern[patternPc];
+    int operands = patternOperands(op);
+    if (operands < 0 || patternPc + operands >= patternLength) {
+      patternRunning = false;
+      return;
+    }
+    
+    byte* args = pattern + patternPc + 1;
+    patternPc += 1 + operands;
+    switch (op) {
+      case OP_SET:
+        setLed(args[0], args[1]);
+        break;
+        
+      case OP_SET_ALL:
+        setAllLeds(args[0]);
+        break;
+        
+      case OP_DELAY:
+        patternWakeAt += ((unsigned int) args[0] << 8) | args[1];
+        return;
+        
+      case OP_LOOP:
+        if (patternLoops == PATTERN_MAX_LOOPS) {
+          patternRunning = false;
+          return;
+        }
+        
+        patternLoopsLeft[patternLoops] = args[0];
+        patternLoopStart[patternLoops] = patternPc;
+        patternLoops++;
+        break;
+        
+      case OP_END:
+        if (patternLoops == 0) {
+          patternRunning = false;
+          return;
+        }
+        
+        // 0 loops forever
+        if (patternLoopsLeft[patternLoops - 1] == 0 || --patternLoopsLeft[patternLoops - 1] > 0) {
+          patternPc = patternLoopStart[patternLoops - 1];
+        } else {
+          patternLoops--;
+        }
+        break;
+        
+      case OP_LOAD:
+        patternRegister = args[0];
+        break;
+        
+      case OP_ADD:
+        patternRegister += (signed char) args[0];
+        break;
+        
+      case OP_SET_REGISTER:
+        setLed(args[0], patternRegister);
+        break;
+        
+      case OP_SET_ALL_REGISTER:
+        setAllLeds(patternRegister);
+        break;
+        
+      default:
+        // OP_HALT
+        patternRunning = false;
+        return;
+    }
+  }
+}
+
+/**
+ * @param op
+ * @return Number of operand bytes following "op", or -1 if it isn't an opcode
+ */
+int patternOperands(byte op) {
+  switch (op) {
+    case OP_HALT:
+    case OP_END:
+    case OP_SET_ALL_REGISTER:
+      return 0;
+      
+    case OP_SET_ALL:
+    case OP_LOOP:
+    case OP_LOAD:
+    case OP_ADD:
+    case OP_SET_REGISTER:
+      return 1;
+      
+    case OP_SET:
+    case OP_DELAY:
+      return 2;
+      
+    default:
+      return -1;
+  }
+}
+
+/**
+ * Set a led's level. 0 is off and 255 fully on, levels in between dim the led if its pin supports PWM
+ *
+ * @param led Index of the led, leds the board doesn't have are ignored
+ * @param level
+ */
+void setLed(byte led, byte level) {
+  if (led < LED_COUNT) {
+    analogWrite(LED_PINS[led], level);
+  }
+}
+
+void setAllLeds(byte level) {
+  for (int i = 0; i < LED_COUNT; i++) {
+    analogWrite(LED_PINS[i], level);
+  }
 }
 
 
@@ -127,17 +467,44 @@ void onLoop() {
 ////// Android communication boilerplate 
 //////////////////////////////////////////
 #define BUFFER_SIZE            16
+#define HEADER_SIZE            3
+#define FLAG_SEQUENCED         0x80
+
+// large commands arrive as a series of fragments (see Transfer.java) and are handed to onMessageReceived once complete
+#define COMMAND_FRAGMENT       0x7F
+#define ACTION_FRAGMENT_START  1
+#define ACTION_FRAGMENT_DATA   2
+#define FRAGMENT_BUFFER_SIZE   255
+
+// telemetry sample: MSG_TELEMETRY, channel, value (2 bytes, high byte first)
+#define MSG_TELEMETRY          0x20
+#define TELEMETRY_SIZE         4
+#define MAX_TELEMETRY_CHANNELS 4
 
 const char *USB_MANUFACTURER = "Reversim Summit 2013";
 const char *USB_MODEL        = "leds-dashboard";
 const char *USB_DESCRIPTION  = "Code lab - android-adk basics";
 const char *USB_VERSION      = "1.0";
 const char *USB_SITE         = "http://summit2013.reversim.com";
+// a host driving several boards tells them apart by their serial, so flash each board with a serial of its own
 const char *USB_SERIAL       = "0000000012345678";
                     
 // command (1 byte), action (1 byte), data-length (1 byte), data (X bytes) 
+// sequenced: command | FLAG_SEQUENCED (1 byte), action (1 byte), data-length (1 byte), sequence (1 byte), data (X bytes)
 ADK L;
 
+// fragment start: id, command, action, length (2 bytes), fragment size
+// fragment data: id, index (2 bytes), data
+byte fragmentBuffer[FRAGMENT_BUFFER_SIZE];
+byte fragmentReceived[(FRAGMENT_BUFFER_SIZE + 7) / 8];
+byte fragmentId;
+byte fragmentCommand;
+byte fragmentAction;
+unsigned int fragmentLength;
+byte fragmentSize;
+unsigned int fragmentCount;
+unsigned int fragmentsLeft = 0;
+
 
 void adkPutchar(char c){Serial.write(c);}
 extern "C" void dbgPrintf(const char *, ... );
@@ -178,10 +545,30 @@ void loop() {
       Serial.print(len, DEC);
       Serial.println(" bytes");
 
-      handleMsgFromDevice(msg);
-      sendAck();
+      // the Android device may batch several messages into a single transfer
+      int offset = 0;
+      while (offset + HEADER_SIZE <= len) {
+        byte* current = msg + offset;
+        if (offset + messageLength(current) > len) {
+          // truncated or corrupt, and so is whatever follows it
+          Serial.println("dropping incomplete message");
+          break;
+        }
+        
+        boolean ack = handleMsgFromDevice(current);
+        if (current[0] & FLAG_SEQUENCED) {
+          sendSequencedAck(current[3], ack);
+        } else {
+          sendAck(ack);
+        }
+        
+        offset += messageLength(current);
+      }
     }
-  } 
+  } else {
+    // whoever connects next has to subscribe on its own
+    telemetrySubscribed = false;
+  }
   
   onLoop();
   L.adkEventProcess(); //let the adk framework do its thing
@@ -191,26 +578,154 @@ void loop() {
  * Handle messages coming from the Android device
  *
  * @param msg The raw payload 
+ * @return false if the message was turned down and should be nacked
  */
-void handleMsgFromDevice(byte* msg) {
-  byte command = msg[0];
+boolean handleMsgFromDevice(byte* msg) {
+  byte command = msg[0] & ~FLAG_SEQUENCED;
   byte action = msg[1];
   byte dataLength = msg[2];
+  byte* data = (msg[0] & FLAG_SEQUENCED) ? msg + 4 : msg + 3;
   printValues(command, action, dataLength);
-  onMessageReceived(command, action, dataLength, msg + 3); 
+  if (command == COMMAND_FRAGMENT) {
+    return onFragment(action, dataLength, data);
+  }
+  
+  onMessageReceived(command, action, dataLength, data);
+  return true;
+}
+
+/**
+ * Put a fragmented command back together, one at a time. A new start drops whatever arrived of the previous one.
+ * Fragments may arrive more than once or out of order, each is placed by its index
+ *
+ * @param action ACTION_FRAGMENT_START or ACTION_FRAGMENT_DATA
+ * @param dataLength
+ * @param data
+ * @return false if a start was turned down, e.g. because the payload doesn't fit in fragmentBuffer. The Android device
+ *         gives up on the transfer once the start is nacked
+ */
+boolean onFragment(byte action, byte dataLength, byte* data) {
+  switch (action) {
+    case ACTION_FRAGMENT_START:
+      fragmentsLeft = 0;
+      if (dataLength < 6 || data[5] == 0) {
+        return false;
+      }
+      
+      fragmentLength = ((unsigned int) data[3] << 8) | data[4];
+      if (fragmentLength > FRAGMENT_BUFFER_SIZE) {
+        Serial.println("fragmented command is too long, nacked");
+        return false;
+      }
+      
+      fragmentId = data[0];
+      fragmentCommand = data[1];
+      fragmentAction = data[2];
+      fragmentSize = data[5];
+      fragmentCount = (fragmentLength + fragmentSize - 1) / fragmentSize;
+      fragmentsLeft = fragmentCount;
+      memset(fragmentReceived, 0, sizeof(fragmentReceived));
+      if (fragmentsLeft == 0) {
+        onMessageReceived(fragmentCommand, fragmentAction, 0, fragmentBuffer);
+      }
+      break;
+      
+    case ACTION_FRAGMENT_DATA: {
+      if (fragmentsLeft == 0 || dataLength <= 3 || data[0] != fragmentId) {
+        break;
+      }
+      
+      // checked before it's multiplied, so a bogus index can't wrap around into the buffer
+      unsigned int index = ((unsigned int) data[1] << 8) | data[2];
+      if (index >= fragmentCount) {
+        break;
+      }
+      
+      unsigned int start = index * fragmentSize;
+      unsigned int size = dataLength - 3;
+      if (start + size > fragmentLength || (fragmentReceived[index / 8] & (1 << (index % 8)))) {
+        break;
+      }
+      
+      memcpy(fragmentBuffer + start, data + 3, size);
+      fragmentReceived[index / 8] |= 1 << (index % 8);
+      if (--fragmentsLeft == 0) {
+        onMessageReceived(fragmentCommand, fragmentAction, fragmentLength, fragmentBuffer);
+      }
+      break;
+    }
+  }
+  
+  return true;
+}
+
+/**
+ * Calculate the length of the message at the start of "msg", header included
+ *
+ * @param msg The raw payload 
+ */
+int messageLength(byte* msg) {
+  int length = HEADER_SIZE + msg[2];
+  if (msg[0] & FLAG_SEQUENCED) {
+    length++;
+  }
+  
+  return length;
 }
 
 /**
  * Send acknowledge to connected Android device
+ *
+ * @param ack false to nack the command instead
  */ 
-void sendAck() {
+void sendAck(boolean ack) {
   if (L.accessoryConnected()) {
     byte msg[1];
-    msg[0] = 1;
+    msg[0] = ack ? 1 : 0;
     L.accessorySend(msg, 1);
   }  
 }
 
+/**
+ * Send acknowledge for a sequenced command, echoing its sequence number back to the Android device
+ *
+ * @param sequence The sequence number of the acknowledged command
+ * @param ack false to nack the command instead
+ */ 
+void sendSequencedAck(byte sequence, boolean ack) {
+  if (L.accessoryConnected()) {
+    byte msg[2];
+    msg[0] = FLAG_SEQUENCED | (ack ? 1 : 0);
+    msg[1] = sequence;
+    L.accessorySend(msg, 2);
+  }  
+}
+
+/**
+ * Send a telemetry sample of each channel to the connected Android device, all in a single transfer
+ *
+ * @param values The value of each channel, starting with channel 0
+ * @param count The number of channels, at most MAX_TELEMETRY_CHANNELS
+ */ 
+void sendTelemetry(int* values, byte count) {
+  if (L.accessoryConnected()) {
+    byte msg[TELEMETRY_SIZE * MAX_TELEMETRY_CHANNELS];
+    if (count > MAX_TELEMETRY_CHANNELS) {
+      count = MAX_TELEMETRY_CHANNELS;
+    }
+    
+    for (byte i = 0; i < count; i++) {
+      byte* sample = msg + i * TELEMETRY_SIZE;
+      sample[0] = MSG_TELEMETRY;
+      sample[1] = i;
+      sample[2] = values[i] >> 8;
+      sample[3] = values[i];
+    }
+    
+    L.accessorySend(msg, count * TELEMETRY_SIZE);
+  }  
+}
+
 /**
  * Print the command, action and data length to serial port 
  *